@@ -24,8 +24,8 @@ import co.elastic.apm.agent.impl.ElasticApmTracerBuilder;
 import co.elastic.apm.agent.impl.error.ErrorCapture;
 import co.elastic.apm.agent.impl.transaction.Span;
 import co.elastic.apm.agent.impl.transaction.Transaction;
+import co.elastic.apm.agent.report.MemoryBudget;
 import co.elastic.apm.agent.report.ReporterConfiguration;
-import co.elastic.apm.agent.util.MathUtils;
 import org.ehcache.sizeof.SizeOf;
 
 public class SizeOfSpan {
@@ -41,7 +41,7 @@ public class SizeOfSpan {
         System.out.println("sizeof transaction: " + sizeOfTransaction);
         System.out.println("sizeof error: " + sizeOfError);
 
-        final int queueSize = MathUtils.getNextPowerOf2(new ReporterConfiguration().getMaxQueueSize());
+        final int queueSize = MemoryBudget.getQueueSize(new ReporterConfiguration());
         final long sizeOfObjectPools = queueSize * 2 * sizeOfSpan +
             queueSize * 2 * sizeOfTransaction +
             queueSize * sizeOfError;
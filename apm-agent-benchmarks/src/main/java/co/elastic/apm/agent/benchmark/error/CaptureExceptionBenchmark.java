@@ -0,0 +1,163 @@
+/*-
+ * #%L
+ * Elastic APM Java agent
+ * %%
+ * Copyright (C) 2018 - 2019 Elastic and contributors
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package co.elastic.apm.agent.benchmark.error;
+
+import co.elastic.apm.agent.benchmark.AbstractBenchmark;
+import co.elastic.apm.agent.impl.ElasticApmTracer;
+import co.elastic.apm.agent.impl.ElasticApmTracerBuilder;
+import co.elastic.apm.agent.impl.error.ErrorCapture;
+import co.elastic.apm.agent.impl.sampling.ConstantSampler;
+import co.elastic.apm.agent.impl.transaction.Span;
+import co.elastic.apm.agent.impl.transaction.TraceContext;
+import co.elastic.apm.agent.impl.transaction.Transaction;
+import co.elastic.apm.agent.metrics.MetricRegistry;
+import co.elastic.apm.agent.report.Reporter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.runner.RunnerException;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the latency {@link ElasticApmTracer#captureException} adds to the application thread.
+ * <p>
+ * The reporter recycles the errors right away without serializing them,
+ * so that only the work done before the error is handed off to the reporter thread is measured.
+ * The exceptions are created upfront, as the cost of creating them is paid by the application anyways.
+ * </p>
+ */
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class CaptureExceptionBenchmark extends AbstractBenchmark {
+
+    private ElasticApmTracer tracer;
+    private Transaction transaction;
+    private Exception exception;
+    private Exception nestedException;
+
+    public static void main(String[] args) throws RunnerException {
+        run(CaptureExceptionBenchmark.class);
+    }
+
+    @Setup
+    public void setUp() {
+        tracer = new ElasticApmTracerBuilder()
+            .reporter(new RecyclingReporter())
+            .build();
+        transaction = tracer.startTransaction(TraceContext.asRoot(), null, ConstantSampler.of(true), -1);
+        transaction.getContext().getRequest().withMethod("GET").addHeader("Accept", "text/html");
+        exception = new IllegalStateException("test");
+        nestedException = new NestedBenchmarkException(exception);
+    }
+
+    @TearDown
+    public void tearDown() {
+        transaction.end();
+        tracer.stop();
+    }
+
+    @Benchmark
+    @Threads(1)
+    public void captureException() {
+        tracer.captureException(System.currentTimeMillis() * 1000, exception, null);
+    }
+
+    @Benchmark
+    @Threads(1)
+    public void captureNestedException() {
+        tracer.captureException(System.currentTimeMillis() * 1000, nestedException, null);
+    }
+
+    @Benchmark
+    @Threads(1)
+    public void captureExceptionInTransaction() {
+        tracer.captureException(System.currentTimeMillis() * 1000, exception, transaction);
+    }
+
+    @Benchmark
+    @Threads(8)
+    public void captureExceptionInTransactionContended() {
+        tracer.captureException(System.currentTimeMillis() * 1000, exception, transaction);
+    }
+
+    /**
+     * Matches the default of {@code unnest_exceptions}
+     */
+    private static class NestedBenchmarkException extends RuntimeException {
+        NestedBenchmarkException(Throwable cause) {
+            super(cause);
+        }
+    }
+
+    private static class RecyclingReporter implements Reporter {
+
+        @Override
+        public void report(ErrorCapture error) {
+            error.recycle();
+        }
+
+        @Override
+        public void report(Transaction transaction) {
+            transaction.recycle();
+        }
+
+        @Override
+        public void report(Span span) {
+            span.recycle();
+        }
+
+        @Override
+        public void report(Span[] spans, int count) {
+            for (int i = 0; i < count; i++) {
+                spans[i].recycle();
+            }
+        }
+
+        @Override
+        public long getDropped() {
+            return 0;
+        }
+
+        @Override
+        public long getReported() {
+            return 0;
+        }
+
+        @Override
+        public Future<Void> flush() {
+            return CompletableFuture.completedFuture(null);
+        }
+
+        @Override
+        public void close() {
+        }
+
+        @Override
+        public void scheduleMetricReporting(MetricRegistry metricRegistry, long intervalMs) {
+        }
+    }
+}
@@ -0,0 +1,73 @@
+/*-
+ * #%L
+ * Elastic APM Java agent
+ * %%
+ * Copyright (C) 2018 - 2019 Elastic and contributors
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package co.elastic.apm.agent.benchmark.metrics;
+
+import co.elastic.apm.agent.benchmark.AbstractBenchmark;
+import co.elastic.apm.agent.impl.ElasticApmTracerBuilder;
+import co.elastic.apm.agent.metrics.Histogram;
+import co.elastic.apm.agent.metrics.MetricRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.runner.RunnerException;
+
+import java.util.Collections;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class HistogramBenchmark extends AbstractBenchmark {
+
+    private Histogram stripedHistogram;
+    private Histogram singleStripeHistogram;
+
+    public static void main(String[] args) throws RunnerException {
+        run(HistogramBenchmark.class);
+    }
+
+    @Setup
+    public void setUp() {
+        final MetricRegistry metricRegistry = new ElasticApmTracerBuilder().build().getMetricRegistry();
+        stripedHistogram = metricRegistry.histogram("striped", "us", Collections.emptyMap());
+        singleStripeHistogram = metricRegistry.histogram("single_stripe", "us", Collections.emptyMap(), 1);
+    }
+
+    @Benchmark
+    @Threads(16)
+    public void testRecordStriped() {
+        stripedHistogram.record(ThreadLocalRandom.current().nextInt(1_000_000));
+    }
+
+    @Benchmark
+    @Threads(16)
+    public void testRecordSingleStripe() {
+        singleStripeHistogram.record(ThreadLocalRandom.current().nextInt(1_000_000));
+    }
+
+    @Benchmark
+    @Threads(1)
+    public void testRecordUncontended() {
+        stripedHistogram.record(ThreadLocalRandom.current().nextInt(1_000_000));
+    }
+}
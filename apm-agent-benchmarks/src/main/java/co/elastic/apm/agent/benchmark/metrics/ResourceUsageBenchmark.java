@@ -0,0 +1,108 @@
+/*-
+ * #%L
+ * Elastic APM Java agent
+ * %%
+ * Copyright (C) 2018 - 2019 Elastic and contributors
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package co.elastic.apm.agent.benchmark.metrics;
+
+import co.elastic.apm.agent.benchmark.AbstractBenchmark;
+import co.elastic.apm.agent.impl.ElasticApmTracer;
+import co.elastic.apm.agent.impl.ElasticApmTracerBuilder;
+import co.elastic.apm.agent.impl.transaction.Transaction;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.runner.RunnerException;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the overhead {@code transaction_resource_usage} and {@code transaction_thread_contention}
+ * add to the activation of a sampled transaction and to the execution of a continuation.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ResourceUsageBenchmark extends AbstractBenchmark {
+
+    private static final Runnable NOOP = new Runnable() {
+        @Override
+        public void run() {
+        }
+    };
+
+    private ElasticApmTracer trackingTracer;
+    private ElasticApmTracer contentionTracer;
+    private ElasticApmTracer tracer;
+    private Transaction trackedTransaction;
+    private Transaction contentionTrackedTransaction;
+    private Transaction transaction;
+
+    public static void main(String[] args) throws RunnerException {
+        run(ResourceUsageBenchmark.class);
+    }
+
+    @Setup
+    public void setUp() {
+        trackingTracer = new ElasticApmTracerBuilder().withConfig("transaction_resource_usage", "true").build();
+        contentionTracer = new ElasticApmTracerBuilder().withConfig("transaction_thread_contention", "true").build();
+        tracer = new ElasticApmTracerBuilder().withConfig("transaction_resource_usage", "false").build();
+        trackedTransaction = trackingTracer.startTransaction();
+        contentionTrackedTransaction = contentionTracer.startTransaction();
+        transaction = tracer.startTransaction();
+    }
+
+    @TearDown
+    public void tearDown() {
+        trackingTracer.stop();
+        contentionTracer.stop();
+        tracer.stop();
+    }
+
+    @Benchmark
+    public Transaction testActivationWithResourceUsage() {
+        return trackedTransaction.activate().deactivate();
+    }
+
+    @Benchmark
+    public Transaction testActivationWithThreadContention() {
+        return contentionTrackedTransaction.activate().deactivate();
+    }
+
+    @Benchmark
+    public Transaction testActivationWithoutResourceUsage() {
+        return transaction.activate().deactivate();
+    }
+
+    @Benchmark
+    public void testContinuationWithResourceUsage() {
+        trackedTransaction.activate();
+        final Runnable runnable = trackedTransaction.withActiveContext(NOOP);
+        trackedTransaction.deactivate();
+        runnable.run();
+    }
+
+    @Benchmark
+    public void testContinuationWithoutResourceUsage() {
+        transaction.activate();
+        final Runnable runnable = transaction.withActiveContext(NOOP);
+        transaction.deactivate();
+        runnable.run();
+    }
+}
@@ -23,28 +23,47 @@ import co.elastic.apm.agent.benchmark.AbstractBenchmark;
 import co.elastic.apm.agent.impl.ElasticApmTracer;
 import co.elastic.apm.agent.impl.ElasticApmTracerBuilder;
 import co.elastic.apm.agent.impl.transaction.Transaction;
+import co.elastic.apm.agent.objectpool.ObjectPool;
 import co.elastic.apm.agent.objectpool.impl.MixedObjectPool;
 import co.elastic.apm.agent.objectpool.impl.QueueBasedObjectPool;
+import co.elastic.apm.agent.objectpool.impl.ThreadAffineObjectPool;
 import co.elastic.apm.agent.objectpool.impl.ThreadLocalObjectPool;
 import org.agrona.concurrent.ManyToManyConcurrentArrayQueue;
 import org.jctools.queues.MpmcArrayQueue;
+import org.jctools.queues.MpscArrayQueue;
 import org.jctools.queues.atomic.MpmcAtomicArrayQueue;
 import org.openjdk.jmh.annotations.Benchmark;
 import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Group;
 import org.openjdk.jmh.annotations.Mode;
 import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
 import org.openjdk.jmh.annotations.Setup;
 import org.openjdk.jmh.annotations.TearDown;
 import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
 import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.openjdk.jmh.runner.options.TimeValue;
 
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.TimeUnit;
 
+/**
+ * Compares the object pool implementations with a varying number of producer threads.
+ * <p>
+ * The {@code handOff} group resembles how the tracer uses its pools:
+ * the producer threads take objects from the pool and hand them off to a single thread,
+ * like the reporter thread, which recycles them.
+ * </p>
+ */
 @BenchmarkMode(Mode.SampleTime)
 @OutputTimeUnit(TimeUnit.NANOSECONDS)
 public class ObjectPoolBenchmark extends AbstractBenchmark {
 
+    private static final int[] PRODUCER_THREADS = {1, 2, 4, 8, 16, 32, 64};
+
     private ElasticApmTracer tracer;
     private QueueBasedObjectPool<Transaction> blockingQueueObjectPool;
     private QueueBasedObjectPool<Transaction> agronaQueueObjectPool;
@@ -52,9 +71,33 @@ public class ObjectPoolBenchmark extends AbstractBenchmark {
     private ThreadLocalObjectPool<Transaction> threadLocalObjectPool;
     private QueueBasedObjectPool<Transaction> jctoolsQueueObjectPool;
     private QueueBasedObjectPool<Transaction> jctoolsAtomicQueueObjectPool;
+    private ThreadAffineObjectPool<Transaction> threadAffineObjectPool;
+    private ObjectPool<Transaction> handOffObjectPool;
+    private MpscArrayQueue<Transaction> handOffQueue;
+
+    @Param({"jctoolsAtomicQueue", "threadAffine"})
+    public String handOffPoolType;
 
     public static void main(String[] args) throws RunnerException {
-        run(ObjectPoolBenchmark.class);
+        for (int producerThreads : PRODUCER_THREADS) {
+            new Runner(new OptionsBuilder()
+                .include(ObjectPoolBenchmark.class.getSimpleName() + ".test")
+                .param("handOffPoolType", "jctoolsAtomicQueue")
+                .threads(producerThreads)
+                .measurementTime(TimeValue.seconds(1))
+                .warmupTime(TimeValue.seconds(1))
+                .addProfiler(GCProfiler.class)
+                .build())
+                .run();
+            new Runner(new OptionsBuilder()
+                .include(ObjectPoolBenchmark.class.getSimpleName() + ".handOff")
+                .threadGroups(producerThreads, 1)
+                .measurementTime(TimeValue.seconds(1))
+                .warmupTime(TimeValue.seconds(1))
+                .addProfiler(GCProfiler.class)
+                .build())
+                .run();
+        }
     }
 
     @Setup
@@ -68,12 +111,21 @@ public class ObjectPoolBenchmark extends AbstractBenchmark {
             new ThreadLocalObjectPool<>(256, true, () -> new Transaction(tracer)),
             QueueBasedObjectPool.ofRecyclable(new ManyToManyConcurrentArrayQueue<>(256), true, () -> new Transaction(tracer)));
         threadLocalObjectPool = new ThreadLocalObjectPool<>(64, true, () -> new Transaction(tracer));
+        threadAffineObjectPool = new ThreadAffineObjectPool<>(64, 256, () -> new Transaction(tracer));
+        if ("threadAffine".equals(handOffPoolType)) {
+            handOffObjectPool = new ThreadAffineObjectPool<>(64, 256, () -> new Transaction(tracer));
+        } else {
+            handOffObjectPool = QueueBasedObjectPool.ofRecyclable(new MpmcAtomicArrayQueue<>(256), true, () -> new Transaction(tracer));
+        }
+        handOffQueue = new MpscArrayQueue<>(1024);
     }
 
     @TearDown
     public void tearDown() {
         System.out.println("Objects created by agronaQueueObjectPool: " + agronaQueueObjectPool.getGarbageCreated());
         System.out.println("Objects created by MixedObjectPool: " + mixedObjectPool.getGarbageCreated());
+        System.out.println("Objects created by ThreadAffineObjectPool: " + threadAffineObjectPool.getGarbageCreated());
+        System.out.println("Objects created by " + handOffPoolType + " hand off pool: " + handOffObjectPool.getGarbageCreated());
     }
 
     //    @Benchmark
@@ -130,4 +182,32 @@ public class ObjectPoolBenchmark extends AbstractBenchmark {
         return transaction;
     }
 
+    @Benchmark
+    @Threads(8)
+    public Transaction testThreadAffineObjectPool() {
+        Transaction transaction = threadAffineObjectPool.createInstance();
+        threadAffineObjectPool.recycle(transaction);
+        return transaction;
+    }
+
+    @Benchmark
+    @Group("handOff")
+    public Transaction produce() {
+        Transaction transaction = handOffObjectPool.createInstance();
+        if (!handOffQueue.offer(transaction)) {
+            // the recycler can't keep up, just like the reporter which drops events when its queue is full
+            handOffObjectPool.recycle(transaction);
+        }
+        return transaction;
+    }
+
+    @Benchmark
+    @Group("handOff")
+    public Transaction recycle() {
+        Transaction transaction = handOffQueue.poll();
+        if (transaction != null) {
+            handOffObjectPool.recycle(transaction);
+        }
+        return transaction;
+    }
 }
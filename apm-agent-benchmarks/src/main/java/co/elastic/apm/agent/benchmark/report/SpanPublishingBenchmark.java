@@ -0,0 +1,136 @@
+/*-
+ * #%L
+ * Elastic APM Java agent
+ * %%
+ * Copyright (C) 2018 - 2019 Elastic and contributors
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package co.elastic.apm.agent.benchmark.report;
+
+import co.elastic.apm.agent.benchmark.AbstractBenchmark;
+import co.elastic.apm.agent.impl.ElasticApmTracer;
+import co.elastic.apm.agent.impl.ElasticApmTracerBuilder;
+import co.elastic.apm.agent.impl.transaction.Span;
+import co.elastic.apm.agent.report.ApmServerReporter;
+import co.elastic.apm.agent.report.ReporterConfiguration;
+import co.elastic.apm.agent.report.ReportingEvent;
+import co.elastic.apm.agent.report.ReportingEventHandler;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.runner.RunnerException;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares adding spans to the ring buffer one by one with adding them as a batch,
+ * when multiple threads report spans concurrently.
+ * <p>
+ * Each span reported individually claims its slot with a CAS on the shared cursor of the ring buffer.
+ * A batch claims the slots for all of its spans at once.
+ * The event handler discards the events,
+ * so that the throughput is limited by the contention of the producers rather than by the reporter thread.
+ * </p>
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class SpanPublishingBenchmark extends AbstractBenchmark {
+
+    private static final int BATCH_SIZE = 16;
+
+    private ElasticApmTracer tracer;
+    private ApmServerReporter reporter;
+
+    public static void main(String[] args) throws RunnerException {
+        run(SpanPublishingBenchmark.class);
+    }
+
+    @Setup
+    public void setUp() {
+        tracer = new ElasticApmTracerBuilder()
+            .withConfig("max_queue_size", "8192")
+            .build();
+        reporter = new ApmServerReporter(false, tracer.getConfig(ReporterConfiguration.class), new DiscardingEventHandler());
+    }
+
+    @TearDown
+    public void tearDown() {
+        reporter.close();
+        tracer.stop();
+    }
+
+    @Benchmark
+    @Threads(8)
+    @OperationsPerInvocation(BATCH_SIZE)
+    public void reportIndividually(Producer producer) {
+        for (Span span : producer.spans) {
+            reporter.report(span);
+        }
+    }
+
+    @Benchmark
+    @Threads(8)
+    @OperationsPerInvocation(BATCH_SIZE)
+    public void reportBatch(Producer producer) {
+        reporter.report(producer.spans, producer.spans.length);
+    }
+
+    @State(Scope.Thread)
+    public static class Producer {
+
+        private Span[] spans;
+
+        @Setup
+        public void setUp(SpanPublishingBenchmark benchmark) {
+            spans = new Span[BATCH_SIZE];
+            for (int i = 0; i < spans.length; i++) {
+                spans[i] = new Span(benchmark.tracer);
+            }
+        }
+    }
+
+    private static class DiscardingEventHandler implements ReportingEventHandler {
+
+        @Override
+        public void onEvent(ReportingEvent event, long sequence, boolean endOfBatch) {
+            event.resetState();
+        }
+
+        @Override
+        public void init(ApmServerReporter reporter) {
+        }
+
+        @Override
+        public long getReported() {
+            return 0;
+        }
+
+        @Override
+        public long getDropped() {
+            return 0;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
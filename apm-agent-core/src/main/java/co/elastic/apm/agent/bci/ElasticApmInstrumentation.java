@@ -21,6 +21,9 @@ package co.elastic.apm.agent.bci;
 
 import co.elastic.apm.agent.impl.ElasticApmTracer;
 import co.elastic.apm.agent.impl.transaction.TraceContextHolder;
+import co.elastic.apm.agent.metrics.Counter;
+import co.elastic.apm.agent.metrics.Temporality;
+import co.elastic.apm.agent.metrics.Timer;
 import net.bytebuddy.description.NamedElement;
 import net.bytebuddy.description.method.MethodDescription;
 import net.bytebuddy.description.type.TypeDescription;
@@ -29,6 +32,7 @@ import net.bytebuddy.matcher.ElementMatchers;
 
 import javax.annotation.Nullable;
 import java.util.Collection;
+import java.util.Map;
 
 import static net.bytebuddy.matcher.ElementMatchers.any;
 
@@ -68,6 +72,44 @@ public abstract class ElasticApmInstrumentation {
         return null;
     }
 
+    /**
+     * Registers a {@link Counter} which can be incremented from advice code.
+     * <p>
+     * Call this method in {@link #init(ElasticApmTracer)} and store the counter in a static field annotated with
+     * {@link VisibleForAdvice}, so that advice methods can increment it without looking it up:
+     * </p>
+     * <pre>
+     * &#64;VisibleForAdvice
+     * public static Counter errors = Counter.NOOP;
+     *
+     * &#64;Override
+     * public void init(ElasticApmTracer tracer) {
+     *     errors = counter("jdbc.errors", Collections.&lt;String, String&gt;emptyMap(), Temporality.DELTA);
+     * }
+     * </pre>
+     *
+     * @see co.elastic.apm.agent.metrics.MetricRegistry#counter(String, Map, Temporality)
+     */
+    public static Counter counter(String name, Map<String, String> tags, Temporality temporality) {
+        if (tracer != null) {
+            return tracer.getMetricRegistry().counter(name, tags, temporality);
+        }
+        return Counter.NOOP;
+    }
+
+    /**
+     * Registers a {@link Timer} which can be updated from advice code.
+     *
+     * @see #counter(String, Map, Temporality)
+     * @see co.elastic.apm.agent.metrics.MetricRegistry#timer(String, String, Map, Temporality)
+     */
+    public static Timer timer(String name, String unit, Map<String, String> tags, Temporality temporality) {
+        if (tracer != null) {
+            return tracer.getMetricRegistry().timer(name, unit, tags, temporality);
+        }
+        return Timer.NOOP;
+    }
+
     public void init(ElasticApmTracer tracer) {
     }
 
@@ -22,6 +22,8 @@ package co.elastic.apm.agent.configuration;
 import co.elastic.apm.agent.bci.ElasticApmInstrumentation;
 import co.elastic.apm.agent.bci.methodmatching.MethodMatcher;
 import co.elastic.apm.agent.bci.methodmatching.configuration.MethodMatcherValueConverter;
+import co.elastic.apm.agent.configuration.converter.TimeDuration;
+import co.elastic.apm.agent.configuration.converter.TimeDurationValueConverter;
 import co.elastic.apm.agent.configuration.validation.RegexValidator;
 import co.elastic.apm.agent.matcher.WildcardMatcher;
 import co.elastic.apm.agent.matcher.WildcardMatcherValueConverter;
@@ -109,6 +111,94 @@ public class CoreConfiguration extends ConfigurationOptionProvider {
         .addValidator(isInRange(0d, 1d))
         .buildWithDefault(1.0);
 
+    private final ConfigurationOption<Boolean> aggregateUnsampledTransactions = ConfigurationOption.booleanOption()
+        .key("aggregate_unsampled_transactions")
+        .configurationCategory(CORE_CATEGORY)
+        .description("By default, unsampled transactions are reported to the APM Server one by one,\n" +
+            "even though they only contain the name, type, result and duration.\n" +
+            "\n" +
+            "When enabled, unsampled transactions are not reported individually.\n" +
+            "Instead, the agent aggregates their durations per transaction name, type and result\n" +
+            "and reports them as metrics every <<config-metrics-interval, `metrics_interval`>>.\n" +
+            "The durations of non-sampled spans, like JDBC queries or HTTP client calls of unsampled transactions,\n" +
+            "are aggregated per span type, subtype and action.\n" +
+            "This drastically reduces the amount of data sent to the APM Server at low sample rates.\n" +
+            "\n" +
+            "NOTE: The number of distinct transaction groups is limited.\n" +
+            "Transactions which don't fit into the limit are aggregated into a group with the transaction name `_other`.")
+        .dynamic(true)
+        .buildWithDefault(false);
+
+    private final ConfigurationOption<Boolean> transactionResourceUsage = ConfigurationOption.booleanOption()
+        .key("transaction_resource_usage")
+        .configurationCategory(CORE_CATEGORY)
+        .description("When enabled, the agent records how much CPU time the threads working on a sampled transaction have used\n" +
+            "and how much heap memory they have allocated.\n" +
+            "This includes the work of asynchronous continuations which are executed by an instrumented `ExecutorService`.\n" +
+            "\n" +
+            "The values are reported as the `marks.jvm.cpu_time` and `marks.jvm.allocated_bytes` marks of the transaction\n" +
+            "and are aggregated per transaction type into the `transaction.cpu_time` and `transaction.allocated_bytes` metrics.\n" +
+            "\n" +
+            "NOTE: Reading the CPU time and the allocated bytes of a thread adds overhead to each activation of a transaction.\n" +
+            "As only sampled transactions are tracked, the overhead can be limited by lowering the\n" +
+            "<<config-transaction-sample-rate, `transaction_sample_rate`>>.\n" +
+            "The allocated bytes are only available on HotSpot based JVMs.")
+        .dynamic(true)
+        .buildWithDefault(false);
+
+    private final ConfigurationOption<Boolean> transactionThreadContention = ConfigurationOption.booleanOption()
+        .key("transaction_thread_contention")
+        .configurationCategory(CORE_CATEGORY)
+        .description("When enabled, the agent enables the JVM's thread contention monitoring and records how often and how long\n" +
+            "the threads working on a sampled transaction have been blocked on monitors, like `synchronized` blocks,\n" +
+            "or have been waiting, for example for a `java.util.concurrent.locks.Lock`.\n" +
+            "Time spent in I/O, like reading from a socket, is not included.\n" +
+            "\n" +
+            "The values are reported as the `marks.jvm.blocked_count`, `marks.jvm.blocked_time`,\n" +
+            "`marks.jvm.waited_count` and `marks.jvm.waited_time` marks of the transaction\n" +
+            "and are aggregated per transaction name into the `transaction.blocked_time` and `transaction.waited_time` metrics.\n" +
+            "\n" +
+            "NOTE: Thread contention monitoring adds overhead to each contended lock acquisition and reading the values\n" +
+            "adds overhead to each activation of a transaction.\n" +
+            "As only sampled transactions are tracked, the overhead can be limited by lowering the\n" +
+            "<<config-transaction-sample-rate, `transaction_sample_rate`>>.")
+        .dynamic(true)
+        .buildWithDefault(false);
+
+    private final ConfigurationOption<Boolean> captureBuffersOffHeap = ConfigurationOption.booleanOption()
+        .key("capture_buffers_off_heap")
+        .configurationCategory(CORE_CATEGORY)
+        .description("When enabled, the buffers which record request bodies and database statements are allocated off-heap.\n" +
+            "\n" +
+            "The buffers are pooled and shared by all transactions and spans,\n" +
+            "so their memory usage depends on how many of them are in use concurrently.\n" +
+            "Allocating them off-heap keeps them out of the heap but adds to the direct memory usage of the JVM,\n" +
+            "which is limited by `-XX:MaxDirectMemorySize`.\n" +
+            "\n" +
+            "The buffers are shared by the whole JVM rather than being allocated per tracer.\n" +
+            "This option is therefore only read once, when the first tracer is created.")
+        .buildWithDefault(false);
+
+    private final ConfigurationOption<Boolean> threadAffineObjectPools = ConfigurationOption.booleanOption()
+        .key("thread_affine_object_pools")
+        .configurationCategory(CORE_CATEGORY)
+        .tags("experimental")
+        .description("When enabled, transactions, spans, errors and the wrappers for asynchronous tasks are pooled per thread.\n" +
+            "Objects which are recycled by another thread, like the reporter thread, are returned to the thread they originate from.\n" +
+            "This reduces the contention on the object pools when many threads create transactions and spans concurrently.")
+        .buildWithDefault(false);
+
+    private final ConfigurationOption<Boolean> adaptiveObjectPools = ConfigurationOption.booleanOption()
+        .key("adaptive_object_pools")
+        .configurationCategory(CORE_CATEGORY)
+        .tags("experimental")
+        .description("When enabled, the object pools for transactions, spans, errors and the wrappers for asynchronous tasks are resized according to their usage.\n" +
+            "Pools which had to allocate new objects because they were empty are grown, up to their initial size.\n" +
+            "Pools which have not been exhausted for a minute are shrunk, so that the objects retained after a burst of load can be garbage collected.\n" +
+            "\n" +
+            "The current limit of each pool is reported as the `agent.object_pool.limit` metric.")
+        .buildWithDefault(false);
+
     private final ConfigurationOption<Integer> transactionMaxSpans = ConfigurationOption.integerOption()
         .key("transaction_max_spans")
         .configurationCategory(CORE_CATEGORY)
@@ -186,6 +276,28 @@ public class CoreConfiguration extends ConfigurationOptionProvider {
         .dynamic(true)
         .buildWithDefault(Collections.singletonList(WildcardMatcher.valueOf("(?-i)*Nested*Exception")));
 
+    private final ConfigurationOption<Integer> maxErrorsPerFingerprint = ConfigurationOption.integerOption()
+        .key("max_errors_per_fingerprint")
+        .configurationCategory(CORE_CATEGORY)
+        .description("Limits how many errors with the same fingerprint are reported within `error_fingerprint_window`.\n" +
+            "The fingerprint of an error consists of the exception class and the top frames of its stack trace.\n" +
+            "This protects the agent and the APM Server from being flooded when the same exception is thrown in a tight loop.\n" +
+            "\n" +
+            "The number of errors which have not been reported is added as the `dropped_occurrences` tag " +
+            "to the next reported error with the same fingerprint.\n" +
+            "\n" +
+            "Set to 0 to report all errors.")
+        .dynamic(true)
+        .addValidator(isInRange(0, Integer.MAX_VALUE))
+        .buildWithDefault(0);
+
+    private final ConfigurationOption<TimeDuration> errorFingerprintWindow = TimeDurationValueConverter.durationOption("s")
+        .key("error_fingerprint_window")
+        .configurationCategory(CORE_CATEGORY)
+        .description("The time window for `max_errors_per_fingerprint`.")
+        .dynamic(true)
+        .buildWithDefault(TimeDuration.of("1m"));
+
     public static String getAllInstrumentationGroupNames() {
         Set<String> instrumentationGroupNames = new TreeSet<>();
         instrumentationGroupNames.add("incubating");
@@ -314,6 +426,30 @@ public class CoreConfiguration extends ConfigurationOptionProvider {
         return sampleRate;
     }
 
+    public boolean isAggregateUnsampledTransactions() {
+        return aggregateUnsampledTransactions.get();
+    }
+
+    public boolean isTransactionResourceUsage() {
+        return transactionResourceUsage.get();
+    }
+
+    public boolean isTransactionThreadContention() {
+        return transactionThreadContention.get();
+    }
+
+    public boolean isCaptureBuffersOffHeap() {
+        return captureBuffersOffHeap.get();
+    }
+
+    public boolean isThreadAffineObjectPools() {
+        return threadAffineObjectPools.get();
+    }
+
+    public boolean isAdaptiveObjectPools() {
+        return adaptiveObjectPools.get();
+    }
+
     public int getTransactionMaxSpans() {
         return transactionMaxSpans.get();
     }
@@ -330,6 +466,14 @@ public class CoreConfiguration extends ConfigurationOptionProvider {
         return unnestExceptions.get();
     }
 
+    public int getMaxErrorsPerFingerprint() {
+        return maxErrorsPerFingerprint.get();
+    }
+
+    public long getErrorFingerprintWindowMs() {
+        return errorFingerprintWindow.get().getMillis();
+    }
+
     public boolean isTypePoolCacheEnabled() {
         return typePoolCache.get();
     }
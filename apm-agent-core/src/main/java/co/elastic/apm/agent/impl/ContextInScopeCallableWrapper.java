@@ -22,7 +22,8 @@ package co.elastic.apm.agent.impl;
 
 import co.elastic.apm.agent.bci.VisibleForAdvice;
 import co.elastic.apm.agent.impl.transaction.TraceContext;
-import co.elastic.apm.agent.objectpool.Recyclable;
+import co.elastic.apm.agent.impl.transaction.Transaction;
+import co.elastic.apm.agent.objectpool.ThreadAffineRecyclable;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -30,20 +31,44 @@ import javax.annotation.Nullable;
 import java.util.concurrent.Callable;
 
 @VisibleForAdvice
-public class ContextInScopeCallableWrapper<V> implements Callable<V>, Recyclable {
+public class ContextInScopeCallableWrapper<V> implements Callable<V>, ThreadAffineRecyclable {
     private static final Logger logger = LoggerFactory.getLogger(ContextInScopeCallableWrapper.class);
     private final ElasticApmTracer tracer;
     private final TraceContext context;
+    /**
+     * The transaction to add the resources used by this continuation to,
+     * if {@code transaction_resource_usage} or {@code transaction_thread_contention} is enabled
+     */
+    @Nullable
+    private Transaction transaction;
     @Nullable
     private volatile Callable<V> delegate;
 
+    /**
+     * Managed by {@link co.elastic.apm.agent.objectpool.impl.ThreadAffineObjectPool}, not reset by {@link #resetState()}
+     */
+    @Nullable
+    private Object poolOwner;
+
     ContextInScopeCallableWrapper(ElasticApmTracer tracer) {
         this.tracer = tracer;
         context = TraceContext.with64BitId(tracer);
     }
 
-    ContextInScopeCallableWrapper<V> wrap(Callable<V> delegate, TraceContext context) {
+    @Nullable
+    @Override
+    public Object getPoolOwner() {
+        return poolOwner;
+    }
+
+    @Override
+    public void setPoolOwner(@Nullable Object poolOwner) {
+        this.poolOwner = poolOwner;
+    }
+
+    ContextInScopeCallableWrapper<V> wrap(Callable<V> delegate, TraceContext context, @Nullable Transaction transaction) {
         this.context.copyFrom(context);
+        this.transaction = transaction;
         // ordering is important: volatile write has to be after copying the TraceContext to ensure visibility in #run
         this.delegate = delegate;
         return this;
@@ -54,7 +79,12 @@ public class ContextInScopeCallableWrapper<V> implements Callable<V>, Recyclable
     // In this case, this class acts as the boundary of user and agent code so we have to do the tedious exception handling here
     @Override
     public V call() throws Exception {
+        // only track continuations which are not executed within an activation of the transaction, like in a direct executor
+        final Transaction localTransaction = transaction != null && tracer.getActive() == null ? transaction : null;
         try {
+            if (localTransaction != null) {
+                tracer.getResourceUsageTracker().onContinuationStart(localTransaction);
+            }
             context.activate();
         } catch (Throwable t) {
             try {
@@ -68,6 +98,9 @@ public class ContextInScopeCallableWrapper<V> implements Callable<V>, Recyclable
         } finally {
             try {
                 context.deactivate();
+                if (localTransaction != null) {
+                    tracer.getResourceUsageTracker().onContinuationEnd(localTransaction, context.getTransactionId());
+                }
                 tracer.recycle(this);
             } catch (Throwable t) {
                 try {
@@ -81,6 +114,7 @@ public class ContextInScopeCallableWrapper<V> implements Callable<V>, Recyclable
     @Override
     public void resetState() {
         context.resetState();
+        transaction = null;
         delegate = null;
     }
 }
@@ -22,27 +22,52 @@ package co.elastic.apm.agent.impl;
 
 import co.elastic.apm.agent.bci.VisibleForAdvice;
 import co.elastic.apm.agent.impl.transaction.TraceContext;
-import co.elastic.apm.agent.objectpool.Recyclable;
+import co.elastic.apm.agent.impl.transaction.Transaction;
+import co.elastic.apm.agent.objectpool.ThreadAffineRecyclable;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.annotation.Nullable;
 
 @VisibleForAdvice
-public class ContextInScopeRunnableWrapper implements Runnable, Recyclable {
+public class ContextInScopeRunnableWrapper implements Runnable, ThreadAffineRecyclable {
     private static final Logger logger = LoggerFactory.getLogger(ContextInScopeRunnableWrapper.class);
     private final ElasticApmTracer tracer;
     private final TraceContext context;
+    /**
+     * The transaction to add the resources used by this continuation to,
+     * if {@code transaction_resource_usage} or {@code transaction_thread_contention} is enabled
+     */
+    @Nullable
+    private Transaction transaction;
     @Nullable
     private volatile Runnable delegate;
 
+    /**
+     * Managed by {@link co.elastic.apm.agent.objectpool.impl.ThreadAffineObjectPool}, not reset by {@link #resetState()}
+     */
+    @Nullable
+    private Object poolOwner;
+
     ContextInScopeRunnableWrapper(ElasticApmTracer tracer) {
         this.tracer = tracer;
         context = TraceContext.with64BitId(tracer);
     }
 
-    ContextInScopeRunnableWrapper wrap(Runnable delegate, TraceContext context) {
+    @Nullable
+    @Override
+    public Object getPoolOwner() {
+        return poolOwner;
+    }
+
+    @Override
+    public void setPoolOwner(@Nullable Object poolOwner) {
+        this.poolOwner = poolOwner;
+    }
+
+    ContextInScopeRunnableWrapper wrap(Runnable delegate, TraceContext context, @Nullable Transaction transaction) {
         this.context.copyFrom(context);
+        this.transaction = transaction;
         // ordering is important: volatile write has to be after copying the TraceContext to ensure visibility in #run
         this.delegate = delegate;
         return this;
@@ -53,7 +78,12 @@ public class ContextInScopeRunnableWrapper implements Runnable, Recyclable {
     // In this case, this class acts as the boundary of user and agent code so we have to do the tedious exception handling here
     @Override
     public void run() {
+        // only track continuations which are not executed within an activation of the transaction, like in a direct executor
+        final Transaction localTransaction = transaction != null && tracer.getActive() == null ? transaction : null;
         try {
+            if (localTransaction != null) {
+                tracer.getResourceUsageTracker().onContinuationStart(localTransaction);
+            }
             context.activate();
         } catch (Throwable t) {
             try {
@@ -67,6 +97,9 @@ public class ContextInScopeRunnableWrapper implements Runnable, Recyclable {
         } finally {
             try {
                 context.deactivate();
+                if (localTransaction != null) {
+                    tracer.getResourceUsageTracker().onContinuationEnd(localTransaction, context.getTransactionId());
+                }
                 tracer.recycle(this);
             } catch (Throwable t) {
                 try {
@@ -80,6 +113,7 @@ public class ContextInScopeRunnableWrapper implements Runnable, Recyclable {
     @Override
     public void resetState() {
         context.resetState();
+        transaction = null;
         delegate = null;
     }
 }
@@ -21,9 +21,14 @@ package co.elastic.apm.agent.impl;
 
 import co.elastic.apm.agent.configuration.CoreConfiguration;
 import co.elastic.apm.agent.context.LifecycleListener;
+import co.elastic.apm.agent.impl.circuitbreaker.CircuitBreaker;
+import co.elastic.apm.agent.impl.circuitbreaker.CircuitBreakerConfiguration;
+import co.elastic.apm.agent.impl.context.TransactionContext;
 import co.elastic.apm.agent.impl.error.ErrorCapture;
+import co.elastic.apm.agent.impl.error.ErrorRateLimiter;
 import co.elastic.apm.agent.impl.sampling.ProbabilitySampler;
 import co.elastic.apm.agent.impl.sampling.Sampler;
+import co.elastic.apm.agent.impl.stacktrace.StacktraceBudget;
 import co.elastic.apm.agent.impl.stacktrace.StacktraceConfiguration;
 import co.elastic.apm.agent.impl.transaction.AbstractSpan;
 import co.elastic.apm.agent.impl.transaction.Span;
@@ -31,10 +36,19 @@ import co.elastic.apm.agent.impl.transaction.TraceContext;
 import co.elastic.apm.agent.impl.transaction.TraceContextHolder;
 import co.elastic.apm.agent.impl.transaction.Transaction;
 import co.elastic.apm.agent.metrics.MetricRegistry;
+import co.elastic.apm.agent.metrics.builtin.GcPauseTracker;
+import co.elastic.apm.agent.metrics.builtin.ResourceUsageTracker;
+import co.elastic.apm.agent.metrics.builtin.UnsampledTransactionAggregator;
 import co.elastic.apm.agent.objectpool.Allocator;
 import co.elastic.apm.agent.objectpool.ObjectPool;
+import co.elastic.apm.agent.objectpool.ThreadAffineRecyclable;
+import co.elastic.apm.agent.objectpool.impl.AbstractObjectPool;
+import co.elastic.apm.agent.objectpool.impl.AdaptivePoolSizer;
+import co.elastic.apm.agent.objectpool.impl.CharBufferAllocator;
 import co.elastic.apm.agent.objectpool.impl.QueueBasedObjectPool;
+import co.elastic.apm.agent.objectpool.impl.ThreadAffineObjectPool;
 import co.elastic.apm.agent.report.Reporter;
+import co.elastic.apm.agent.report.MemoryBudget;
 import co.elastic.apm.agent.report.ReporterConfiguration;
 import org.jctools.queues.atomic.AtomicQueueFactory;
 import org.slf4j.Logger;
@@ -49,6 +63,7 @@ import java.util.Deque;
 import java.util.Iterator;
 import java.util.List;
 import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static org.jctools.queues.spec.ConcurrentQueueSpec.createBoundedMpmc;
 
@@ -67,11 +82,14 @@ public class ElasticApmTracer {
      * The requirement increases if the application tends to wrap multiple {@link Runnable}s.
      */
     private static final int MAX_POOLED_RUNNABLES = 256;
+    private static final int MAX_POOLED_ELEMENTS_PER_THREAD = 64;
 
     private final ConfigurationRegistry configurationRegistry;
     private final StacktraceConfiguration stacktraceConfiguration;
+    private final StacktraceBudget stacktraceBudget;
     private final Iterable<LifecycleListener> lifecycleListeners;
     private final ObjectPool<Transaction> transactionPool;
+    private final ObjectPool<TransactionContext> transactionContextPool;
     private final ObjectPool<Span> spanPool;
     private final ObjectPool<ErrorCapture> errorPool;
     private final ObjectPool<SpanInScopeRunnableWrapper> runnableSpanWrapperObjectPool;
@@ -87,28 +105,72 @@ public class ElasticApmTracer {
             return new ArrayDeque<TraceContextHolder<?>>();
         }
     };
+    /**
+     * The spans which have ended on the current thread while it had an active transaction,
+     * see {@link ReporterConfiguration#getSpanBatchSize()}
+     */
+    @Nullable
+    private final ThreadLocal<SpanBatch> spanBatch;
     private final CoreConfiguration coreConfiguration;
     private final List<ActivationListener> activationListeners;
     private final MetricRegistry metricRegistry;
+    private final UnsampledTransactionAggregator unsampledTransactionAggregator;
+    private final GcPauseTracker gcPauseTracker;
+    private final ResourceUsageTracker resourceUsageTracker;
+    private final CircuitBreaker circuitBreaker;
+    private final ErrorRateLimiter errorRateLimiter;
+    @Nullable
+    private final AdaptivePoolSizer adaptivePoolSizer;
     private Sampler sampler;
 
     ElasticApmTracer(ConfigurationRegistry configurationRegistry, Reporter reporter, Iterable<LifecycleListener> lifecycleListeners, List<ActivationListener> activationListeners) {
         this.metricRegistry = new MetricRegistry(configurationRegistry.getConfig(ReporterConfiguration.class));
+        this.unsampledTransactionAggregator = new UnsampledTransactionAggregator(metricRegistry);
+        this.gcPauseTracker = new GcPauseTracker(metricRegistry);
         this.configurationRegistry = configurationRegistry;
         this.reporter = reporter;
         this.stacktraceConfiguration = configurationRegistry.getConfig(StacktraceConfiguration.class);
+        this.stacktraceBudget = new StacktraceBudget(stacktraceConfiguration);
         this.lifecycleListeners = lifecycleListeners;
         this.activationListeners = activationListeners;
-        int maxPooledElements = configurationRegistry.getConfig(ReporterConfiguration.class).getMaxQueueSize() * 2;
+        int maxPooledElements = MemoryBudget.getMaxPooledElements(configurationRegistry.getConfig(ReporterConfiguration.class));
         coreConfiguration = configurationRegistry.getConfig(CoreConfiguration.class);
-        transactionPool = QueueBasedObjectPool.ofRecyclable(AtomicQueueFactory.<Transaction>newQueue(createBoundedMpmc(maxPooledElements)), false,
+        resourceUsageTracker = new ResourceUsageTracker(coreConfiguration, metricRegistry);
+        errorRateLimiter = new ErrorRateLimiter(coreConfiguration);
+        final int spanBatchSize = configurationRegistry.getConfig(ReporterConfiguration.class).getSpanBatchSize();
+        if (spanBatchSize > 1) {
+            spanBatch = new ThreadLocal<SpanBatch>() {
+                @Override
+                protected SpanBatch initialValue() {
+                    return new SpanBatch(spanBatchSize);
+                }
+            };
+        } else {
+            spanBatch = null;
+        }
+        if (!CharBufferAllocator.get().init(coreConfiguration.isCaptureBuffersOffHeap(), metricRegistry)) {
+            logger.debug("The char buffer allocator has already been initialized by another tracer, ignoring capture_buffers_off_heap");
+        }
+        circuitBreaker = new CircuitBreaker(configurationRegistry.getConfig(CircuitBreakerConfiguration.class), metricRegistry);
+        adaptivePoolSizer = coreConfiguration.isAdaptiveObjectPools() ? new AdaptivePoolSizer(metricRegistry) : null;
+        final QueueBasedObjectPool<TransactionContext> transactionContextPool = QueueBasedObjectPool.ofRecyclable(
+            AtomicQueueFactory.<TransactionContext>newQueue(createBoundedMpmc(maxPooledElements)), false,
+            new Allocator<TransactionContext>() {
+                @Override
+                public TransactionContext createInstance() {
+                    return new TransactionContext();
+                }
+            });
+        registerPool("transaction_context", transactionContextPool, maxPooledElements);
+        this.transactionContextPool = transactionContextPool;
+        transactionPool = createPool("transaction", maxPooledElements,
             new Allocator<Transaction>() {
                 @Override
                 public Transaction createInstance() {
-                    return new Transaction(ElasticApmTracer.this);
+                    return new Transaction(ElasticApmTracer.this, transactionContextPool);
                 }
             });
-        spanPool = QueueBasedObjectPool.ofRecyclable(AtomicQueueFactory.<Span>newQueue(createBoundedMpmc(maxPooledElements)), false,
+        spanPool = createPool("span", maxPooledElements,
             new Allocator<Span>() {
                 @Override
                 public Span createInstance() {
@@ -116,30 +178,28 @@ public class ElasticApmTracer {
                 }
             });
         // we are assuming that we don't need as many errors as spans or transactions
-        errorPool = QueueBasedObjectPool.ofRecyclable(AtomicQueueFactory.<ErrorCapture>newQueue(createBoundedMpmc(maxPooledElements / 2)), false,
+        errorPool = createPool("error", maxPooledElements / 2,
             new Allocator<ErrorCapture>() {
                 @Override
                 public ErrorCapture createInstance() {
                     return new ErrorCapture(ElasticApmTracer.this);
                 }
             });
-        // consider specialized object pools which return the objects to the thread-local pool of their originating thread
-        // with a combination of DetachedThreadLocal and org.jctools.queues.MpscRelaxedArrayQueue
-        runnableSpanWrapperObjectPool = QueueBasedObjectPool.ofRecyclable(AtomicQueueFactory.<SpanInScopeRunnableWrapper>newQueue(createBoundedMpmc(MAX_POOLED_RUNNABLES)), false,
+        runnableSpanWrapperObjectPool = createPool("span_runnable", MAX_POOLED_RUNNABLES,
             new Allocator<SpanInScopeRunnableWrapper>() {
                 @Override
                 public SpanInScopeRunnableWrapper createInstance() {
                     return new SpanInScopeRunnableWrapper(ElasticApmTracer.this);
                 }
             });
-        runnableContextWrapperObjectPool = QueueBasedObjectPool.ofRecyclable(AtomicQueueFactory.<ContextInScopeRunnableWrapper>newQueue(createBoundedMpmc(MAX_POOLED_RUNNABLES)), false,
+        runnableContextWrapperObjectPool = createPool("context_runnable", MAX_POOLED_RUNNABLES,
             new Allocator<ContextInScopeRunnableWrapper>() {
                 @Override
                 public ContextInScopeRunnableWrapper createInstance() {
                     return new ContextInScopeRunnableWrapper(ElasticApmTracer.this);
                 }
             });
-        callableContextWrapperObjectPool = QueueBasedObjectPool.ofRecyclable(AtomicQueueFactory.<ContextInScopeCallableWrapper<?>>newQueue(createBoundedMpmc(MAX_POOLED_RUNNABLES)), false,
+        callableContextWrapperObjectPool = createPool("context_callable", MAX_POOLED_RUNNABLES,
             new Allocator<ContextInScopeCallableWrapper<?>>() {
                 @Override
                 public ContextInScopeCallableWrapper<?> createInstance() {
@@ -153,6 +213,10 @@ public class ElasticApmTracer {
                 sampler = ProbabilitySampler.of(newValue);
             }
         });
+        circuitBreaker.start();
+        if (adaptivePoolSizer != null) {
+            adaptivePoolSizer.start();
+        }
         for (LifecycleListener lifecycleListener : lifecycleListeners) {
             lifecycleListener.start(this);
         }
@@ -162,6 +226,24 @@ public class ElasticApmTracer {
         reporter.scheduleMetricReporting(metricRegistry, configurationRegistry.getConfig(ReporterConfiguration.class).getMetricsIntervalMs());
     }
 
+    private <T extends ThreadAffineRecyclable> ObjectPool<T> createPool(String name, int maxPooledElements, Allocator<T> allocator) {
+        final AbstractObjectPool<T> pool;
+        if (coreConfiguration.isThreadAffineObjectPools()) {
+            pool = new ThreadAffineObjectPool<>(Math.min(MAX_POOLED_ELEMENTS_PER_THREAD, maxPooledElements), maxPooledElements, allocator);
+        } else {
+            pool = QueueBasedObjectPool.ofRecyclable(AtomicQueueFactory.<T>newQueue(createBoundedMpmc(maxPooledElements)), false, allocator);
+        }
+        registerPool(name, pool, maxPooledElements);
+        return pool;
+    }
+
+    private void registerPool(String name, AbstractObjectPool<?> pool, int maxPooledElements) {
+        pool.bindTo(metricRegistry, name);
+        if (adaptivePoolSizer != null) {
+            adaptivePoolSizer.register(name, pool, maxPooledElements);
+        }
+    }
+
     public Transaction startTransaction() {
         return startTransaction(TraceContext.asRoot(), null);
     }
@@ -172,7 +254,7 @@ public class ElasticApmTracer {
 
     public <T> Transaction startTransaction(TraceContext.ChildContextCreator<T> childContextCreator, @Nullable T parent, Sampler sampler, long epochMicros) {
         Transaction transaction;
-        if (!coreConfiguration.isActive()) {
+        if (!coreConfiguration.isActive() || circuitBreaker.isStressed()) {
             transaction = noopTransaction();
         } else {
             transaction = transactionPool.createInstance().start(childContextCreator, parent, epochMicros, sampler);
@@ -231,8 +313,6 @@ public class ElasticApmTracer {
     }
 
     public Span startSpan(AbstractSpan<?> parent, long epochMicros) {
-        Span span;
-        span = spanPool.createInstance();
         final boolean dropped;
         Transaction transaction = currentTransaction();
         if (transaction != null) {
@@ -246,10 +326,30 @@ public class ElasticApmTracer {
         } else {
             dropped = false;
         }
+        if ((dropped || !parent.isSampled()) && !coreConfiguration.isAggregateUnsampledTransactions()) {
+            // the span would be discarded when ending it anyway
+            if (parent instanceof Transaction) {
+                return ((Transaction) parent).getNoopSpan();
+            } else if (transaction != null && transaction.getTraceContext().getTraceId().equals(parent.getTraceContext().getTraceId())) {
+                return transaction.getNoopSpan();
+            }
+        }
+        Span span = spanPool.createInstance();
         span.start(TraceContext.fromParent(), parent, epochMicros, dropped);
+        span.setCapturedStacktracesOfTransaction(getCapturedSpanStacktraces(parent));
         return span;
     }
 
+    @Nullable
+    private static AtomicInteger getCapturedSpanStacktraces(AbstractSpan<?> parent) {
+        if (parent instanceof Transaction) {
+            return ((Transaction) parent).getCapturedSpanStacktraces();
+        } else if (parent instanceof Span) {
+            return ((Span) parent).getCapturedStacktracesOfTransaction();
+        }
+        return null;
+    }
+
     private boolean isTransactionSpanLimitReached(Transaction transaction) {
         return coreConfiguration.getTransactionMaxSpans() <= transaction.getSpanCount().getStarted().get();
     }
@@ -260,9 +360,14 @@ public class ElasticApmTracer {
 
     public void captureException(long epochMicros, @Nullable Throwable e, @Nullable TraceContextHolder<?> active) {
         if (e != null) {
+            final int droppedOccurrences = errorRateLimiter.acquire(e, epochMicros / 1000);
+            if (droppedOccurrences == ErrorRateLimiter.DROP) {
+                return;
+            }
             ErrorCapture error = errorPool.createInstance();
             error.withTimestamp(epochMicros);
             error.setException(e);
+            error.setDroppedOccurrences(droppedOccurrences);
             Transaction currentTransaction = currentTransaction();
             if (currentTransaction != null) {
                 error.setTransactionType(currentTransaction.getType());
@@ -273,11 +378,15 @@ public class ElasticApmTracer {
                     Transaction transaction = (Transaction) active;
                     // The error might have occurred in a different thread than the one the transaction was recorded
                     // That's why we have to ensure the visibility of the transaction properties
-                    error.getContext().copyFrom(transaction.getContextEnsureVisibility());
+                    // The context is not copied here but on the reporter thread, see ErrorCapture#getContext
+                    final TransactionContext context = transaction.shareContext();
+                    if (context != null) {
+                        error.setTransactionContext(context);
+                    }
                 }
                 else if (active instanceof Span) {
                     Span span = (Span) active;
-                    error.getContext().getTags().putAll(span.getContext().getTags());
+                    error.getContext().getTags().copyFrom(span.getContext().getTags());
                 }
                 error.asChildOf(active.getTraceContext());
             } else {
@@ -304,11 +413,20 @@ public class ElasticApmTracer {
                     new RuntimeException("this exception is just used to record where the transaction has been ended from"));
             }
         }
-        if (!transaction.isNoop()) {
+        if (transaction.isNoop()) {
+            transaction.recycle();
+            return;
+        }
+        flushSpanBatch();
+        gcPauseTracker.recordOverlap(transaction);
+        resourceUsageTracker.recordMetrics(transaction);
+        if (!transaction.isSampled() && coreConfiguration.isAggregateUnsampledTransactions()) {
+            // instead of reporting each non-sampled transaction, only their count and duration are reported as metrics
+            unsampledTransactionAggregator.record(transaction);
+            transaction.recycle();
+        } else {
             // we do report non-sampled transactions (without the context)
             reporter.report(transaction);
-        } else {
-            transaction.recycle();
         }
     }
 
@@ -316,17 +434,41 @@ public class ElasticApmTracer {
     public void endSpan(Span span) {
         if (span.isSampled()) {
             long spanFramesMinDurationMs = stacktraceConfiguration.getSpanFramesMinDurationMs();
-            if (spanFramesMinDurationMs != 0 && span.isSampled()) {
+            if (spanFramesMinDurationMs != 0 && span.isSampled() && span.getStacktrace() == null) {
                 if (span.getDuration() >= spanFramesMinDurationMs) {
-                    span.withStacktrace(new Throwable());
+                    final Throwable stacktrace = stacktraceBudget.getStacktrace(span);
+                    if (stacktrace != null) {
+                        span.withStacktrace(stacktrace);
+                    }
                 }
             }
-            reporter.report(span);
+            reportSpan(span);
         } else {
+            if (coreConfiguration.isAggregateUnsampledTransactions()) {
+                unsampledTransactionAggregator.record(span);
+            }
             span.recycle();
         }
     }
 
+    private void reportSpan(Span span) {
+        // spans which outlive their transaction are reported right away
+        if (spanBatch != null && currentTransaction() != null) {
+            final SpanBatch batch = spanBatch.get();
+            if (batch.add(span)) {
+                batch.flush(reporter);
+            }
+        } else {
+            reporter.report(span);
+        }
+    }
+
+    private void flushSpanBatch() {
+        if (spanBatch != null) {
+            spanBatch.get().flush(reporter);
+        }
+    }
+
     public void recycle(Transaction transaction) {
         transactionPool.recycle(transaction);
     }
@@ -354,7 +496,7 @@ public class ElasticApmTracer {
         if (delegate instanceof ContextInScopeRunnableWrapper || delegate instanceof SpanInScopeRunnableWrapper) {
             return delegate;
         }
-        return runnableContextWrapperObjectPool.createInstance().wrap(delegate, traceContext);
+        return runnableContextWrapperObjectPool.createInstance().wrap(delegate, traceContext, getTrackedTransaction(traceContext));
     }
 
     public void recycle(ContextInScopeRunnableWrapper wrapper) {
@@ -365,7 +507,21 @@ public class ElasticApmTracer {
         if (delegate instanceof ContextInScopeCallableWrapper) {
             return delegate;
         }
-        return ((ContextInScopeCallableWrapper<V>) callableContextWrapperObjectPool.createInstance()).wrap(delegate, traceContext);
+        return ((ContextInScopeCallableWrapper<V>) callableContextWrapperObjectPool.createInstance()).wrap(delegate, traceContext, getTrackedTransaction(traceContext));
+    }
+
+    /**
+     * Returns the active transaction if the resources used by continuations of the provided context should be added to it.
+     */
+    @Nullable
+    private Transaction getTrackedTransaction(TraceContext traceContext) {
+        final Transaction transaction = currentTransaction();
+        if (transaction != null
+            && resourceUsageTracker.isTracked(transaction)
+            && transaction.getTraceContext().getId().equals(traceContext.getTransactionId())) {
+            return transaction;
+        }
+        return null;
     }
 
     public void recycle(ContextInScopeCallableWrapper<?> callableWrapper) {
@@ -381,8 +537,13 @@ public class ElasticApmTracer {
             configurationRegistry.close();
             reporter.close();
             transactionPool.close();
+            transactionContextPool.close();
             spanPool.close();
             errorPool.close();
+            circuitBreaker.stop();
+            if (adaptivePoolSizer != null) {
+                adaptivePoolSizer.stop();
+            }
             for (LifecycleListener lifecycleListener : lifecycleListeners) {
                 lifecycleListener.stop();
             }
@@ -416,7 +577,11 @@ public class ElasticApmTracer {
         if (logger.isDebugEnabled()) {
             logger.debug("Activating {} on thread {}", holder.getTraceContext(), Thread.currentThread().getId());
         }
-        activeStack.get().push(holder);
+        final Deque<TraceContextHolder<?>> stack = activeStack.get();
+        if (stack.isEmpty() && holder instanceof Transaction) {
+            resourceUsageTracker.onActivate((Transaction) holder);
+        }
+        stack.push(holder);
     }
 
     public void deactivate(TraceContextHolder<?> holder) {
@@ -431,6 +596,13 @@ public class ElasticApmTracer {
             // makes all leaked spans eligible for GC
             stack.clear();
         }
+        if (stack.isEmpty()) {
+            if (holder instanceof Transaction) {
+                resourceUsageTracker.onDeactivate((Transaction) holder);
+            }
+            // the transaction might not end on this thread, don't hold on to its spans
+            flushSpanBatch();
+        }
     }
 
     private void assertIsActive(Object span, @Nullable Object currentlyActive) {
@@ -441,6 +613,18 @@ public class ElasticApmTracer {
         assert span == currentlyActive;
     }
 
+    public GcPauseTracker getGcPauseTracker() {
+        return gcPauseTracker;
+    }
+
+    public CircuitBreaker getCircuitBreaker() {
+        return circuitBreaker;
+    }
+
+    public ResourceUsageTracker getResourceUsageTracker() {
+        return resourceUsageTracker;
+    }
+
     public MetricRegistry getMetricRegistry() {
         return metricRegistry;
     }
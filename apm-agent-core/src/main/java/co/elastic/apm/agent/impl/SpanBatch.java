@@ -0,0 +1,67 @@
+/*-
+ * #%L
+ * Elastic APM Java agent
+ * %%
+ * Copyright (C) 2018 - 2019 Elastic and contributors
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package co.elastic.apm.agent.impl;
+
+import co.elastic.apm.agent.impl.transaction.Span;
+import co.elastic.apm.agent.report.Reporter;
+
+/**
+ * Buffers the ended spans of a thread so that they can be {@linkplain Reporter#report(Span[], int) reported} as a batch.
+ * <p>
+ * Not thread safe, each thread has its own batch.
+ * </p>
+ */
+class SpanBatch {
+
+    private final Span[] spans;
+    private int size;
+
+    SpanBatch(int capacity) {
+        spans = new Span[capacity];
+    }
+
+    /**
+     * @return {@code true} if the batch is full and has to be {@linkplain #flush(Reporter) flushed}
+     */
+    boolean add(Span span) {
+        spans[size++] = span;
+        return size == spans.length;
+    }
+
+    void flush(Reporter reporter) {
+        if (size == 0) {
+            return;
+        }
+        final int count = size;
+        size = 0;
+        try {
+            reporter.report(spans, count);
+        } finally {
+            // the spans are recycled after they have been reported, don't keep references to them
+            for (int i = 0; i < count; i++) {
+                spans[i] = null;
+            }
+        }
+    }
+
+    int size() {
+        return size;
+    }
+}
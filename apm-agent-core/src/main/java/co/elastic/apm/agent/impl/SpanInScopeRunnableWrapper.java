@@ -22,14 +22,14 @@ package co.elastic.apm.agent.impl;
 
 import co.elastic.apm.agent.bci.VisibleForAdvice;
 import co.elastic.apm.agent.impl.transaction.AbstractSpan;
-import co.elastic.apm.agent.objectpool.Recyclable;
+import co.elastic.apm.agent.objectpool.ThreadAffineRecyclable;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.annotation.Nullable;
 
 @VisibleForAdvice
-public class SpanInScopeRunnableWrapper implements Runnable, Recyclable {
+public class SpanInScopeRunnableWrapper implements Runnable, ThreadAffineRecyclable {
     private static final Logger logger = LoggerFactory.getLogger(SpanInScopeRunnableWrapper.class);
     private final ElasticApmTracer tracer;
     @Nullable
@@ -37,10 +37,27 @@ public class SpanInScopeRunnableWrapper implements Runnable, Recyclable {
     @Nullable
     private volatile AbstractSpan<?> span;
 
+    /**
+     * Managed by {@link co.elastic.apm.agent.objectpool.impl.ThreadAffineObjectPool}, not reset by {@link #resetState()}
+     */
+    @Nullable
+    private Object poolOwner;
+
     SpanInScopeRunnableWrapper(ElasticApmTracer tracer) {
         this.tracer = tracer;
     }
 
+    @Nullable
+    @Override
+    public Object getPoolOwner() {
+        return poolOwner;
+    }
+
+    @Override
+    public void setPoolOwner(@Nullable Object poolOwner) {
+        this.poolOwner = poolOwner;
+    }
+
     SpanInScopeRunnableWrapper wrap(Runnable delegate, AbstractSpan<?> span) {
         this.delegate = delegate;
         this.span = span;
@@ -0,0 +1,157 @@
+/*-
+ * #%L
+ * Elastic APM Java agent
+ * %%
+ * Copyright (C) 2018 - 2019 Elastic and contributors
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package co.elastic.apm.agent.impl.circuitbreaker;
+
+import co.elastic.apm.agent.metrics.Counter;
+import co.elastic.apm.agent.metrics.DoubleSupplier;
+import co.elastic.apm.agent.metrics.MetricRegistry;
+import co.elastic.apm.agent.metrics.Temporality;
+import co.elastic.apm.agent.metrics.builtin.SystemMetrics;
+import co.elastic.apm.agent.util.ExecutorUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Pauses tracing while the JVM is under resource pressure.
+ * <p>
+ * A background thread periodically updates the {@link StressMonitor}s.
+ * As soon as one of them is stressed, {@link #isStressed()} returns {@code true},
+ * which makes the tracer return noop transactions.
+ * Tracing is resumed once all monitors are relieved.
+ * </p>
+ * <p>
+ * The hot path only consists of a single volatile read in {@link #isStressed()}.
+ * </p>
+ */
+public class CircuitBreaker implements Runnable {
+
+    private static final Logger logger = LoggerFactory.getLogger(CircuitBreaker.class);
+
+    private final CircuitBreakerConfiguration config;
+    private final List<StressMonitor> stressMonitors;
+    private final Counter stateChanges;
+    @Nullable
+    private final SystemMetrics systemMetrics;
+    private volatile boolean stressed;
+    @Nullable
+    private ScheduledThreadPoolExecutor scheduler;
+
+    public CircuitBreaker(CircuitBreakerConfiguration config, MetricRegistry metricRegistry) {
+        this(config, metricRegistry, new SystemMetrics());
+    }
+
+    private CircuitBreaker(CircuitBreakerConfiguration config, MetricRegistry metricRegistry, SystemMetrics systemMetrics) {
+        this(config, metricRegistry, Arrays.asList(
+            new StressMonitor("heap_usage_after_gc", GcReadings.heapUsageAfterGc(),
+                config.getHeapUsageStressThreshold(), config.getHeapUsageReliefThreshold()),
+            new StressMonitor("gc_time", GcReadings.gcTimeRatio(),
+                config.getGcTimeStressThreshold(), config.getGcTimeReliefThreshold()),
+            new StressMonitor("process_cpu", systemMetrics.getProcessCpuUsage(),
+                config.getCpuStressThreshold(), config.getCpuReliefThreshold())), systemMetrics);
+    }
+
+    CircuitBreaker(CircuitBreakerConfiguration config, MetricRegistry metricRegistry, List<StressMonitor> stressMonitors) {
+        this(config, metricRegistry, stressMonitors, null);
+    }
+
+    private CircuitBreaker(CircuitBreakerConfiguration config, MetricRegistry metricRegistry, List<StressMonitor> stressMonitors,
+                           @Nullable SystemMetrics systemMetrics) {
+        this.config = config;
+        this.stressMonitors = stressMonitors;
+        this.systemMetrics = systemMetrics;
+        if (config.isCircuitBreakerEnabled()) {
+            this.stateChanges = metricRegistry.counter("agent.circuit_breaker.state_changes", Collections.<String, String>emptyMap(), Temporality.DELTA);
+            metricRegistry.add("agent.circuit_breaker.stressed", Collections.<String, String>emptyMap(), new DoubleSupplier() {
+                @Override
+                public double get() {
+                    return stressed ? 1 : 0;
+                }
+            });
+        } else {
+            this.stateChanges = Counter.NOOP;
+        }
+    }
+
+    public void start() {
+        if (config.isCircuitBreakerEnabled()) {
+            final long intervalMs = config.getCheckIntervalMs();
+            scheduler = ExecutorUtils.createSingleThreadSchedulingDeamonPool("apm-circuit-breaker", 1);
+            scheduler.scheduleWithFixedDelay(this, intervalMs, intervalMs, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @Override
+    public void run() {
+        try {
+            evaluate();
+        } catch (Exception e) {
+            logger.warn("Error while checking for resource pressure", e);
+        }
+    }
+
+    void evaluate() {
+        for (StressMonitor stressMonitor : stressMonitors) {
+            stressMonitor.update();
+        }
+        if (!stressed) {
+            for (StressMonitor stressMonitor : stressMonitors) {
+                if (stressMonitor.isStressed()) {
+                    logger.warn("Pausing tracing as the JVM is under resource pressure: {}", stressMonitor);
+                    stressed = true;
+                    stateChanges.increment();
+                    return;
+                }
+            }
+        } else {
+            for (StressMonitor stressMonitor : stressMonitors) {
+                if (!stressMonitor.isRelieved()) {
+                    logger.debug("Tracing is still paused: {}", stressMonitor);
+                    return;
+                }
+            }
+            logger.info("Resuming tracing as the resource pressure has been relieved: {}", stressMonitors);
+            stressed = false;
+            stateChanges.increment();
+        }
+    }
+
+    /**
+     * @return {@code true} if tracing is currently paused due to resource pressure
+     */
+    public boolean isStressed() {
+        return stressed;
+    }
+
+    public void stop() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+        if (systemMetrics != null) {
+            systemMetrics.stop();
+        }
+    }
+}
@@ -0,0 +1,137 @@
+/*-
+ * #%L
+ * Elastic APM Java agent
+ * %%
+ * Copyright (C) 2018 - 2019 Elastic and contributors
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package co.elastic.apm.agent.impl.circuitbreaker;
+
+import co.elastic.apm.agent.configuration.converter.TimeDuration;
+import co.elastic.apm.agent.configuration.converter.TimeDurationValueConverter;
+import org.stagemonitor.configuration.ConfigurationOption;
+import org.stagemonitor.configuration.ConfigurationOptionProvider;
+
+import static co.elastic.apm.agent.configuration.validation.RangeValidator.isInRange;
+
+public class CircuitBreakerConfiguration extends ConfigurationOptionProvider {
+
+    private static final String CIRCUIT_BREAKER_CATEGORY = "Circuit Breaker";
+
+    private final ConfigurationOption<Boolean> circuitBreakerEnabled = ConfigurationOption.booleanOption()
+        .key("circuit_breaker_enabled")
+        .configurationCategory(CIRCUIT_BREAKER_CATEGORY)
+        .description("Set to `true` to make the agent pause tracing while the JVM is under resource pressure.\n" +
+            "\n" +
+            "The agent periodically checks the heap usage after garbage collections, the share of time spent in garbage collections\n" +
+            "and the CPU usage of the process.\n" +
+            "If any of them exceeds its stress threshold, no new transactions are recorded until all of them have dropped\n" +
+            "below their relief thresholds.\n" +
+            "Transactions which are already in progress are completed as usual.")
+        .buildWithDefault(false);
+
+    private final ConfigurationOption<TimeDuration> checkInterval = TimeDurationValueConverter.durationOption("s")
+        .key("circuit_breaker_check_interval")
+        .configurationCategory(CIRCUIT_BREAKER_CATEGORY)
+        .description("The interval at which the circuit breaker checks whether the JVM is under resource pressure.\n" +
+            "The GC time and CPU usage are averaged over this interval.")
+        .buildWithDefault(TimeDuration.of("5s"));
+
+    private final ConfigurationOption<Double> heapUsageStressThreshold = ConfigurationOption.doubleOption()
+        .key("circuit_breaker_heap_usage_stress_threshold")
+        .configurationCategory(CIRCUIT_BREAKER_CATEGORY)
+        .description("The share of the maximum size of a heap memory pool which may still be in use after a garbage collection\n" +
+            "before tracing is paused.")
+        .addValidator(isInRange(0d, 1d))
+        .dynamic(true)
+        .buildWithDefault(0.95);
+
+    private final ConfigurationOption<Double> heapUsageReliefThreshold = ConfigurationOption.doubleOption()
+        .key("circuit_breaker_heap_usage_relief_threshold")
+        .configurationCategory(CIRCUIT_BREAKER_CATEGORY)
+        .description("The heap usage after garbage collections below which tracing is resumed.\n" +
+            "See <<config-circuit-breaker-heap-usage-stress-threshold, `circuit_breaker_heap_usage_stress_threshold`>>.")
+        .addValidator(isInRange(0d, 1d))
+        .dynamic(true)
+        .buildWithDefault(0.75);
+
+    private final ConfigurationOption<Double> gcTimeStressThreshold = ConfigurationOption.doubleOption()
+        .key("circuit_breaker_gc_time_stress_threshold")
+        .configurationCategory(CIRCUIT_BREAKER_CATEGORY)
+        .description("The share of wall clock time spent in garbage collections\n" +
+            "within one <<config-circuit-breaker-check-interval, `circuit_breaker_check_interval`>> above which tracing is paused.")
+        .addValidator(isInRange(0d, 1d))
+        .dynamic(true)
+        .buildWithDefault(0.3);
+
+    private final ConfigurationOption<Double> gcTimeReliefThreshold = ConfigurationOption.doubleOption()
+        .key("circuit_breaker_gc_time_relief_threshold")
+        .configurationCategory(CIRCUIT_BREAKER_CATEGORY)
+        .description("The share of wall clock time spent in garbage collections below which tracing is resumed.\n" +
+            "See <<config-circuit-breaker-gc-time-stress-threshold, `circuit_breaker_gc_time_stress_threshold`>>.")
+        .addValidator(isInRange(0d, 1d))
+        .dynamic(true)
+        .buildWithDefault(0.1);
+
+    private final ConfigurationOption<Double> cpuStressThreshold = ConfigurationOption.doubleOption()
+        .key("circuit_breaker_cpu_stress_threshold")
+        .configurationCategory(CIRCUIT_BREAKER_CATEGORY)
+        .description("The CPU usage of the process, normalized by the number of processors,\n" +
+            "within one <<config-circuit-breaker-check-interval, `circuit_breaker_check_interval`>> above which tracing is paused.")
+        .addValidator(isInRange(0d, 1d))
+        .dynamic(true)
+        .buildWithDefault(0.95);
+
+    private final ConfigurationOption<Double> cpuReliefThreshold = ConfigurationOption.doubleOption()
+        .key("circuit_breaker_cpu_relief_threshold")
+        .configurationCategory(CIRCUIT_BREAKER_CATEGORY)
+        .description("The CPU usage of the process below which tracing is resumed.\n" +
+            "See <<config-circuit-breaker-cpu-stress-threshold, `circuit_breaker_cpu_stress_threshold`>>.")
+        .addValidator(isInRange(0d, 1d))
+        .dynamic(true)
+        .buildWithDefault(0.8);
+
+    public boolean isCircuitBreakerEnabled() {
+        return circuitBreakerEnabled.get();
+    }
+
+    public long getCheckIntervalMs() {
+        return checkInterval.getValue().getMillis();
+    }
+
+    ConfigurationOption<Double> getHeapUsageStressThreshold() {
+        return heapUsageStressThreshold;
+    }
+
+    ConfigurationOption<Double> getHeapUsageReliefThreshold() {
+        return heapUsageReliefThreshold;
+    }
+
+    ConfigurationOption<Double> getGcTimeStressThreshold() {
+        return gcTimeStressThreshold;
+    }
+
+    ConfigurationOption<Double> getGcTimeReliefThreshold() {
+        return gcTimeReliefThreshold;
+    }
+
+    ConfigurationOption<Double> getCpuStressThreshold() {
+        return cpuStressThreshold;
+    }
+
+    ConfigurationOption<Double> getCpuReliefThreshold() {
+        return cpuReliefThreshold;
+    }
+}
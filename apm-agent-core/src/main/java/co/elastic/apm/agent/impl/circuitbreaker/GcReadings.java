@@ -0,0 +1,102 @@
+/*-
+ * #%L
+ * Elastic APM Java agent
+ * %%
+ * Copyright (C) 2018 - 2019 Elastic and contributors
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package co.elastic.apm.agent.impl.circuitbreaker;
+
+import co.elastic.apm.agent.metrics.DoubleSupplier;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.util.List;
+
+/**
+ * Readings for the {@link StressMonitor}s based on the JVM's memory and garbage collector MX beans.
+ */
+class GcReadings {
+
+    private GcReadings() {
+    }
+
+    /**
+     * The highest share of the maximum pool size which was still in use after the last collection, across all heap pools.
+     * <p>
+     * The usage after a collection is a better indicator for memory pressure than the current usage,
+     * as the latter naturally grows up to the maximum until the next collection kicks in.
+     * For young generation pools, it is usually close to zero, so this effectively reflects the old generation.
+     * </p>
+     */
+    static DoubleSupplier heapUsageAfterGc() {
+        final List<MemoryPoolMXBean> memoryPools = ManagementFactory.getMemoryPoolMXBeans();
+        return new DoubleSupplier() {
+            @Override
+            public double get() {
+                double maxUsage = Double.NaN;
+                for (MemoryPoolMXBean memoryPool : memoryPools) {
+                    if (memoryPool.getType() != MemoryType.HEAP) {
+                        continue;
+                    }
+                    final MemoryUsage usage = memoryPool.getCollectionUsage();
+                    if (usage != null && usage.getMax() > 0) {
+                        final double poolUsage = (double) usage.getUsed() / usage.getMax();
+                        if (Double.isNaN(maxUsage) || poolUsage > maxUsage) {
+                            maxUsage = poolUsage;
+                        }
+                    }
+                }
+                return maxUsage;
+            }
+        };
+    }
+
+    /**
+     * The share of wall clock time spent in garbage collections since the last invocation.
+     * <p>
+     * The first invocation returns {@code 0}.
+     * </p>
+     */
+    static DoubleSupplier gcTimeRatio() {
+        final List<GarbageCollectorMXBean> garbageCollectors = ManagementFactory.getGarbageCollectorMXBeans();
+        return new DoubleSupplier() {
+            private long lastCollectionTimeMs = -1;
+            private long lastTimestampNanos;
+
+            @Override
+            public double get() {
+                long collectionTimeMs = 0;
+                for (GarbageCollectorMXBean garbageCollector : garbageCollectors) {
+                    final long time = garbageCollector.getCollectionTime();
+                    if (time > 0) {
+                        collectionTimeMs += time;
+                    }
+                }
+                final long now = System.nanoTime();
+                double ratio = 0;
+                if (lastCollectionTimeMs >= 0 && now > lastTimestampNanos) {
+                    ratio = (collectionTimeMs - lastCollectionTimeMs) * 1_000_000d / (now - lastTimestampNanos);
+                }
+                lastCollectionTimeMs = collectionTimeMs;
+                lastTimestampNanos = now;
+                return Math.min(1, ratio);
+            }
+        };
+    }
+}
@@ -0,0 +1,71 @@
+/*-
+ * #%L
+ * Elastic APM Java agent
+ * %%
+ * Copyright (C) 2018 - 2019 Elastic and contributors
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package co.elastic.apm.agent.impl.circuitbreaker;
+
+import co.elastic.apm.agent.metrics.DoubleSupplier;
+import org.stagemonitor.configuration.ConfigurationOption;
+
+/**
+ * Compares a periodically taken reading, like the heap usage after GC, against a stress and a relief threshold.
+ * <p>
+ * Having a relief threshold which is lower than the stress threshold avoids flapping
+ * between the stressed and the relieved state when the reading hovers around a single threshold.
+ * </p>
+ */
+class StressMonitor {
+
+    private final String name;
+    private final DoubleSupplier reading;
+    private final ConfigurationOption<Double> stressThreshold;
+    private final ConfigurationOption<Double> reliefThreshold;
+    private double lastReading = Double.NaN;
+
+    StressMonitor(String name, DoubleSupplier reading, ConfigurationOption<Double> stressThreshold, ConfigurationOption<Double> reliefThreshold) {
+        this.name = name;
+        this.reading = reading;
+        this.stressThreshold = stressThreshold;
+        this.reliefThreshold = reliefThreshold;
+    }
+
+    /**
+     * Takes a new reading.
+     * <p>
+     * Needs to be called on every check, even if the result is not needed,
+     * as readings may be based on the difference to the previous reading.
+     * </p>
+     */
+    void update() {
+        lastReading = reading.get();
+    }
+
+    boolean isStressed() {
+        // NaN means the reading is not available on this JVM
+        return !Double.isNaN(lastReading) && lastReading > stressThreshold.get();
+    }
+
+    boolean isRelieved() {
+        return Double.isNaN(lastReading) || lastReading < reliefThreshold.get();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s=%.2f (stress threshold=%.2f, relief threshold=%.2f)", name, lastReading, stressThreshold.get(), reliefThreshold.get());
+    }
+}
@@ -21,25 +21,22 @@ package co.elastic.apm.agent.impl.context;
 
 import co.elastic.apm.agent.objectpool.Recyclable;
 
-import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
-
 public abstract class AbstractContext implements Recyclable {
     /**
-     * A flat mapping of user-defined tags with string values.
+     * A flat mapping of user-defined tags with string, number or boolean values.
      */
-    private final Map<String, String> tags = new ConcurrentHashMap<>();
+    private final Tags tags = new Tags();
 
     /**
-     * A flat mapping of user-defined tags with string values.
+     * A flat mapping of user-defined tags with string, number or boolean values.
      */
-    public Map<String, String> getTags() {
+    public Tags getTags() {
         return tags;
     }
 
     @Override
     public void resetState() {
-        tags.clear();
+        tags.resetState();
     }
 
     public boolean hasContent() {
@@ -47,6 +44,6 @@ public abstract class AbstractContext implements Recyclable {
     }
 
     public void copyFrom(AbstractContext other) {
-        tags.putAll(other.tags);
+        tags.copyFrom(other.tags);
     }
 }
@@ -19,17 +19,11 @@
  */
 package co.elastic.apm.agent.impl.context;
 
-import co.elastic.apm.agent.objectpool.Allocator;
-import co.elastic.apm.agent.objectpool.ObjectPool;
 import co.elastic.apm.agent.objectpool.Recyclable;
-import co.elastic.apm.agent.objectpool.impl.QueueBasedObjectPool;
-import co.elastic.apm.agent.objectpool.impl.Resetter;
-import co.elastic.apm.agent.report.serialize.DslJsonSerializer;
+import co.elastic.apm.agent.objectpool.impl.CharBufferAllocator;
 import co.elastic.apm.agent.util.PotentiallyMultiValuedMap;
-import org.jctools.queues.atomic.MpmcAtomicArrayQueue;
 
 import javax.annotation.Nullable;
-import java.nio.Buffer;
 import java.nio.CharBuffer;
 import java.util.Enumeration;
 
@@ -42,20 +36,6 @@ import java.util.Enumeration;
 public class Request implements Recyclable {
 
 
-    private final ObjectPool<CharBuffer> charBufferPool = QueueBasedObjectPool.of(new MpmcAtomicArrayQueue<CharBuffer>(128), false,
-        new Allocator<CharBuffer>() {
-            @Override
-            public CharBuffer createInstance() {
-                return CharBuffer.allocate(DslJsonSerializer.MAX_LONG_STRING_VALUE_LENGTH);
-            }
-        },
-        new Resetter<CharBuffer>() {
-            @Override
-            public void recycle(CharBuffer object) {
-                ((Buffer) object).clear();
-            }
-        });
-
     private final PotentiallyMultiValuedMap postParams = new PotentiallyMultiValuedMap();
     /**
      * Should include any headers sent by the requester. Map<String, String> </String,>will be taken by headers if supplied.
@@ -85,6 +65,13 @@ public class Request implements Recyclable {
     @Nullable
     private CharBuffer bodyBuffer;
 
+    /**
+     * The context this instance belongs to, used to guard against modifying a shared snapshot,
+     * see {@link TransactionContext#isShared()}
+     */
+    @Nullable
+    private TransactionContext owner;
+
     /**
      * Data should only contain the request body (not the query string). It can either be a dictionary (for standard HTTP requests) or a raw request body.
      */
@@ -98,6 +85,7 @@ public class Request implements Recyclable {
     }
 
     public void redactBody() {
+        assert isModifiable() : TransactionContext.SHARED_CONTEXT_MODIFIED;
         postParams.resetState();
         if (bodyBuffer != null) {
             bodyBuffer.clear().append("[REDACTED]").flip();
@@ -105,11 +93,13 @@ public class Request implements Recyclable {
     }
 
     public Request addFormUrlEncodedParameter(String key, String value) {
+        assert isModifiable() : TransactionContext.SHARED_CONTEXT_MODIFIED;
         this.postParams.add(key, value);
         return this;
     }
 
     public Request addFormUrlEncodedParameters(String key, String[] values) {
+        assert isModifiable() : TransactionContext.SHARED_CONTEXT_MODIFIED;
         this.postParams.set(key, values);
         return this;
     }
@@ -123,11 +113,29 @@ public class Request implements Recyclable {
      * Note: This method is not thread safe
      * </p>
      *
-     * @return a {@link CharBuffer} to record the request body
+     * @return a {@link CharBuffer} of the largest size class to record the request body
      */
     public CharBuffer withBodyBuffer() {
+        return withBodyBuffer(-1);
+    }
+
+    /**
+     * Gets a pooled {@link CharBuffer} to record the request body and associates it with this instance.
+     * <p>
+     * Note: you may not hold a reference to the returned {@link CharBuffer} as it will be reused.
+     * </p>
+     * <p>
+     * Note: This method is not thread safe
+     * </p>
+     *
+     * @param expectedLength the expected number of chars of the body, or a non-positive value if unknown
+     * @return a {@link CharBuffer} which is large enough to hold {@code expectedLength} chars, if possible
+     * @see CharBufferAllocator#acquire(int)
+     */
+    public CharBuffer withBodyBuffer(int expectedLength) {
+        assert isModifiable() : TransactionContext.SHARED_CONTEXT_MODIFIED;
         if (this.bodyBuffer == null) {
-            this.bodyBuffer = charBufferPool.createInstance();
+            this.bodyBuffer = CharBufferAllocator.get().acquire(expectedLength);
         }
         return this.bodyBuffer;
     }
@@ -157,6 +165,7 @@ public class Request implements Recyclable {
      * @return {@code this}, for fluent method chaining
      */
     public Request addHeader(String headerName, @Nullable String headerValue) {
+        assert isModifiable() : TransactionContext.SHARED_CONTEXT_MODIFIED;
         if (headerValue != null) {
             headers.add(headerName, headerValue);
         }
@@ -164,6 +173,7 @@ public class Request implements Recyclable {
     }
 
     public Request addHeader(String headerName, @Nullable Enumeration<String> headerValues) {
+        assert isModifiable() : TransactionContext.SHARED_CONTEXT_MODIFIED;
         if (headerValues != null) {
             while (headerValues.hasMoreElements()) {
                 headers.add(headerName, headerValues.nextElement());
@@ -188,6 +198,7 @@ public class Request implements Recyclable {
     }
 
     public Request withHttpVersion(@Nullable String httpVersion) {
+        assert isModifiable() : TransactionContext.SHARED_CONTEXT_MODIFIED;
         this.httpVersion = httpVersion;
         return this;
     }
@@ -202,6 +213,7 @@ public class Request implements Recyclable {
     }
 
     public Request withMethod(@Nullable String method) {
+        assert isModifiable() : TransactionContext.SHARED_CONTEXT_MODIFIED;
         this.method = method;
         return this;
     }
@@ -220,6 +232,7 @@ public class Request implements Recyclable {
 
 
     public Request addCookie(String cookieName, String cookieValue) {
+        assert isModifiable() : TransactionContext.SHARED_CONTEXT_MODIFIED;
         cookies.add(cookieName, cookieValue);
         return this;
     }
@@ -231,6 +244,19 @@ public class Request implements Recyclable {
         return cookies;
     }
 
+    void setOwner(TransactionContext owner) {
+        this.owner = owner;
+    }
+
+    /**
+     * Plugins must not hold on to this instance after another call to
+     * {@link co.elastic.apm.agent.impl.transaction.Transaction#getContext()},
+     * as the context might have been shared with an error in the meantime.
+     */
+    private boolean isModifiable() {
+        return owner == null || !owner.isShared();
+    }
+
     @Override
     public void resetState() {
         postParams.resetState();
@@ -241,7 +267,7 @@ public class Request implements Recyclable {
         url.resetState();
         cookies.resetState();
         if (bodyBuffer != null) {
-            charBufferPool.recycle(bodyBuffer);
+            CharBufferAllocator.get().release(bodyBuffer);
         }
         bodyBuffer = null;
     }
@@ -256,7 +282,7 @@ public class Request implements Recyclable {
         this.cookies.copyFrom(other.cookies);
         if (other.bodyBuffer != null) {
             final CharBuffer otherBuffer = other.getBodyBuffer();
-            final CharBuffer thisBuffer = this.withBodyBuffer();
+            final CharBuffer thisBuffer = this.withBodyBuffer(otherBuffer.length());
             for (int i = 0; i < otherBuffer.length(); i++) {
                 thisBuffer.append(otherBuffer.charAt(i));
             }
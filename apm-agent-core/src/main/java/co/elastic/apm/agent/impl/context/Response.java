@@ -41,6 +41,13 @@ public class Response implements Recyclable {
      */
     private int statusCode;
 
+    /**
+     * The context this instance belongs to, used to guard against modifying a shared snapshot,
+     * see {@link TransactionContext#isShared()}
+     */
+    @Nullable
+    private TransactionContext owner;
+
     /**
      * A boolean indicating whether the response was finished or not
      */
@@ -52,6 +59,7 @@ public class Response implements Recyclable {
      * A boolean indicating whether the response was finished or not
      */
     public Response withFinished(boolean finished) {
+        assert isModifiable() : TransactionContext.SHARED_CONTEXT_MODIFIED;
         this.finished = finished;
         return this;
     }
@@ -64,11 +72,13 @@ public class Response implements Recyclable {
      * @return {@code this}, for fluent method chaining
      */
     public Response addHeader(String headerName, String headerValue) {
+        assert isModifiable() : TransactionContext.SHARED_CONTEXT_MODIFIED;
         headers.add(headerName, headerValue);
         return this;
     }
 
     public Response addHeader(String headerName, @Nullable Collection<String> headerValues) {
+        assert isModifiable() : TransactionContext.SHARED_CONTEXT_MODIFIED;
         if (headerValues != null) {
             for (String headerValue : headerValues) {
                 headers.add(headerName, headerValue);
@@ -90,6 +100,7 @@ public class Response implements Recyclable {
     }
 
     public Response withHeadersSent(boolean headersSent) {
+        assert isModifiable() : TransactionContext.SHARED_CONTEXT_MODIFIED;
         this.headersSent = headersSent;
         return this;
     }
@@ -105,10 +116,24 @@ public class Response implements Recyclable {
      * The HTTP status code of the response.
      */
     public Response withStatusCode(int statusCode) {
+        assert isModifiable() : TransactionContext.SHARED_CONTEXT_MODIFIED;
         this.statusCode = statusCode;
         return this;
     }
 
+    void setOwner(TransactionContext owner) {
+        this.owner = owner;
+    }
+
+    /**
+     * Plugins must not hold on to this instance after another call to
+     * {@link co.elastic.apm.agent.impl.transaction.Transaction#getContext()},
+     * as the context might have been shared with an error in the meantime.
+     */
+    private boolean isModifiable() {
+        return owner == null || !owner.isShared();
+    }
+
     @Override
     public void resetState() {
         finished = false;
@@ -32,12 +32,21 @@ public class SpanContext extends AbstractContext {
     /**
      * An object containing contextual data for database spans
      */
-    private final Db db = new Db();
+    private final Db db;
 
     /**
      * An object containing contextual data for outgoing HTTP spans
      */
-    private final Http http = new Http();
+    private final Http http;
+
+    public SpanContext() {
+        this(new Db(), new Http());
+    }
+
+    protected SpanContext(Db db, Http http) {
+        this.db = db;
+        this.http = http;
+    }
 
     /**
      * An object containing contextual data for database spans
@@ -0,0 +1,270 @@
+/*-
+ * #%L
+ * Elastic APM Java agent
+ * %%
+ * Copyright (C) 2018 - 2019 Elastic and contributors
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package co.elastic.apm.agent.impl.context;
+
+import co.elastic.apm.agent.objectpool.Recyclable;
+
+import javax.annotation.Nullable;
+import java.util.Arrays;
+
+/**
+ * A flat, allocation-free store for user-defined tags.
+ * <p>
+ * Keys and values are kept in parallel arrays which are indexed by a small open-addressing hash table.
+ * Numbers and booleans are stored in their primitive form,
+ * the conversion to a {@link String} only happens when serializing them.
+ * As instances are recycled along with the context they belong to,
+ * the arrays are only allocated once and grow up to {@link #MAX_TAGS} entries.
+ * Further tags are silently dropped.
+ * </p>
+ * <p>
+ * The tags can be iterated by their position, from {@code 0} to {@link #size()} (exclusive).
+ * </p>
+ */
+public class Tags implements Recyclable {
+
+    public static final int MAX_TAGS = 128;
+    public static final byte TYPE_STRING = 0;
+    public static final byte TYPE_LONG = 1;
+    public static final byte TYPE_DOUBLE = 2;
+    public static final byte TYPE_BOOLEAN = 3;
+    private static final int INITIAL_CAPACITY = 8;
+
+    private String[] keys = new String[INITIAL_CAPACITY];
+    private byte[] types = new byte[INITIAL_CAPACITY];
+    private String[] stringValues = new String[INITIAL_CAPACITY];
+    private long[] numericValues = new long[INITIAL_CAPACITY];
+    /**
+     * Maps the hash of a key to its position in the arrays above, plus one.
+     * A value of {@code 0} marks an empty slot.
+     * The length is always a power of two and twice the capacity of the arrays.
+     */
+    private int[] index = new int[INITIAL_CAPACITY * 2];
+    private volatile int size;
+
+    public synchronized void add(String key, String value) {
+        final int i = slotFor(key);
+        if (i >= 0) {
+            types[i] = TYPE_STRING;
+            stringValues[i] = value;
+        }
+    }
+
+    public synchronized void add(String key, long value) {
+        final int i = slotFor(key);
+        if (i >= 0) {
+            types[i] = TYPE_LONG;
+            stringValues[i] = null;
+            numericValues[i] = value;
+        }
+    }
+
+    public synchronized void add(String key, double value) {
+        final int i = slotFor(key);
+        if (i >= 0) {
+            types[i] = TYPE_DOUBLE;
+            stringValues[i] = null;
+            numericValues[i] = Double.doubleToRawLongBits(value);
+        }
+    }
+
+    public synchronized void add(String key, boolean value) {
+        final int i = slotFor(key);
+        if (i >= 0) {
+            types[i] = TYPE_BOOLEAN;
+            stringValues[i] = null;
+            numericValues[i] = value ? 1 : 0;
+        }
+    }
+
+    /**
+     * Copies all tags of the other instance into this one.
+     * <p>
+     * If this instance is empty, the arrays are copied in bulk.
+     * </p>
+     *
+     * @param other the tags to copy
+     */
+    public synchronized void copyFrom(Tags other) {
+        final int otherSize = other.size;
+        if (otherSize == 0) {
+            return;
+        }
+        if (size == 0 && otherSize <= other.keys.length) {
+            ensureCapacity(other.keys.length);
+            System.arraycopy(other.keys, 0, keys, 0, otherSize);
+            System.arraycopy(other.types, 0, types, 0, otherSize);
+            System.arraycopy(other.stringValues, 0, stringValues, 0, otherSize);
+            System.arraycopy(other.numericValues, 0, numericValues, 0, otherSize);
+            size = otherSize;
+            if (index.length == other.index.length) {
+                System.arraycopy(other.index, 0, index, 0, index.length);
+            } else {
+                rebuildIndex();
+            }
+        } else {
+            for (int i = 0; i < otherSize; i++) {
+                final int slot = slotFor(other.keys[i]);
+                if (slot >= 0) {
+                    types[slot] = other.types[i];
+                    stringValues[slot] = other.stringValues[i];
+                    numericValues[slot] = other.numericValues[i];
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the position of the given key in the arrays, adding the key if it is not present yet.
+     *
+     * @return the position of the key or {@code -1} if the maximum number of tags has been reached
+     */
+    private int slotFor(String key) {
+        final int existing = indexOf(key);
+        if (existing >= 0) {
+            return existing;
+        }
+        if (size == keys.length) {
+            if (size >= MAX_TAGS) {
+                return -1;
+            }
+            ensureCapacity(Math.min(MAX_TAGS, keys.length * 2));
+        }
+        final int i = size;
+        keys[i] = key;
+        insertIntoIndex(key, i);
+        size = i + 1;
+        return i;
+    }
+
+    private int indexOf(String key) {
+        final int mask = index.length - 1;
+        for (int pos = hash(key) & mask; index[pos] != 0; pos = (pos + 1) & mask) {
+            final int i = index[pos] - 1;
+            if (keys[i].equals(key)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private void insertIntoIndex(String key, int i) {
+        final int mask = index.length - 1;
+        int pos = hash(key) & mask;
+        while (index[pos] != 0) {
+            pos = (pos + 1) & mask;
+        }
+        index[pos] = i + 1;
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (keys.length < capacity) {
+            keys = Arrays.copyOf(keys, capacity);
+            types = Arrays.copyOf(types, capacity);
+            stringValues = Arrays.copyOf(stringValues, capacity);
+            numericValues = Arrays.copyOf(numericValues, capacity);
+            index = new int[capacity * 2];
+            rebuildIndex();
+        }
+    }
+
+    private void rebuildIndex() {
+        Arrays.fill(index, 0);
+        for (int i = 0; i < size; i++) {
+            insertIntoIndex(keys[i], i);
+        }
+    }
+
+    private static int hash(String key) {
+        final int h = key.hashCode();
+        return h ^ (h >>> 16);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public String getKey(int i) {
+        return keys[i];
+    }
+
+    public byte getType(int i) {
+        return types[i];
+    }
+
+    @Nullable
+    public String getStringValue(int i) {
+        return stringValues[i];
+    }
+
+    public long getLongValue(int i) {
+        return numericValues[i];
+    }
+
+    public double getDoubleValue(int i) {
+        return Double.longBitsToDouble(numericValues[i]);
+    }
+
+    public boolean getBooleanValue(int i) {
+        return numericValues[i] != 0;
+    }
+
+    /**
+     * Returns the value at the given position as a {@link String}.
+     * Allocates for non-string values, so this should not be used on hot paths.
+     */
+    @Nullable
+    public String getValueAsString(int i) {
+        switch (types[i]) {
+            case TYPE_LONG:
+                return Long.toString(getLongValue(i));
+            case TYPE_DOUBLE:
+                return Double.toString(getDoubleValue(i));
+            case TYPE_BOOLEAN:
+                return Boolean.toString(getBooleanValue(i));
+            default:
+                return stringValues[i];
+        }
+    }
+
+    /**
+     * Returns the value of the given key as a {@link String}.
+     * Allocates for non-string values, so this should not be used on hot paths.
+     *
+     * @return the value or {@code null} if there is no tag with the given key
+     */
+    @Nullable
+    public synchronized String get(String key) {
+        final int i = indexOf(key);
+        return i >= 0 ? getValueAsString(i) : null;
+    }
+
+    @Override
+    public synchronized void resetState() {
+        Arrays.fill(keys, 0, size, null);
+        Arrays.fill(stringValues, 0, size, null);
+        Arrays.fill(index, 0);
+        size = 0;
+    }
+}
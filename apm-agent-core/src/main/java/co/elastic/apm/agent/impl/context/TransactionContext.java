@@ -19,8 +19,12 @@
  */
 package co.elastic.apm.agent.impl.context;
 
+import co.elastic.apm.agent.objectpool.ObjectPool;
+
+import javax.annotation.Nullable;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 
 /**
@@ -30,6 +34,9 @@ import java.util.concurrent.ConcurrentHashMap;
  */
 public class TransactionContext extends AbstractContext {
 
+    static final String SHARED_CONTEXT_MODIFIED = "Modifying a context which is shared with an error. " +
+        "Get the context from Transaction#getContext() again instead of holding on to a reference.";
+
     /**
      * An arbitrary mapping of additional metadata to store with the event.
      */
@@ -47,6 +54,66 @@ public class TransactionContext extends AbstractContext {
      * Describes the authenticated User for a request.
      */
     private final User user = new User();
+    /**
+     * The number of transactions and errors referencing this context.
+     * <p>
+     * Managed by {@link co.elastic.apm.agent.impl.transaction.Transaction}, not reset by {@link #resetState()}
+     * </p>
+     */
+    private final AtomicInteger references = new AtomicInteger();
+    @Nullable
+    private ObjectPool<TransactionContext> pool;
+
+    public TransactionContext() {
+        request.setOwner(this);
+        response.setOwner(this);
+    }
+
+    /**
+     * Marks this context as being owned by a transaction.
+     *
+     * @param pool the pool to return this context to, once the last reference has been {@linkplain #release() released}
+     */
+    public void onAcquire(ObjectPool<TransactionContext> pool) {
+        this.pool = pool;
+        references.set(1);
+    }
+
+    /**
+     * Adds a reference to this context, unless it has already been released.
+     *
+     * @return {@code true}, if a reference has been added
+     */
+    public boolean tryRetain() {
+        for (int current = references.get(); current > 0; current = references.get()) {
+            if (references.compareAndSet(current, current + 1)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * A shared context must not be modified as it is a snapshot other references rely on.
+     * <p>
+     * {@link co.elastic.apm.agent.impl.transaction.Transaction#getContext()} copies a shared context before returning it.
+     * Therefore, plugins must not hold on to a context, {@link Request} or {@link Response} across calls which may capture an error.
+     * Instead, they have to get them from the transaction again.
+     * The mutators of {@link Request} and {@link Response} assert that this contract is not violated.
+     * </p>
+     */
+    public boolean isShared() {
+        return references.get() > 1;
+    }
+
+    /**
+     * Removes a reference and returns this context to its pool when it was the last one.
+     */
+    public void release() {
+        if (references.decrementAndGet() == 0 && pool != null) {
+            pool.recycle(this);
+        }
+    }
 
     public void copyFrom(TransactionContext other) {
         response.copyFrom(other.response);
@@ -26,6 +26,7 @@ import co.elastic.apm.agent.impl.stacktrace.StacktraceConfiguration;
 import co.elastic.apm.agent.impl.transaction.TraceContext;
 import co.elastic.apm.agent.matcher.WildcardMatcher;
 import co.elastic.apm.agent.objectpool.Recyclable;
+import co.elastic.apm.agent.objectpool.ThreadAffineRecyclable;
 
 import javax.annotation.Nullable;
 import java.util.Collection;
@@ -34,7 +35,7 @@ import java.util.Collection;
 /**
  * Data captured by an agent representing an event occurring in a monitored service
  */
-public class ErrorCapture implements Recyclable {
+public class ErrorCapture implements ThreadAffineRecyclable {
 
     private final TraceContext traceContext;
 
@@ -44,11 +45,21 @@ public class ErrorCapture implements Recyclable {
      * Any arbitrary contextual information regarding the event, captured by the agent, optionally provided by the user
      */
     private final TransactionContext context = new TransactionContext();
+    /**
+     * The context of the transaction this error belongs to,
+     * which is copied into {@link #context} on first access.
+     */
+    @Nullable
+    private TransactionContext transactionContext;
     /**
      * Information about the originally thrown error.
      */
     @Nullable
     private Throwable exception;
+    /**
+     * Whether {@link #exception} has been unnested, see {@link #getException()}
+     */
+    private boolean exceptionResolved;
     /**
      * Recorded time of the error, UTC based and formatted as YYYY-MM-DDTHH:mm:ss.sssZ
      * (Required)
@@ -60,31 +71,109 @@ public class ErrorCapture implements Recyclable {
      */
     private TransactionInfo transactionInfo = new TransactionInfo();
 
+    /**
+     * The number of errors with the same fingerprint which have not been reported since the last one,
+     * see {@link ErrorRateLimiter}
+     */
+    private int droppedOccurrences;
+
     private ElasticApmTracer tracer;
     private final StringBuilder culprit = new StringBuilder();
 
+    /**
+     * Managed by {@link co.elastic.apm.agent.objectpool.impl.ThreadAffineObjectPool}, not reset by {@link #resetState()}
+     */
+    @Nullable
+    private Object poolOwner;
+
     public ErrorCapture(ElasticApmTracer tracer) {
         this.tracer = tracer;
         traceContext = TraceContext.with128BitId(this.tracer);
     }
 
+    @Nullable
+    @Override
+    public Object getPoolOwner() {
+        return poolOwner;
+    }
+
+    @Override
+    public void setPoolOwner(@Nullable Object poolOwner) {
+        this.poolOwner = poolOwner;
+    }
+
     /**
      * Context
      * <p>
      * Any arbitrary contextual information regarding the event, captured by the agent, optionally provided by the user
      */
     public TransactionContext getContext() {
+        final TransactionContext transactionContext = this.transactionContext;
+        if (transactionContext != null) {
+            this.transactionContext = null;
+            try {
+                context.copyFrom(transactionContext);
+            } finally {
+                transactionContext.release();
+            }
+        }
         return context;
     }
 
+    /**
+     * Returns the context without copying the context of the transaction.
+     * The returned context must not be modified.
+     */
+    public TransactionContext peekContext() {
+        final TransactionContext transactionContext = this.transactionContext;
+        return transactionContext != null ? transactionContext : context;
+    }
+
+    /**
+     * Sets a reference to the context of the transaction this error belongs to.
+     * Instead of copying it on the application thread,
+     * the context is copied when first accessing {@link #getContext()}, which is usually on the reporter thread.
+     *
+     * @param sharedContext a context obtained via {@link co.elastic.apm.agent.impl.transaction.Transaction#shareContext()}
+     */
+    public void setTransactionContext(TransactionContext sharedContext) {
+        if (transactionContext != null) {
+            transactionContext.release();
+        }
+        transactionContext = sharedContext;
+    }
+
     /**
      * Information about the originally thrown error.
+     * <p>
+     * If the class of the exception matches {@link CoreConfiguration#getUnnestExceptions()}, this returns its cause.
+     * </p>
      */
     @Nullable
     public Throwable getException() {
+        if (!exceptionResolved) {
+            resolveException();
+        }
+        return exception;
+    }
+
+    /**
+     * Returns the exception without unnesting it.
+     * Use this method when the cost of {@link #getException()} should not be paid on the application thread.
+     */
+    @Nullable
+    public Throwable peekException() {
         return exception;
     }
 
+    private void resolveException() {
+        exceptionResolved = true;
+        final Throwable exception = this.exception;
+        if (exception != null && WildcardMatcher.anyMatch(tracer.getConfig(CoreConfiguration.class).getUnnestExceptions(), exception.getClass().getName()) != null) {
+            this.exception = exception.getCause();
+        }
+    }
+
     /**
      * Recorded time of the error, UTC based and formatted as YYYY-MM-DDTHH:mm:ss.sssZ
      * (Required)
@@ -101,8 +190,14 @@ public class ErrorCapture implements Recyclable {
     @Override
     public void resetState() {
         exception = null;
+        exceptionResolved = false;
+        if (transactionContext != null) {
+            transactionContext.release();
+            transactionContext = null;
+        }
         context.resetState();
         timestamp = 0;
+        droppedOccurrences = 0;
         transactionInfo.resetState();
         traceContext.resetState();
         culprit.setLength(0);
@@ -127,17 +222,33 @@ public class ErrorCapture implements Recyclable {
         return traceContext;
     }
 
+    /**
+     * Sets the exception which is unnested lazily, see {@link #getException()} and {@link #resolve()}.
+     */
     public void setException(Throwable e) {
-        if (WildcardMatcher.anyMatch(tracer.getConfig(CoreConfiguration.class).getUnnestExceptions(), e.getClass().getName()) != null) {
-            this.exception = e.getCause();
-        } else {
-            this.exception = e;
-        }
+        this.exception = e;
+        this.exceptionResolved = false;
+    }
+
+    /**
+     * Performs the work which is deferred when capturing an error on the application thread:
+     * unnesting the exception, computing the culprit and copying the context of the transaction.
+     * <p>
+     * This is invoked on the reporter thread before the error is processed and serialized,
+     * see {@link co.elastic.apm.agent.report.processor.ProcessorEventHandler}.
+     * Otherwise, the work is done lazily by the corresponding getters.
+     * </p>
+     */
+    public void resolve() {
+        getException();
+        getCulprit();
+        getContext();
     }
 
     public StringBuilder getCulprit() {
         // lazily resolve culprit so that java.lang.Throwable.getStackTrace is called outside the application thread
         final Collection<String> applicationPackages = tracer.getConfig(StacktraceConfiguration.class).getApplicationPackages();
+        final Throwable exception = getException();
         if (exception != null && culprit.length() == 0 && !applicationPackages.isEmpty()) {
             computeCulprit(exception, applicationPackages);
         }
@@ -217,4 +328,12 @@ public class ErrorCapture implements Recyclable {
     public void setTransactionType(@Nullable String type) {
         transactionInfo.type = type;
     }
+
+    public int getDroppedOccurrences() {
+        return droppedOccurrences;
+    }
+
+    public void setDroppedOccurrences(int droppedOccurrences) {
+        this.droppedOccurrences = droppedOccurrences;
+    }
 }
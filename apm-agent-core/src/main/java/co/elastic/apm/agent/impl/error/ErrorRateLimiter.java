@@ -0,0 +1,148 @@
+/*-
+ * #%L
+ * Elastic APM Java agent
+ * %%
+ * Copyright (C) 2018 - 2019 Elastic and contributors
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package co.elastic.apm.agent.impl.error;
+
+import co.elastic.apm.agent.configuration.CoreConfiguration;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Limits how many errors with the same fingerprint are reported within a time window.
+ * <p>
+ * The fingerprint of an exception is a hash of its class and the class names, method names and line numbers of its top
+ * {@link #FINGERPRINT_FRAMES} frames.
+ * It is computed without creating any {@link String}s.
+ * Note that {@link Throwable#getStackTrace()} fills the stack trace of the exception,
+ * which is cached by the exception and would otherwise be done when serializing the error.
+ * </p>
+ * <p>
+ * The limiter is consulted on the application thread before an {@link ErrorCapture} is taken from the pool,
+ * so that a flood of the same exception does not occupy pooled objects or slots of the reporter's ring buffer.
+ * </p>
+ * <p>
+ * The fingerprints are tracked in a fixed-size, lock-free open-addressing table.
+ * Slots whose window has expired a while ago are reclaimed by new fingerprints.
+ * If no slot can be found within {@link #MAX_PROBES} probes, the error is not limited.
+ * As the state of a slot is spread across multiple atomic arrays,
+ * the counts are approximate under contention.
+ * </p>
+ */
+public class ErrorRateLimiter {
+
+    /**
+     * Returned by {@link #acquire(Throwable, long)} if the error should not be reported
+     */
+    public static final int DROP = -1;
+    static final int FINGERPRINT_FRAMES = 5;
+    static final int TABLE_SIZE = 512;
+    private static final int MAX_PROBES = 8;
+    private static final long EMPTY = 0;
+    private static final long GOLDEN_RATIO = 0x9E3779B97F4A7C15L;
+
+    private final CoreConfiguration coreConfiguration;
+    private final AtomicLongArray fingerprints = new AtomicLongArray(TABLE_SIZE);
+    private final AtomicLongArray windowStarts = new AtomicLongArray(TABLE_SIZE);
+    private final AtomicIntegerArray reported = new AtomicIntegerArray(TABLE_SIZE);
+    private final AtomicIntegerArray dropped = new AtomicIntegerArray(TABLE_SIZE);
+
+    public ErrorRateLimiter(CoreConfiguration coreConfiguration) {
+        this.coreConfiguration = coreConfiguration;
+    }
+
+    /**
+     * Decides whether an error should be reported.
+     *
+     * @param throwable     the exception to report
+     * @param currentTimeMs the current time in milliseconds
+     * @return {@link #DROP} if the error should not be reported,
+     * otherwise the number of errors with the same fingerprint which have been dropped since the last one has been reported
+     */
+    public int acquire(Throwable throwable, long currentTimeMs) {
+        final int maxErrors = coreConfiguration.getMaxErrorsPerFingerprint();
+        if (maxErrors <= 0) {
+            return 0;
+        }
+        final long windowMs = coreConfiguration.getErrorFingerprintWindowMs();
+        final long fingerprint = fingerprint(throwable);
+        final int slot = findSlot(fingerprint, currentTimeMs, windowMs);
+        if (slot < 0) {
+            return 0;
+        }
+        final long windowStart = windowStarts.get(slot);
+        if (currentTimeMs - windowStart >= windowMs && windowStarts.compareAndSet(slot, windowStart, currentTimeMs)) {
+            reported.set(slot, 0);
+        }
+        if (reported.incrementAndGet(slot) <= maxErrors) {
+            return dropped.getAndSet(slot, 0);
+        }
+        dropped.incrementAndGet(slot);
+        return DROP;
+    }
+
+    private int findSlot(long fingerprint, long currentTimeMs, long windowMs) {
+        final int mask = TABLE_SIZE - 1;
+        final int hash = (int) (fingerprint ^ (fingerprint >>> 32));
+        for (int i = 0; i < MAX_PROBES; i++) {
+            final int slot = (hash + i) & mask;
+            final long current = fingerprints.get(slot);
+            if (current == fingerprint) {
+                return slot;
+            }
+            if (current == EMPTY || isStale(slot, currentTimeMs, windowMs)) {
+                if (fingerprints.compareAndSet(slot, current, fingerprint)) {
+                    windowStarts.set(slot, currentTimeMs);
+                    reported.set(slot, 0);
+                    dropped.set(slot, 0);
+                    return slot;
+                } else if (fingerprints.get(slot) == fingerprint) {
+                    return slot;
+                }
+            }
+        }
+        return -1;
+    }
+
+    /*
+     * A slot which has not seen an error for at least a whole window can be taken over by another fingerprint.
+     * The dropped count of the previous fingerprint is lost in that case.
+     */
+    private boolean isStale(int slot, long currentTimeMs, long windowMs) {
+        return currentTimeMs - windowStarts.get(slot) >= 2 * windowMs;
+    }
+
+    static long fingerprint(Throwable throwable) {
+        long hash = throwable.getClass().getName().hashCode();
+        final StackTraceElement[] stackTrace = throwable.getStackTrace();
+        for (int i = 0, frames = Math.min(FINGERPRINT_FRAMES, stackTrace.length); i < frames; i++) {
+            final StackTraceElement frame = stackTrace[i];
+            // combining the hashes with a small multiplier like 31 would let method names and line numbers cancel each other out
+            hash = hash * GOLDEN_RATIO + (((long) frame.getClassName().hashCode() << 32) | (frame.getMethodName().hashCode() & 0xFFFFFFFFL));
+            hash = hash * GOLDEN_RATIO + frame.getLineNumber();
+        }
+        // finalizer of MurmurHash3 to spread the bits over the table
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash == EMPTY ? 1 : hash;
+    }
+}
@@ -0,0 +1,153 @@
+/*-
+ * #%L
+ * Elastic APM Java agent
+ * %%
+ * Copyright (C) 2018 - 2019 Elastic and contributors
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package co.elastic.apm.agent.impl.stacktrace;
+
+import co.elastic.apm.agent.impl.transaction.Span;
+
+import javax.annotation.Nullable;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Decides whether the stack trace of a slow span should be captured,
+ * bounding the overhead of capturing stack traces on application threads.
+ * <p>
+ * At most {@link StacktraceConfiguration#getSpanFramesMaxPerSecond() span_frames_max_per_second} stack traces are captured per second
+ * and at most {@link StacktraceConfiguration#getSpanFramesMaxPerTransaction() span_frames_max_per_transaction} per transaction.
+ * </p>
+ * <p>
+ * Captured stack traces are cached by span name and type for {@link #MAX_REUSE_AGE_NANOS}.
+ * Spans with the same name and type reuse the cached stack trace instead of capturing a new one,
+ * which does not count against the limits.
+ * A span which is rejected by the per-second limit does not count against the limit of its transaction.
+ * That way, the budget is spent on distinct call sites.
+ * The cache is a small direct-mapped table, so that a lookup does not allocate memory.
+ * </p>
+ */
+public class StacktraceBudget {
+
+    static final int CACHE_SIZE = 256;
+    static final long MAX_REUSE_AGE_NANOS = TimeUnit.MINUTES.toNanos(1);
+    private static final int MASK = CACHE_SIZE - 1;
+
+    private final StacktraceConfiguration stacktraceConfiguration;
+    private final AtomicReferenceArray<CachedStacktrace> cache = new AtomicReferenceArray<>(CACHE_SIZE);
+    private final AtomicLong currentSecond = new AtomicLong(Long.MIN_VALUE);
+    private final AtomicInteger capturedInCurrentSecond = new AtomicInteger();
+
+    public StacktraceBudget(StacktraceConfiguration stacktraceConfiguration) {
+        this.stacktraceConfiguration = stacktraceConfiguration;
+    }
+
+    /**
+     * Returns the stack trace for a slow span which has just ended on the current thread.
+     * <p>
+     * The per-transaction limit is applied to the transaction the span has been started in,
+     * see {@link Span#getCapturedStacktracesOfTransaction()}.
+     * </p>
+     *
+     * @param span the span
+     * @return a captured or reused stack trace, or {@code null} if the budget has been exhausted
+     */
+    @Nullable
+    public Throwable getStacktrace(Span span) {
+        return getStacktrace(span, System.nanoTime());
+    }
+
+    @Nullable
+    Throwable getStacktrace(Span span, long nanoTime) {
+        final String type = span.getType();
+        final int hash = hash(span.getName(), type);
+        final CachedStacktrace cached = cache.get(hash & MASK);
+        if (cached != null && cached.matches(hash, span.getName(), type) && nanoTime - cached.capturedAt < MAX_REUSE_AGE_NANOS) {
+            return cached.stacktrace;
+        }
+        final AtomicInteger capturedOfTransaction = span.getCapturedStacktracesOfTransaction();
+        if (!tryAcquirePerTransaction(capturedOfTransaction)) {
+            return null;
+        }
+        if (!tryAcquirePerSecond(nanoTime)) {
+            // give the slot of the transaction back, as no stack trace has been captured
+            if (capturedOfTransaction != null && stacktraceConfiguration.getSpanFramesMaxPerTransaction() >= 0) {
+                capturedOfTransaction.decrementAndGet();
+            }
+            return null;
+        }
+        final Throwable stacktrace = new Throwable();
+        cache.set(hash & MASK, new CachedStacktrace(hash, span.getName().toString(), type, stacktrace, nanoTime));
+        return stacktrace;
+    }
+
+    private boolean tryAcquirePerTransaction(@Nullable AtomicInteger capturedOfTransaction) {
+        final int maxPerTransaction = stacktraceConfiguration.getSpanFramesMaxPerTransaction();
+        return maxPerTransaction < 0
+            || capturedOfTransaction == null
+            || capturedOfTransaction.incrementAndGet() <= maxPerTransaction;
+    }
+
+    private boolean tryAcquirePerSecond(long nanoTime) {
+        final int maxPerSecond = stacktraceConfiguration.getSpanFramesMaxPerSecond();
+        if (maxPerSecond < 0) {
+            return true;
+        }
+        final long second = TimeUnit.NANOSECONDS.toSeconds(nanoTime);
+        final long current = currentSecond.get();
+        if (second != current && currentSecond.compareAndSet(current, second)) {
+            // a few captures of concurrent threads might be attributed to the wrong second, which is fine for a budget
+            capturedInCurrentSecond.set(0);
+        }
+        return capturedInCurrentSecond.incrementAndGet() <= maxPerSecond;
+    }
+
+    private static int hash(CharSequence name, @Nullable String type) {
+        int h = 0;
+        for (int i = 0; i < name.length(); i++) {
+            h = 31 * h + name.charAt(i);
+        }
+        h = 31 * h + (type != null ? type.hashCode() : 0);
+        // spreads the higher bits, as only the lower bits are used to compute the index
+        return h ^ (h >>> 16);
+    }
+
+    private static class CachedStacktrace {
+        private final int hash;
+        private final String name;
+        @Nullable
+        private final String type;
+        private final Throwable stacktrace;
+        private final long capturedAt;
+
+        private CachedStacktrace(int hash, String name, @Nullable String type, Throwable stacktrace, long capturedAt) {
+            this.hash = hash;
+            this.name = name;
+            this.type = type;
+            this.stacktrace = stacktrace;
+            this.capturedAt = capturedAt;
+        }
+
+        private boolean matches(int hash, CharSequence name, @Nullable String type) {
+            return this.hash == hash
+                && this.name.contentEquals(name)
+                && (this.type == null ? type == null : this.type.equals(type));
+        }
+    }
+}
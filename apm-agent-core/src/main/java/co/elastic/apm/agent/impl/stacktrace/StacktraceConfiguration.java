@@ -68,6 +68,31 @@ public class StacktraceConfiguration extends ConfigurationOptionProvider {
         .dynamic(true)
         .buildWithDefault(TimeDuration.of("5ms"));
 
+    private final ConfigurationOption<Integer> spanFramesMaxPerSecond = ConfigurationOption.integerOption()
+        .key("span_frames_max_per_second")
+        .configurationCategory(STACKTRACE_CATEGORY)
+        .description("Limits how many stack traces of spans are captured per second.\n" +
+            "\n" +
+            "Capturing the stack trace of a span which is slower than <<config-span-frames-min-duration, `span_frames_min_duration`>>\n" +
+            "happens on the application thread.\n" +
+            "When lots of spans are slow, for example during a database incident, this limit bounds the overhead.\n" +
+            "Spans which exceed the limit are reported without a stack trace,\n" +
+            "unless a stack trace of a span with the same name and type has been captured recently, which is then reused.\n" +
+            "\n" +
+            "Set to `-1` to capture the stack traces of all slow spans.")
+        .dynamic(true)
+        .buildWithDefault(100);
+
+    private final ConfigurationOption<Integer> spanFramesMaxPerTransaction = ConfigurationOption.integerOption()
+        .key("span_frames_max_per_transaction")
+        .configurationCategory(STACKTRACE_CATEGORY)
+        .description("Limits how many stack traces of spans are captured per transaction.\n" +
+            "Spans which exceed the limit may still reuse a recently captured stack trace of a span with the same name and type.\n" +
+            "\n" +
+            "Set to `-1` to disable this limit.")
+        .dynamic(true)
+        .buildWithDefault(-1);
+
     public Collection<String> getApplicationPackages() {
         return applicationPackages.get();
     }
@@ -79,4 +104,12 @@ public class StacktraceConfiguration extends ConfigurationOptionProvider {
     public long getSpanFramesMinDurationMs() {
         return spanFramesMinDurationMs.getValue().getMillis();
     }
+
+    public int getSpanFramesMaxPerSecond() {
+        return spanFramesMaxPerSecond.get();
+    }
+
+    public int getSpanFramesMaxPerTransaction() {
+        return spanFramesMaxPerTransaction.get();
+    }
 }
@@ -126,6 +126,12 @@ public abstract class AbstractSpan<T extends AbstractSpan> extends TraceContextH
 
     public abstract void addTag(String key, String value);
 
+    public abstract void addTag(String key, long value);
+
+    public abstract void addTag(String key, double value);
+
+    public abstract void addTag(String key, boolean value);
+
     protected void onStart() {
         this.finished = false;
     }
@@ -134,7 +140,7 @@ public abstract class AbstractSpan<T extends AbstractSpan> extends TraceContextH
         end(traceContext.getClock().getEpochMicros());
     }
 
-    public final void end(long epochMicros) {
+    public void end(long epochMicros) {
         if (!finished) {
             this.finished = true;
             this.duration = (epochMicros - timestamp) / AbstractSpan.MS_IN_MICROS;
@@ -20,16 +20,10 @@
 
 package co.elastic.apm.agent.impl.transaction;
 
-import co.elastic.apm.agent.objectpool.Allocator;
-import co.elastic.apm.agent.objectpool.ObjectPool;
 import co.elastic.apm.agent.objectpool.Recyclable;
-import co.elastic.apm.agent.objectpool.impl.QueueBasedObjectPool;
-import co.elastic.apm.agent.objectpool.impl.Resetter;
-import co.elastic.apm.agent.report.serialize.DslJsonSerializer;
-import org.jctools.queues.atomic.MpmcAtomicArrayQueue;
+import co.elastic.apm.agent.objectpool.impl.CharBufferAllocator;
 
 import javax.annotation.Nullable;
-import java.nio.Buffer;
 import java.nio.CharBuffer;
 
 
@@ -38,20 +32,6 @@ import java.nio.CharBuffer;
  */
 public class Db implements Recyclable {
 
-    private final ObjectPool<CharBuffer> charBufferPool = QueueBasedObjectPool.of(new MpmcAtomicArrayQueue<CharBuffer>(128), false,
-        new Allocator<CharBuffer>() {
-            @Override
-            public CharBuffer createInstance() {
-                return CharBuffer.allocate(DslJsonSerializer.MAX_LONG_STRING_VALUE_LENGTH);
-            }
-        },
-        new Resetter<CharBuffer>() {
-            @Override
-            public void recycle(CharBuffer object) {
-                ((Buffer) object).clear();
-            }
-        });
-
     /**
      * Database instance name
      */
@@ -118,11 +98,28 @@ public class Db implements Recyclable {
      * Note: This method is not thread safe
      * </p>
      *
-     * @return a {@link CharBuffer} to record the DB statement
+     * @return a {@link CharBuffer} of the largest size class to record the DB statement
      */
     public CharBuffer withStatementBuffer() {
+        return withStatementBuffer(-1);
+    }
+
+    /**
+     * Gets a pooled {@link CharBuffer} to record the DB statement and associates it with this instance.
+     * <p>
+     * Note: you may not hold a reference to the returned {@link CharBuffer} as it will be reused.
+     * </p>
+     * <p>
+     * Note: This method is not thread safe
+     * </p>
+     *
+     * @param expectedLength the expected number of chars of the statement, or a non-positive value if unknown
+     * @return a {@link CharBuffer} which is large enough to hold {@code expectedLength} chars, if possible
+     * @see CharBufferAllocator#acquire(int)
+     */
+    public CharBuffer withStatementBuffer(int expectedLength) {
         if (this.statementBuffer == null) {
-            this.statementBuffer = charBufferPool.createInstance();
+            this.statementBuffer = CharBufferAllocator.get().acquire(expectedLength);
         }
         return this.statementBuffer;
     }
@@ -179,7 +176,7 @@ public class Db implements Recyclable {
         type = null;
         user = null;
         if (statementBuffer != null) {
-            charBufferPool.recycle(statementBuffer);
+            CharBufferAllocator.get().release(statementBuffer);
         }
         statementBuffer = null;
     }
@@ -0,0 +1,210 @@
+/*-
+ * #%L
+ * Elastic APM Java agent
+ * %%
+ * Copyright (C) 2018 - 2019 Elastic and contributors
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package co.elastic.apm.agent.impl.transaction;
+
+import co.elastic.apm.agent.impl.ElasticApmTracer;
+import co.elastic.apm.agent.impl.context.SpanContext;
+
+import javax.annotation.Nullable;
+import java.nio.CharBuffer;
+
+/**
+ * A span which is neither reported nor aggregated,
+ * handed out instead of a pooled {@link Span} for the children of unsampled transactions
+ * and for the children which exceed {@code transaction_max_spans}.
+ * <p>
+ * A single instance is shared by all such spans of a {@link Transaction} and may be used by multiple threads.
+ * That's why it ignores all mutations, including the ones of its {@link #getContext() context}.
+ * Its {@link TraceContext} is a copy of the transaction's context which is not recorded,
+ * so that the outgoing {@code traceparent} header propagates the trace and the ID of the transaction.
+ * </p>
+ * <p>
+ * Activating it only pushes it onto the stack of active spans so that {@link ElasticApmTracer#getActive()} stays consistent,
+ * the {@link co.elastic.apm.agent.impl.ActivationListener}s are not called.
+ * Ending it is a noop and it is never recycled.
+ * </p>
+ */
+class NoopSpan extends Span {
+
+    /**
+     * Stateless, so that it can be shared by all noop spans
+     */
+    private static final SpanContext NOOP_CONTEXT = new NoopSpanContext();
+
+    NoopSpan(ElasticApmTracer tracer) {
+        super(tracer);
+    }
+
+    /**
+     * Must be called before publishing this instance to other threads
+     */
+    void init(TraceContext transactionContext) {
+        traceContext.copyFrom(transactionContext);
+        traceContext.setRecorded(false);
+        // the header is lazily initialized otherwise, which is not thread safe
+        traceContext.getOutgoingTraceParentHeader();
+    }
+
+    @Override
+    public boolean isNoop() {
+        return true;
+    }
+
+    @Override
+    public Span activate() {
+        tracer.activate(this);
+        return this;
+    }
+
+    @Override
+    public Span deactivate() {
+        tracer.deactivate(this);
+        return this;
+    }
+
+    @Override
+    public SpanContext getContext() {
+        return NOOP_CONTEXT;
+    }
+
+    @Override
+    public Span appendToName(String s) {
+        return this;
+    }
+
+    @Override
+    public Span withType(@Nullable String type) {
+        return this;
+    }
+
+    @Override
+    public Span withSubtype(@Nullable String subtype) {
+        return this;
+    }
+
+    @Override
+    public Span withAction(@Nullable String action) {
+        return this;
+    }
+
+    @Override
+    public void setType(@Nullable String type, @Nullable String subtype, @Nullable String action) {
+    }
+
+    @Override
+    public void addTag(String key, String value) {
+    }
+
+    @Override
+    public void addTag(String key, long value) {
+    }
+
+    @Override
+    public void addTag(String key, double value) {
+    }
+
+    @Override
+    public void addTag(String key, boolean value) {
+    }
+
+    @Override
+    public Span withStacktrace(Throwable stacktrace) {
+        return this;
+    }
+
+    @Override
+    public void end() {
+    }
+
+    @Override
+    public void end(long epochMicros) {
+    }
+
+    @Override
+    public void recycle() {
+    }
+
+    @Override
+    public String toString() {
+        return String.format("noop %s", traceContext);
+    }
+
+    private static class NoopSpanContext extends SpanContext {
+
+        private NoopSpanContext() {
+            super(new NoopDb(), new NoopHttp());
+        }
+
+        @Override
+        public void resetState() {
+        }
+    }
+
+    private static class NoopDb extends Db {
+
+        /**
+         * Has no capacity so that nothing can be written to it, even when it's shared by multiple threads
+         */
+        private static final CharBuffer EMPTY_BUFFER = CharBuffer.allocate(0);
+
+        @Override
+        public Db withInstance(@Nullable String instance) {
+            return this;
+        }
+
+        @Override
+        public Db withStatement(@Nullable String statement) {
+            return this;
+        }
+
+        @Override
+        public CharBuffer withStatementBuffer(int expectedLength) {
+            return EMPTY_BUFFER;
+        }
+
+        @Override
+        public Db withType(@Nullable String type) {
+            return this;
+        }
+
+        @Override
+        public Db withUser(@Nullable String user) {
+            return this;
+        }
+    }
+
+    private static class NoopHttp extends Http {
+
+        @Override
+        public Http withUrl(@Nullable String url) {
+            return this;
+        }
+
+        @Override
+        public Http withMethod(String method) {
+            return this;
+        }
+
+        @Override
+        public Http withStatusCode(int statusCode) {
+            return this;
+        }
+    }
+}
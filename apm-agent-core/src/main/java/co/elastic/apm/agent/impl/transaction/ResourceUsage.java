@@ -0,0 +1,113 @@
+/*-
+ * #%L
+ * Elastic APM Java agent
+ * %%
+ * Copyright (C) 2018 - 2019 Elastic and contributors
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package co.elastic.apm.agent.impl.transaction;
+
+import co.elastic.apm.agent.objectpool.Recyclable;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The CPU time and the heap memory which the threads working on behalf of a {@link Transaction} have consumed,
+ * as well as how often and how long they have been blocked on monitors or have been waiting.
+ * <p>
+ * As continuations of a transaction may run on multiple threads concurrently, the values are updated atomically.
+ * </p>
+ */
+public class ResourceUsage implements Recyclable {
+
+    private final AtomicLong cpuTimeNanos = new AtomicLong(0);
+    private final AtomicLong allocatedBytes = new AtomicLong(0);
+    private final AtomicLong blockedCount = new AtomicLong(0);
+    private final AtomicLong blockedTimeMillis = new AtomicLong(0);
+    private final AtomicLong waitedCount = new AtomicLong(0);
+    private final AtomicLong waitedTimeMillis = new AtomicLong(0);
+
+    public void add(long cpuTimeNanos, long allocatedBytes) {
+        addIfPositive(this.cpuTimeNanos, cpuTimeNanos);
+        addIfPositive(this.allocatedBytes, allocatedBytes);
+    }
+
+    public void addContention(long blockedCount, long blockedTimeMillis, long waitedCount, long waitedTimeMillis) {
+        addIfPositive(this.blockedCount, blockedCount);
+        addIfPositive(this.blockedTimeMillis, blockedTimeMillis);
+        addIfPositive(this.waitedCount, waitedCount);
+        addIfPositive(this.waitedTimeMillis, waitedTimeMillis);
+    }
+
+    private static void addIfPositive(AtomicLong value, long delta) {
+        if (delta > 0) {
+            value.addAndGet(delta);
+        }
+    }
+
+    public long getCpuTimeNanos() {
+        return cpuTimeNanos.get();
+    }
+
+    public long getAllocatedBytes() {
+        return allocatedBytes.get();
+    }
+
+    /**
+     * @return how often the threads have been blocked trying to enter or reenter a monitor
+     */
+    public long getBlockedCount() {
+        return blockedCount.get();
+    }
+
+    /**
+     * @return how long the threads have been blocked, only available if thread contention monitoring is enabled
+     */
+    public long getBlockedTimeMillis() {
+        return blockedTimeMillis.get();
+    }
+
+    /**
+     * @return how often the threads have been waiting, for example in {@link Object#wait()} or {@link java.util.concurrent.locks.LockSupport#park()}
+     */
+    public long getWaitedCount() {
+        return waitedCount.get();
+    }
+
+    /**
+     * @return how long the threads have been waiting, only available if thread contention monitoring is enabled
+     */
+    public long getWaitedTimeMillis() {
+        return waitedTimeMillis.get();
+    }
+
+    public boolean hasContent() {
+        return cpuTimeNanos.get() > 0 || allocatedBytes.get() > 0;
+    }
+
+    public boolean hasContention() {
+        return blockedCount.get() > 0 || waitedCount.get() > 0;
+    }
+
+    @Override
+    public void resetState() {
+        cpuTimeNanos.set(0);
+        allocatedBytes.set(0);
+        blockedCount.set(0);
+        blockedTimeMillis.set(0);
+        waitedCount.set(0);
+        waitedTimeMillis.set(0);
+    }
+}
@@ -26,6 +26,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.annotation.Nullable;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class Span extends AbstractSpan<Span> implements Recyclable {
 
@@ -58,6 +59,12 @@ public class Span extends AbstractSpan<Span> implements Recyclable {
     private final SpanContext context = new SpanContext();
     @Nullable
     private Throwable stacktrace;
+    /**
+     * The counter of captured stack traces of the transaction this span belongs to,
+     * see {@link Transaction#getCapturedSpanStacktraces()}
+     */
+    @Nullable
+    private AtomicInteger capturedStacktracesOfTransaction;
 
     public Span(ElasticApmTracer tracer) {
         super(tracer);
@@ -195,6 +202,7 @@ public class Span extends AbstractSpan<Span> implements Recyclable {
         super.resetState();
         context.resetState();
         stacktrace = null;
+        capturedStacktracesOfTransaction = null;
         type = null;
         subtype = null;
         action = null;
@@ -202,13 +210,53 @@ public class Span extends AbstractSpan<Span> implements Recyclable {
 
     @Override
     public void addTag(String key, String value) {
-        context.getTags().put(key, value);
+        context.getTags().add(key, value);
+    }
+
+    @Override
+    public void addTag(String key, long value) {
+        context.getTags().add(key, value);
+    }
+
+    @Override
+    public void addTag(String key, double value) {
+        context.getTags().add(key, value);
+    }
+
+    @Override
+    public void addTag(String key, boolean value) {
+        context.getTags().add(key, value);
     }
 
     public void recycle() {
         tracer.recycle(this);
     }
 
+    /**
+     * The counter is recorded when the span is started,
+     * as the span might end on a thread on which its transaction is not active.
+     *
+     * @param capturedStacktracesOfTransaction the counter of captured stack traces of the transaction this span belongs to
+     */
+    public void setCapturedStacktracesOfTransaction(@Nullable AtomicInteger capturedStacktracesOfTransaction) {
+        this.capturedStacktracesOfTransaction = capturedStacktracesOfTransaction;
+    }
+
+    @Nullable
+    public AtomicInteger getCapturedStacktracesOfTransaction() {
+        return capturedStacktracesOfTransaction;
+    }
+
+    /**
+     * Noop spans are shared by all unsampled or dropped spans of a transaction,
+     * they are neither reported nor aggregated.
+     *
+     * @return whether this is a noop span
+     */
+    public boolean isNoop() {
+        return false;
+    }
+
     @Override
     public String toString() {
         return String.format("'%s' %s", name, traceContext);
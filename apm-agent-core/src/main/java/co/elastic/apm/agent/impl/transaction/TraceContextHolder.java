@@ -22,7 +22,7 @@ package co.elastic.apm.agent.impl.transaction;
 import co.elastic.apm.agent.impl.ActivationListener;
 import co.elastic.apm.agent.impl.ElasticApmTracer;
 import co.elastic.apm.agent.impl.Scope;
-import co.elastic.apm.agent.objectpool.Recyclable;
+import co.elastic.apm.agent.objectpool.ThreadAffineRecyclable;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -46,16 +46,33 @@ import java.util.concurrent.Callable;
  *
  * @param <T> the type, used to enable fluent method chaining
  */
-public abstract class TraceContextHolder<T extends TraceContextHolder> implements Recyclable {
+public abstract class TraceContextHolder<T extends TraceContextHolder> implements ThreadAffineRecyclable {
 
     private static final Logger logger = LoggerFactory.getLogger(TraceContextHolder.class);
 
     protected final ElasticApmTracer tracer;
 
+    /**
+     * Managed by {@link co.elastic.apm.agent.objectpool.impl.ThreadAffineObjectPool}, not reset by {@link #resetState()}
+     */
+    @Nullable
+    private Object poolOwner;
+
     protected TraceContextHolder(ElasticApmTracer tracer) {
         this.tracer = tracer;
     }
 
+    @Nullable
+    @Override
+    public Object getPoolOwner() {
+        return poolOwner;
+    }
+
+    @Override
+    public void setPoolOwner(@Nullable Object poolOwner) {
+        this.poolOwner = poolOwner;
+    }
+
     public abstract TraceContext getTraceContext();
 
     public abstract Span createSpan();
@@ -19,11 +19,16 @@
  */
 package co.elastic.apm.agent.impl.transaction;
 
+import co.elastic.apm.agent.configuration.CoreConfiguration;
 import co.elastic.apm.agent.impl.ElasticApmTracer;
 import co.elastic.apm.agent.impl.context.TransactionContext;
 import co.elastic.apm.agent.impl.sampling.Sampler;
+import co.elastic.apm.agent.objectpool.Allocator;
+import co.elastic.apm.agent.objectpool.NoopObjectPool;
+import co.elastic.apm.agent.objectpool.ObjectPool;
 
 import javax.annotation.Nullable;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Data captured by an agent representing an event occurring in a monitored service
@@ -32,13 +37,32 @@ public class Transaction extends AbstractSpan<Transaction> {
 
     public static final String TYPE_REQUEST = "request";
 
+    private static final ObjectPool<TransactionContext> UNPOOLED_CONTEXTS = new NoopObjectPool<>(new Allocator<TransactionContext>() {
+        @Override
+        public TransactionContext createInstance() {
+            return new TransactionContext();
+        }
+    });
+
+    private final ObjectPool<TransactionContext> contextPool;
     /**
      * Context
      * <p>
      * Any arbitrary contextual information regarding the event, captured by the agent, optionally provided by the user
+     * </p>
+     * <p>
+     * Taken from the {@link #contextPool} on first access and returned to it when this transaction is recycled.
+     * As unsampled transactions don't record a context, they don't hold on to one.
+     * </p>
      */
-    private final TransactionContext context = new TransactionContext();
+    @Nullable
+    private volatile TransactionContext context;
     private final SpanCount spanCount = new SpanCount();
+    private final ResourceUsage resourceUsage = new ResourceUsage();
+    /**
+     * The number of spans of this transaction whose stack trace has been captured
+     */
+    private final AtomicInteger capturedSpanStacktraces = new AtomicInteger();
 
     /**
      * The result of the transaction. HTTP status code for HTTP-related transactions.
@@ -51,6 +75,12 @@ public class Transaction extends AbstractSpan<Transaction> {
      */
     private boolean noop;
 
+    /**
+     * Whether the name and result are recorded, which is the case for sampled transactions
+     * and for non-sampled transactions which are aggregated by them
+     */
+    private boolean recordingNameAndResult;
+
     /**
      * Keyword of specific relevance in the service's domain (eg:  'request', 'backgroundjob')
      * (Required)
@@ -58,8 +88,29 @@ public class Transaction extends AbstractSpan<Transaction> {
     @Nullable
     private volatile String type;
 
+    /**
+     * The time, in microseconds, in which the transaction overlapped with garbage collections
+     */
+    private long gcPauseMicros;
+
+    /**
+     * Allocated on first use and kept when this transaction is recycled
+     */
+    @Nullable
+    private NoopSpan noopSpan;
+    private volatile boolean noopSpanInitialized;
+
     public Transaction(ElasticApmTracer tracer) {
+        this(tracer, UNPOOLED_CONTEXTS);
+    }
+
+    /**
+     * @param tracer      the tracer
+     * @param contextPool the pool to take the {@link TransactionContext} from, once it is accessed
+     */
+    public Transaction(ElasticApmTracer tracer, ObjectPool<TransactionContext> contextPool) {
         super(tracer);
+        this.contextPool = contextPool;
     }
 
     public <T> Transaction start(TraceContext.ChildContextCreator<T> childContextCreator, @Nullable T parent, long epochMicros, Sampler sampler) {
@@ -67,6 +118,7 @@ public class Transaction extends AbstractSpan<Transaction> {
         if (parent == null || !childContextCreator.asChildOf(traceContext, parent)) {
             traceContext.asRootSpan(sampler);
         }
+        recordingNameAndResult = traceContext.isSampled() || tracer.getConfig(CoreConfiguration.class).isAggregateUnsampledTransactions();
         if (epochMicros >= 0) {
             this.timestamp = epochMicros;
         } else {
@@ -88,25 +140,92 @@ public class Transaction extends AbstractSpan<Transaction> {
      * Any arbitrary contextual information regarding the event, captured by the agent, optionally provided by the user
      */
     public TransactionContext getContext() {
+        TransactionContext context = this.context;
+        if (context == null || context.isShared()) {
+            synchronized (this) {
+                context = this.context;
+                if (context == null) {
+                    context = contextPool.createInstance();
+                    context.onAcquire(contextPool);
+                    this.context = context;
+                } else if (context.isShared()) {
+                    context = copyOnWrite(context);
+                }
+            }
+        }
         return context;
     }
 
+    /**
+     * The shared context is a snapshot errors rely on, so the transaction has to continue with a copy.
+     */
+    private TransactionContext copyOnWrite(TransactionContext shared) {
+        final TransactionContext copy = contextPool.createInstance();
+        copy.onAcquire(contextPool);
+        copy.copyFrom(shared);
+        copy.getTags().copyFrom(shared.getTags());
+        copy.getCustom().putAll(shared.getCustom());
+        this.context = copy;
+        shared.release();
+        return copy;
+    }
+
+    /**
+     * Shares the current context with an error, so that it does not have to be copied on the application thread.
+     * <p>
+     * The context won't be modified or recycled by this transaction until the returned reference is
+     * {@linkplain TransactionContext#release() released}.
+     * </p>
+     *
+     * @return the shared context, or {@code null} if no context has been acquired
+     */
+    @Nullable
+    public TransactionContext shareContext() {
+        final TransactionContext context = getContextEnsureVisibility();
+        if (context != null && context.tryRetain()) {
+            return context;
+        }
+        return null;
+    }
+
+    /**
+     * Plugins should not record the context of unsampled transactions so that they don't have to {@link #getContext() acquire} one.
+     *
+     * @return whether a context has been acquired since this transaction has been started
+     */
+    public boolean hasContext() {
+        return context != null;
+    }
+
     /**
      * Returns the context and ensures visibility when accessed from a different thread.
      *
-     * @return the transaction context
+     * @return the transaction context, or {@code null} if no context has been acquired
      * @see #getContext()
      */
+    @Nullable
     public TransactionContext getContextEnsureVisibility() {
         synchronized (this) {
             return context;
         }
     }
 
-    public Transaction withName(@Nullable String name) {
-        if (!isSampled()) {
-            return this;
+    /**
+     * Generic designation of a transaction in the scope of a single service (eg: 'GET /users/:id')
+     * <p>
+     * In contrast to spans, the name is also recorded for non-sampled transactions if {@code aggregate_unsampled_transactions} is enabled.
+     * </p>
+     */
+    @Override
+    public void setName(@Nullable String name) {
+        if (!recordingNameAndResult) {
+            return;
         }
+        this.name.setLength(0);
+        this.name.append(name);
+    }
+
+    public Transaction withName(@Nullable String name) {
         setName(name);
         return this;
     }
@@ -131,7 +250,7 @@ public class Transaction extends AbstractSpan<Transaction> {
      * The result of the transaction. HTTP status code for HTTP-related transactions.
      */
     public Transaction withResult(@Nullable String result) {
-        if (!isSampled()) {
+        if (!recordingNameAndResult) {
             return this;
         }
         this.result = result;
@@ -143,7 +262,31 @@ public class Transaction extends AbstractSpan<Transaction> {
         if (!isSampled()) {
             return;
         }
-        getContext().getTags().put(key, value);
+        getContext().getTags().add(key, value);
+    }
+
+    @Override
+    public void addTag(String key, long value) {
+        if (!isSampled()) {
+            return;
+        }
+        getContext().getTags().add(key, value);
+    }
+
+    @Override
+    public void addTag(String key, double value) {
+        if (!isSampled()) {
+            return;
+        }
+        getContext().getTags().add(key, value);
+    }
+
+    @Override
+    public void addTag(String key, boolean value) {
+        if (!isSampled()) {
+            return;
+        }
+        getContext().getTags().add(key, value);
     }
 
     public void setUser(String id, String email, String username) {
@@ -155,8 +298,11 @@ public class Transaction extends AbstractSpan<Transaction> {
 
     @Override
     public void doEnd(long epochMicros) {
-        if (!isSampled()) {
-            context.resetState();
+        final TransactionContext context = this.context;
+        if (!isSampled() && context != null) {
+            // the context of unsampled transactions is not reported
+            this.context = null;
+            context.release();
         }
         if (type == null) {
             type = "custom";
@@ -164,18 +310,74 @@ public class Transaction extends AbstractSpan<Transaction> {
         this.tracer.endTransaction(this);
     }
 
+    /**
+     * @return the time, in microseconds, in which the transaction overlapped with garbage collections
+     */
+    public long getGcPauseMicros() {
+        return gcPauseMicros;
+    }
+
+    public void setGcPauseMicros(long gcPauseMicros) {
+        this.gcPauseMicros = gcPauseMicros;
+    }
+
     public SpanCount getSpanCount() {
         return spanCount;
     }
 
+    /**
+     * Returns the span which is shared by all spans of this transaction which are neither reported nor aggregated.
+     *
+     * @return the noop span of this transaction
+     * @see Span#isNoop()
+     */
+    public Span getNoopSpan() {
+        if (!noopSpanInitialized) {
+            synchronized (this) {
+                if (!noopSpanInitialized) {
+                    NoopSpan span = noopSpan;
+                    if (span == null) {
+                        span = new NoopSpan(tracer);
+                        noopSpan = span;
+                    }
+                    span.init(traceContext);
+                    noopSpanInitialized = true;
+                    return span;
+                }
+            }
+        }
+        return noopSpan;
+    }
+
+    public AtomicInteger getCapturedSpanStacktraces() {
+        return capturedSpanStacktraces;
+    }
+
+    /**
+     * @return the CPU time, heap memory and lock contention of the threads working on behalf of this transaction,
+     * only tracked when {@code transaction_resource_usage} or {@code transaction_thread_contention} is enabled
+     */
+    public ResourceUsage getResourceUsage() {
+        return resourceUsage;
+    }
+
     @Override
     public void resetState() {
         super.resetState();
-        context.resetState();
+        final TransactionContext context = this.context;
+        if (context != null) {
+            this.context = null;
+            context.release();
+        }
         result = null;
         spanCount.resetState();
+        resourceUsage.resetState();
+        capturedSpanStacktraces.set(0);
         noop = false;
+        recordingNameAndResult = false;
         type = null;
+        gcPauseMicros = 0;
+        noopSpanInitialized = false;
     }
 
     public void recycle() {
@@ -0,0 +1,98 @@
+/*-
+ * #%L
+ * Elastic APM Java agent
+ * %%
+ * Copyright (C) 2018 - 2019 Elastic and contributors
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package co.elastic.apm.agent.metrics;
+
+/**
+ * A monotonically increasing count, for example the number of rejected tasks or failed queries.
+ * <p>
+ * Increments are striped by thread so that counting is allocation free and does not contend,
+ * even if lots of threads update the same counter.
+ * </p>
+ * <p>
+ * Obtain an instance via {@link MetricRegistry#counter(String, java.util.Map, Temporality)}
+ * or from an instrumentation via {@link co.elastic.apm.agent.bci.ElasticApmInstrumentation#counter(String, java.util.Map, Temporality)}
+ * and keep a reference to it.
+ * </p>
+ */
+public class Counter {
+
+    /**
+     * Returned when the metric is disabled or when a cardinality limit has been reached.
+     */
+    public static final Counter NOOP = new Counter(Temporality.DELTA, 1) {
+        @Override
+        public void add(long delta) {
+        }
+    };
+
+    private final StripedLongs value;
+    private final Temporality temporality;
+    private long snapshot;
+
+    Counter(Temporality temporality, int stripes) {
+        this.temporality = temporality;
+        this.value = new StripedLongs(1, stripes);
+    }
+
+    public void increment() {
+        add(1);
+    }
+
+    public void add(long delta) {
+        value.add(0, delta);
+    }
+
+    /**
+     * Returns the current value of the counter,
+     * which, for {@link Temporality#DELTA} counters, only includes the increments since the last snapshot.
+     */
+    public long get() {
+        return value.sum(0);
+    }
+
+    /**
+     * Takes a snapshot of the counter and resets it, if the counter has a {@link Temporality#DELTA} temporality.
+     * <p>
+     * This method must only be called by a single thread,
+     * usually the one which reports the metrics.
+     * </p>
+     *
+     * @return the value of the snapshot
+     */
+    public long takeSnapshot() {
+        if (temporality == Temporality.DELTA) {
+            snapshot = value.sumThenReset(0);
+        } else {
+            snapshot = value.sum(0);
+        }
+        return snapshot;
+    }
+
+    /**
+     * @return the value of the last {@link #takeSnapshot() snapshot}
+     */
+    public long getSnapshot() {
+        return snapshot;
+    }
+
+    public Temporality getTemporality() {
+        return temporality;
+    }
+}
@@ -0,0 +1,62 @@
+/*-
+ * #%L
+ * Elastic APM Java agent
+ * %%
+ * Copyright (C) 2018 - 2019 Elastic and contributors
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package co.elastic.apm.agent.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A handle to a {@code double} valued metric which is stored in a primitive slot of a {@link MetricSet}.
+ * <p>
+ * In contrast to a gauge which is backed by a {@link DoubleSupplier},
+ * the value is pushed to the handle and the serializer only has to read the slot.
+ * Setting a value is allocation free and does not involve any map lookups.
+ * </p>
+ * <p>
+ * Obtain an instance via {@link MetricRegistry#doubleGauge(String, java.util.Map)}
+ * and keep a reference to it.
+ * </p>
+ */
+public class DoubleGauge {
+
+    /**
+     * Returned when the metric is disabled or when a cardinality limit has been reached.
+     */
+    public static final DoubleGauge NOOP = new DoubleGauge(new AtomicLongArray(1), 0) {
+        @Override
+        public void set(double value) {
+        }
+    };
+
+    private final AtomicLongArray values;
+    private final int index;
+
+    DoubleGauge(AtomicLongArray values, int index) {
+        this.values = values;
+        this.index = index;
+    }
+
+    public void set(double value) {
+        values.set(index, Double.doubleToRawLongBits(value));
+    }
+
+    public double get() {
+        return Double.longBitsToDouble(values.get(index));
+    }
+}
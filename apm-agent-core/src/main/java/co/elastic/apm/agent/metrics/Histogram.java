@@ -0,0 +1,259 @@
+/*-
+ * #%L
+ * Elastic APM Java agent
+ * %%
+ * Copyright (C) 2018 - 2019 Elastic and contributors
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package co.elastic.apm.agent.metrics;
+
+import co.elastic.apm.agent.util.MathUtils;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A lock-free, fixed-memory histogram with log-linear buckets.
+ * <p>
+ * Each power of two is divided into {@link #SUB_BUCKET_COUNT} linear sub-buckets,
+ * which means that the relative error of the recorded values is at most {@code 1 / SUB_BUCKET_COUNT}.
+ * Values from {@code 0} to {@link Long#MAX_VALUE} can be recorded.
+ * </p>
+ * <p>
+ * To avoid contention, the buckets are striped by thread.
+ * Each stripe is allocated lazily when a thread which maps to this stripe records a value for the first time.
+ * After that, {@link #record(long)} does not allocate memory.
+ * </p>
+ * <p>
+ * The values are reset when taking a {@link #takeSnapshot() snapshot},
+ * which happens every {@link co.elastic.apm.agent.report.ReporterConfiguration#metricsInterval metrics_interval}.
+ * </p>
+ */
+public class Histogram {
+
+    public static final Histogram NOOP = new Histogram("noop", "", 1) {
+        @Override
+        public void record(long value) {
+        }
+    };
+
+    static final int SUB_BUCKET_BITS = 3;
+    static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    static final int BUCKET_COUNT = (Long.SIZE - SUB_BUCKET_BITS) * SUB_BUCKET_COUNT;
+    private static final int SUM_INDEX = BUCKET_COUNT;
+    private static final int MAX_INDEX = BUCKET_COUNT + 1;
+    private static final int SLOTS = BUCKET_COUNT + 2;
+
+    private final AtomicReferenceArray<AtomicLongArray> stripes;
+    private final int stripeMask;
+    private final Snapshot snapshot = new Snapshot();
+    private final String countName;
+    private final String sumName;
+    private final String maxName;
+    private final String[] percentileNames;
+
+    /**
+     * @param name    the name of the histogram, for example {@code jdbc.query.duration}
+     * @param unit    the unit of the recorded values, for example {@code us}.
+     *                The unit is appended to the names of the samples,
+     *                except for the count.
+     * @param stripes the number of stripes, rounded up to the next power of two.
+     *                Higher values reduce contention at the expense of memory usage.
+     */
+    Histogram(String name, String unit, int stripes) {
+        final int stripeCount = stripes <= 1 ? 1 : MathUtils.getNextPowerOf2(stripes);
+        this.stripes = new AtomicReferenceArray<>(stripeCount);
+        this.stripeMask = stripeCount - 1;
+        final String unitSuffix = unit.isEmpty() ? "" : "." + unit;
+        this.countName = name + ".count";
+        this.sumName = name + ".sum" + unitSuffix;
+        this.maxName = name + ".max" + unitSuffix;
+        this.percentileNames = new String[Snapshot.PERCENTILES.length];
+        for (int i = 0; i < Snapshot.PERCENTILES.length; i++) {
+            percentileNames[i] = name + ".p" + Snapshot.PERCENTILES[i] + unitSuffix;
+        }
+    }
+
+    static int getDefaultStripes() {
+        return Math.min(Runtime.getRuntime().availableProcessors(), 8);
+    }
+
+    /**
+     * Records a value.
+     * Negative values are recorded as {@code 0}.
+     *
+     * @param value the value to record
+     */
+    public void record(long value) {
+        if (value < 0) {
+            value = 0;
+        }
+        final AtomicLongArray stripe = getStripe();
+        stripe.incrementAndGet(getBucketIndex(value));
+        stripe.addAndGet(SUM_INDEX, value);
+        long max;
+        do {
+            max = stripe.get(MAX_INDEX);
+        } while (value > max && !stripe.compareAndSet(MAX_INDEX, max, value));
+    }
+
+    private AtomicLongArray getStripe() {
+        final int index = (int) Thread.currentThread().getId() & stripeMask;
+        AtomicLongArray stripe = stripes.get(index);
+        if (stripe == null) {
+            stripes.compareAndSet(index, null, new AtomicLongArray(SLOTS));
+            stripe = stripes.get(index);
+        }
+        return stripe;
+    }
+
+    static int getBucketIndex(long value) {
+        if (value < SUB_BUCKET_COUNT) {
+            return (int) value;
+        }
+        final int shift = Long.SIZE - 1 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        return (shift * SUB_BUCKET_COUNT) + (int) (value >>> shift);
+    }
+
+    static long getLowestValue(int bucketIndex) {
+        if (bucketIndex < 2 * SUB_BUCKET_COUNT) {
+            return bucketIndex;
+        }
+        final int shift = bucketIndex / SUB_BUCKET_COUNT - 1;
+        return (long) (bucketIndex - shift * SUB_BUCKET_COUNT) << shift;
+    }
+
+    static long getHighestValue(int bucketIndex) {
+        if (bucketIndex == BUCKET_COUNT - 1) {
+            return Long.MAX_VALUE;
+        }
+        return getLowestValue(bucketIndex + 1) - 1;
+    }
+
+    /**
+     * Takes a snapshot of the values recorded since the last snapshot and resets the histogram.
+     * <p>
+     * The returned instance is reused so this method must only be called by a single thread,
+     * usually the one which reports the metrics.
+     * </p>
+     *
+     * @return the snapshot
+     */
+    public Snapshot takeSnapshot() {
+        snapshot.reset();
+        for (int i = 0; i < stripes.length(); i++) {
+            final AtomicLongArray stripe = stripes.get(i);
+            if (stripe != null) {
+                snapshot.add(stripe);
+            }
+        }
+        return snapshot;
+    }
+
+    /**
+     * Returns the snapshot which has been taken by the last invocation of {@link #takeSnapshot()}.
+     *
+     * @return the last snapshot
+     */
+    public Snapshot getSnapshot() {
+        return snapshot;
+    }
+
+    public String getCountName() {
+        return countName;
+    }
+
+    public String getSumName() {
+        return sumName;
+    }
+
+    public String getMaxName() {
+        return maxName;
+    }
+
+    public String getPercentileName(int i) {
+        return percentileNames[i];
+    }
+
+    public static class Snapshot {
+        static final int[] PERCENTILES = {50, 95, 99};
+
+        private final long[] counts = new long[BUCKET_COUNT];
+        private long count;
+        private long sum;
+        private long max;
+
+        private void reset() {
+            for (int i = 0; i < counts.length; i++) {
+                counts[i] = 0;
+            }
+            count = 0;
+            sum = 0;
+            max = 0;
+        }
+
+        private void add(AtomicLongArray stripe) {
+            for (int i = 0; i < BUCKET_COUNT; i++) {
+                if (stripe.get(i) != 0) {
+                    final long bucketCount = stripe.getAndSet(i, 0);
+                    counts[i] += bucketCount;
+                    count += bucketCount;
+                }
+            }
+            sum += stripe.getAndSet(SUM_INDEX, 0);
+            max = Math.max(max, stripe.getAndSet(MAX_INDEX, 0));
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public long getSum() {
+            return sum;
+        }
+
+        public long getMax() {
+            return max;
+        }
+
+        /**
+         * Returns the highest value of the bucket which contains the value at the given percentile.
+         * As the precise value is not known,
+         * this is an over-estimation by at most {@code 1 / SUB_BUCKET_COUNT} of the actual value.
+         *
+         * @param percentile the percentile, between 0 and 100
+         * @return the value at the given percentile or {@code 0} if no values have been recorded
+         */
+        public long getValueAtPercentile(double percentile) {
+            final long countAtPercentile = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+            long cumulativeCount = 0;
+            for (int i = 0; i < counts.length; i++) {
+                cumulativeCount += counts[i];
+                if (cumulativeCount >= countAtPercentile) {
+                    return Math.min(getHighestValue(i), max);
+                }
+            }
+            return 0;
+        }
+
+        public int getPercentileCount() {
+            return PERCENTILES.length;
+        }
+
+        public long getValueAtPercentile(int i) {
+            return getValueAtPercentile((double) PERCENTILES[i]);
+        }
+    }
+}
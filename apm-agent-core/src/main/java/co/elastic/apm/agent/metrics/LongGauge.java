@@ -0,0 +1,72 @@
+/*-
+ * #%L
+ * Elastic APM Java agent
+ * %%
+ * Copyright (C) 2018 - 2019 Elastic and contributors
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package co.elastic.apm.agent.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A handle to a {@code long} valued metric which is stored in a primitive slot of a {@link MetricSet}.
+ * <p>
+ * Updating the value is allocation free and does not involve any map lookups.
+ * </p>
+ * <p>
+ * Obtain an instance via {@link MetricRegistry#longGauge(String, java.util.Map)}
+ * and keep a reference to it.
+ * </p>
+ */
+public class LongGauge {
+
+    /**
+     * Returned when the metric is disabled or when a cardinality limit has been reached.
+     */
+    public static final LongGauge NOOP = new LongGauge(new AtomicLongArray(1), 0) {
+        @Override
+        public void set(long value) {
+        }
+
+        @Override
+        public void add(long delta) {
+        }
+    };
+
+    private final AtomicLongArray values;
+    private final int index;
+
+    LongGauge(AtomicLongArray values, int index) {
+        this.values = values;
+        this.index = index;
+    }
+
+    public void set(long value) {
+        values.set(index, value);
+    }
+
+    public void add(long delta) {
+        values.addAndGet(index, delta);
+    }
+
+    public void increment() {
+        add(1);
+    }
+
+    public long get() {
+        return values.get(index);
+    }
+}
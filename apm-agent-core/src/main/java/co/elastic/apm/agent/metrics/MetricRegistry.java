@@ -21,7 +21,10 @@ package co.elastic.apm.agent.metrics;
 
 import co.elastic.apm.agent.matcher.WildcardMatcher;
 import co.elastic.apm.agent.report.ReporterConfiguration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+import javax.annotation.Nullable;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
@@ -29,17 +32,30 @@ import java.util.concurrent.ConcurrentMap;
 /**
  * A registry for metrics.
  * <p>
- * Currently only holds gauges.
- * There are plans to add support for histogram-based timers.
+ * Holds gauges, which are read every reporting cycle, {@link Counter}s, {@link Timer}s and {@link Histogram}s.
+ * </p>
+ * <p>
+ * Metrics which are frequently updated should be registered as {@link DoubleGauge}s or {@link LongGauge}s.
+ * These handles are backed by primitive slots of their {@link MetricSet},
+ * so that updating them does not allocate or look up anything and reporting them only walks over the slots.
+ * </p>
+ * <p>
+ * Whether a metric is disabled is evaluated once when it is registered.
+ * The number of distinct metric sets is limited by {@link ReporterConfiguration#getMetricSetLimit()}
+ * and the number of primitive metrics per metric set is limited by {@link MetricSet#MAX_PRIMITIVE_METRICS}.
+ * Registrations exceeding these limits return no-op handles.
  * </p>
  */
 public class MetricRegistry {
 
+    private static final Logger logger = LoggerFactory.getLogger(MetricRegistry.class);
+
     /**
      * Groups {@link MetricSet}s by their unique tags.
      */
     private final ConcurrentMap<Map<String, String>, MetricSet> metricSets = new ConcurrentHashMap<>();
     private final ReporterConfiguration config;
+    private volatile boolean metricSetLimitReached = false;
 
     public MetricRegistry(ReporterConfiguration config) {
         this.config = config;
@@ -62,7 +78,7 @@ public class MetricRegistry {
             return;
         }
         if (!Double.isNaN(metric.get())) {
-            add(name, tags, metric);
+            addEnabled(name, tags, metric);
         }
     }
 
@@ -83,7 +99,7 @@ public class MetricRegistry {
             return;
         }
         if (metric.get() >= 0) {
-            add(name, tags, metric);
+            addEnabled(name, tags, metric);
         }
     }
 
@@ -101,12 +117,167 @@ public class MetricRegistry {
         if (isDisabled(name)) {
             return;
         }
+        addEnabled(name, tags, metric);
+    }
+
+    private void addEnabled(String name, Map<String, String> tags, DoubleSupplier metric) {
+        final MetricSet metricSet = getOrCreateMetricSet(tags);
+        if (metricSet != null) {
+            metricSet.add(name, metric);
+        }
+    }
+
+    /**
+     * Registers a {@code double} valued metric and returns a handle to update its value.
+     * <p>
+     * Registering the same name and tags multiple times returns handles to the same value.
+     * Callers should keep a reference to the returned handle instead of registering it every time a value is updated.
+     * </p>
+     *
+     * @param name the name of the metric
+     * @param tags tags for the metric.
+     *             Tags can be used to create different graphs based for each value of a specific tag name, using a terms aggregation.
+     *             Note that there will be a {@link MetricSet} created for each distinct set of tags.
+     * @return the handle to the metric or {@link DoubleGauge#NOOP} if the metric is disabled or a limit has been reached
+     */
+    public DoubleGauge doubleGauge(String name, Map<String, String> tags) {
+        if (isDisabled(name)) {
+            return DoubleGauge.NOOP;
+        }
+        final MetricSet metricSet = getOrCreateMetricSet(tags);
+        if (metricSet == null) {
+            return DoubleGauge.NOOP;
+        }
+        return metricSet.doubleGauge(name);
+    }
+
+    /**
+     * Registers a {@code long} valued metric and returns a handle to update its value.
+     *
+     * @return the handle to the metric or {@link LongGauge#NOOP} if the metric is disabled or a limit has been reached
+     * @see #doubleGauge(String, Map)
+     */
+    public LongGauge longGauge(String name, Map<String, String> tags) {
+        if (isDisabled(name)) {
+            return LongGauge.NOOP;
+        }
+        final MetricSet metricSet = getOrCreateMetricSet(tags);
+        if (metricSet == null) {
+            return LongGauge.NOOP;
+        }
+        return metricSet.longGauge(name);
+    }
+
+    /**
+     * Gets or creates a {@link Histogram}.
+     * <p>
+     * As looking up a histogram is not free,
+     * callers should keep a reference to the returned histogram instead of looking it up every time a value is recorded.
+     * </p>
+     *
+     * @param name the name of the metric, for example {@code jdbc.query.duration}
+     * @param unit the unit of the recorded values, for example {@code us}
+     * @param tags tags for the metric.
+     *             Tags can be used to create different graphs based for each value of a specific tag name, using a terms aggregation.
+     *             Note that there will be a {@link MetricSet} created for each distinct set of tags.
+     * @return the histogram for the given name and tags or {@link Histogram#NOOP} if the metric is disabled or a limit has been reached
+     */
+    public Histogram histogram(String name, String unit, Map<String, String> tags) {
+        return histogram(name, unit, tags, Histogram.getDefaultStripes());
+    }
+
+    /**
+     * Same as {@link #histogram(String, String, Map)} but with a custom amount of stripes.
+     * <p>
+     * Use a lower amount of stripes for histograms which are not heavily contended
+     * or if there are lots of them.
+     * Each stripe requires about 4kb of memory.
+     * </p>
+     */
+    public Histogram histogram(String name, String unit, Map<String, String> tags, int stripes) {
+        if (isDisabled(name)) {
+            return Histogram.NOOP;
+        }
+        final MetricSet metricSet = getOrCreateMetricSet(tags);
+        if (metricSet == null) {
+            return Histogram.NOOP;
+        }
+        return metricSet.histogram(name, unit, stripes);
+    }
+
+    /**
+     * Gets or creates a {@link Counter}.
+     * <p>
+     * Callers should keep a reference to the returned counter instead of looking it up every time it is incremented.
+     * If a counter with the same name and tags already exists, it is returned regardless of its {@link Temporality}.
+     * </p>
+     *
+     * @param name        the name of the metric, for example {@code jdbc.errors}
+     * @param tags        tags for the metric.
+     *                    Tags can be used to create different graphs based for each value of a specific tag name, using a terms aggregation.
+     *                    Note that there will be a {@link MetricSet} created for each distinct set of tags.
+     * @param temporality whether the counter is reset every
+     *                    {@link co.elastic.apm.agent.report.ReporterConfiguration#metricsInterval metrics_interval}
+     * @return the counter for the given name and tags or {@link Counter#NOOP} if the metric is disabled or a limit has been reached
+     */
+    public Counter counter(String name, Map<String, String> tags, Temporality temporality) {
+        if (isDisabled(name)) {
+            return Counter.NOOP;
+        }
+        final MetricSet metricSet = getOrCreateMetricSet(tags);
+        if (metricSet == null) {
+            return Counter.NOOP;
+        }
+        return metricSet.counter(name, temporality);
+    }
+
+    /**
+     * Gets or creates a {@link Timer}.
+     * <p>
+     * Callers should keep a reference to the returned timer instead of looking it up every time it is updated.
+     * If a timer with the same name and tags already exists, it is returned regardless of its unit and {@link Temporality}.
+     * </p>
+     *
+     * @param name        the name of the metric, for example {@code jdbc.query.time}
+     * @param unit        the unit of the recorded durations, for example {@code us}
+     * @param tags        tags for the metric.
+     *                    Tags can be used to create different graphs based for each value of a specific tag name, using a terms aggregation.
+     *                    Note that there will be a {@link MetricSet} created for each distinct set of tags.
+     * @param temporality whether the timer is reset every
+     *                    {@link co.elastic.apm.agent.report.ReporterConfiguration#metricsInterval metrics_interval}
+     * @return the timer for the given name and tags or {@link Timer#NOOP} if the metric is disabled or a limit has been reached
+     */
+    public Timer timer(String name, String unit, Map<String, String> tags, Temporality temporality) {
+        if (isDisabled(name)) {
+            return Timer.NOOP;
+        }
+        final MetricSet metricSet = getOrCreateMetricSet(tags);
+        if (metricSet == null) {
+            return Timer.NOOP;
+        }
+        return metricSet.timer(name, unit, temporality);
+    }
+
+    /**
+     * @return the metric set for the given tags or {@code null} if the metric set limit has been reached
+     */
+    @Nullable
+    private MetricSet getOrCreateMetricSet(Map<String, String> tags) {
         MetricSet metricSet = metricSets.get(tags);
         if (metricSet == null) {
+            // the limit is not strictly enforced under concurrent registrations but that's fine as it's only a safety net
+            if (metricSets.size() >= config.getMetricSetLimit()) {
+                if (!metricSetLimitReached) {
+                    metricSetLimitReached = true;
+                    logger.warn("The limit of {} metric sets has been reached, no new metric sets will be created. " +
+                        "This may be caused by metric tags with a high cardinality.", config.getMetricSetLimit());
+                }
+                return null;
+            }
             metricSets.putIfAbsent(tags, new MetricSet(tags));
             metricSet = metricSets.get(tags);
         }
-        metricSet.add(name, metric);
+        return metricSet;
     }
 
     private boolean isDisabled(String name) {
@@ -116,7 +287,7 @@ public class MetricRegistry {
     public double get(String name, Map<String, String> tags) {
         final MetricSet metricSet = metricSets.get(tags);
         if (metricSet != null) {
-            return metricSet.get(name).get();
+            return metricSet.getValue(name);
         }
         return Double.NaN;
     }
@@ -19,9 +19,14 @@
  */
 package co.elastic.apm.agent.metrics;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLongArray;
 
 /**
  * A metric set is a collection of metrics which have the same tags.
@@ -38,8 +43,31 @@ import java.util.concurrent.ConcurrentMap;
  * </pre>
  */
 public class MetricSet {
+    /**
+     * The maximum number of {@link DoubleGauge}s and {@link LongGauge}s per metric set
+     */
+    static final int MAX_PRIMITIVE_METRICS = 64;
+    private static final Logger logger = LoggerFactory.getLogger(MetricSet.class);
+    private static final byte TYPE_DOUBLE = 0;
+    private static final byte TYPE_LONG = 1;
+
     private final Map<String, String> tags;
     private final ConcurrentMap<String, DoubleSupplier> samples = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Histogram> histograms = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Counter> counters = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Timer> timers = new ConcurrentHashMap<>();
+    /*
+     * The slots for primitive metrics are allocated lazily as most metric sets don't have any.
+     * They are only written while holding the lock on this metric set
+     * and are safely published to the reporter thread by the write to the volatile primitiveMetricCount.
+     */
+    @Nullable
+    private AtomicLongArray primitiveValues;
+    @Nullable
+    private String[] primitiveNames;
+    @Nullable
+    private byte[] primitiveTypes;
+    private volatile int primitiveMetricCount;
 
     public MetricSet(Map<String, String> tags) {
         this.tags = tags;
@@ -49,8 +77,92 @@ public class MetricSet {
         samples.putIfAbsent(name, metric);
     }
 
-    DoubleSupplier get(String name) {
-        return samples.get(name);
+    Histogram histogram(String name, String unit, int stripes) {
+        Histogram histogram = histograms.get(name);
+        if (histogram == null) {
+            histograms.putIfAbsent(name, new Histogram(name, unit, stripes));
+            histogram = histograms.get(name);
+        }
+        return histogram;
+    }
+
+    Counter counter(String name, Temporality temporality) {
+        Counter counter = counters.get(name);
+        if (counter == null) {
+            counters.putIfAbsent(name, new Counter(temporality, StripedLongs.getDefaultStripes()));
+            counter = counters.get(name);
+        }
+        return counter;
+    }
+
+    Timer timer(String name, String unit, Temporality temporality) {
+        Timer timer = timers.get(name);
+        if (timer == null) {
+            timers.putIfAbsent(name, new Timer(name, unit, temporality, StripedLongs.getDefaultStripes()));
+            timer = timers.get(name);
+        }
+        return timer;
+    }
+
+    synchronized DoubleGauge doubleGauge(String name) {
+        final int index = getOrCreatePrimitiveSlot(name, TYPE_DOUBLE);
+        if (index < 0) {
+            return DoubleGauge.NOOP;
+        }
+        return new DoubleGauge(primitiveValues, index);
+    }
+
+    synchronized LongGauge longGauge(String name) {
+        final int index = getOrCreatePrimitiveSlot(name, TYPE_LONG);
+        if (index < 0) {
+            return LongGauge.NOOP;
+        }
+        return new LongGauge(primitiveValues, index);
+    }
+
+    /**
+     * Must only be called while holding the lock on this metric set.
+     *
+     * @return the index of the slot or {@code -1} if no slot could be allocated
+     */
+    private int getOrCreatePrimitiveSlot(String name, byte type) {
+        if (primitiveValues == null || primitiveNames == null || primitiveTypes == null) {
+            primitiveValues = new AtomicLongArray(MAX_PRIMITIVE_METRICS);
+            primitiveNames = new String[MAX_PRIMITIVE_METRICS];
+            primitiveTypes = new byte[MAX_PRIMITIVE_METRICS];
+        }
+        final int count = primitiveMetricCount;
+        for (int i = 0; i < count; i++) {
+            if (primitiveNames[i].equals(name)) {
+                if (primitiveTypes[i] != type) {
+                    logger.warn("The metric {} has already been registered with a different type", name);
+                    return -1;
+                }
+                return i;
+            }
+        }
+        if (count == MAX_PRIMITIVE_METRICS) {
+            logger.warn("Can't register metric {} as the limit of {} metrics per metric set has been reached", name, MAX_PRIMITIVE_METRICS);
+            return -1;
+        }
+        primitiveNames[count] = name;
+        primitiveTypes[count] = type;
+        primitiveMetricCount = count + 1;
+        return count;
+    }
+
+    double getValue(String name) {
+        final DoubleSupplier sample = samples.get(name);
+        if (sample != null) {
+            return sample.get();
+        }
+        final int count = primitiveMetricCount;
+        for (int i = 0; i < count; i++) {
+            if (getPrimitiveMetricName(i).equals(name)) {
+                return getPrimitiveMetricValue(i);
+            }
+        }
+        return Double.NaN;
     }
 
     public Map<String, String> getTags() {
@@ -60,4 +172,39 @@ public class MetricSet {
     public Map<String, DoubleSupplier> getSamples() {
         return samples;
     }
+
+    public Map<String, Histogram> getHistograms() {
+        return histograms;
+    }
+
+    public Map<String, Counter> getCounters() {
+        return counters;
+    }
+
+    public Map<String, Timer> getTimers() {
+        return timers;
+    }
+
+    /**
+     * Returns the number of {@link DoubleGauge}s and {@link LongGauge}s of this metric set.
+     * The slots {@code 0} until the returned number (exclusive) can be accessed via
+     * {@link #getPrimitiveMetricName(int)} and {@link #getPrimitiveMetricValue(int)}.
+     */
+    public int getPrimitiveMetricCount() {
+        return primitiveMetricCount;
+    }
+
+    public String getPrimitiveMetricName(int index) {
+        assert primitiveNames != null;
+        return primitiveNames[index];
+    }
+
+    public double getPrimitiveMetricValue(int index) {
+        assert primitiveValues != null && primitiveTypes != null;
+        final long value = primitiveValues.get(index);
+        if (primitiveTypes[index] == TYPE_DOUBLE) {
+            return Double.longBitsToDouble(value);
+        }
+        return value;
+    }
 }
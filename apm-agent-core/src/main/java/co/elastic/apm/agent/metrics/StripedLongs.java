@@ -0,0 +1,91 @@
+/*-
+ * #%L
+ * Elastic APM Java agent
+ * %%
+ * Copyright (C) 2018 - 2019 Elastic and contributors
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package co.elastic.apm.agent.metrics;
+
+import co.elastic.apm.agent.util.MathUtils;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A fixed number of {@code long} values which are striped by thread to avoid contention,
+ * similar to Java 8's {@code LongAdder}.
+ * <p>
+ * Each stripe is padded so that different stripes don't share a cache line.
+ * Adding a value does not allocate memory.
+ * </p>
+ */
+class StripedLongs {
+
+    /**
+     * Two cache lines of 64 bytes, which also avoids false sharing caused by adjacent cache line prefetching
+     */
+    private static final int STRIPE_SIZE = 16;
+
+    private final AtomicLongArray cells;
+    private final int stripeMask;
+
+    /**
+     * @param values  the number of values
+     * @param stripes the number of stripes, rounded up to the next power of two
+     */
+    StripedLongs(int values, int stripes) {
+        if (values > STRIPE_SIZE) {
+            throw new IllegalArgumentException("At most " + STRIPE_SIZE + " values are supported");
+        }
+        final int stripeCount = stripes <= 1 ? 1 : MathUtils.getNextPowerOf2(stripes);
+        this.cells = new AtomicLongArray(stripeCount * STRIPE_SIZE);
+        this.stripeMask = stripeCount - 1;
+    }
+
+    static int getDefaultStripes() {
+        return Math.min(Runtime.getRuntime().availableProcessors(), 16);
+    }
+
+    void add(int valueIndex, long delta) {
+        cells.addAndGet(getStripeOffset() + valueIndex, delta);
+    }
+
+    private int getStripeOffset() {
+        return ((int) Thread.currentThread().getId() & stripeMask) * STRIPE_SIZE;
+    }
+
+    long sum(int valueIndex) {
+        long sum = 0;
+        for (int i = valueIndex; i < cells.length(); i += STRIPE_SIZE) {
+            sum += cells.get(i);
+        }
+        return sum;
+    }
+
+    /**
+     * Returns the sum of the value and resets it to {@code 0}.
+     * <p>
+     * Additions which happen concurrently are either included in the returned sum or remain for the next call,
+     * but they are never lost.
+     * </p>
+     */
+    long sumThenReset(int valueIndex) {
+        long sum = 0;
+        for (int i = valueIndex; i < cells.length(); i += STRIPE_SIZE) {
+            sum += cells.getAndSet(i, 0);
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,39 @@
+/*-
+ * #%L
+ * Elastic APM Java agent
+ * %%
+ * Copyright (C) 2018 - 2019 Elastic and contributors
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package co.elastic.apm.agent.metrics;
+
+/**
+ * Defines whether the reported value of a {@link Counter} or {@link Timer} refers to the last reporting interval or to the
+ * whole lifetime of the agent.
+ */
+public enum Temporality {
+    /**
+     * The value is reset after each report,
+     * every {@link co.elastic.apm.agent.report.ReporterConfiguration#metricsInterval metrics_interval}.
+     * <p>
+     * This makes it easy to graph rates, like the number of errors per interval, without having to calculate derivatives.
+     * </p>
+     */
+    DELTA,
+    /**
+     * The value is never reset and monotonically increases.
+     */
+    CUMULATIVE
+}
@@ -0,0 +1,122 @@
+/*-
+ * #%L
+ * Elastic APM Java agent
+ * %%
+ * Copyright (C) 2018 - 2019 Elastic and contributors
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package co.elastic.apm.agent.metrics;
+
+/**
+ * Tracks the count and the total time of an operation.
+ * <p>
+ * A timer is a cheaper alternative to a {@link Histogram}, when the distribution of the durations is not of interest.
+ * Just as a {@link Counter}, updates are striped by thread so that they are allocation free and don't contend.
+ * </p>
+ * <p>
+ * A timer is reported as two samples: {@code <name>.count} and {@code <name>.sum.<unit>}.
+ * </p>
+ */
+public class Timer {
+
+    /**
+     * Returned when the metric is disabled or when a cardinality limit has been reached.
+     */
+    public static final Timer NOOP = new Timer("noop", "", Temporality.DELTA, 1) {
+        @Override
+        public void update(long duration) {
+        }
+    };
+
+    private static final int COUNT = 0;
+    private static final int SUM = 1;
+
+    private final StripedLongs values;
+    private final Temporality temporality;
+    private final String countName;
+    private final String sumName;
+    private long snapshotCount;
+    private long snapshotSum;
+
+    /**
+     * @param name the name of the timer, for example {@code jdbc.query.time}
+     * @param unit the unit of the durations, for example {@code us}
+     */
+    Timer(String name, String unit, Temporality temporality, int stripes) {
+        this.temporality = temporality;
+        this.values = new StripedLongs(2, stripes);
+        this.countName = name + ".count";
+        this.sumName = name + ".sum" + (unit.isEmpty() ? "" : "." + unit);
+    }
+
+    /**
+     * Records the duration of an operation.
+     *
+     * @param duration the duration in the unit of this timer
+     */
+    public void update(long duration) {
+        values.add(COUNT, 1);
+        values.add(SUM, duration);
+    }
+
+    public long getCount() {
+        return values.sum(COUNT);
+    }
+
+    public long getSum() {
+        return values.sum(SUM);
+    }
+
+    /**
+     * Takes a snapshot of the timer and resets it, if the timer has a {@link Temporality#DELTA} temporality.
+     * <p>
+     * As the count and the sum are not updated atomically,
+     * a concurrent update may be counted towards this snapshot while its duration counts towards the next one.
+     * </p>
+     * <p>
+     * This method must only be called by a single thread,
+     * usually the one which reports the metrics.
+     * </p>
+     */
+    public void takeSnapshot() {
+        if (temporality == Temporality.DELTA) {
+            snapshotCount = values.sumThenReset(COUNT);
+            snapshotSum = values.sumThenReset(SUM);
+        } else {
+            snapshotCount = values.sum(COUNT);
+            snapshotSum = values.sum(SUM);
+        }
+    }
+
+    public long getSnapshotCount() {
+        return snapshotCount;
+    }
+
+    public long getSnapshotSum() {
+        return snapshotSum;
+    }
+
+    public Temporality getTemporality() {
+        return temporality;
+    }
+
+    public String getCountName() {
+        return countName;
+    }
+
+    public String getSumName() {
+        return sumName;
+    }
+}
@@ -0,0 +1,257 @@
+/*-
+ * #%L
+ * Elastic APM Java agent
+ * %%
+ * Copyright (C) 2018 - 2019 Elastic and contributors
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package co.elastic.apm.agent.metrics.builtin;
+
+import co.elastic.apm.agent.metrics.DoubleSupplier;
+import co.elastic.apm.agent.metrics.LongGauge;
+import co.elastic.apm.agent.metrics.MetricRegistry;
+import com.sun.management.ThreadMXBean;
+import org.codehaus.mojo.animal_sniffer.IgnoreJRERequirement;
+
+import javax.annotation.Nullable;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadInfo;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Tracks the amount of heap memory allocated by all threads, based on HotSpot's {@link ThreadMXBean#getThreadAllocatedBytes(long[])}.
+ * <p>
+ * The allocated bytes of each thread are only available while the thread is alive.
+ * To report a monotonically increasing total, the tracker remembers the bytes each thread had allocated at the last update
+ * and only adds the difference to the total.
+ * The bytes of terminated threads are therefore carried forward.
+ * Only the bytes a thread allocates between the last update and its termination are lost.
+ * </p>
+ * <p>
+ * The allocations of the agent's own threads (the ones whose name starts with {@value #AGENT_THREAD_NAME_PREFIX})
+ * are reported separately, so that the overhead of the agent becomes visible.
+ * </p>
+ */
+@IgnoreJRERequirement
+class AllocationTracker {
+
+    static final String AGENT_THREAD_NAME_PREFIX = "apm-";
+    /**
+     * All metrics of a reporting cycle are based on the same update.
+     * The update is performed by the first metric which is read in a reporting cycle.
+     */
+    private static final long MIN_UPDATE_INTERVAL_NANOS = 100 * 1000 * 1000;
+
+    private final ThreadMXBean threadMXBean;
+    private final MetricRegistry metricRegistry;
+    private final List<String> agentThreadNames = new ArrayList<>();
+    private final List<LongGauge> agentThreadAllocations = new ArrayList<>();
+    /**
+     * The allocated bytes of the threads at the last update
+     */
+    private ThreadAllocationTable previous = new ThreadAllocationTable(64);
+    private ThreadAllocationTable current = new ThreadAllocationTable(64);
+    private long totalAllocatedBytes;
+    private long lastUpdateNanos;
+    private boolean updated;
+    private double allocationRate;
+
+    AllocationTracker(MetricRegistry metricRegistry) {
+        this((ThreadMXBean) ManagementFactory.getThreadMXBean(), metricRegistry);
+    }
+
+    AllocationTracker(ThreadMXBean threadMXBean, MetricRegistry metricRegistry) {
+        this.threadMXBean = threadMXBean;
+        this.metricRegistry = metricRegistry;
+        lastUpdateNanos = System.nanoTime() - MIN_UPDATE_INTERVAL_NANOS;
+    }
+
+    boolean isSupported() {
+        return threadMXBean.isThreadAllocatedMemorySupported() && threadMXBean.isThreadAllocatedMemoryEnabled();
+    }
+
+    void registerMetrics() {
+        // in reference to JMH's GC profiler (gc.alloc.rate)
+        metricRegistry.add("jvm.gc.alloc", Collections.<String, String>emptyMap(), new DoubleSupplier() {
+            @Override
+            public double get() {
+                return getTotalAllocatedBytes();
+            }
+        });
+        metricRegistry.add("jvm.gc.alloc_rate", Collections.<String, String>emptyMap(), new DoubleSupplier() {
+            @Override
+            public double get() {
+                return getAllocationRate();
+            }
+        });
+    }
+
+    /**
+     * @return the bytes allocated by all threads since the first update, including the ones which have terminated since then
+     */
+    synchronized long getTotalAllocatedBytes() {
+        maybeUpdate();
+        return totalAllocatedBytes;
+    }
+
+    /**
+     * @return the allocated bytes per second between the last two reporting cycles
+     */
+    synchronized double getAllocationRate() {
+        maybeUpdate();
+        return allocationRate;
+    }
+
+    private void maybeUpdate() {
+        final long now = System.nanoTime();
+        if (now - lastUpdateNanos >= MIN_UPDATE_INTERVAL_NANOS) {
+            final long totalAllocatedBytesBefore = totalAllocatedBytes;
+            update();
+            if (updated) {
+                allocationRate = (totalAllocatedBytes - totalAllocatedBytesBefore) * 1e9 / (now - lastUpdateNanos);
+            }
+            updated = true;
+            lastUpdateNanos = now;
+        }
+    }
+
+    synchronized void update() {
+        final long[] threadIds = threadMXBean.getAllThreadIds();
+        final long[] allocatedBytes = threadMXBean.getThreadAllocatedBytes(threadIds);
+        current.clear(threadIds.length);
+        for (int i = 0; i < threadIds.length; i++) {
+            final long threadId = threadIds[i];
+            final long allocated = allocatedBytes[i];
+            if (allocated < 0) {
+                // the thread has terminated in the meantime
+                continue;
+            }
+            final int previousSlot = previous.indexOf(threadId);
+            final long previousAllocated;
+            final int agentThreadIndex;
+            if (previousSlot >= 0) {
+                previousAllocated = previous.allocatedBytes[previousSlot];
+                agentThreadIndex = previous.agentThreadIndexes[previousSlot];
+            } else {
+                previousAllocated = 0;
+                agentThreadIndex = getAgentThreadIndex(threadId);
+            }
+            final long delta = Math.max(0, allocated - previousAllocated);
+            totalAllocatedBytes += delta;
+            if (agentThreadIndex >= 0) {
+                agentThreadAllocations.get(agentThreadIndex).add(delta);
+            }
+            current.put(threadId, allocated, agentThreadIndex);
+        }
+        // threads which are not in the current table anymore have terminated, their bytes are already part of the total
+        final ThreadAllocationTable tmp = previous;
+        previous = current;
+        current = tmp;
+    }
+
+    /**
+     * Only called when a thread is seen for the first time, as getting the thread's name is relatively expensive.
+     */
+    private int getAgentThreadIndex(long threadId) {
+        final ThreadInfo threadInfo = threadMXBean.getThreadInfo(threadId);
+        if (threadInfo == null || !threadInfo.getThreadName().startsWith(AGENT_THREAD_NAME_PREFIX)) {
+            return -1;
+        }
+        final String threadName = threadInfo.getThreadName();
+        int index = agentThreadNames.indexOf(threadName);
+        if (index < 0) {
+            index = agentThreadNames.size();
+            agentThreadNames.add(threadName);
+            agentThreadAllocations.add(metricRegistry.longGauge("jvm.thread.alloc", Collections.singletonMap("thread_name", threadName)));
+        }
+        return index;
+    }
+
+    @Nullable
+    LongGauge getAgentThreadAllocation(String threadName) {
+        final int index = agentThreadNames.indexOf(threadName);
+        return index >= 0 ? agentThreadAllocations.get(index) : null;
+    }
+
+    /**
+     * An open addressing hash table from thread ids to the allocated bytes of the thread,
+     * backed by primitive arrays so that updates don't allocate memory, unless the number of threads grows.
+     */
+    static class ThreadAllocationTable {
+        // thread ids are always positive
+        private static final long EMPTY = 0;
+
+        private long[] threadIds;
+        private long[] allocatedBytes;
+        private int[] agentThreadIndexes;
+        private int mask;
+
+        ThreadAllocationTable(int capacity) {
+            allocate(capacity);
+        }
+
+        private void allocate(int capacity) {
+            threadIds = new long[capacity];
+            allocatedBytes = new long[capacity];
+            agentThreadIndexes = new int[capacity];
+            mask = capacity - 1;
+        }
+
+        /**
+         * Clears the table and makes sure it has enough capacity for the expected number of threads
+         * while keeping the load factor below 0.5.
+         */
+        void clear(int expectedSize) {
+            int capacity = threadIds.length;
+            while (capacity < expectedSize * 2) {
+                capacity <<= 1;
+            }
+            if (capacity != threadIds.length) {
+                allocate(capacity);
+            } else {
+                Arrays.fill(threadIds, EMPTY);
+            }
+        }
+
+        void put(long threadId, long allocated, int agentThreadIndex) {
+            int slot = hash(threadId);
+            while (threadIds[slot] != EMPTY && threadIds[slot] != threadId) {
+                slot = (slot + 1) & mask;
+            }
+            threadIds[slot] = threadId;
+            allocatedBytes[slot] = allocated;
+            agentThreadIndexes[slot] = agentThreadIndex;
+        }
+
+        int indexOf(long threadId) {
+            int slot = hash(threadId);
+            while (threadIds[slot] != EMPTY) {
+                if (threadIds[slot] == threadId) {
+                    return slot;
+                }
+                slot = (slot + 1) & mask;
+            }
+            return -1;
+        }
+
+        private int hash(long threadId) {
+            // thread ids are sequential, spread them to avoid long probe sequences
+            return (int) (threadId * 0x9E3779B97F4A7C15L >>> 32) & mask;
+        }
+    }
+}
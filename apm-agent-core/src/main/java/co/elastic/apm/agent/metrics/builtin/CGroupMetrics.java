@@ -0,0 +1,248 @@
+/*-
+ * #%L
+ * Elastic APM Java agent
+ * %%
+ * Copyright (C) 2018 - 2019 Elastic and contributors
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package co.elastic.apm.agent.metrics.builtin;
+
+import co.elastic.apm.agent.metrics.DoubleSupplier;
+import co.elastic.apm.agent.metrics.MetricRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Reads the memory and CPU usage of the control group (cgroup) of the current process.
+ * <p>
+ * When running in a container, the cgroup reflects the resources of the container,
+ * whereas the {@link java.lang.management.OperatingSystemMXBean} often reports the resources of the host.
+ * Both cgroup v1 and v2 are supported.
+ * </p>
+ */
+class CGroupMetrics {
+
+    private static final Logger logger = LoggerFactory.getLogger(CGroupMetrics.class);
+    /**
+     * cgroup v1 reports a limit close to {@link Long#MAX_VALUE} (rounded to the page size) if the memory is unlimited
+     */
+    private static final long UNLIMITED_V1 = 0x7FFFFFFFFFFFF000L;
+    private static final byte[] USAGE_USEC = ProcFile.key("usage_usec");
+    private static final byte[] NR_PERIODS = ProcFile.key("nr_periods");
+    private static final byte[] NR_THROTTLED = ProcFile.key("nr_throttled");
+    private static final byte[] THROTTLED_USEC = ProcFile.key("throttled_usec");
+    private static final byte[] THROTTLED_TIME = ProcFile.key("throttled_time");
+
+    private final boolean v2;
+    private final ProcFile memoryUsage;
+    private final ProcFile memoryLimit;
+    private final ProcFile cpuStat;
+    /**
+     * Only used for cgroup v1, as v2 reports the usage in {@code cpu.stat}
+     */
+    @Nullable
+    private final ProcFile cpuAcctUsage;
+
+    private CGroupMetrics(boolean v2, File memoryDir, File cpuDir, @Nullable File cpuAcctDir) {
+        this.v2 = v2;
+        this.memoryUsage = new ProcFile(new File(memoryDir, v2 ? "memory.current" : "memory.usage_in_bytes"));
+        this.memoryLimit = new ProcFile(new File(memoryDir, v2 ? "memory.max" : "memory.limit_in_bytes"));
+        this.cpuStat = new ProcFile(new File(cpuDir, "cpu.stat"));
+        this.cpuAcctUsage = cpuAcctDir != null ? new ProcFile(new File(cpuAcctDir, "cpuacct.usage")) : null;
+    }
+
+    /**
+     * Detects the cgroup of the current process.
+     *
+     * @param root the root of the file system, {@code /} except for tests
+     * @return the cgroup metrics or {@code null} if cgroups are not available, for example when not running on Linux
+     */
+    @Nullable
+    static CGroupMetrics detect(File root) {
+        final File cgroupRoot = new File(root, "sys/fs/cgroup");
+        if (!cgroupRoot.isDirectory()) {
+            return null;
+        }
+        try {
+            final Map<String, String> cgroupPaths = readCGroupPaths(new File(root, "proc/self/cgroup"));
+            final CGroupMetrics cGroupMetrics;
+            if (new File(cgroupRoot, "cgroup.controllers").isFile()) {
+                final File dir = resolve(cgroupRoot, cgroupPaths.get(""));
+                cGroupMetrics = new CGroupMetrics(true, dir, dir, null);
+            } else {
+                cGroupMetrics = new CGroupMetrics(false,
+                    resolve(new File(cgroupRoot, "memory"), cgroupPaths.get("memory")),
+                    resolveV1Controller(cgroupRoot, cgroupPaths, "cpu"),
+                    resolveV1Controller(cgroupRoot, cgroupPaths, "cpuacct"));
+            }
+            if (!cGroupMetrics.memoryUsage.exists() && !cGroupMetrics.cpuStat.exists()) {
+                return null;
+            }
+            return cGroupMetrics;
+        } catch (IOException e) {
+            logger.debug("Could not read cgroup information", e);
+            return null;
+        }
+    }
+
+    /**
+     * Parses {@code /proc/self/cgroup}, which contains lines like {@code 4:memory:/docker/abc} (v1) or {@code 0::/docker/abc} (v2).
+     *
+     * @return a map from controller names to cgroup paths, where the key for the v2 unified hierarchy is the empty string
+     */
+    private static Map<String, String> readCGroupPaths(File procSelfCGroup) throws IOException {
+        final Map<String, String> paths = new HashMap<>();
+        if (!procSelfCGroup.isFile()) {
+            return paths;
+        }
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(procSelfCGroup), "UTF-8"))) {
+            for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+                final int firstColon = line.indexOf(':');
+                final int secondColon = line.indexOf(':', firstColon + 1);
+                if (firstColon < 0 || secondColon < 0) {
+                    continue;
+                }
+                final String path = line.substring(secondColon + 1);
+                for (String controller : line.substring(firstColon + 1, secondColon).split(",")) {
+                    paths.put(controller, path);
+                }
+            }
+        }
+        return paths;
+    }
+
+    private static File resolveV1Controller(File cgroupRoot, Map<String, String> cgroupPaths, String controller) {
+        File controllerRoot = new File(cgroupRoot, controller);
+        if (!controllerRoot.isDirectory()) {
+            // some distributions only mount the combined hierarchy
+            controllerRoot = new File(cgroupRoot, "cpu,cpuacct");
+        }
+        return resolve(controllerRoot, cgroupPaths.get(controller));
+    }
+
+    /**
+     * Within a container with its own cgroup namespace, the path of the cgroup is not visible
+     * as the cgroup of the container is mounted as the root.
+     */
+    private static File resolve(File controllerRoot, @Nullable String path) {
+        if (path != null) {
+            final File dir = new File(controllerRoot, path);
+            if (dir.isDirectory()) {
+                return dir;
+            }
+        }
+        return controllerRoot;
+    }
+
+    void bindTo(MetricRegistry metricRegistry) {
+        metricRegistry.addUnlessNegative("system.process.cgroup.cpu.total.norm.pct", Collections.<String, String>emptyMap(), new SystemMetrics.CpuUsage() {
+            @Override
+            long getCpuTimeNanos() {
+                return getCpuUsageNanos();
+            }
+        });
+        metricRegistry.addUnlessNegative("system.process.cgroup.memory.mem.usage.bytes", Collections.<String, String>emptyMap(), new DoubleSupplier() {
+            @Override
+            public double get() {
+                return getMemoryUsage();
+            }
+        });
+        metricRegistry.addUnlessNegative("system.process.cgroup.memory.mem.limit.bytes", Collections.<String, String>emptyMap(), new DoubleSupplier() {
+            @Override
+            public double get() {
+                return getMemoryLimit();
+            }
+        });
+        metricRegistry.addUnlessNegative("system.process.cgroup.cpu.stats.periods", Collections.<String, String>emptyMap(), new DoubleSupplier() {
+            @Override
+            public double get() {
+                return cpuStat.readValue(NR_PERIODS);
+            }
+        });
+        metricRegistry.addUnlessNegative("system.process.cgroup.cpu.stats.throttled.periods", Collections.<String, String>emptyMap(), new DoubleSupplier() {
+            @Override
+            public double get() {
+                return cpuStat.readValue(NR_THROTTLED);
+            }
+        });
+        metricRegistry.addUnlessNegative("system.process.cgroup.cpu.stats.throttled.ns", Collections.<String, String>emptyMap(), new DoubleSupplier() {
+            @Override
+            public double get() {
+                return getThrottledTimeNanos();
+            }
+        });
+    }
+
+    /**
+     * @return the memory usage in bytes or {@code -1} if unknown
+     */
+    long getMemoryUsage() {
+        return memoryUsage.readLong();
+    }
+
+    /**
+     * @return the memory limit in bytes or {@code -1} if unlimited or unknown
+     */
+    long getMemoryLimit() {
+        final long limit = memoryLimit.readLong();
+        if (!v2 && limit >= UNLIMITED_V1) {
+            return -1;
+        }
+        return limit;
+    }
+
+    /**
+     * @return the total CPU time consumed by all tasks of the cgroup in nanoseconds or {@code -1} if unknown
+     */
+    long getCpuUsageNanos() {
+        if (v2) {
+            final long usageMicros = cpuStat.readValue(USAGE_USEC);
+            return usageMicros < 0 ? -1 : usageMicros * 1000;
+        } else if (cpuAcctUsage != null) {
+            return cpuAcctUsage.readLong();
+        }
+        return -1;
+    }
+
+    /**
+     * @return the total time the cgroup has been throttled because it has exceeded its CPU quota or {@code -1} if unknown
+     */
+    long getThrottledTimeNanos() {
+        if (v2) {
+            final long throttledMicros = cpuStat.readValue(THROTTLED_USEC);
+            return throttledMicros < 0 ? -1 : throttledMicros * 1000;
+        }
+        return cpuStat.readValue(THROTTLED_TIME);
+    }
+
+    void close() {
+        memoryUsage.close();
+        memoryLimit.close();
+        cpuStat.close();
+        if (cpuAcctUsage != null) {
+            cpuAcctUsage.close();
+        }
+    }
+}
@@ -0,0 +1,163 @@
+/*-
+ * #%L
+ * Elastic APM Java agent
+ * %%
+ * Copyright (C) 2018 - 2019 Elastic and contributors
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package co.elastic.apm.agent.metrics.builtin;
+
+import co.elastic.apm.agent.metrics.Counter;
+import co.elastic.apm.agent.metrics.Histogram;
+import co.elastic.apm.agent.metrics.MetricRegistry;
+import co.elastic.apm.agent.metrics.Temporality;
+import com.sun.management.GarbageCollectionNotificationInfo;
+import com.sun.management.GcInfo;
+import org.codehaus.mojo.animal_sniffer.IgnoreJRERequirement;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import javax.management.ListenerNotFoundException;
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+import javax.management.openmbean.CompositeData;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Records the duration of each garbage collection into a {@link Histogram} per collector,
+ * as well as the reclaimed and promoted bytes per memory pool,
+ * based on HotSpot's {@link GarbageCollectionNotificationInfo garbage collection notifications}.
+ * <p>
+ * The notifications are handled on the JVM's notification thread.
+ * Recording a collection is lock-free and does not block that thread.
+ * All histograms and counters are looked up when registering the listener,
+ * so that handling a notification only allocates what the JVM requires to decode it.
+ * </p>
+ */
+@IgnoreJRERequirement
+class GcNotificationListener implements NotificationListener {
+
+    private static final Logger logger = LoggerFactory.getLogger(GcNotificationListener.class);
+
+    private final Map<String, Histogram> pauseHistograms = new HashMap<>();
+    private final Map<String, Counter> reclaimedBytes = new HashMap<>();
+    private final Map<String, Counter> promotedBytes = new HashMap<>();
+    private final List<NotificationEmitter> emitters = new ArrayList<>();
+    @Nullable
+    private final GcPauseTracker gcPauseTracker;
+
+    /**
+     * @param gcPauseTracker if not {@code null}, each collection is recorded so that the overlap with transactions can be determined
+     */
+    GcNotificationListener(MetricRegistry registry, List<GarbageCollectorMXBean> garbageCollectorMXBeans, @Nullable GcPauseTracker gcPauseTracker) {
+        this.gcPauseTracker = gcPauseTracker;
+        for (GarbageCollectorMXBean garbageCollectorMXBean : garbageCollectorMXBeans) {
+            if (garbageCollectorMXBean instanceof NotificationEmitter) {
+                final String name = garbageCollectorMXBean.getName();
+                pauseHistograms.put(name, registry.histogram("jvm.gc.pause", "ms", Collections.singletonMap("name", name), 1));
+                emitters.add((NotificationEmitter) garbageCollectorMXBean);
+            }
+        }
+        for (MemoryPoolMXBean memoryPoolMXBean : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (memoryPoolMXBean.getType() == MemoryType.HEAP) {
+                final String name = memoryPoolMXBean.getName();
+                final Map<String, String> tags = Collections.singletonMap("name", name);
+                reclaimedBytes.put(name, registry.counter("jvm.gc.reclaimed", tags, Temporality.DELTA));
+                if (isOldGeneration(name)) {
+                    promotedBytes.put(name, registry.counter("jvm.gc.promoted", tags, Temporality.DELTA));
+                }
+            }
+        }
+    }
+
+    /**
+     * Objects surviving a young collection are promoted to the old generation,
+     * which has one of these names, depending on the collector:
+     * {@code Tenured Gen}, {@code PS Old Gen}, {@code CMS Old Gen} or {@code G1 Old Gen}
+     */
+    static boolean isOldGeneration(String memoryPoolName) {
+        return memoryPoolName.contains("Old") || memoryPoolName.contains("Tenured");
+    }
+
+    void register() {
+        for (NotificationEmitter emitter : emitters) {
+            emitter.addNotificationListener(this, null, null);
+        }
+    }
+
+    void unregister() {
+        for (NotificationEmitter emitter : emitters) {
+            try {
+                emitter.removeNotificationListener(this);
+            } catch (ListenerNotFoundException ignore) {
+            }
+        }
+    }
+
+    @Override
+    public void handleNotification(Notification notification, Object handback) {
+        if (!GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION.equals(notification.getType())) {
+            return;
+        }
+        try {
+            final GarbageCollectionNotificationInfo info = GarbageCollectionNotificationInfo.from((CompositeData) notification.getUserData());
+            onGarbageCollection(info.getGcName(), info.getGcInfo());
+        } catch (RuntimeException e) {
+            // never let an exception propagate to the JVM's notification thread
+            logger.debug("Could not record garbage collection", e);
+        }
+    }
+
+    void onGarbageCollection(String gcName, GcInfo gcInfo) {
+        final Histogram pauseHistogram = pauseHistograms.get(gcName);
+        if (pauseHistogram != null) {
+            pauseHistogram.record(gcInfo.getDuration());
+        }
+        if (gcPauseTracker != null) {
+            gcPauseTracker.recordPause(gcInfo.getStartTime(), gcInfo.getDuration());
+        }
+        final Map<String, MemoryUsage> usageBefore = gcInfo.getMemoryUsageBeforeGc();
+        final Map<String, MemoryUsage> usageAfter = gcInfo.getMemoryUsageAfterGc();
+        for (Map.Entry<String, MemoryUsage> before : usageBefore.entrySet()) {
+            final MemoryUsage after = usageAfter.get(before.getKey());
+            if (after == null) {
+                continue;
+            }
+            final long delta = before.getValue().getUsed() - after.getUsed();
+            if (delta > 0) {
+                final Counter reclaimed = reclaimedBytes.get(before.getKey());
+                if (reclaimed != null) {
+                    reclaimed.add(delta);
+                }
+            } else if (delta < 0) {
+                final Counter promoted = promotedBytes.get(before.getKey());
+                if (promoted != null) {
+                    promoted.add(-delta);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,120 @@
+/*-
+ * #%L
+ * Elastic APM Java agent
+ * %%
+ * Copyright (C) 2018 - 2019 Elastic and contributors
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package co.elastic.apm.agent.metrics.builtin;
+
+import co.elastic.apm.agent.impl.transaction.Transaction;
+import co.elastic.apm.agent.metrics.Histogram;
+import co.elastic.apm.agent.metrics.MetricRegistry;
+
+import java.lang.management.ManagementFactory;
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Keeps track of recent garbage collections in a lock-free ring buffer
+ * in order to determine how much of a transaction's duration overlapped with garbage collections.
+ * <p>
+ * The garbage collections are recorded by the {@link GcNotificationListener}.
+ * As the JVM reports their start time and duration in milliseconds since the start of the JVM,
+ * each collection is packed into a single {@code long},
+ * so that readers never see a partially written entry.
+ * </p>
+ * <p>
+ * Calculating the overlap of a transaction does not allocate memory.
+ * </p>
+ */
+public class GcPauseTracker {
+
+    static final int CAPACITY = 64;
+    private static final int MASK = CAPACITY - 1;
+    private static final int DURATION_BITS = 24;
+    private static final long MAX_DURATION_MS = (1L << DURATION_BITS) - 1;
+
+    private final AtomicLongArray pauses = new AtomicLongArray(CAPACITY);
+    /**
+     * The number of pauses recorded so far, the next pause is written to {@code pauseCount & MASK}
+     */
+    private final AtomicLong pauseCount = new AtomicLong();
+    private final long jvmStartEpochMicros;
+    private final Histogram overlapHistogram;
+
+    public GcPauseTracker(MetricRegistry metricRegistry) {
+        this(metricRegistry, ManagementFactory.getRuntimeMXBean().getStartTime() * 1000);
+    }
+
+    GcPauseTracker(MetricRegistry metricRegistry, long jvmStartEpochMicros) {
+        this.jvmStartEpochMicros = jvmStartEpochMicros;
+        this.overlapHistogram = metricRegistry.histogram("transaction.gc_pause", "us", Collections.<String, String>emptyMap());
+    }
+
+    /**
+     * Records a garbage collection.
+     * Must only be called by a single thread, the JVM's notification thread.
+     *
+     * @param startMs    the start of the collection in milliseconds since the start of the JVM
+     * @param durationMs the duration of the collection in milliseconds
+     */
+    void recordPause(long startMs, long durationMs) {
+        final long count = pauseCount.get();
+        pauses.set((int) count & MASK, (startMs << DURATION_BITS) | Math.min(durationMs, MAX_DURATION_MS));
+        pauseCount.set(count + 1);
+    }
+
+    /**
+     * Calculates how much of the transaction's duration overlapped with garbage collections.
+     * If there was any overlap,
+     * it's recorded in the {@code transaction.gc_pause} histogram and as a mark of the transaction.
+     *
+     * @param transaction a transaction which has just ended
+     */
+    public void recordOverlap(Transaction transaction) {
+        final long start = transaction.getTimestamp();
+        final long end = start + (long) (transaction.getDuration() * 1000);
+        final long overlap = getOverlapMicros(start, end);
+        if (overlap > 0) {
+            overlapHistogram.record(overlap);
+            transaction.setGcPauseMicros(overlap);
+        }
+    }
+
+    /**
+     * @param startEpochMicros the start of the time range
+     * @param endEpochMicros   the end of the time range
+     * @return the microseconds between start and end which overlap with garbage collections
+     */
+    long getOverlapMicros(long startEpochMicros, long endEpochMicros) {
+        final long count = pauseCount.get();
+        long overlap = 0;
+        // the pauses are recorded when they end, so iterate from the newest to the oldest
+        // until reaching a pause which has ended before the start of the time range
+        for (long i = count - 1; i >= 0 && i >= count - CAPACITY; i--) {
+            final long pause = pauses.get((int) i & MASK);
+            final long pauseStart = jvmStartEpochMicros + (pause >>> DURATION_BITS) * 1000;
+            final long pauseEnd = pauseStart + (pause & MAX_DURATION_MS) * 1000;
+            if (pauseEnd <= startEpochMicros) {
+                break;
+            }
+            overlap += Math.max(0, Math.min(endEpochMicros, pauseEnd) - Math.max(startEpochMicros, pauseStart));
+        }
+        // concurrently running collectors can report overlapping pauses
+        return Math.min(overlap, endEpochMicros - startEpochMicros);
+    }
+}
@@ -23,9 +23,8 @@ import co.elastic.apm.agent.context.LifecycleListener;
 import co.elastic.apm.agent.impl.ElasticApmTracer;
 import co.elastic.apm.agent.metrics.DoubleSupplier;
 import co.elastic.apm.agent.metrics.MetricRegistry;
-import com.sun.management.ThreadMXBean;
-import org.codehaus.mojo.animal_sniffer.IgnoreJRERequirement;
 
+import javax.annotation.Nullable;
 import java.lang.management.GarbageCollectorMXBean;
 import java.lang.management.ManagementFactory;
 import java.util.Collections;
@@ -35,13 +34,19 @@ import java.util.Map;
 public class JvmGcMetrics implements LifecycleListener {
 
     private final List<GarbageCollectorMXBean> garbageCollectorMXBeans = ManagementFactory.getGarbageCollectorMXBeans();
+    @Nullable
+    private GcNotificationListener gcNotificationListener;
 
     @Override
     public void start(ElasticApmTracer tracer) {
-        bindTo(tracer.getMetricRegistry());
+        bindTo(tracer.getMetricRegistry(), tracer.getGcPauseTracker());
     }
 
     void bindTo(final MetricRegistry registry) {
+        bindTo(registry, null);
+    }
+
+    void bindTo(final MetricRegistry registry, @Nullable GcPauseTracker gcPauseTracker) {
         for (final GarbageCollectorMXBean garbageCollectorMXBean : garbageCollectorMXBeans) {
             final Map<String, String> tags = Collections.singletonMap("name", garbageCollectorMXBean.getName());
             registry.addUnlessNegative("jvm.gc.count", tags, new DoubleSupplier() {
@@ -59,34 +64,29 @@ public class JvmGcMetrics implements LifecycleListener {
         }
 
         try {
-            // only refer to hotspot specific class via reflection to avoid linkage errors
+            // the AllocationTracker refers to a hotspot specific class,
+            // only load it if that class is available to avoid linkage errors
             Class.forName("com.sun.management.ThreadMXBean");
-            // in reference to JMH's GC profiler (gc.alloc.rate)
-            registry.add("jvm.gc.alloc", Collections.<String, String>emptyMap(),
-                (DoubleSupplier) Class.forName(getClass().getName() + "$HotspotAllocationSupplier").getEnumConstants()[0]);
+            final AllocationTracker allocationTracker = new AllocationTracker(registry);
+            if (allocationTracker.isSupported()) {
+                allocationTracker.registerMetrics();
+            }
         } catch (ClassNotFoundException ignore) {
         }
-    }
-
-    @IgnoreJRERequirement
-    enum HotspotAllocationSupplier implements DoubleSupplier {
-        INSTANCE;
-
-        final ThreadMXBean threadMXBean = (ThreadMXBean) ManagementFactory.getThreadMXBean();
 
-        @Override
-        public double get() {
-            long allocatedBytes = 0;
-            for (final long threadAllocatedBytes : threadMXBean.getThreadAllocatedBytes(threadMXBean.getAllThreadIds())) {
-                if (threadAllocatedBytes > 0) {
-                    allocatedBytes += threadAllocatedBytes;
-                }
-            }
-            return allocatedBytes;
+        try {
+            // the GcNotificationListener refers to hotspot specific classes which are only available as of Java 7u4
+            Class.forName("com.sun.management.GarbageCollectionNotificationInfo");
+            gcNotificationListener = new GcNotificationListener(registry, garbageCollectorMXBeans, gcPauseTracker);
+            gcNotificationListener.register();
+        } catch (ClassNotFoundException ignore) {
         }
     }
 
     @Override
     public void stop() throws Exception {
+        if (gcNotificationListener != null) {
+            gcNotificationListener.unregister();
+        }
     }
 }
@@ -0,0 +1,192 @@
+/*-
+ * #%L
+ * Elastic APM Java agent
+ * %%
+ * Copyright (C) 2018 - 2019 Elastic and contributors
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package co.elastic.apm.agent.metrics.builtin;
+
+import javax.annotation.Nullable;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.Charset;
+
+/**
+ * Reads numbers from pseudo files, like the ones in {@code /proc} and {@code /sys/fs/cgroup}.
+ * <p>
+ * The file is kept open and is re-read into the same buffer on every call.
+ * The numbers are parsed from the raw bytes,
+ * so that reading a value does not allocate any {@link String}s.
+ * </p>
+ * <p>
+ * Instances are not thread safe.
+ * That's fine as the metrics are only read by the thread which reports them.
+ * </p>
+ */
+class ProcFile implements Closeable {
+
+    private static final Charset US_ASCII = Charset.forName("US-ASCII");
+    private static final int BUFFER_SIZE = 4096;
+
+    private final File file;
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+    private int length;
+    @Nullable
+    private RandomAccessFile randomAccessFile;
+
+    ProcFile(File file) {
+        this.file = file;
+    }
+
+    static byte[] key(String key) {
+        return key.getBytes(US_ASCII);
+    }
+
+    boolean exists() {
+        return file.isFile() && file.canRead();
+    }
+
+    /**
+     * Parses a file which only contains a single number, like {@code memory.current}.
+     *
+     * @return the number or {@code -1} if the file can't be read or does not contain a number, like {@code max}
+     */
+    long readLong() {
+        if (!read()) {
+            return -1;
+        }
+        return parseLong(skipWhitespace(0));
+    }
+
+    /**
+     * Parses the value of a flat keyed file, like {@code cpu.stat}, where each line consists of a key and a number.
+     *
+     * @param key the key, as returned by {@link #key(String)}
+     * @return the number or {@code -1} if the file can't be read or does not contain the key
+     */
+    long readValue(byte[] key) {
+        if (!read()) {
+            return -1;
+        }
+        int lineStart = 0;
+        while (lineStart < length) {
+            if (startsWith(lineStart, key) && lineStart + key.length < length && buffer[lineStart + key.length] == ' ') {
+                return parseLong(skipWhitespace(lineStart + key.length));
+            }
+            lineStart = nextLine(lineStart);
+        }
+        return -1;
+    }
+
+    /**
+     * Parses a field of {@code /proc/[pid]/stat}.
+     * <p>
+     * As the second field (the file name of the executable) is enclosed in parentheses and may contain spaces,
+     * the fields are counted from the last closing parenthesis.
+     * </p>
+     *
+     * @param field the 1-based index of the field, as documented in {@code man 5 proc}. Must be 3 or greater.
+     * @return the number or {@code -1} if the file can't be read or does not contain the field
+     */
+    long readStatField(int field) {
+        if (!read()) {
+            return -1;
+        }
+        int i = length - 1;
+        while (i >= 0 && buffer[i] != ')') {
+            i--;
+        }
+        if (i < 0) {
+            return -1;
+        }
+        // skip ") " which leads to the third field
+        i += 2;
+        for (int currentField = 3; currentField < field && i < length; i++) {
+            if (buffer[i] == ' ') {
+                currentField++;
+            }
+        }
+        return parseLong(i);
+    }
+
+    private boolean read() {
+        try {
+            if (randomAccessFile == null) {
+                randomAccessFile = new RandomAccessFile(file, "r");
+            }
+            randomAccessFile.seek(0);
+            length = 0;
+            int read;
+            while (length < buffer.length && (read = randomAccessFile.read(buffer, length, buffer.length - length)) > 0) {
+                length += read;
+            }
+            return true;
+        } catch (IOException e) {
+            close();
+            return false;
+        }
+    }
+
+    private boolean startsWith(int offset, byte[] key) {
+        if (offset + key.length > length) {
+            return false;
+        }
+        for (int i = 0; i < key.length; i++) {
+            if (buffer[offset + i] != key[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private int nextLine(int offset) {
+        while (offset < length && buffer[offset] != '\n') {
+            offset++;
+        }
+        return offset + 1;
+    }
+
+    private int skipWhitespace(int offset) {
+        while (offset < length && (buffer[offset] == ' ' || buffer[offset] == '\t')) {
+            offset++;
+        }
+        return offset;
+    }
+
+    private long parseLong(int offset) {
+        if (offset >= length || buffer[offset] < '0' || buffer[offset] > '9') {
+            return -1;
+        }
+        long value = 0;
+        for (int i = offset; i < length && buffer[i] >= '0' && buffer[i] <= '9'; i++) {
+            value = value * 10 + (buffer[i] - '0');
+        }
+        return value;
+    }
+
+    @Override
+    public void close() {
+        if (randomAccessFile != null) {
+            try {
+                randomAccessFile.close();
+            } catch (IOException ignore) {
+            }
+            randomAccessFile = null;
+        }
+    }
+}
@@ -0,0 +1,332 @@
+/*-
+ * #%L
+ * Elastic APM Java agent
+ * %%
+ * Copyright (C) 2018 - 2019 Elastic and contributors
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package co.elastic.apm.agent.metrics.builtin;
+
+import co.elastic.apm.agent.configuration.CoreConfiguration;
+import co.elastic.apm.agent.impl.transaction.Id;
+import co.elastic.apm.agent.impl.transaction.ResourceUsage;
+import co.elastic.apm.agent.impl.transaction.Transaction;
+import co.elastic.apm.agent.metrics.Counter;
+import co.elastic.apm.agent.metrics.MetricRegistry;
+import co.elastic.apm.agent.metrics.Temporality;
+import co.elastic.apm.agent.metrics.Timer;
+import org.codehaus.mojo.animal_sniffer.IgnoreJRERequirement;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadInfo;
+import java.lang.management.ThreadMXBean;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Attributes the CPU time, the heap allocations and the lock contention of threads to the {@link Transaction}s they are working on.
+ * <p>
+ * The resources of a thread are read when a transaction becomes active on a thread which has no other active context
+ * and when it is deactivated again.
+ * The difference is added to the {@link Transaction#getResourceUsage()}.
+ * Nested activations, like the ones of spans, don't add further overhead.
+ * Asynchronous continuations are tracked by the {@link co.elastic.apm.agent.impl.ContextInScopeRunnableWrapper}
+ * and {@link co.elastic.apm.agent.impl.ContextInScopeCallableWrapper}.
+ * </p>
+ * <p>
+ * Only sampled transactions are tracked, so that the overhead decreases with the sample rate.
+ * When a transaction ends, its resource usage is aggregated per transaction type into the
+ * {@code transaction.cpu_time} and {@code transaction.allocated_bytes} metrics.
+ * The time contended transactions have been blocked or waiting is aggregated per transaction name into the
+ * {@code transaction.blocked_time} and {@code transaction.waited_time} metrics.
+ * The number of transaction names is limited to {@link #MAX_CONTENDED_TRANSACTION_NAMES}.
+ * </p>
+ */
+public class ResourceUsageTracker {
+
+    static final int MAX_CONTENDED_TRANSACTION_NAMES = 100;
+    static final String OVERFLOW_TRANSACTION_NAME = "_other";
+    private static final Logger logger = LoggerFactory.getLogger(ResourceUsageTracker.class);
+
+    private final CoreConfiguration coreConfiguration;
+    private final MetricRegistry metricRegistry;
+    private final ThreadMXBean threadMXBean;
+    private final boolean cpuTimeSupported;
+    private final boolean allocatedBytesSupported;
+    private volatile boolean contentionMonitoringEnabled;
+    /**
+     * The metrics per transaction type.
+     * Transactions without a type are stored with an empty key.
+     */
+    private final ConcurrentMap<String, Timer> cpuTimeTimers = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Counter> allocatedBytesCounters = new ConcurrentHashMap<>();
+    /**
+     * The metrics per transaction name
+     */
+    private final ConcurrentMap<String, Timer> blockedTimeTimers = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Timer> waitedTimeTimers = new ConcurrentHashMap<>();
+    private final ThreadLocal<Activation> activations = new ThreadLocal<Activation>() {
+        @Override
+        protected Activation initialValue() {
+            return new Activation();
+        }
+    };
+
+    public ResourceUsageTracker(CoreConfiguration coreConfiguration, MetricRegistry metricRegistry) {
+        this(coreConfiguration, metricRegistry, ManagementFactory.getThreadMXBean());
+    }
+
+    ResourceUsageTracker(CoreConfiguration coreConfiguration, MetricRegistry metricRegistry, ThreadMXBean threadMXBean) {
+        this.coreConfiguration = coreConfiguration;
+        this.metricRegistry = metricRegistry;
+        this.threadMXBean = threadMXBean;
+        this.cpuTimeSupported = threadMXBean.isCurrentThreadCpuTimeSupported();
+        this.allocatedBytesSupported = HotSpotThreadAllocation.isSupported(threadMXBean);
+    }
+
+    /**
+     * @param transaction the transaction
+     * @return {@code true}, if the resource usage or the contention of the transaction should be tracked
+     */
+    public boolean isTracked(Transaction transaction) {
+        return transaction.isSampled()
+            && !transaction.isNoop()
+            && (isResourceUsageTracked() || coreConfiguration.isTransactionThreadContention());
+    }
+
+    private boolean isResourceUsageTracked() {
+        return (cpuTimeSupported || allocatedBytesSupported) && coreConfiguration.isTransactionResourceUsage();
+    }
+
+    /**
+     * Must be called when the transaction is activated on a thread which has no other active context.
+     *
+     * @param transaction the transaction which is activated
+     */
+    public void onActivate(Transaction transaction) {
+        if (isTracked(transaction)) {
+            start(transaction);
+        }
+    }
+
+    /**
+     * Must be called when the transaction is deactivated and there is no other active context left on the current thread.
+     *
+     * @param transaction the transaction which is deactivated
+     */
+    public void onDeactivate(Transaction transaction) {
+        end(transaction, null);
+    }
+
+    /**
+     * Must be called before a continuation of a transaction is executed on a thread which has no active context.
+     *
+     * @param transaction a transaction for which {@link #isTracked(Transaction)} has been {@code true}
+     *                    when the continuation has been created
+     */
+    public void onContinuationStart(Transaction transaction) {
+        start(transaction);
+    }
+
+    /**
+     * Must be called after a continuation of a transaction has been executed.
+     * <p>
+     * As the transaction might have ended and might have been recycled in the meantime,
+     * the resources are only added if the transaction still has the provided id.
+     * </p>
+     *
+     * @param transaction   the transaction the continuation belongs to
+     * @param transactionId the id of the transaction at the time the continuation has been created
+     */
+    public void onContinuationEnd(Transaction transaction, Id transactionId) {
+        end(transaction, transactionId);
+    }
+
+    private void start(Transaction transaction) {
+        final Activation activation = activations.get();
+        activation.transaction = transaction;
+        activation.resourceUsage = isResourceUsageTracked();
+        if (activation.resourceUsage) {
+            activation.cpuTime = getCurrentThreadCpuTime();
+            activation.allocatedBytes = getCurrentThreadAllocatedBytes();
+        }
+        activation.contention = coreConfiguration.isTransactionThreadContention();
+        if (activation.contention) {
+            enableContentionMonitoring();
+            final ThreadInfo threadInfo = threadMXBean.getThreadInfo(Thread.currentThread().getId());
+            activation.contention = threadInfo != null;
+            if (threadInfo != null) {
+                activation.blockedCount = threadInfo.getBlockedCount();
+                activation.blockedTime = threadInfo.getBlockedTime();
+                activation.waitedCount = threadInfo.getWaitedCount();
+                activation.waitedTime = threadInfo.getWaitedTime();
+            }
+        }
+    }
+
+    private void end(Transaction transaction, @Nullable Id transactionId) {
+        final Activation activation = activations.get();
+        if (activation.transaction == transaction
+            && (transactionId == null || transaction.getTraceContext().getId().equals(transactionId))) {
+            final ResourceUsage resourceUsage = transaction.getResourceUsage();
+            if (activation.resourceUsage) {
+                resourceUsage.add(getCurrentThreadCpuTime() - activation.cpuTime,
+                    getCurrentThreadAllocatedBytes() - activation.allocatedBytes);
+            }
+            if (activation.contention) {
+                final ThreadInfo threadInfo = threadMXBean.getThreadInfo(Thread.currentThread().getId());
+                if (threadInfo != null) {
+                    resourceUsage.addContention(threadInfo.getBlockedCount() - activation.blockedCount,
+                        getTimeDelta(activation.blockedTime, threadInfo.getBlockedTime()),
+                        threadInfo.getWaitedCount() - activation.waitedCount,
+                        getTimeDelta(activation.waitedTime, threadInfo.getWaitedTime()));
+                }
+            }
+        }
+        activation.transaction = null;
+    }
+
+    /**
+     * The times are {@code -1} if contention monitoring has not been enabled at the time they have been read
+     */
+    private static long getTimeDelta(long start, long end) {
+        return start >= 0 && end >= 0 ? end - start : 0;
+    }
+
+    private void enableContentionMonitoring() {
+        if (!contentionMonitoringEnabled) {
+            contentionMonitoringEnabled = true;
+            try {
+                if (threadMXBean.isThreadContentionMonitoringSupported()) {
+                    threadMXBean.setThreadContentionMonitoringEnabled(true);
+                }
+            } catch (RuntimeException e) {
+                logger.warn("Could not enable thread contention monitoring: {}", e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * @return the CPU time of the current thread in nanoseconds, or {@code 0} if not supported
+     */
+    long getCurrentThreadCpuTime() {
+        return cpuTimeSupported ? threadMXBean.getCurrentThreadCpuTime() : 0;
+    }
+
+    /**
+     * @return the bytes allocated by the current thread, or {@code 0} if not supported
+     */
+    long getCurrentThreadAllocatedBytes() {
+        return allocatedBytesSupported ? HotSpotThreadAllocation.getCurrentThreadAllocatedBytes(threadMXBean) : 0;
+    }
+
+    /**
+     * Aggregates the resource usage and the contention of a transaction which has just ended into metrics.
+     *
+     * @param transaction a transaction which has just ended
+     */
+    public void recordMetrics(Transaction transaction) {
+        final ResourceUsage resourceUsage = transaction.getResourceUsage();
+        if (resourceUsage.hasContent()) {
+            final String type = transaction.getType() != null ? transaction.getType() : "";
+            Timer cpuTimeTimer = cpuTimeTimers.get(type);
+            if (cpuTimeTimer == null) {
+                cpuTimeTimers.putIfAbsent(type, metricRegistry.timer("transaction.cpu_time", "us", getTags("transaction_type", type), Temporality.DELTA));
+                cpuTimeTimer = cpuTimeTimers.get(type);
+            }
+            Counter allocatedBytesCounter = allocatedBytesCounters.get(type);
+            if (allocatedBytesCounter == null) {
+                allocatedBytesCounters.putIfAbsent(type, metricRegistry.counter("transaction.allocated_bytes", getTags("transaction_type", type), Temporality.DELTA));
+                allocatedBytesCounter = allocatedBytesCounters.get(type);
+            }
+            cpuTimeTimer.update(resourceUsage.getCpuTimeNanos() / 1000);
+            allocatedBytesCounter.add(resourceUsage.getAllocatedBytes());
+        }
+        if (resourceUsage.getBlockedTimeMillis() > 0 || resourceUsage.getWaitedTimeMillis() > 0) {
+            final String name = transaction.getName().toString();
+            if (resourceUsage.getBlockedTimeMillis() > 0) {
+                getContentionTimer(blockedTimeTimers, "transaction.blocked_time", name).update(resourceUsage.getBlockedTimeMillis() * 1000);
+            }
+            if (resourceUsage.getWaitedTimeMillis() > 0) {
+                getContentionTimer(waitedTimeTimers, "transaction.waited_time", name).update(resourceUsage.getWaitedTimeMillis() * 1000);
+            }
+        }
+    }
+
+    private Timer getContentionTimer(ConcurrentMap<String, Timer> timers, String metricName, String transactionName) {
+        Timer timer = timers.get(transactionName);
+        if (timer == null) {
+            if (timers.size() >= MAX_CONTENDED_TRANSACTION_NAMES) {
+                transactionName = OVERFLOW_TRANSACTION_NAME;
+                timer = timers.get(transactionName);
+            }
+            if (timer == null) {
+                timers.putIfAbsent(transactionName, metricRegistry.timer(metricName, "us", getTags("transaction_name", transactionName), Temporality.DELTA));
+                timer = timers.get(transactionName);
+            }
+        }
+        return timer;
+    }
+
+    private static Map<String, String> getTags(String key, String value) {
+        if (value.isEmpty()) {
+            return Collections.emptyMap();
+        }
+        return Collections.singletonMap(key, value);
+    }
+
+    /**
+     * The state of the thread at the start of an activation or continuation
+     */
+    private static class Activation {
+        @Nullable
+        private Transaction transaction;
+        private boolean resourceUsage;
+        private long cpuTime;
+        private long allocatedBytes;
+        private boolean contention;
+        private long blockedCount;
+        private long blockedTime;
+        private long waitedCount;
+        private long waitedTime;
+    }
+
+    /**
+     * Refers to HotSpot specific classes,
+     * only loaded if these classes are available, to avoid linkage errors.
+     */
+    @IgnoreJRERequirement
+    private static class HotSpotThreadAllocation {
+
+        static boolean isSupported(ThreadMXBean threadMXBean) {
+            try {
+                Class.forName("com.sun.management.ThreadMXBean");
+            } catch (ClassNotFoundException e) {
+                return false;
+            }
+            return threadMXBean instanceof com.sun.management.ThreadMXBean
+                && ((com.sun.management.ThreadMXBean) threadMXBean).isThreadAllocatedMemorySupported();
+        }
+
+        static long getCurrentThreadAllocatedBytes(ThreadMXBean threadMXBean) {
+            return ((com.sun.management.ThreadMXBean) threadMXBean).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+    }
+}
@@ -25,6 +25,7 @@ import co.elastic.apm.agent.metrics.DoubleSupplier;
 import co.elastic.apm.agent.metrics.MetricRegistry;
 
 import javax.annotation.Nullable;
+import java.io.File;
 import java.lang.invoke.MethodHandle;
 import java.lang.invoke.MethodHandles;
 import java.lang.invoke.MethodType;
@@ -45,9 +46,27 @@ import java.util.List;
  * <p>
  * This implementation is based on io.micrometer.core.instrument.binder.system.ProcessorMetrics,
  * under Apache License 2.0
+ * </p>
+ * <p>
+ * On Linux, the metrics of the process are read directly from {@code /proc/self/stat} instead,
+ * which avoids calling the {@link OperatingSystemMXBean}, which is expensive on some JVMs.
+ * The memory limit of the cgroup of the process (see {@link CGroupMetrics}) is reported as the total memory, if there is one.
+ * The CPU usage of the system is always read from the {@link OperatingSystemMXBean},
+ * as every process on a systemd based host has a cgroup, even if it does not run in a container.
+ * The CPU usage of the cgroup is reported as a separate metric.
+ * </p>
  */
 public class SystemMetrics implements LifecycleListener {
 
+    /**
+     * The value of {@code USER_HZ}, the unit of the CPU times in {@code /proc/self/stat}.
+     * It's 100 on all common Linux architectures and can't be determined without native code.
+     */
+    private static final long NANOS_PER_CLOCK_TICK = 10 * 1000 * 1000;
+    private static final int STAT_UTIME = 14;
+    private static final int STAT_STIME = 15;
+    private static final int STAT_VSIZE = 23;
+
     /**
      * List of public, exported interface class names from supported JVM implementations.
      */
@@ -76,7 +95,23 @@ public class SystemMetrics implements LifecycleListener {
     @Nullable
     private final MethodHandle virtualProcessMemory;
 
+    @Nullable
+    private final CGroupMetrics cGroupMetrics;
+
+    @Nullable
+    private final ProcFile procSelfStat;
+
     public SystemMetrics() {
+        this(new File("/"));
+    }
+
+    /**
+     * @param root the root of the file system which contains {@code /proc} and {@code /sys/fs/cgroup}
+     */
+    SystemMetrics(File root) {
+        final ProcFile procSelfStat = new ProcFile(new File(root, "proc/self/stat"));
+        this.procSelfStat = procSelfStat.exists() ? procSelfStat : null;
+        this.cGroupMetrics = CGroupMetrics.detect(root);
         this.operatingSystemBean = ManagementFactory.getOperatingSystemMXBean();
         this.operatingSystemBeanClass = getFirstClassFound(OPERATING_SYSTEM_BEAN_CLASS_NAMES);
         this.systemCpuUsage = detectMethod("getSystemCpuLoad", double.class);
@@ -99,16 +134,17 @@ public class SystemMetrics implements LifecycleListener {
             }
         });
 
-        metricRegistry.addUnlessNegative("system.process.cpu.total.norm.pct", Collections.<String, String>emptyMap(), new DoubleSupplier() {
-            @Override
-            public double get() {
-                return invoke(processCpuUsage);
-            }
-        });
+        metricRegistry.addUnlessNegative("system.process.cpu.total.norm.pct", Collections.<String, String>emptyMap(), getProcessCpuUsage());
 
         metricRegistry.addUnlessNan("system.memory.total", Collections.<String, String>emptyMap(), new DoubleSupplier() {
             @Override
             public double get() {
+                if (cGroupMetrics != null) {
+                    final long limit = cGroupMetrics.getMemoryLimit();
+                    if (limit > 0) {
+                        return limit;
+                    }
+                }
                 return invoke(totalMemory);
             }
         });
@@ -116,6 +152,13 @@ public class SystemMetrics implements LifecycleListener {
         metricRegistry.addUnlessNan("system.memory.actual.free", Collections.<String, String>emptyMap(), new DoubleSupplier() {
             @Override
             public double get() {
+                if (cGroupMetrics != null) {
+                    final long limit = cGroupMetrics.getMemoryLimit();
+                    final long usage = cGroupMetrics.getMemoryUsage();
+                    if (limit > 0 && usage >= 0) {
+                        return Math.max(0, limit - usage);
+                    }
+                }
                 return invoke(freeMemory);
             }
         });
@@ -123,9 +166,45 @@ public class SystemMetrics implements LifecycleListener {
         metricRegistry.addUnlessNegative("system.process.memory.size", Collections.<String, String>emptyMap(), new DoubleSupplier() {
             @Override
             public double get() {
+                if (procSelfStat != null) {
+                    return procSelfStat.readStatField(STAT_VSIZE);
+                }
                 return invoke(virtualProcessMemory);
             }
         });
+
+        if (cGroupMetrics != null) {
+            cGroupMetrics.bindTo(metricRegistry);
+        }
+    }
+
+    /**
+     * Returns a supplier of the CPU usage of this process, normalized by the number of available processors.
+     * <p>
+     * The usage may be calculated based on the difference to the previous invocation.
+     * Consumers which need the usage over their own interval should therefore use a supplier of their own.
+     * </p>
+     */
+    public DoubleSupplier getProcessCpuUsage() {
+        if (procSelfStat != null) {
+            return new CpuUsage() {
+                @Override
+                long getCpuTimeNanos() {
+                    final long userTicks = procSelfStat.readStatField(STAT_UTIME);
+                    final long systemTicks = procSelfStat.readStatField(STAT_STIME);
+                    if (userTicks < 0 || systemTicks < 0) {
+                        return -1;
+                    }
+                    return (userTicks + systemTicks) * NANOS_PER_CLOCK_TICK;
+                }
+            };
+        }
+        return new DoubleSupplier() {
+            @Override
+            public double get() {
+                return invoke(processCpuUsage);
+            }
+        };
     }
 
     private double invoke(@Nullable MethodHandle method) {
@@ -161,7 +240,52 @@ public class SystemMetrics implements LifecycleListener {
         return null;
     }
 
+    /**
+     * Closes the files in {@code /proc} and {@code /sys/fs/cgroup} which are kept open between reads.
+     */
     @Override
-    public void stop() throws Exception {
+    public void stop() {
+        if (procSelfStat != null) {
+            procSelfStat.close();
+        }
+        if (cGroupMetrics != null) {
+            cGroupMetrics.close();
+        }
+    }
+
+    /**
+     * Calculates the CPU usage, normalized by the number of available processors,
+     * based on the difference of a monotonically increasing CPU time since the last invocation.
+     * <p>
+     * The first invocation returns {@code 0}.
+     * </p>
+     */
+    abstract static class CpuUsage implements DoubleSupplier {
+
+        private final int availableProcessors = Runtime.getRuntime().availableProcessors();
+        private long lastCpuTimeNanos = -1;
+        private long lastTimestampNanos;
+
+        /**
+         * @return the consumed CPU time in nanoseconds or {@code -1} if unknown
+         */
+        abstract long getCpuTimeNanos();
+
+        @Override
+        public double get() {
+            final long timestamp = System.nanoTime();
+            final long cpuTime = getCpuTimeNanos();
+            if (cpuTime < 0) {
+                return Double.NaN;
+            }
+            double usage = 0;
+            final long elapsed = timestamp - lastTimestampNanos;
+            if (lastCpuTimeNanos >= 0 && elapsed > 0) {
+                usage = (double) (cpuTime - lastCpuTimeNanos) / elapsed / availableProcessors;
+            }
+            lastCpuTimeNanos = cpuTime;
+            lastTimestampNanos = timestamp;
+            return Math.max(0, Math.min(1, usage));
+        }
     }
 }
@@ -0,0 +1,190 @@
+/*-
+ * #%L
+ * Elastic APM Java agent
+ * %%
+ * Copyright (C) 2018 - 2019 Elastic and contributors
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package co.elastic.apm.agent.metrics.builtin;
+
+import co.elastic.apm.agent.impl.transaction.Span;
+import co.elastic.apm.agent.impl.transaction.Transaction;
+import co.elastic.apm.agent.metrics.Histogram;
+import co.elastic.apm.agent.metrics.MetricRegistry;
+import co.elastic.apm.agent.util.MathUtils;
+
+import javax.annotation.Nullable;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Aggregates the durations of unsampled {@link Transaction}s per transaction name, type and result
+ * instead of reporting each of them individually.
+ * The durations of the {@link Span}s of unsampled transactions are aggregated by span type and subtype.
+ * <p>
+ * The groups are stored in fixed size open addressing hash tables,
+ * so that recording a transaction or span does not allocate memory once its group has been created.
+ * The amount of groups is limited to {@link #MAX_GROUPS}.
+ * Events which don't fit in are aggregated into a group named {@link #OVERFLOW_GROUP_NAME}.
+ * </p>
+ * <p>
+ * The durations are recorded in {@link Histogram}s,
+ * which are reset every {@link co.elastic.apm.agent.report.ReporterConfiguration#metricsInterval metrics_interval}.
+ * </p>
+ */
+public class UnsampledTransactionAggregator {
+
+    static final int MAX_GROUPS = 1000;
+    static final String OVERFLOW_GROUP_NAME = "_other";
+
+    private final GroupTable transactions;
+    private final GroupTable spans;
+
+    public UnsampledTransactionAggregator(MetricRegistry metricRegistry) {
+        transactions = new GroupTable(metricRegistry, "transaction.duration", "transaction_name", "transaction_type", "transaction_result");
+        spans = new GroupTable(metricRegistry, "span.duration", "span_type", "span_subtype", "span_action");
+    }
+
+    public void record(Transaction transaction) {
+        transactions.getHistogram(transaction.getName(), transaction.getType(), transaction.getResult())
+            .record((long) (transaction.getDuration() * 1000));
+    }
+
+    public void record(Span span) {
+        final String type = span.getType();
+        spans.getHistogram(type != null ? type : "custom", span.getSubtype(), span.getAction())
+            .record((long) (span.getDuration() * 1000));
+    }
+
+    int getTransactionGroupCount() {
+        return transactions.groupCount.get();
+    }
+
+    private static class GroupTable {
+        private final MetricRegistry metricRegistry;
+        private final String metricName;
+        private final String firstTagKey;
+        private final String secondTagKey;
+        private final String thirdTagKey;
+        private final AtomicReferenceArray<Group> groups;
+        private final int mask;
+        private final AtomicInteger groupCount = new AtomicInteger();
+        private final AtomicReference<Histogram> overflowHistogram = new AtomicReference<>();
+
+        private GroupTable(MetricRegistry metricRegistry, String metricName, String firstTagKey, String secondTagKey, String thirdTagKey) {
+            this.metricRegistry = metricRegistry;
+            this.metricName = metricName;
+            this.firstTagKey = firstTagKey;
+            this.secondTagKey = secondTagKey;
+            this.thirdTagKey = thirdTagKey;
+            // keeping the load factor at or below 0.5 makes sure linear probing sequences stay short
+            final int capacity = MathUtils.getNextPowerOf2(MAX_GROUPS * 2);
+            this.groups = new AtomicReferenceArray<>(capacity);
+            this.mask = capacity - 1;
+        }
+
+        private Histogram getHistogram(CharSequence first, @Nullable String second, @Nullable String third) {
+            final int hash = hash(first, second, third);
+            for (int i = 0; i <= mask; i++) {
+                final int index = (hash + i) & mask;
+                Group group = groups.get(index);
+                if (group == null) {
+                    if (groupCount.incrementAndGet() > MAX_GROUPS) {
+                        groupCount.decrementAndGet();
+                        return getOverflowHistogram();
+                    }
+                    final String firstAsString = first.toString();
+                    final Group newGroup = new Group(hash, firstAsString, second, third,
+                        createHistogram(firstAsString, second, third));
+                    if (groups.compareAndSet(index, null, newGroup)) {
+                        return newGroup.histogram;
+                    }
+                    // another thread has been faster
+                    groupCount.decrementAndGet();
+                    group = groups.get(index);
+                }
+                if (group.matches(hash, first, second, third)) {
+                    return group.histogram;
+                }
+            }
+            return getOverflowHistogram();
+        }
+
+        private Histogram getOverflowHistogram() {
+            Histogram histogram = overflowHistogram.get();
+            if (histogram == null) {
+                overflowHistogram.compareAndSet(null, createHistogram(OVERFLOW_GROUP_NAME, null, null));
+                histogram = overflowHistogram.get();
+            }
+            return histogram;
+        }
+
+        private Histogram createHistogram(String first, @Nullable String second, @Nullable String third) {
+            final Map<String, String> tags = new HashMap<>();
+            tags.put(firstTagKey, first);
+            if (second != null) {
+                tags.put(secondTagKey, second);
+            }
+            if (third != null) {
+                tags.put(thirdTagKey, third);
+            }
+            // as there may be lots of groups, use only one stripe to save memory
+            return metricRegistry.histogram(metricName, "us", tags, 1);
+        }
+
+        private static int hash(CharSequence first, @Nullable String second, @Nullable String third) {
+            int h = 0;
+            for (int i = 0; i < first.length(); i++) {
+                h = 31 * h + first.charAt(i);
+            }
+            h = 31 * h + (second != null ? second.hashCode() : 0);
+            h = 31 * h + (third != null ? third.hashCode() : 0);
+            // spreads the higher bits, as only the lower bits are used to compute the index
+            return h ^ (h >>> 16);
+        }
+    }
+
+    private static class Group {
+        private final int hash;
+        private final String first;
+        @Nullable
+        private final String second;
+        @Nullable
+        private final String third;
+        private final Histogram histogram;
+
+        private Group(int hash, String first, @Nullable String second, @Nullable String third, Histogram histogram) {
+            this.hash = hash;
+            this.first = first;
+            this.second = second;
+            this.third = third;
+            this.histogram = histogram;
+        }
+
+        boolean matches(int hash, CharSequence first, @Nullable String second, @Nullable String third) {
+            return this.hash == hash
+                && this.first.contentEquals(first)
+                && equals(this.second, second)
+                && equals(this.third, third);
+        }
+
+        private static boolean equals(@Nullable String a, @Nullable String b) {
+            return a == null ? b == null : a.equals(b);
+        }
+    }
+}
@@ -0,0 +1,38 @@
+/*-
+ * #%L
+ * Elastic APM Java agent
+ * %%
+ * Copyright (C) 2018 - 2019 Elastic and contributors
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package co.elastic.apm.agent.objectpool;
+
+import co.elastic.apm.agent.objectpool.impl.ThreadAffineObjectPool;
+
+import javax.annotation.Nullable;
+
+/**
+ * A {@link Recyclable} which can be pooled by a {@link ThreadAffineObjectPool}.
+ * <p>
+ * The pool owner is managed by the pool and must not be reset by {@link #resetState()}.
+ * </p>
+ */
+public interface ThreadAffineRecyclable extends Recyclable {
+
+    @Nullable
+    Object getPoolOwner();
+
+    void setPoolOwner(@Nullable Object poolOwner);
+}
@@ -19,15 +19,27 @@
  */
 package co.elastic.apm.agent.objectpool.impl;
 
+import co.elastic.apm.agent.metrics.Counter;
+import co.elastic.apm.agent.metrics.DoubleSupplier;
+import co.elastic.apm.agent.metrics.MetricRegistry;
+import co.elastic.apm.agent.metrics.Temporality;
 import co.elastic.apm.agent.objectpool.Allocator;
 import co.elastic.apm.agent.objectpool.ObjectPool;
 
+import java.util.Collections;
+import java.util.Map;
 import java.util.concurrent.atomic.AtomicInteger;
 
 public abstract class AbstractObjectPool<T> implements ObjectPool<T> {
 
     protected final Allocator<T> allocator;
     private final AtomicInteger garbageCreated = new AtomicInteger();
+    private Counter hits = Counter.NOOP;
+    private Counter misses = Counter.NOOP;
+    private Counter discards = Counter.NOOP;
+    private boolean trackHighWaterMark;
+    private volatile int highWaterMark;
+    private volatile int maxObjectsInPool = Integer.MAX_VALUE;
 
     protected AbstractObjectPool(Allocator<T> allocator) {
         this.allocator = allocator;
@@ -38,9 +50,11 @@ public abstract class AbstractObjectPool<T> implements ObjectPool<T> {
         T recyclable = tryCreateInstance();
         if (recyclable == null) {
             // queue is empty, falling back to creating a new instance
+            misses.increment();
             garbageCreated.incrementAndGet();
             return allocator.createInstance();
         } else {
+            hits.increment();
             return recyclable;
         }
     }
@@ -61,5 +75,119 @@ public abstract class AbstractObjectPool<T> implements ObjectPool<T> {
         return garbageCreated.longValue();
     }
 
+    /**
+     * Registers the metrics of this pool, tagged with the name of the pool.
+     * <p>
+     * Must be called before the pool is used.
+     * </p>
+     *
+     * @param metricRegistry the registry to register the metrics at
+     * @param name           the name of this pool, like {@code span}
+     */
+    public void bindTo(MetricRegistry metricRegistry, String name) {
+        final Map<String, String> tags = Collections.singletonMap("pool", name);
+        hits = metricRegistry.counter("agent.object_pool.hits", tags, Temporality.DELTA);
+        misses = metricRegistry.counter("agent.object_pool.misses", tags, Temporality.DELTA);
+        discards = metricRegistry.counter("agent.object_pool.discards", tags, Temporality.DELTA);
+        metricRegistry.add("agent.object_pool.objects", tags, new DoubleSupplier() {
+            @Override
+            public double get() {
+                return getObjectsInPool();
+            }
+        });
+    }
+
+    /**
+     * Enables tracking the highest number of objects in this pool, which is otherwise not worth the overhead.
+     * <p>
+     * Must be called before the pool is used.
+     * </p>
+     */
+    void trackHighWaterMark() {
+        trackHighWaterMark = true;
+    }
+
+    /**
+     * Returns the highest number of objects in this pool since the last call and starts the next interval with the current occupancy.
+     *
+     * @return the high-water mark, or the current occupancy if the high-water mark is not {@link #trackHighWaterMark() tracked}
+     */
+    int getAndResetHighWaterMark() {
+        final int objectsInPool = getObjectsInPool();
+        final int max = Math.max(highWaterMark, objectsInPool);
+        highWaterMark = objectsInPool;
+        return max;
+    }
 
+    /**
+     * Limits the number of objects this pool holds on to.
+     * <p>
+     * Objects which are recycled while the pool is at its limit are discarded and left to the garbage collector.
+     * The limit can't raise the pool above its initial capacity.
+     * </p>
+     *
+     * @param maxObjectsInPool the maximum number of objects in this pool
+     */
+    public void setMaxObjectsInPool(int maxObjectsInPool) {
+        this.maxObjectsInPool = maxObjectsInPool;
+    }
+
+    public int getMaxObjectsInPool() {
+        return maxObjectsInPool;
+    }
+
+    /**
+     * Discards pooled objects until the pool does not exceed its {@link #setMaxObjectsInPool limit}.
+     *
+     * @return the number of discarded objects
+     */
+    public int trimToMaxObjectsInPool() {
+        int discarded = 0;
+        while (getObjectsInPool() > maxObjectsInPool && discardPooledObject()) {
+            discarded++;
+        }
+        return discarded;
+    }
+
+    /**
+     * Removes a single object from the pool so that it can be garbage collected.
+     *
+     * @return {@code false} if the pool is empty
+     */
+    protected boolean discardPooledObject() {
+        return tryCreateInstance() != null;
+    }
+
+    /**
+     * Subclasses only need to determine the number of pooled objects before recycling an object if this method returns {@code true}.
+     *
+     * @return whether the pool is limited or its high-water mark is tracked
+     */
+    protected boolean isCountingObjectsInPool() {
+        return trackHighWaterMark || maxObjectsInPool != Integer.MAX_VALUE;
+    }
+
+    protected boolean isBelowMaxObjectsInPool(int objectsInPool) {
+        return objectsInPool < maxObjectsInPool;
+    }
+
+    /**
+     * To be called after an object has been put back into the pool
+     *
+     * @param objectsInPool the number of objects in the pool after recycling the object,
+     *                      if {@link #isCountingObjectsInPool()}
+     */
+    protected void onRecycled(int objectsInPool) {
+        // racy, but a slightly inaccurate high-water mark is better than a CAS loop on the hot path
+        if (objectsInPool > highWaterMark) {
+            highWaterMark = objectsInPool;
+        }
+    }
+
+    /**
+     * To be called if an object could not be put back into the pool as it was full
+     */
+    protected void onDiscarded() {
+        discards.increment();
+    }
 }
@@ -0,0 +1,150 @@
+/*-
+ * #%L
+ * Elastic APM Java agent
+ * %%
+ * Copyright (C) 2018 - 2019 Elastic and contributors
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package co.elastic.apm.agent.objectpool.impl;
+
+import co.elastic.apm.agent.metrics.DoubleSupplier;
+import co.elastic.apm.agent.metrics.LongGauge;
+import co.elastic.apm.agent.metrics.MetricRegistry;
+import co.elastic.apm.agent.util.ExecutorUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Periodically adjusts the {@link AbstractObjectPool#setMaxObjectsInPool limit} of object pools to their actual demand.
+ * <p>
+ * A pool is grown when objects had to be allocated because the pool was empty.
+ * The limit is at least doubled but never exceeds the initial capacity of the pool.
+ * </p>
+ * <p>
+ * A pool is shrunk when there have been no misses for {@link #IDLE_INTERVALS_BEFORE_SHRINKING} consecutive intervals.
+ * The objects which are in the pool at that point have not been needed,
+ * so the limit is lowered by half of their number and the objects exceeding the new limit are left to the garbage collector.
+ * This way, a burst of load does not keep lots of objects resident forever.
+ * </p>
+ */
+public class AdaptivePoolSizer implements Runnable {
+
+    static final long INTERVAL_MS = TimeUnit.SECONDS.toMillis(10);
+    static final int IDLE_INTERVALS_BEFORE_SHRINKING = 6;
+    static final int MIN_OBJECTS_IN_POOL = 16;
+    private static final Logger logger = LoggerFactory.getLogger(AdaptivePoolSizer.class);
+
+    private final MetricRegistry metricRegistry;
+    private final List<PoolState> pools = new CopyOnWriteArrayList<>();
+    @Nullable
+    private ScheduledThreadPoolExecutor scheduler;
+
+    public AdaptivePoolSizer(MetricRegistry metricRegistry) {
+        this.metricRegistry = metricRegistry;
+    }
+
+    /**
+     * Must be called before the pool is used.
+     *
+     * @param name     the name of the pool, used to tag the {@code agent.object_pool.limit} and {@code agent.object_pool.objects.max} metrics
+     * @param pool     the pool to adjust
+     * @param capacity the capacity of the pool which the limit will never exceed
+     */
+    public void register(String name, final AbstractObjectPool<?> pool, int capacity) {
+        final Map<String, String> tags = Collections.singletonMap("pool", name);
+        pool.setMaxObjectsInPool(capacity);
+        pool.trackHighWaterMark();
+        pools.add(new PoolState(pool, Math.min(MIN_OBJECTS_IN_POOL, capacity), capacity,
+            metricRegistry.longGauge("agent.object_pool.objects.max", tags)));
+        metricRegistry.add("agent.object_pool.limit", tags, new DoubleSupplier() {
+            @Override
+            public double get() {
+                return pool.getMaxObjectsInPool();
+            }
+        });
+    }
+
+    public void start() {
+        scheduler = ExecutorUtils.createSingleThreadSchedulingDeamonPool("apm-pool-sizer", 1);
+        scheduler.scheduleWithFixedDelay(this, INTERVAL_MS, INTERVAL_MS, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void run() {
+        try {
+            resize();
+        } catch (Exception e) {
+            logger.warn("Error while resizing object pools", e);
+        }
+    }
+
+    void resize() {
+        for (PoolState pool : pools) {
+            pool.resize();
+        }
+    }
+
+    public void stop() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+    }
+
+    private static class PoolState {
+        private final AbstractObjectPool<?> pool;
+        private final int minObjectsInPool;
+        private final int capacity;
+        private final LongGauge highWaterMark;
+        private long lastGarbageCreated;
+        private int idleIntervals;
+
+        private PoolState(AbstractObjectPool<?> pool, int minObjectsInPool, int capacity, LongGauge highWaterMark) {
+            this.pool = pool;
+            this.minObjectsInPool = minObjectsInPool;
+            this.capacity = capacity;
+            this.highWaterMark = highWaterMark;
+            this.lastGarbageCreated = pool.getGarbageCreated();
+        }
+
+        private void resize() {
+            highWaterMark.set(pool.getAndResetHighWaterMark());
+            final long garbageCreated = pool.getGarbageCreated();
+            final long misses = garbageCreated - lastGarbageCreated;
+            lastGarbageCreated = garbageCreated;
+            final int limit = pool.getMaxObjectsInPool();
+            if (misses > 0) {
+                idleIntervals = 0;
+                if (limit < capacity) {
+                    pool.setMaxObjectsInPool((int) Math.min(capacity, Math.max(2L * limit, limit + misses)));
+                }
+            } else if (++idleIntervals >= IDLE_INTERVALS_BEFORE_SHRINKING) {
+                idleIntervals = 0;
+                final int unused = pool.getObjectsInPool();
+                if (unused > 1 && limit > minObjectsInPool) {
+                    pool.setMaxObjectsInPool(Math.max(minObjectsInPool, limit - unused / 2));
+                    pool.trimToMaxObjectsInPool();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,194 @@
+/*-
+ * #%L
+ * Elastic APM Java agent
+ * %%
+ * Copyright (C) 2018 - 2019 Elastic and contributors
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package co.elastic.apm.agent.objectpool.impl;
+
+import co.elastic.apm.agent.metrics.DoubleSupplier;
+import co.elastic.apm.agent.metrics.MetricRegistry;
+import co.elastic.apm.agent.objectpool.Allocator;
+import co.elastic.apm.agent.objectpool.ObjectPool;
+import co.elastic.apm.agent.report.serialize.DslJsonSerializer;
+import org.jctools.queues.atomic.MpmcAtomicArrayQueue;
+
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A process-wide allocator for the {@link CharBuffer}s which record request bodies and database statements.
+ * <p>
+ * Buffers are handed out from a few size classes, each of which is backed by a bounded pool.
+ * As the pools are shared by all transactions and spans,
+ * the memory used for buffers scales with the number of buffers which are in use concurrently,
+ * rather than with the number of pooled transactions and spans.
+ * Buffers which don't fit into a full pool are left to the garbage collector.
+ * </p>
+ * <p>
+ * As the allocator is shared by all tracers of the process,
+ * it is {@linkplain #init(boolean, MetricRegistry) initialized} only once, by the first tracer.
+ * </p>
+ */
+public class CharBufferAllocator {
+
+    private static final CharBufferAllocator INSTANCE = new CharBufferAllocator(
+        new int[]{256, 2048, DslJsonSerializer.MAX_LONG_STRING_VALUE_LENGTH},
+        new int[]{1024, 256, 64});
+
+    private final SizeClass[] sizeClasses;
+    private final AtomicBoolean initialized = new AtomicBoolean();
+    private volatile boolean offHeap;
+
+    CharBufferAllocator(int[] capacities, int[] maxPooledBuffers) {
+        sizeClasses = new SizeClass[capacities.length];
+        for (int i = 0; i < capacities.length; i++) {
+            sizeClasses[i] = new SizeClass(capacities[i], maxPooledBuffers[i]);
+        }
+    }
+
+    public static CharBufferAllocator get() {
+        return INSTANCE;
+    }
+
+    /**
+     * Configures the allocator and registers its metrics, unless it has already been initialized.
+     *
+     * @param offHeap        whether buffers should be backed by direct (off-heap) memory
+     * @param metricRegistry the registry to report the {@code agent.char_buffers.*} metrics to
+     * @return {@code true} if the allocator has been initialized by this call,
+     * {@code false} if it has already been initialized before, in which case the arguments are ignored
+     */
+    public boolean init(boolean offHeap, MetricRegistry metricRegistry) {
+        if (!initialized.compareAndSet(false, true)) {
+            return false;
+        }
+        setOffHeap(offHeap);
+        bindTo(metricRegistry);
+        return true;
+    }
+
+    /**
+     * Sets whether newly allocated buffers should be backed by direct (off-heap) memory.
+     * Buffers which have already been allocated are not affected.
+     */
+    void setOffHeap(boolean offHeap) {
+        this.offHeap = offHeap;
+    }
+
+    /**
+     * @return the capacity of the largest size class
+     */
+    public int getMaxCapacity() {
+        return sizeClasses[sizeClasses.length - 1].capacity;
+    }
+
+    /**
+     * Gets a buffer from the smallest size class which can hold {@code minCapacity} chars.
+     * If no size class is large enough, or if {@code minCapacity} is not positive, a buffer of the largest size class is returned.
+     *
+     * @param minCapacity the number of chars the buffer should be able to hold
+     * @return a cleared buffer which has to be {@linkplain #release(CharBuffer) released} after use
+     */
+    public CharBuffer acquire(int minCapacity) {
+        return getSizeClass(minCapacity).acquire();
+    }
+
+    public void release(CharBuffer buffer) {
+        for (SizeClass sizeClass : sizeClasses) {
+            if (sizeClass.capacity == buffer.capacity()) {
+                sizeClass.release(buffer);
+                return;
+            }
+        }
+    }
+
+    private void bindTo(MetricRegistry metricRegistry) {
+        for (final SizeClass sizeClass : sizeClasses) {
+            metricRegistry.add("agent.char_buffers.in_use", Collections.singletonMap("size_class", Integer.toString(sizeClass.capacity)), new DoubleSupplier() {
+                @Override
+                public double get() {
+                    return sizeClass.inUse.get();
+                }
+            });
+            metricRegistry.add("agent.char_buffers.pooled", Collections.singletonMap("size_class", Integer.toString(sizeClass.capacity)), new DoubleSupplier() {
+                @Override
+                public double get() {
+                    return sizeClass.pool.getObjectsInPool();
+                }
+            });
+        }
+    }
+
+    private SizeClass getSizeClass(int minCapacity) {
+        if (minCapacity > 0) {
+            for (SizeClass sizeClass : sizeClasses) {
+                if (sizeClass.capacity >= minCapacity) {
+                    return sizeClass;
+                }
+            }
+        }
+        return sizeClasses[sizeClasses.length - 1];
+    }
+
+    int getInUse(int capacity) {
+        return getSizeClass(capacity).inUse.get();
+    }
+
+    int getPooled(int capacity) {
+        return getSizeClass(capacity).pool.getObjectsInPool();
+    }
+
+    private class SizeClass {
+        private final int capacity;
+        private final ObjectPool<CharBuffer> pool;
+        private final AtomicInteger inUse = new AtomicInteger();
+
+        private SizeClass(final int capacity, int maxPooledBuffers) {
+            this.capacity = capacity;
+            this.pool = QueueBasedObjectPool.of(new MpmcAtomicArrayQueue<CharBuffer>(maxPooledBuffers), false,
+                new Allocator<CharBuffer>() {
+                    @Override
+                    public CharBuffer createInstance() {
+                        if (offHeap) {
+                            return ByteBuffer.allocateDirect(capacity * 2).asCharBuffer();
+                        }
+                        return CharBuffer.allocate(capacity);
+                    }
+                },
+                new Resetter<CharBuffer>() {
+                    @Override
+                    public void recycle(CharBuffer object) {
+                        ((Buffer) object).clear();
+                    }
+                });
+        }
+
+        private CharBuffer acquire() {
+            inUse.incrementAndGet();
+            return pool.createInstance();
+        }
+
+        private void release(CharBuffer buffer) {
+            inUse.decrementAndGet();
+            pool.recycle(buffer);
+        }
+    }
+}
@@ -68,7 +68,12 @@ public class QueueBasedObjectPool<T> extends co.elastic.apm.agent.objectpool.imp
     @Override
     public void recycle(T obj) {
         resetter.recycle(obj);
-        queue.offer(obj);
+        final int objectsInPool = isCountingObjectsInPool() ? queue.size() : 0;
+        if (isBelowMaxObjectsInPool(objectsInPool) && queue.offer(obj)) {
+            onRecycled(objectsInPool + 1);
+        } else {
+            onDiscarded();
+        }
     }
 
     @Override
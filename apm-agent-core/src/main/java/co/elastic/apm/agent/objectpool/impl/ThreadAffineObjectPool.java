@@ -0,0 +1,193 @@
+/*-
+ * #%L
+ * Elastic APM Java agent
+ * %%
+ * Copyright (C) 2018 - 2019 Elastic and contributors
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package co.elastic.apm.agent.objectpool.impl;
+
+import co.elastic.apm.agent.objectpool.Allocator;
+import co.elastic.apm.agent.objectpool.ThreadAffineRecyclable;
+import com.blogspot.mydailyjava.weaklockfree.DetachedThreadLocal;
+import org.jctools.queues.atomic.MpmcAtomicArrayQueue;
+import org.jctools.queues.atomic.MpscAtomicArrayQueue;
+
+import javax.annotation.Nullable;
+import java.lang.ref.WeakReference;
+import java.util.Queue;
+
+/**
+ * An object pool which serves objects from a stack which is local to the requesting thread.
+ * <p>
+ * Objects remember the thread they have been handed out to.
+ * When they are recycled by that thread, they are pushed onto its stack without any synchronization.
+ * When they are recycled by another thread, like the reporter thread,
+ * they are offered to a single-consumer return queue of their originating thread,
+ * which drains the queue in batches once its stack is empty.
+ * This avoids contended compare-and-swap operations on the shared cache lines of a single multi-consumer queue.
+ * </p>
+ * <p>
+ * The thread-local stacks are weakly referenced by their threads so that stacks of terminated threads are reclaimed.
+ * Objects which are recycled after their originating thread has terminated,
+ * or which don't fit onto the stack or into the return queue,
+ * are offered to a shared queue which all threads fall back to when their own stack is empty.
+ * </p>
+ *
+ * @param <T> the type of the pooled objects
+ */
+public class ThreadAffineObjectPool<T extends ThreadAffineRecyclable> extends AbstractObjectPool<T> {
+
+    private final int maxPooledObjectsPerThread;
+    private final DetachedThreadLocal<LocalPool<T>> localPools;
+    private final Queue<T> sharedPool;
+
+    /**
+     * @param maxPooledObjectsPerThread the capacity of the stack and of the return queue of each thread
+     * @param maxSharedObjects          the capacity of the queue which all threads fall back to
+     * @param allocator                 creates new instances if the pool is empty
+     */
+    public ThreadAffineObjectPool(final int maxPooledObjectsPerThread, int maxSharedObjects, Allocator<T> allocator) {
+        super(allocator);
+        this.maxPooledObjectsPerThread = maxPooledObjectsPerThread;
+        this.sharedPool = new MpmcAtomicArrayQueue<>(Math.max(2, maxSharedObjects));
+        this.localPools = new DetachedThreadLocal<LocalPool<T>>(DetachedThreadLocal.Cleaner.INLINE) {
+            @Override
+            protected LocalPool<T> initialValue(Thread thread) {
+                return new LocalPool<>(thread, maxPooledObjectsPerThread);
+            }
+        };
+    }
+
+    @Nullable
+    @Override
+    public T tryCreateInstance() {
+        final LocalPool<T> localPool = localPools.get();
+        T obj = localPool.stack.pop();
+        if (obj == null) {
+            localPool.drainReturnQueue();
+            obj = localPool.stack.pop();
+            if (obj == null) {
+                obj = sharedPool.poll();
+            }
+        }
+        if (obj != null) {
+            obj.setPoolOwner(localPool);
+        }
+        return obj;
+    }
+
+    @Override
+    public T createInstance() {
+        final T obj = super.createInstance();
+        if (obj.getPoolOwner() == null) {
+            // freshly allocated
+            obj.setPoolOwner(localPools.get());
+        }
+        return obj;
+    }
+
+    @Override
+    public void recycle(T obj) {
+        final Object owner = obj.getPoolOwner();
+        obj.resetState();
+        if (owner instanceof LocalPool) {
+            final LocalPool<?> ownerPool = (LocalPool<?>) owner;
+            if (ownerPool.isOwnedByCurrentThread()) {
+                if (((LocalPool<T>) ownerPool).stack.push(obj)) {
+                    return;
+                }
+            } else if (ownerPool.isAlive() && ((LocalPool<T>) ownerPool).returnQueue.offer(obj)) {
+                return;
+            }
+        }
+        obj.setPoolOwner(null);
+        final int objectsInSharedPool = isCountingObjectsInPool() ? sharedPool.size() : 0;
+        if (isBelowMaxObjectsInPool(objectsInSharedPool) && sharedPool.offer(obj)) {
+            onRecycled(objectsInSharedPool + 1);
+        } else {
+            // the object is left to the garbage collector
+            onDiscarded();
+        }
+    }
+
+    /**
+     * Only discards objects from the shared pool, as the thread-local stacks can only be accessed by their owning threads.
+     * The size of the stacks is bounded by {@link #getSize()}.
+     */
+    @Override
+    protected boolean discardPooledObject() {
+        return sharedPool.poll() != null;
+    }
+
+    /**
+     * @return the number of objects in the stack of the current thread and in the shared pool
+     */
+    @Override
+    public int getObjectsInPool() {
+        final LocalPool<T> localPool = localPools.getIfPresent();
+        return (localPool != null ? localPool.stack.size() : 0) + sharedPool.size();
+    }
+
+    /**
+     * @return the maximum number of objects pooled per thread
+     */
+    @Override
+    public int getSize() {
+        return maxPooledObjectsPerThread;
+    }
+
+    @Override
+    public void close() {
+        localPools.clearAll();
+        sharedPool.clear();
+    }
+
+    private static class LocalPool<T> {
+        private final WeakReference<Thread> owner;
+        private final int capacity;
+        private final ThreadLocalObjectPool.FixedSizeStack<T> stack;
+        private final Queue<T> returnQueue;
+
+        private LocalPool(Thread owner, int capacity) {
+            this.owner = new WeakReference<>(owner);
+            this.capacity = capacity;
+            this.stack = new ThreadLocalObjectPool.FixedSizeStack<>(capacity);
+            this.returnQueue = new MpscAtomicArrayQueue<>(Math.max(2, capacity));
+        }
+
+        private boolean isOwnedByCurrentThread() {
+            return owner.get() == Thread.currentThread();
+        }
+
+        private boolean isAlive() {
+            final Thread thread = owner.get();
+            return thread != null && thread.isAlive();
+        }
+
+        /**
+         * Only called by the owning thread, which is the only consumer of the return queue
+         */
+        private void drainReturnQueue() {
+            for (int free = capacity - stack.size(); free > 0; free--) {
+                final T obj = returnQueue.poll();
+                if (obj == null) {
+                    return;
+                }
+                stack.push(obj);
+            }
+        }
+    }
+}
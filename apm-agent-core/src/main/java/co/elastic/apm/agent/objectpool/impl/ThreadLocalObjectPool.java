@@ -45,7 +45,12 @@ public class ThreadLocalObjectPool<T extends Recyclable> extends AbstractObjectP
     @Override
     public void recycle(T obj) {
         obj.resetState();
-        getStack().push(obj);
+        final FixedSizeStack<T> stack = getStack();
+        if (isBelowMaxObjectsInPool(stack.size()) && stack.push(obj)) {
+            onRecycled(stack.size());
+        } else {
+            onDiscarded();
+        }
     }
 
     @Override
@@ -0,0 +1,180 @@
+/*-
+ * #%L
+ * Elastic APM Java agent
+ * %%
+ * Copyright (C) 2018 - 2019 Elastic and contributors
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package co.elastic.apm.agent.profiler;
+
+import co.elastic.apm.agent.impl.ElasticApmTracer;
+import co.elastic.apm.agent.impl.transaction.Span;
+import co.elastic.apm.agent.impl.transaction.TraceContext;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Infers spans from consecutive stack trace samples of a single thread, taken while the same {@link TraceContext} was active.
+ * <p>
+ * The frames of a sample are compared with the frames which have been open in the previous sample, starting from the root.
+ * Frames which are not present anymore have ended and are reported as inferred spans,
+ * if they have been seen in at least two consecutive samples.
+ * If a chain of nested frames has been seen in exactly the same samples,
+ * only the outermost frame is reported, with the stack trace of the innermost frame.
+ * </p>
+ * <p>
+ * When the context is not active anymore, the frames which have been first seen after the first sample of the activation
+ * have ended within the activation and are reported as well.
+ * The frames which have already been present in the first sample are discarded,
+ * as they enclose the activation, which is already represented by the active span or transaction.
+ * The inferred spans are direct children of the active context.
+ * </p>
+ */
+class CallStack {
+
+    private final ElasticApmTracer tracer;
+    private final TraceContext parent;
+    private final List<Frame> frames = new ArrayList<>();
+    private long minDurationMicros;
+    /**
+     * The timestamp of the first sample of the current activation
+     */
+    private long activationStart;
+
+    CallStack(ElasticApmTracer tracer) {
+        this.tracer = tracer;
+        this.parent = TraceContext.with64BitId(tracer);
+    }
+
+    /**
+     * @param context           a copy of the context which has been active when the sample has been taken
+     * @param stackTrace        the sampled stack trace
+     * @param timestamp         the time of the sample in microseconds since epoch
+     * @param minDurationMicros the minimum duration of inferred spans
+     */
+    void onSample(TraceContext context, StackTraceElement[] stackTrace, long timestamp, long minDurationMicros) {
+        this.minDurationMicros = minDurationMicros;
+        if (!context.getId().equals(parent.getId()) || !context.getTraceId().equals(parent.getTraceId())) {
+            endActivation();
+            parent.copyFrom(context);
+            activationStart = timestamp;
+        }
+        final int commonFrames = getCommonFrames(stackTrace);
+        endFrames(commonFrames);
+        for (int i = 0; i < commonFrames; i++) {
+            final Frame frame = frames.get(i);
+            frame.lastSeen = timestamp;
+            frame.samples++;
+        }
+        for (int depth = commonFrames; depth < stackTrace.length; depth++) {
+            frames.add(new Frame(stackTrace, stackTrace.length - 1 - depth, timestamp));
+        }
+    }
+
+    /**
+     * Must be called when the context is not active anymore.
+     * Reports the frames which have been started within the activation and discards the ones which enclose it.
+     */
+    void endActivation() {
+        int firstFrameOfActivation = 0;
+        while (firstFrameOfActivation < frames.size() && frames.get(firstFrameOfActivation).firstSeen <= activationStart) {
+            firstFrameOfActivation++;
+        }
+        endFrames(firstFrameOfActivation);
+        frames.clear();
+        parent.resetState();
+    }
+
+    private int getCommonFrames(StackTraceElement[] stackTrace) {
+        final int maxCommonFrames = Math.min(frames.size(), stackTrace.length);
+        for (int depth = 0; depth < maxCommonFrames; depth++) {
+            if (!frames.get(depth).isSameMethod(stackTrace[stackTrace.length - 1 - depth])) {
+                return depth;
+            }
+        }
+        return maxCommonFrames;
+    }
+
+    private void endFrames(int fromDepth) {
+        for (int depth = fromDepth; depth < frames.size(); depth++) {
+            final Frame frame = frames.get(depth);
+            if (frame.samples < 2 || frame.getDurationMicros() < minDurationMicros) {
+                continue;
+            }
+            // find the innermost frame which has been seen in the same samples
+            int innermost = depth;
+            while (innermost + 1 < frames.size() && frames.get(innermost + 1).hasSameSamples(frame)) {
+                innermost++;
+            }
+            reportInferredSpan(frame, frames.get(innermost));
+            depth = innermost;
+        }
+        frames.subList(fromDepth, frames.size()).clear();
+    }
+
+    private void reportInferredSpan(Frame frame, Frame innermost) {
+        final Span span = tracer.startSpan(TraceContext.fromParent(), parent, frame.firstSeen)
+            .withName(frame.getSimpleClassName() + "#" + frame.element.getMethodName())
+            .withType("app")
+            .withSubtype("inferred");
+        final Throwable stacktrace = new Throwable();
+        stacktrace.setStackTrace(Arrays.copyOfRange(innermost.stackTrace, innermost.index, innermost.stackTrace.length));
+        span.withStacktrace(stacktrace);
+        span.end(frame.lastSeen);
+    }
+
+    private static class Frame {
+        /**
+         * The stack trace of the sample in which this frame has been seen first
+         */
+        private final StackTraceElement[] stackTrace;
+        private final int index;
+        private final StackTraceElement element;
+        private final long firstSeen;
+        private long lastSeen;
+        private int samples;
+
+        private Frame(StackTraceElement[] stackTrace, int index, long timestamp) {
+            this.stackTrace = stackTrace;
+            this.index = index;
+            this.element = stackTrace[index];
+            this.firstSeen = timestamp;
+            this.lastSeen = timestamp;
+            this.samples = 1;
+        }
+
+        /**
+         * The line numbers are not compared, as they change while the method is executing
+         */
+        private boolean isSameMethod(StackTraceElement other) {
+            return element.getMethodName().equals(other.getMethodName()) && element.getClassName().equals(other.getClassName());
+        }
+
+        private boolean hasSameSamples(Frame other) {
+            return firstSeen == other.firstSeen && lastSeen == other.lastSeen && samples == other.samples;
+        }
+
+        private long getDurationMicros() {
+            return lastSeen - firstSeen;
+        }
+
+        private String getSimpleClassName() {
+            final String className = element.getClassName();
+            return className.substring(className.lastIndexOf('.') + 1);
+        }
+    }
+}
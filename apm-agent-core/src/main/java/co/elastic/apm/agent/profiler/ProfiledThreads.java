@@ -0,0 +1,116 @@
+/*-
+ * #%L
+ * Elastic APM Java agent
+ * %%
+ * Copyright (C) 2018 - 2019 Elastic and contributors
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package co.elastic.apm.agent.profiler;
+
+import co.elastic.apm.agent.impl.ActivationListener;
+import co.elastic.apm.agent.impl.ElasticApmTracer;
+import co.elastic.apm.agent.impl.transaction.TraceContextHolder;
+
+import javax.annotation.Nullable;
+import java.lang.ref.WeakReference;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Keeps track of the currently active {@link TraceContextHolder} of each thread,
+ * so that the {@link SamplingProfiler} knows which threads to sample and which context the samples belong to.
+ * <p>
+ * Only registered as an {@link ActivationListener} if the profiler is enabled.
+ * </p>
+ */
+class ProfiledThreads implements ActivationListener {
+
+    private final ConcurrentMap<Long, ProfiledThread> threads = new ConcurrentHashMap<>();
+    private final ThreadLocal<ProfiledThread> currentThread = new ThreadLocal<ProfiledThread>() {
+        @Override
+        protected ProfiledThread initialValue() {
+            final ProfiledThread profiledThread = new ProfiledThread(Thread.currentThread());
+            threads.put(profiledThread.getThreadId(), profiledThread);
+            return profiledThread;
+        }
+    };
+
+    @Override
+    public void init(ElasticApmTracer tracer) {
+    }
+
+    @Override
+    public void onActivate(TraceContextHolder<?> context) {
+        currentThread.get().push(context);
+    }
+
+    @Override
+    public void onDeactivate() {
+        currentThread.get().pop();
+    }
+
+    Collection<ProfiledThread> getThreads() {
+        return threads.values();
+    }
+
+    /**
+     * The activation stack of a single thread.
+     * The stack is only modified by the thread itself, the profiler only reads the {@link #active} context.
+     */
+    static class ProfiledThread {
+        private final long threadId;
+        private final WeakReference<Thread> thread;
+        private TraceContextHolder<?>[] stack = new TraceContextHolder<?>[16];
+        private int depth;
+        @Nullable
+        private volatile TraceContextHolder<?> active;
+
+        private ProfiledThread(Thread thread) {
+            this.threadId = thread.getId();
+            this.thread = new WeakReference<>(thread);
+        }
+
+        private void push(TraceContextHolder<?> context) {
+            if (depth == stack.length) {
+                stack = Arrays.copyOf(stack, stack.length * 2);
+            }
+            stack[depth++] = context;
+            active = context;
+        }
+
+        private void pop() {
+            if (depth > 0) {
+                stack[--depth] = null;
+            }
+            active = depth > 0 ? stack[depth - 1] : null;
+        }
+
+        long getThreadId() {
+            return threadId;
+        }
+
+        @Nullable
+        TraceContextHolder<?> getActive() {
+            return active;
+        }
+
+        boolean isTerminated() {
+            final Thread thread = this.thread.get();
+            return thread == null || thread.getState() == Thread.State.TERMINATED;
+        }
+    }
+}
@@ -0,0 +1,71 @@
+/*-
+ * #%L
+ * Elastic APM Java agent
+ * %%
+ * Copyright (C) 2018 - 2019 Elastic and contributors
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package co.elastic.apm.agent.profiler;
+
+import co.elastic.apm.agent.configuration.converter.TimeDuration;
+import co.elastic.apm.agent.configuration.converter.TimeDurationValueConverter;
+import org.stagemonitor.configuration.ConfigurationOption;
+import org.stagemonitor.configuration.ConfigurationOptionProvider;
+
+public class ProfilingConfiguration extends ConfigurationOptionProvider {
+
+    private static final String PROFILING_CATEGORY = "Profiling";
+
+    private final ConfigurationOption<Boolean> profilingEnabled = ConfigurationOption.booleanOption()
+        .key("profiling_inferred_spans")
+        .configurationCategory(PROFILING_CATEGORY)
+        .description("Set to `true` to make the agent periodically sample the stack traces of threads\n" +
+            "which are working on a sampled transaction.\n" +
+            "Methods which show up in consecutive samples are reported as inferred spans of type `app.inferred`.\n" +
+            "This gives method-level visibility into slow requests without having to instrument methods via\n" +
+            "<<config-trace-methods, `trace_methods`>>.\n" +
+            "\n" +
+            "NOTE: As methods are only detected by sampling,\n" +
+            "the duration of inferred spans may be off by up to one <<config-profiling-sampling-interval, `profiling_sampling_interval`>>\n" +
+            "and methods which are faster than the sampling interval are not detected.")
+        .buildWithDefault(false);
+
+    private final ConfigurationOption<TimeDuration> samplingInterval = TimeDurationValueConverter.durationOption("ms")
+        .key("profiling_sampling_interval")
+        .configurationCategory(PROFILING_CATEGORY)
+        .description("The interval at which the stack traces of the threads working on sampled transactions are sampled.\n" +
+            "A lower value makes inferred spans more accurate but also increases the overhead.")
+        .buildWithDefault(TimeDuration.of("50ms"));
+
+    private final ConfigurationOption<TimeDuration> inferredSpansMinDuration = TimeDurationValueConverter.durationOption("ms")
+        .key("profiling_inferred_spans_min_duration")
+        .configurationCategory(PROFILING_CATEGORY)
+        .description("The minimum duration of an inferred span.\n" +
+            "Note that inferred spans always show up in at least two consecutive samples.")
+        .dynamic(true)
+        .buildWithDefault(TimeDuration.of("0ms"));
+
+    public boolean isProfilingEnabled() {
+        return profilingEnabled.get();
+    }
+
+    public long getSamplingIntervalMs() {
+        return samplingInterval.getValue().getMillis();
+    }
+
+    public long getInferredSpansMinDurationMs() {
+        return inferredSpansMinDuration.getValue().getMillis();
+    }
+}
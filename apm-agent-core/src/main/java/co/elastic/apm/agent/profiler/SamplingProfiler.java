@@ -0,0 +1,180 @@
+/*-
+ * #%L
+ * Elastic APM Java agent
+ * %%
+ * Copyright (C) 2018 - 2019 Elastic and contributors
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package co.elastic.apm.agent.profiler;
+
+import co.elastic.apm.agent.context.LifecycleListener;
+import co.elastic.apm.agent.impl.ElasticApmTracer;
+import co.elastic.apm.agent.impl.transaction.TraceContext;
+import co.elastic.apm.agent.impl.transaction.TraceContextHolder;
+import co.elastic.apm.agent.util.ExecutorUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadInfo;
+import java.lang.management.ThreadMXBean;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A wall-clock sampling profiler which only samples threads that are working on a sampled transaction
+ * and reports methods which show up in consecutive samples as inferred spans.
+ * <p>
+ * Every {@link ProfilingConfiguration#getSamplingIntervalMs() profiling_sampling_interval},
+ * the stack traces of all threads with an active sampled context are taken in a single batch on the {@code apm-profiler} thread.
+ * The contexts of the sampled threads are copied into a preallocated buffer of {@link #MAX_SAMPLED_THREADS} entries,
+ * threads which don't fit into the buffer are not sampled in that round.
+ * The {@link CallStack}s of the sampled threads are then updated, which reports the inferred spans.
+ * </p>
+ */
+public class SamplingProfiler implements LifecycleListener, Runnable {
+
+    static final int MAX_SAMPLED_THREADS = 256;
+    private static final Logger logger = LoggerFactory.getLogger(SamplingProfiler.class);
+
+    private final ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+    private final ProfiledThreads profiledThreads = new ProfiledThreads();
+    /**
+     * Copies of the contexts which have been active in the sampled threads
+     */
+    private final TraceContext[] sampledContexts = new TraceContext[MAX_SAMPLED_THREADS];
+    private final long[] sampledThreadIds = new long[MAX_SAMPLED_THREADS];
+    /**
+     * Only accessed by the profiler thread
+     */
+    private final Map<Long, CallStack> callStacks = new HashMap<>();
+    @Nullable
+    private ElasticApmTracer tracer;
+    @Nullable
+    private ProfilingConfiguration config;
+    @Nullable
+    private ScheduledThreadPoolExecutor scheduler;
+
+    @Override
+    public void start(ElasticApmTracer tracer) {
+        final ProfilingConfiguration config = tracer.getConfig(ProfilingConfiguration.class);
+        if (config.isProfilingEnabled()) {
+            init(tracer);
+            final long intervalMs = config.getSamplingIntervalMs();
+            scheduler = ExecutorUtils.createSingleThreadSchedulingDeamonPool("apm-profiler", 1);
+            scheduler.scheduleWithFixedDelay(this, intervalMs, intervalMs, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    void init(ElasticApmTracer tracer) {
+        this.tracer = tracer;
+        this.config = tracer.getConfig(ProfilingConfiguration.class);
+        for (int i = 0; i < sampledContexts.length; i++) {
+            sampledContexts[i] = TraceContext.with64BitId(tracer);
+        }
+        tracer.registerSpanListener(profiledThreads);
+    }
+
+    @Override
+    public void run() {
+        try {
+            sample();
+        } catch (Exception e) {
+            logger.warn("Error while sampling threads", e);
+        }
+    }
+
+    /**
+     * Takes one sample of all threads which have an active sampled context.
+     */
+    void sample() {
+        if (tracer == null || config == null) {
+            return;
+        }
+        final int sampledThreads = collectSampledThreads();
+        final ThreadInfo[] threadInfos = sampledThreads > 0
+            ? threadMXBean.getThreadInfo(Arrays.copyOf(sampledThreadIds, sampledThreads), Integer.MAX_VALUE)
+            : new ThreadInfo[0];
+        final long minDurationMicros = config.getInferredSpansMinDurationMs() * 1000;
+        for (int i = 0; i < sampledThreads; i++) {
+            if (threadInfos[i] != null) {
+                CallStack callStack = callStacks.get(sampledThreadIds[i]);
+                if (callStack == null) {
+                    callStack = new CallStack(tracer);
+                    callStacks.put(sampledThreadIds[i], callStack);
+                }
+                final TraceContext context = sampledContexts[i];
+                callStack.onSample(context, threadInfos[i].getStackTrace(), context.getClock().getEpochMicros(), minDurationMicros);
+            }
+        }
+        removeInactiveCallStacks(sampledThreads);
+    }
+
+    private int collectSampledThreads() {
+        int sampledThreads = 0;
+        for (Iterator<ProfiledThreads.ProfiledThread> iterator = profiledThreads.getThreads().iterator(); iterator.hasNext(); ) {
+            final ProfiledThreads.ProfiledThread thread = iterator.next();
+            if (thread.isTerminated()) {
+                iterator.remove();
+                continue;
+            }
+            final TraceContextHolder<?> active = thread.getActive();
+            if (active != null && active.isSampled() && sampledThreads < MAX_SAMPLED_THREADS) {
+                final TraceContext context = sampledContexts[sampledThreads];
+                context.resetState();
+                context.copyFrom(active.getTraceContext());
+                // the context might have been deactivated and recycled while copying it
+                if (thread.getActive() == active) {
+                    sampledThreadIds[sampledThreads++] = thread.getThreadId();
+                }
+            }
+        }
+        return sampledThreads;
+    }
+
+    /**
+     * Ends the activations of threads which don't have an active context anymore and discards their call stacks
+     */
+    private void removeInactiveCallStacks(int sampledThreads) {
+        for (Iterator<Map.Entry<Long, CallStack>> iterator = callStacks.entrySet().iterator(); iterator.hasNext(); ) {
+            final Map.Entry<Long, CallStack> entry = iterator.next();
+            if (!contains(sampledThreadIds, sampledThreads, entry.getKey())) {
+                entry.getValue().endActivation();
+                iterator.remove();
+            }
+        }
+    }
+
+    private static boolean contains(long[] array, int length, long value) {
+        for (int i = 0; i < length; i++) {
+            if (array[i] == value) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public void stop() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+    }
+}
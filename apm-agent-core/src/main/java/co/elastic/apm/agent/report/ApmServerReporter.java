@@ -25,11 +25,12 @@ import co.elastic.apm.agent.impl.transaction.Transaction;
 import co.elastic.apm.agent.metrics.MetricRegistry;
 import co.elastic.apm.agent.report.disruptor.ExponentionallyIncreasingSleepingWaitStrategy;
 import co.elastic.apm.agent.util.ExecutorUtils;
-import co.elastic.apm.agent.util.MathUtils;
 import com.lmax.disruptor.EventFactory;
 import com.lmax.disruptor.EventTranslator;
 import com.lmax.disruptor.EventTranslatorOneArg;
 import com.lmax.disruptor.IgnoreExceptionHandler;
+import com.lmax.disruptor.InsufficientCapacityException;
+import com.lmax.disruptor.RingBuffer;
 import com.lmax.disruptor.dsl.Disruptor;
 import com.lmax.disruptor.dsl.ProducerType;
 import org.slf4j.Logger;
@@ -89,6 +90,7 @@ public class ApmServerReporter implements Reporter {
     private final boolean dropTransactionIfQueueFull;
     private final ReportingEventHandler reportingEventHandler;
     private final boolean syncReport;
+    private final MemoryBudget memoryBudget;
     @Nullable
     private ScheduledThreadPoolExecutor metricsReportingScheduler;
 
@@ -96,7 +98,8 @@ public class ApmServerReporter implements Reporter {
                              ReportingEventHandler reportingEventHandler) {
         this.dropTransactionIfQueueFull = dropTransactionIfQueueFull;
         this.syncReport = reporterConfiguration.isReportSynchronously();
-        disruptor = new Disruptor<>(new TransactionEventFactory(), MathUtils.getNextPowerOf2(reporterConfiguration.getMaxQueueSize()), new ThreadFactory() {
+        this.memoryBudget = MemoryBudget.of(reporterConfiguration);
+        disruptor = new Disruptor<>(new TransactionEventFactory(memoryBudget), MemoryBudget.getQueueSize(reporterConfiguration), new ThreadFactory() {
             @Override
             public Thread newThread(Runnable r) {
                 Thread thread = new Thread(r);
@@ -114,7 +117,7 @@ public class ApmServerReporter implements Reporter {
 
     @Override
     public void report(Transaction transaction) {
-        if (!tryAddEventToRingBuffer(transaction, TRANSACTION_EVENT_TRANSLATOR)) {
+        if (!tryAddEventToRingBuffer(transaction, TRANSACTION_EVENT_TRANSLATOR, memoryBudget.weigh(transaction))) {
             transaction.recycle();
         }
         if (syncReport) {
@@ -124,7 +127,7 @@ public class ApmServerReporter implements Reporter {
 
     @Override
     public void report(Span span) {
-        if (!tryAddEventToRingBuffer(span, SPAN_EVENT_TRANSLATOR)) {
+        if (!tryAddEventToRingBuffer(span, SPAN_EVENT_TRANSLATOR, memoryBudget.weigh(span))) {
             span.recycle();
         }
         if (syncReport) {
@@ -132,6 +135,24 @@ public class ApmServerReporter implements Reporter {
         }
     }
 
+    /**
+     * Claims the slots for all spans at once, instead of claiming each slot with a CAS on the shared cursor.
+     * If the batch can't be added as a whole, the spans are added one by one so that as few spans as possible are dropped.
+     */
+    @Override
+    public void report(Span[] spans, int count) {
+        if (count > 0 && !tryAddSpansToRingBuffer(spans, count)) {
+            for (int i = 0; i < count; i++) {
+                if (!tryAddEventToRingBuffer(spans[i], SPAN_EVENT_TRANSLATOR, memoryBudget.weigh(spans[i]))) {
+                    spans[i].recycle();
+                }
+            }
+        }
+        if (syncReport) {
+            waitForFlush();
+        }
+    }
+
     private void waitForFlush() {
         try {
             flush().get();
@@ -230,7 +251,7 @@ public class ApmServerReporter implements Reporter {
 
     @Override
     public void report(ErrorCapture error) {
-        if (!tryAddEventToRingBuffer(error, ERROR_EVENT_TRANSLATOR)) {
+        if (!tryAddEventToRingBuffer(error, ERROR_EVENT_TRANSLATOR, memoryBudget.weigh(error))) {
             error.recycle();
         }
         if (syncReport) {
@@ -256,23 +277,82 @@ public class ApmServerReporter implements Reporter {
         }
     }
 
-    private <E> boolean tryAddEventToRingBuffer(E event, EventTranslatorOneArg<ReportingEvent, E> eventTranslator) {
+    private <E> boolean tryAddEventToRingBuffer(E event, EventTranslatorOneArg<ReportingEvent, E> eventTranslator, long weight) {
+        if (!memoryBudget.tryReserve(weight)) {
+            dropped.incrementAndGet();
+            return false;
+        }
+        final RingBuffer<ReportingEvent> ringBuffer = disruptor.getRingBuffer();
+        final long sequence;
         if (dropTransactionIfQueueFull) {
-            boolean queueFull = !disruptor.getRingBuffer().tryPublishEvent(eventTranslator, event);
-            if (queueFull) {
+            try {
+                sequence = ringBuffer.tryNext();
+            } catch (InsufficientCapacityException queueFull) {
+                memoryBudget.release(weight);
                 dropped.incrementAndGet();
                 return false;
             }
         } else {
-            disruptor.getRingBuffer().publishEvent(eventTranslator, event);
+            sequence = ringBuffer.next();
+        }
+        try {
+            final ReportingEvent reportingEvent = ringBuffer.get(sequence);
+            eventTranslator.translateTo(reportingEvent, sequence, event);
+            // released by ReportingEvent#resetState after the event has been handled
+            reportingEvent.setReservedBytes(weight);
+        } finally {
+            ringBuffer.publish(sequence);
+        }
+        return true;
+    }
+
+    private boolean tryAddSpansToRingBuffer(Span[] spans, int count) {
+        final RingBuffer<ReportingEvent> ringBuffer = disruptor.getRingBuffer();
+        if (count > ringBuffer.getBufferSize()) {
+            return false;
+        }
+        long weight = 0;
+        for (int i = 0; i < count; i++) {
+            weight += memoryBudget.weigh(spans[i]);
+        }
+        if (!memoryBudget.tryReserve(weight)) {
+            return false;
+        }
+        final long hi;
+        if (dropTransactionIfQueueFull) {
+            try {
+                hi = ringBuffer.tryNext(count);
+            } catch (InsufficientCapacityException queueFull) {
+                memoryBudget.release(weight);
+                return false;
+            }
+        } else {
+            hi = ringBuffer.next(count);
+        }
+        final long lo = hi - (count - 1);
+        try {
+            for (int i = 0; i < count; i++) {
+                final ReportingEvent reportingEvent = ringBuffer.get(lo + i);
+                SPAN_EVENT_TRANSLATOR.translateTo(reportingEvent, lo + i, spans[i]);
+                // released by ReportingEvent#resetState after the event has been handled
+                reportingEvent.setReservedBytes(memoryBudget.weigh(spans[i]));
+            }
+        } finally {
+            ringBuffer.publish(lo, hi);
         }
         return true;
     }
 
     static class TransactionEventFactory implements EventFactory<ReportingEvent> {
+        private final MemoryBudget memoryBudget;
+
+        TransactionEventFactory(MemoryBudget memoryBudget) {
+            this.memoryBudget = memoryBudget;
+        }
+
         @Override
         public ReportingEvent newInstance() {
-            return new ReportingEvent();
+            return new ReportingEvent(memoryBudget);
         }
     }
 }
@@ -0,0 +1,220 @@
+/*-
+ * #%L
+ * Elastic APM Java agent
+ * %%
+ * Copyright (C) 2018 - 2019 Elastic and contributors
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package co.elastic.apm.agent.report;
+
+import co.elastic.apm.agent.impl.context.Request;
+import co.elastic.apm.agent.impl.context.Tags;
+import co.elastic.apm.agent.impl.context.TransactionContext;
+import co.elastic.apm.agent.impl.error.ErrorCapture;
+import co.elastic.apm.agent.impl.transaction.Db;
+import co.elastic.apm.agent.impl.transaction.Span;
+import co.elastic.apm.agent.impl.transaction.Transaction;
+import co.elastic.apm.agent.report.serialize.DslJsonSerializer;
+import co.elastic.apm.agent.util.MathUtils;
+import co.elastic.apm.agent.util.PotentiallyMultiValuedMap;
+
+import javax.annotation.Nullable;
+import java.nio.CharBuffer;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Tracks the approximate amount of memory retained by events which are waiting to be reported
+ * and derives the size of the event queue and of the object pools from the {@code agent_memory_budget}.
+ * <p>
+ * Events are weighed by their estimated size so that large events,
+ * like transactions with many headers or a captured body, use up more of the budget than small spans.
+ * The estimates are deliberately rough:
+ * they only look at the parts of an event which commonly vary in size and never walk stack traces.
+ * </p>
+ * <p>
+ * Half of the budget is reserved for queued events and the other half for the object pools.
+ * </p>
+ */
+public class MemoryBudget {
+
+    /**
+     * A budget which never rejects events
+     */
+    public static final MemoryBudget UNLIMITED = new MemoryBudget(0);
+
+    /*
+     * Approximate shallow sizes of pooled objects, including their eagerly allocated nested objects.
+     */
+    static final int TRANSACTION_BYTES = 4 * 1024;
+    static final int SPAN_BYTES = 1024;
+    static final int ERROR_BYTES = 3 * 1024;
+    /**
+     * A captured stack trace which has not been converted to {@link StackTraceElement}s yet
+     */
+    static final int STACKTRACE_BYTES = 4 * 1024;
+    /**
+     * The buffers of the serializer, which are allocated once, regardless of the number of events
+     */
+    static final int FIXED_OVERHEAD_BYTES = 2 * (DslJsonSerializer.MAX_LONG_STRING_VALUE_LENGTH + 1) + DslJsonSerializer.BUFFER_SIZE;
+    private static final int STRING_OVERHEAD_BYTES = 40;
+    private static final int ENTRY_OVERHEAD_BYTES = 32;
+
+    private final long maxQueuedBytes;
+    private final AtomicLong queuedBytes = new AtomicLong();
+
+    MemoryBudget(long maxQueuedBytes) {
+        this.maxQueuedBytes = maxQueuedBytes;
+    }
+
+    public static MemoryBudget of(ReporterConfiguration reporterConfiguration) {
+        final long budget = reporterConfiguration.getAgentMemoryBudget();
+        if (budget <= 0) {
+            return UNLIMITED;
+        }
+        return new MemoryBudget(Math.max(1, getAvailableBytes(budget) / 2));
+    }
+
+    /**
+     * @return the number of slots of the event queue
+     */
+    public static int getQueueSize(ReporterConfiguration reporterConfiguration) {
+        final long budget = reporterConfiguration.getAgentMemoryBudget();
+        if (budget <= 0) {
+            return MathUtils.getNextPowerOf2(reporterConfiguration.getMaxQueueSize());
+        }
+        // the byte budget, not the number of slots, should limit how many events can be queued
+        return MathUtils.getNextPowerOf2(toInt(getAvailableBytes(budget) / 2 / SPAN_BYTES));
+    }
+
+    /**
+     * @return the maximum number of pooled transactions and spans, each
+     */
+    public static int getMaxPooledElements(ReporterConfiguration reporterConfiguration) {
+        final long budget = reporterConfiguration.getAgentMemoryBudget();
+        if (budget <= 0) {
+            return reporterConfiguration.getMaxQueueSize() * 2;
+        }
+        // the error pool holds half as many elements as the transaction and span pools
+        return Math.max(2, toInt(getAvailableBytes(budget) / 2 / (TRANSACTION_BYTES + SPAN_BYTES + ERROR_BYTES / 2)));
+    }
+
+    private static long getAvailableBytes(long budget) {
+        return Math.max(0, budget - FIXED_OVERHEAD_BYTES);
+    }
+
+    private static int toInt(long l) {
+        return (int) Math.min(Integer.MAX_VALUE / 2, l);
+    }
+
+    public boolean isLimited() {
+        return maxQueuedBytes > 0;
+    }
+
+    /**
+     * Tries to reserve memory for an event which is about to be queued.
+     *
+     * @param bytes the estimated size of the event
+     * @return {@code true} if the memory has been reserved,
+     * {@code false} if the event should be rejected as it would exceed the budget
+     */
+    boolean tryReserve(long bytes) {
+        if (bytes <= 0) {
+            return true;
+        }
+        long queued;
+        do {
+            queued = queuedBytes.get();
+            if (queued + bytes > maxQueuedBytes) {
+                return false;
+            }
+        } while (!queuedBytes.compareAndSet(queued, queued + bytes));
+        return true;
+    }
+
+    void release(long bytes) {
+        if (bytes > 0) {
+            queuedBytes.addAndGet(-bytes);
+        }
+    }
+
+    public long getQueuedBytes() {
+        return queuedBytes.get();
+    }
+
+    long weigh(Transaction transaction) {
+        if (!isLimited()) {
+            return 0;
+        }
+        final TransactionContext context = transaction.getContextEnsureVisibility();
+        return TRANSACTION_BYTES + (context != null ? estimateSize(context) : 0);
+    }
+
+    long weigh(Span span) {
+        if (!isLimited()) {
+            return 0;
+        }
+        long size = SPAN_BYTES + estimateSize(span.getContext().getTags());
+        final Db db = span.getContext().getDb();
+        size += estimateSize(db.getStatement());
+        size += estimateSize(db.getStatementBuffer());
+        size += estimateSize(span.getContext().getHttp().getUrl());
+        if (span.getStacktrace() != null) {
+            size += STACKTRACE_BYTES;
+        }
+        return size;
+    }
+
+    long weigh(ErrorCapture error) {
+        if (!isLimited()) {
+            return 0;
+        }
+        long size = ERROR_BYTES + estimateSize(error.peekContext());
+        if (error.peekException() != null) {
+            size += STACKTRACE_BYTES;
+        }
+        return size;
+    }
+
+    private static long estimateSize(TransactionContext context) {
+        final Request request = context.getRequest();
+        long size = estimateSize(context.getTags())
+            + estimateSize(request.getHeaders())
+            + estimateSize(request.getCookies())
+            + estimateSize(request.getFormUrlEncodedParameters())
+            + estimateSize(context.getResponse().getHeaders())
+            + context.getCustom().size() * (ENTRY_OVERHEAD_BYTES + STRING_OVERHEAD_BYTES);
+        return size + estimateSize(request.getBodyBuffer());
+    }
+
+    private static long estimateSize(Tags tags) {
+        long size = 0;
+        for (int i = 0; i < tags.size(); i++) {
+            size += ENTRY_OVERHEAD_BYTES + estimateSize(tags.getKey(i)) + estimateSize(tags.getStringValue(i));
+        }
+        return size;
+    }
+
+    private static long estimateSize(PotentiallyMultiValuedMap map) {
+        return map.size() * ENTRY_OVERHEAD_BYTES + 2L * map.getArenaLength();
+    }
+
+    private static long estimateSize(@Nullable CharBuffer buffer) {
+        return buffer != null ? 2L * buffer.capacity() : 0;
+    }
+
+    private static long estimateSize(@Nullable String s) {
+        return s != null ? STRING_OVERHEAD_BYTES + 2L * s.length() : 0;
+    }
+}
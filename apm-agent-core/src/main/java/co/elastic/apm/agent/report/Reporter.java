@@ -32,6 +32,15 @@ public interface Reporter extends Closeable {
 
     void report(Span span);
 
+    /**
+     * Reports the first {@code count} spans of the array as a batch.
+     * The reporter does not hold on to the array after this method returns.
+     *
+     * @param spans the spans to report
+     * @param count the number of spans to report
+     */
+    void report(Span[] spans, int count);
+
     long getDropped();
 
     long getReported();
@@ -35,6 +35,7 @@ import java.net.URL;
 import java.util.Collections;
 import java.util.List;
 
+import static co.elastic.apm.agent.configuration.validation.RangeValidator.isInRange;
 import static co.elastic.apm.agent.configuration.validation.RangeValidator.isNotInRange;
 
 public class ReporterConfiguration extends ConfigurationOptionProvider {
@@ -107,6 +108,35 @@ public class ReporterConfiguration extends ConfigurationOptionProvider {
         .dynamic(true)
         .buildWithDefault(512);
 
+    private final ConfigurationOption<Integer> spanBatchSize = ConfigurationOption.integerOption()
+        .key("span_batch_size")
+        .configurationCategory(REPORTER_CATEGORY)
+        .description("The number of ended spans a thread buffers before they are added to the event queue at once.\n" +
+            "\n" +
+            "Adding spans in batches reduces the contention on the event queue when many threads end spans concurrently.\n" +
+            "A thread also adds its buffered spans to the queue when a transaction ends on it\n" +
+            "or when it no longer has an active span or transaction.\n" +
+            "Spans which end on a thread without an active transaction are added to the queue right away.\n" +
+            "\n" +
+            "Set to 0 or 1 to add each span to the queue as soon as it ends.")
+        .dynamic(false)
+        .addValidator(isInRange(0, 64))
+        .buildWithDefault(0);
+
+    private final ConfigurationOption<ByteValue> agentMemoryBudget = ByteValueConverter.byteOption()
+        .key("agent_memory_budget")
+        .configurationCategory(REPORTER_CATEGORY)
+        .description("The approximate amount of heap memory the agent may use to buffer and pool events.\n" +
+            "\n" +
+            "When set, the size of the event queue and of the object pools is derived from this budget,\n" +
+            "and <<config-max-queue-size, `max_queue_size`>> is ignored.\n" +
+            "Events are rejected based on their estimated size instead of their count,\n" +
+            "so that a transaction with many headers or a captured body counts for more than a small span.\n" +
+            "\n" +
+            "Allowed byte units are `b`, `kb`, `mb` and `gb`. `1kb` is equal to `1024b`.\n" +
+            "The default of `0b` disables the memory budget.")
+        .buildWithDefault(ByteValue.of("0b"));
+
     private final ConfigurationOption<Boolean> reportSynchronously = ConfigurationOption.booleanOption()
         .key("report_sync")
         .tags("internal")
@@ -161,6 +191,17 @@ public class ReporterConfiguration extends ConfigurationOptionProvider {
         .dynamic(false)
         .buildWithDefault(Collections.<WildcardMatcher>emptyList());
 
+    private final ConfigurationOption<Integer> metricSetLimit = ConfigurationOption.integerOption()
+        .key("metric_set_limit")
+        .configurationCategory(REPORTER_CATEGORY)
+        .description("Limits the number of distinct metric sets.\n" +
+            "\n" +
+            "A metric set is created for each distinct combination of metric tags.\n" +
+            "This limit protects the agent from running out of memory if a tag has an unbounded number of values.\n" +
+            "When the limit is reached, metrics with new tag combinations are not collected and a warning is logged.")
+        .dynamic(false)
+        .buildWithDefault(2500);
+
     @Nullable
     public String getSecretToken() {
         return secretToken.get();
@@ -186,6 +227,14 @@ public class ReporterConfiguration extends ConfigurationOptionProvider {
         return maxQueueSize.get();
     }
 
+    public int getSpanBatchSize() {
+        return spanBatchSize.get();
+    }
+
+    public long getAgentMemoryBudget() {
+        return agentMemoryBudget.get().getBytes();
+    }
+
     public boolean isReportSynchronously() {
         return reportSynchronously.get();
     }
@@ -209,4 +258,8 @@ public class ReporterConfiguration extends ConfigurationOptionProvider {
     public List<WildcardMatcher> getDisableMetrics() {
         return disableMetrics.get();
     }
+
+    public int getMetricSetLimit() {
+        return metricSetLimit.get();
+    }
 }
@@ -34,6 +34,11 @@ import static co.elastic.apm.agent.report.ReportingEvent.ReportingEventType.SPAN
 import static co.elastic.apm.agent.report.ReportingEvent.ReportingEventType.TRANSACTION;
 
 public class ReportingEvent {
+    private final MemoryBudget memoryBudget;
+    /**
+     * The bytes of the {@link MemoryBudget} which have been reserved for this event
+     */
+    private long reservedBytes;
     @Nullable
     private Transaction transaction;
     @Nullable
@@ -45,7 +50,17 @@ public class ReportingEvent {
     @Nullable
     private MetricRegistry metricRegistry;
 
+    public ReportingEvent() {
+        this(MemoryBudget.UNLIMITED);
+    }
+
+    ReportingEvent(MemoryBudget memoryBudget) {
+        this.memoryBudget = memoryBudget;
+    }
+
     public void resetState() {
+        memoryBudget.release(reservedBytes);
+        this.reservedBytes = 0;
         this.transaction = null;
         this.type = null;
         this.error = null;
@@ -97,6 +112,10 @@ public class ReportingEvent {
         this.type = METRICS;
     }
 
+    void setReservedBytes(long reservedBytes) {
+        this.reservedBytes = reservedBytes;
+    }
+
     public void shutdownEvent() {
         this.type = SHUTDOWN;
     }
@@ -30,6 +30,10 @@ import java.util.ServiceLoader;
 /**
  * Invokes all registered {@link Processor}s before a {@link ReportingEvent} is processed by
  * the {@link co.elastic.apm.agent.report.ReportingEventHandler}.
+ * <p>
+ * Before that, errors are {@linkplain co.elastic.apm.agent.impl.error.ErrorCapture#resolve() resolved},
+ * as capturing an error on the application thread only records the exception and references to its context.
+ * </p>
  */
 public class ProcessorEventHandler implements EventHandler<ReportingEvent> {
 
@@ -57,6 +61,7 @@ public class ProcessorEventHandler implements EventHandler<ReportingEvent> {
                 processors.get(i).processBeforeReport(event.getTransaction());
             }
         } else if (event.getError() != null) {
+            event.getError().resolve();
             for (int i = 0; i < processors.size(); i++) {
                 processors.get(i).processBeforeReport(event.getError());
             }
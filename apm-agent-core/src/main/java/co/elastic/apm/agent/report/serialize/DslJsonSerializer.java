@@ -24,6 +24,7 @@ import co.elastic.apm.agent.impl.context.Request;
 import co.elastic.apm.agent.impl.context.Response;
 import co.elastic.apm.agent.impl.context.Socket;
 import co.elastic.apm.agent.impl.context.SpanContext;
+import co.elastic.apm.agent.impl.context.Tags;
 import co.elastic.apm.agent.impl.context.TransactionContext;
 import co.elastic.apm.agent.impl.context.Url;
 import co.elastic.apm.agent.impl.context.User;
@@ -42,6 +43,7 @@ import co.elastic.apm.agent.impl.stacktrace.StacktraceConfiguration;
 import co.elastic.apm.agent.impl.transaction.Db;
 import co.elastic.apm.agent.impl.transaction.Http;
 import co.elastic.apm.agent.impl.transaction.Id;
+import co.elastic.apm.agent.impl.transaction.ResourceUsage;
 import co.elastic.apm.agent.impl.transaction.Span;
 import co.elastic.apm.agent.impl.transaction.SpanCount;
 import co.elastic.apm.agent.impl.transaction.TraceContext;
@@ -236,7 +238,7 @@ public class DslJsonSerializer implements PayloadSerializer {
         if (errorCapture.getTraceContext().hasContent()) {
             serializeTraceContext(errorCapture.getTraceContext(), true);
         }
-        serializeContext(errorCapture.getContext());
+        serializeContext(errorCapture.getContext(), errorCapture.getDroppedOccurrences());
         writeField("culprit", errorCapture.getCulprit());
         serializeException(errorCapture.getException());
 
@@ -481,12 +483,60 @@ public class DslJsonSerializer implements PayloadSerializer {
         writeField("type", transaction.getType());
         writeField("duration", transaction.getDuration());
         writeField("result", transaction.getResult());
-        serializeContext(transaction.getContext());
+        serializeContext(transaction.getContextEnsureVisibility(), 0);
         serializeSpanCount(transaction.getSpanCount());
+        serializeMarks(transaction);
         writeLastField("sampled", transaction.isSampled());
         jw.writeByte(OBJECT_END);
     }
 
+    private void serializeMarks(final Transaction transaction) {
+        final ResourceUsage resourceUsage = transaction.getResourceUsage();
+        // unsampled transactions only contribute to the transaction.gc_pause histogram
+        final boolean hasGcPause = transaction.isSampled() && transaction.getGcPauseMicros() > 0;
+        final boolean hasResourceUsage = resourceUsage.hasContent();
+        final boolean hasContention = resourceUsage.hasContention();
+        if (hasGcPause || hasResourceUsage || hasContention) {
+            writeFieldName("marks");
+            jw.writeByte(OBJECT_START);
+            writeFieldName("jvm");
+            jw.writeByte(OBJECT_START);
+            if (hasGcPause) {
+                writeFieldName("gc_pause");
+                NumberConverter.serialize(transaction.getGcPauseMicros() / 1000.0, jw);
+            }
+            if (hasResourceUsage) {
+                if (hasGcPause) {
+                    jw.writeByte(COMMA);
+                }
+                writeFieldName("cpu_time");
+                NumberConverter.serialize(resourceUsage.getCpuTimeNanos() / 1_000_000.0, jw);
+                jw.writeByte(COMMA);
+                writeFieldName("allocated_bytes");
+                NumberConverter.serialize(resourceUsage.getAllocatedBytes(), jw);
+            }
+            if (hasContention) {
+                if (hasGcPause || hasResourceUsage) {
+                    jw.writeByte(COMMA);
+                }
+                writeFieldName("blocked_count");
+                NumberConverter.serialize(resourceUsage.getBlockedCount(), jw);
+                jw.writeByte(COMMA);
+                writeFieldName("blocked_time");
+                NumberConverter.serialize(resourceUsage.getBlockedTimeMillis(), jw);
+                jw.writeByte(COMMA);
+                writeFieldName("waited_count");
+                NumberConverter.serialize(resourceUsage.getWaitedCount(), jw);
+                jw.writeByte(COMMA);
+                writeFieldName("waited_time");
+                NumberConverter.serialize(resourceUsage.getWaitedTimeMillis(), jw);
+            }
+            jw.writeByte(OBJECT_END);
+            jw.writeByte(OBJECT_END);
+            jw.writeByte(COMMA);
+        }
+    }
+
     private void serializeTraceContext(TraceContext traceContext, boolean serializeTransactionId) {
         // errors might only have an id
         writeHexField("id", traceContext.getId());
@@ -652,7 +702,7 @@ public class DslJsonSerializer implements PayloadSerializer {
             spanContextWritten = true;
         }
 
-        Map<String, String> tags = context.getTags();
+        Tags tags = context.getTags();
         if (!tags.isEmpty()) {
             if (spanContextWritten) {
                 jw.writeByte(COMMA);
@@ -705,20 +755,39 @@ public class DslJsonSerializer implements PayloadSerializer {
         jw.writeByte(COMMA);
     }
 
-    private void serializeContext(final TransactionContext context) {
+    /**
+     * @param droppedOccurrences if positive, added as the {@code dropped_occurrences} tag,
+     *                           see {@link co.elastic.apm.agent.impl.error.ErrorRateLimiter}
+     */
+    private void serializeContext(@Nullable final TransactionContext context, int droppedOccurrences) {
         writeFieldName("context");
         jw.writeByte(OBJECT_START);
 
-        if (context.getUser().hasContent()) {
-            serializeUser(context.getUser());
-            jw.writeByte(COMMA);
+        if (context != null) {
+            if (context.getUser().hasContent()) {
+                serializeUser(context.getUser());
+                jw.writeByte(COMMA);
+            }
+            serializeRequest(context.getRequest());
+            serializeResponse(context.getResponse());
         }
-        serializeRequest(context.getRequest());
-        serializeResponse(context.getResponse());
         // TODO custom context
         writeFieldName("tags");
-        final Map<String, String> value = context.getTags();
-        serializeTags(value);
+        jw.writeByte(OBJECT_START);
+        boolean tagsWritten = false;
+        if (context != null) {
+            tagsWritten = serializeTagEntries(context.getTags());
+        }
+        if (droppedOccurrences > 0) {
+            if (tagsWritten) {
+                jw.writeByte(COMMA);
+            }
+            writeFieldName("dropped_occurrences");
+            jw.writeByte(JsonWriter.QUOTE);
+            NumberConverter.serialize(droppedOccurrences, jw);
+            jw.writeByte(JsonWriter.QUOTE);
+        }
+        jw.writeByte(OBJECT_END);
         jw.writeByte(OBJECT_END);
         jw.writeByte(COMMA);
     }
@@ -748,6 +817,63 @@ public class DslJsonSerializer implements PayloadSerializer {
         jw.writeByte(OBJECT_END);
     }
 
+    // visible for testing
+    void serializeTags(Tags tags) {
+        jw.writeByte(OBJECT_START);
+        serializeTagEntries(tags);
+        jw.writeByte(OBJECT_END);
+    }
+
+    /**
+     * @return whether at least one tag has been written
+     */
+    private boolean serializeTagEntries(Tags tags) {
+        final int size = tags.size();
+        for (int i = 0; i < size; i++) {
+            if (i > 0) {
+                jw.writeByte(COMMA);
+            }
+            writeStringValue(sanitizeTagKey(tags.getKey(i), replaceBuilder), replaceBuilder, jw);
+            jw.writeByte(JsonWriter.SEMI);
+            serializeTagValue(tags, i);
+        }
+        return size > 0;
+    }
+
+    /**
+     * Writes the value of a tag as a JSON string,
+     * converting numbers and booleans directly into the output buffer.
+     */
+    private void serializeTagValue(Tags tags, int i) {
+        switch (tags.getType(i)) {
+            case Tags.TYPE_LONG:
+                jw.writeByte(JsonWriter.QUOTE);
+                NumberConverter.serialize(tags.getLongValue(i), jw);
+                jw.writeByte(JsonWriter.QUOTE);
+                break;
+            case Tags.TYPE_DOUBLE:
+                final double value = tags.getDoubleValue(i);
+                if (Double.isNaN(value) || Double.isInfinite(value)) {
+                    jw.writeString(Double.toString(value));
+                } else {
+                    jw.writeByte(JsonWriter.QUOTE);
+                    NumberConverter.serialize(value, jw);
+                    jw.writeByte(JsonWriter.QUOTE);
+                }
+                break;
+            case Tags.TYPE_BOOLEAN:
+                jw.writeAscii(tags.getBooleanValue(i) ? "\"true\"" : "\"false\"");
+                break;
+            default:
+                final String stringValue = tags.getStringValue(i);
+                if (stringValue != null) {
+                    writeStringValue(stringValue, replaceBuilder, jw);
+                } else {
+                    jw.writeNull();
+                }
+        }
+    }
+
     private static CharSequence sanitizeTagKey(String key, StringBuilder replaceBuilder) {
         for (int i = 0; i < DISALLOWED_IN_TAG_KEY.length; i++) {
             if (key.contains(DISALLOWED_IN_TAG_KEY[i])) {
@@ -843,10 +969,10 @@ public class DslJsonSerializer implements PayloadSerializer {
             jw.writeByte(OBJECT_START);
             final int size = map.size();
             if (size > 0) {
-                serializePotentiallyMultiValuedEntry(map.getKey(0), map.getValue(0));
+                serializePotentiallyMultiValuedEntry(map, 0);
                 for (int i = 1; i < size; i++) {
                     jw.writeByte(COMMA);
-                    serializePotentiallyMultiValuedEntry(map.getKey(i), map.getValue(i));
+                    serializePotentiallyMultiValuedEntry(map, i);
                 }
             }
             jw.writeByte(OBJECT_END);
@@ -854,22 +980,30 @@ public class DslJsonSerializer implements PayloadSerializer {
         }
     }
 
-    private void serializePotentiallyMultiValuedEntry(String key, @Nullable Object value) {
-        jw.writeString(key);
+    private void serializePotentiallyMultiValuedEntry(PotentiallyMultiValuedMap map, int i) {
+        jw.writeString(map.getKey(i));
         jw.writeByte(JsonWriter.SEMI);
-        if (value instanceof String) {
-            StringConverter.serialize((String) value, jw);
-        } else if (value instanceof List) {
+        int handle = map.getFirstValueHandle(i);
+        if (map.getValueCount(i) == 1) {
+            serializePotentiallyMultiValuedValue(map, handle);
+        } else {
             jw.writeByte(ARRAY_START);
-            final List<String> values = (List<String>) value;
-            jw.writeString(values.get(0));
-            for (int i = 1; i < values.size(); i++) {
+            serializePotentiallyMultiValuedValue(map, handle);
+            for (handle = map.getNextValueHandle(handle); handle != -1; handle = map.getNextValueHandle(handle)) {
                 jw.writeByte(COMMA);
-                jw.writeString(values.get(i));
+                serializePotentiallyMultiValuedValue(map, handle);
             }
             jw.writeByte(ARRAY_END);
-        } else if (value == null) {
+        }
+    }
+
+    private void serializePotentiallyMultiValuedValue(PotentiallyMultiValuedMap map, int handle) {
+        if (map.isNullValue(handle)) {
             jw.writeNull();
+        } else {
+            // copies the value from the map's char arena without allocating
+            replaceBuilder.setLength(0);
+            jw.writeString(map.appendValue(handle, replaceBuilder));
         }
     }
 
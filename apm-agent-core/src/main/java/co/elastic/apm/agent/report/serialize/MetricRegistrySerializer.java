@@ -19,9 +19,12 @@
  */
 package co.elastic.apm.agent.report.serialize;
 
+import co.elastic.apm.agent.metrics.Counter;
 import co.elastic.apm.agent.metrics.DoubleSupplier;
+import co.elastic.apm.agent.metrics.Histogram;
 import co.elastic.apm.agent.metrics.MetricRegistry;
 import co.elastic.apm.agent.metrics.MetricSet;
+import co.elastic.apm.agent.metrics.Timer;
 import com.dslplatform.json.JsonWriter;
 import com.dslplatform.json.NumberConverter;
 
@@ -35,11 +38,43 @@ public class MetricRegistrySerializer {
     public static void serialize(MetricRegistry metricRegistry, StringBuilder replaceBuilder, JsonWriter jw) {
         final long timestamp = System.currentTimeMillis() * 1000;
         for (MetricSet metricSet : metricRegistry.getMetricSets().values()) {
-            serializeMetricSet(metricSet, timestamp, replaceBuilder, jw);
-            jw.writeByte(NEW_LINE);
+            if (takeSnapshots(metricSet)) {
+                serializeMetricSet(metricSet, timestamp, replaceBuilder, jw);
+                jw.writeByte(NEW_LINE);
+            }
         }
     }
 
+    /**
+     * Takes a snapshot of all counters, timers and histograms of the metric set.
+     *
+     * @return {@code true}, if there is anything to report for this metric set
+     * and {@code false} if the metric set only contains timers and histograms which did not record any values since the last snapshot
+     */
+    static boolean takeSnapshots(MetricSet metricSet) {
+        boolean hasSamples = !metricSet.getSamples().isEmpty() || metricSet.getPrimitiveMetricCount() > 0;
+        for (Counter counter : metricSet.getCounters().values()) {
+            counter.takeSnapshot();
+            hasSamples = true;
+        }
+        for (Timer timer : metricSet.getTimers().values()) {
+            timer.takeSnapshot();
+            if (timer.getSnapshotCount() > 0) {
+                hasSamples = true;
+            }
+        }
+        for (Histogram histogram : metricSet.getHistograms().values()) {
+            if (histogram.takeSnapshot().getCount() > 0) {
+                hasSamples = true;
+            }
+        }
+        return hasSamples;
+    }
+
+    /**
+     * Serializes a metric set.
+     * Note that {@link #takeSnapshots(MetricSet)} has to be called before.
+     */
     static void serializeMetricSet(MetricSet metricSet, long epochMicros, StringBuilder replaceBuilder, JsonWriter jw) {
         jw.writeByte(JsonWriter.OBJECT_START);
         {
@@ -57,15 +92,20 @@ public class MetricRegistrySerializer {
                 }
 
                 DslJsonSerializer.writeFieldName("samples", jw);
-                serializeSamples(metricSet.getSamples(), jw);
+                jw.writeByte(JsonWriter.OBJECT_START);
+                boolean hasPreviousSamples = serializeSamples(metricSet.getSamples(), jw);
+                hasPreviousSamples = serializePrimitiveMetrics(metricSet, hasPreviousSamples, jw);
+                hasPreviousSamples = serializeCounters(metricSet.getCounters(), hasPreviousSamples, jw);
+                hasPreviousSamples = serializeTimers(metricSet.getTimers(), hasPreviousSamples, jw);
+                serializeHistograms(metricSet.getHistograms(), hasPreviousSamples, jw);
+                jw.writeByte(JsonWriter.OBJECT_END);
             }
             jw.writeByte(JsonWriter.OBJECT_END);
         }
         jw.writeByte(JsonWriter.OBJECT_END);
     }
 
-    private static void serializeSamples(Map<String, DoubleSupplier> samples, JsonWriter jw) {
-        jw.writeByte(JsonWriter.OBJECT_START);
+    private static boolean serializeSamples(Map<String, DoubleSupplier> samples, JsonWriter jw) {
         final int size = samples.size();
         if (size > 0) {
             final Iterator<Map.Entry<String, DoubleSupplier>> iterator = samples.entrySet().iterator();
@@ -77,7 +117,74 @@ public class MetricRegistrySerializer {
                 serializeSample(kv.getKey(), kv.getValue().get(), jw);
             }
         }
-        jw.writeByte(JsonWriter.OBJECT_END);
+        return size > 0;
+    }
+
+    private static boolean serializePrimitiveMetrics(MetricSet metricSet, boolean hasPreviousSamples, JsonWriter jw) {
+        final int count = metricSet.getPrimitiveMetricCount();
+        for (int i = 0; i < count; i++) {
+            if (hasPreviousSamples) {
+                jw.writeByte(JsonWriter.COMMA);
+            }
+            serializeSample(metricSet.getPrimitiveMetricName(i), metricSet.getPrimitiveMetricValue(i), jw);
+            hasPreviousSamples = true;
+        }
+        return hasPreviousSamples;
+    }
+
+    private static boolean serializeCounters(Map<String, Counter> counters, boolean hasPreviousSamples, JsonWriter jw) {
+        for (Map.Entry<String, Counter> entry : counters.entrySet()) {
+            if (hasPreviousSamples) {
+                jw.writeByte(JsonWriter.COMMA);
+            }
+            // the snapshot has already been taken in takeSnapshots
+            serializeSample(entry.getKey(), entry.getValue().getSnapshot(), jw);
+            hasPreviousSamples = true;
+        }
+        return hasPreviousSamples;
+    }
+
+    private static boolean serializeTimers(Map<String, Timer> timers, boolean hasPreviousSamples, JsonWriter jw) {
+        for (Timer timer : timers.values()) {
+            if (timer.getSnapshotCount() == 0) {
+                continue;
+            }
+            if (hasPreviousSamples) {
+                jw.writeByte(JsonWriter.COMMA);
+            }
+            serializeSample(timer.getCountName(), timer.getSnapshotCount(), jw);
+            jw.writeByte(JsonWriter.COMMA);
+            serializeSample(timer.getSumName(), timer.getSnapshotSum(), jw);
+            hasPreviousSamples = true;
+        }
+        return hasPreviousSamples;
+    }
+
+    private static void serializeHistograms(Map<String, Histogram> histograms, boolean hasPreviousSamples, JsonWriter jw) {
+        for (Histogram histogram : histograms.values()) {
+            // the snapshot has already been taken in takeSnapshots
+            final Histogram.Snapshot snapshot = histogram.getSnapshot();
+            if (snapshot.getCount() == 0) {
+                continue;
+            }
+            if (hasPreviousSamples) {
+                jw.writeByte(JsonWriter.COMMA);
+            }
+            serializeHistogram(histogram, snapshot, jw);
+            hasPreviousSamples = true;
+        }
+    }
+
+    private static void serializeHistogram(Histogram histogram, Histogram.Snapshot snapshot, JsonWriter jw) {
+        serializeSample(histogram.getCountName(), snapshot.getCount(), jw);
+        jw.writeByte(JsonWriter.COMMA);
+        serializeSample(histogram.getSumName(), snapshot.getSum(), jw);
+        jw.writeByte(JsonWriter.COMMA);
+        serializeSample(histogram.getMaxName(), snapshot.getMax(), jw);
+        for (int i = 0; i < snapshot.getPercentileCount(); i++) {
+            jw.writeByte(JsonWriter.COMMA);
+            serializeSample(histogram.getPercentileName(i), snapshot.getValueAtPercentile(i), jw);
+        }
     }
 
     private static void serializeSample(String key, double value, JsonWriter jw) {
@@ -34,11 +34,49 @@ import java.util.List;
  * But when {@link #add(String, String)} has been called multiple times for a given key,
  * {@link #get(String)} will return a collection of values.
  * </p>
+ * <p>
+ * The characters of the values are copied into a single, contiguous {@code char[]} arena.
+ * Each value is referenced by a handle which stores the offset and length within the arena,
+ * and the values of a key are linked together.
+ * Keys are looked up case-insensitively via a small open-addressing hash index.
+ * As instances are recycled, adding values does not allocate once the arrays have grown to their working size.
+ * The methods which return {@link String}s or {@link List}s allocate and should not be used on hot paths.
+ * Use {@link #getFirstValueHandle(int)}, {@link #getNextValueHandle(int)} and {@link #appendValue(int, StringBuilder)} instead.
+ * </p>
  */
 public class PotentiallyMultiValuedMap implements Recyclable {
 
-    private final List<String> keys = new ArrayList<>();
-    private final List<Object> values = new ArrayList<>();
+    private static final int INITIAL_KEY_CAPACITY = 8;
+    private static final int INITIAL_ARENA_CAPACITY = 256;
+    private static final String[] NO_KEYS = new String[0];
+    private static final int[] NO_INTS = new int[0];
+    private static final char[] NO_CHARS = new char[0];
+    private static final int NULL_VALUE_LENGTH = -1;
+
+    /*
+     * The distinct keys, in insertion order
+     */
+    private String[] keys = NO_KEYS;
+    private int[] firstValues = NO_INTS;
+    private int[] lastValues = NO_INTS;
+    private int[] valueCounts = NO_INTS;
+    private int size;
+
+    /*
+     * The value handles of all keys
+     */
+    private int[] valueOffsets = NO_INTS;
+    private int[] valueLengths = NO_INTS;
+    private int[] nextValues = NO_INTS;
+    private int valueHandles;
+
+    private char[] arena = NO_CHARS;
+    private int arenaLength;
+
+    /*
+     * Maps the case-insensitive hash of a key to its position, plus one. 0 marks an empty slot.
+     */
+    private int[] index = NO_INTS;
 
     /**
      * Adds a value to this map.
@@ -51,43 +89,124 @@ public class PotentiallyMultiValuedMap implements Recyclable {
      * @param key   The key.
      * @param value The value.
      */
-    public void add(String key, String value) {
-        final int index = indexOfIgnoreCase(key);
-        if (index >= 0) {
-            Object previousValue = values.get(index);
-            if (previousValue instanceof List) {
-                addValueToValueList(value, (List<String>) previousValue);
-            } else {
-                convertValueToMultiValue(index, (String) previousValue, value);
-            }
+    public void add(String key, @Nullable String value) {
+        final int handle;
+        if (value == null) {
+            handle = newValueHandle(0, NULL_VALUE_LENGTH);
         } else {
-            keys.add(key);
-            values.add(value);
+            final int length = value.length();
+            ensureArenaCapacity(arenaLength + length);
+            value.getChars(0, length, arena, arenaLength);
+            handle = newValueHandle(arenaLength, length);
+            arenaLength += length;
         }
+        linkValue(keyIndexFor(key), handle);
     }
 
-
     public void set(String key, String[] values) {
-        if (values.length > 0) {
-            if (values.length == 1) {
-                keys.add(key);
-                this.values.add(values[0]);
-            } else {
-                keys.add(key);
-                this.values.add(Arrays.asList(values));
-            }
+        for (String value : values) {
+            add(key, value);
+        }
+    }
+
+    private int keyIndexFor(String key) {
+        final int existing = indexOfIgnoreCase(key);
+        if (existing >= 0) {
+            return existing;
+        }
+        ensureKeyCapacity(size + 1);
+        final int i = size;
+        keys[i] = key;
+        valueCounts[i] = 0;
+        insertIntoIndex(key, i);
+        size = i + 1;
+        return i;
+    }
+
+    private int newValueHandle(int offset, int length) {
+        if (valueHandles == valueOffsets.length) {
+            final int capacity = Math.max(INITIAL_KEY_CAPACITY, valueOffsets.length * 2);
+            valueOffsets = Arrays.copyOf(valueOffsets, capacity);
+            valueLengths = Arrays.copyOf(valueLengths, capacity);
+            nextValues = Arrays.copyOf(nextValues, capacity);
+        }
+        final int handle = valueHandles++;
+        valueOffsets[handle] = offset;
+        valueLengths[handle] = length;
+        nextValues[handle] = -1;
+        return handle;
+    }
+
+    private void linkValue(int i, int handle) {
+        if (valueCounts[i] == 0) {
+            firstValues[i] = handle;
+        } else {
+            nextValues[lastValues[i]] = handle;
+        }
+        lastValues[i] = handle;
+        valueCounts[i]++;
+    }
+
+    private void ensureKeyCapacity(int capacity) {
+        if (keys.length < capacity) {
+            // a power of two, as the size of the index has to be one
+            final int newCapacity = Math.max(MathUtils.getNextPowerOf2(capacity), Math.max(INITIAL_KEY_CAPACITY, keys.length * 2));
+            keys = Arrays.copyOf(keys, newCapacity);
+            firstValues = Arrays.copyOf(firstValues, newCapacity);
+            lastValues = Arrays.copyOf(lastValues, newCapacity);
+            valueCounts = Arrays.copyOf(valueCounts, newCapacity);
+            index = new int[newCapacity * 2];
+            rebuildIndex();
+        }
+    }
+
+    private void ensureArenaCapacity(int capacity) {
+        if (arena.length < capacity) {
+            arena = Arrays.copyOf(arena, Math.max(capacity, Math.max(INITIAL_ARENA_CAPACITY, arena.length * 2)));
         }
     }
 
     private int indexOfIgnoreCase(String key) {
-        for (int i = 0; i < keys.size(); i++) {
-            if (keys.get(i).equalsIgnoreCase(key)) {
+        if (size == 0) {
+            return -1;
+        }
+        final int mask = index.length - 1;
+        for (int pos = hashIgnoreCase(key) & mask; index[pos] != 0; pos = (pos + 1) & mask) {
+            final int i = index[pos] - 1;
+            if (keys[i].equalsIgnoreCase(key)) {
                 return i;
             }
         }
         return -1;
     }
 
+    private void insertIntoIndex(String key, int i) {
+        final int mask = index.length - 1;
+        int pos = hashIgnoreCase(key) & mask;
+        while (index[pos] != 0) {
+            pos = (pos + 1) & mask;
+        }
+        index[pos] = i + 1;
+    }
+
+    private void rebuildIndex() {
+        Arrays.fill(index, 0);
+        for (int i = 0; i < size; i++) {
+            insertIntoIndex(keys[i], i);
+        }
+    }
+
+    /*
+     * Consistent with String#equalsIgnoreCase
+     */
+    private static int hashIgnoreCase(String key) {
+        int h = 0;
+        for (int i = 0; i < key.length(); i++) {
+            h = 31 * h + Character.toLowerCase(Character.toUpperCase(key.charAt(i)));
+        }
+        return h ^ (h >>> 16);
+    }
+
     /**
      * Gets the first value which is associated with a given key.
      *
@@ -96,21 +215,20 @@ public class PotentiallyMultiValuedMap implements Recyclable {
      */
     @Nullable
     public String getFirst(String key) {
-        Object valueOrValueList = get(key);
-        if (valueOrValueList instanceof List) {
-            return (String) ((List) valueOrValueList).get(0);
-        } else {
-            return (String) valueOrValueList;
+        final int i = indexOfIgnoreCase(key);
+        if (i == -1) {
+            return null;
         }
+        return getValueAsString(firstValues[i]);
     }
 
     @Nullable
     public Object get(String key) {
-        final int index = indexOfIgnoreCase(key);
-        if (index == -1) {
+        final int i = indexOfIgnoreCase(key);
+        if (i == -1) {
             return null;
         }
-        return values.get(index);
+        return getValue(i);
     }
 
     /**
@@ -124,66 +242,186 @@ public class PotentiallyMultiValuedMap implements Recyclable {
      * @return All the values which age associated with a given key.
      */
     public List<String> getAll(String key) {
-        final int index = indexOfIgnoreCase(key);
-        if (index == -1) {
+        final int i = indexOfIgnoreCase(key);
+        if (i == -1) {
             return Collections.emptyList();
         }
-        Object valueOrValueList = values.get(index);
-        if (valueOrValueList instanceof List) {
-            return (List<String>) valueOrValueList;
-        } else {
-            return Collections.singletonList((String) valueOrValueList);
+        if (valueCounts[i] == 1) {
+            return Collections.singletonList(getValueAsString(firstValues[i]));
         }
+        return getValueList(i);
     }
 
-    private void addValueToValueList(String value, List<String> valueList) {
-        valueList.add(value);
-    }
-
-    private void convertValueToMultiValue(int index, String previousValue, String value) {
-        List<String> valueList = new ArrayList<>(4);
-        valueList.add(previousValue);
-        valueList.add(value);
-        values.set(index, valueList);
+    private List<String> getValueList(int i) {
+        final List<String> values = new ArrayList<>(valueCounts[i]);
+        for (int handle = firstValues[i]; handle != -1; handle = nextValues[handle]) {
+            values.add(getValueAsString(handle));
+        }
+        return values;
     }
 
     public boolean isEmpty() {
-        return keys.isEmpty();
+        return size == 0;
     }
 
     @Override
     public void resetState() {
-        keys.clear();
-        values.clear();
+        Arrays.fill(keys, 0, size, null);
+        Arrays.fill(index, 0);
+        size = 0;
+        valueHandles = 0;
+        arenaLength = 0;
     }
 
     public String getKey(int i) {
-        return keys.get(i);
+        return keys[i];
     }
 
+    /**
+     * Returns the value of the key at the given position,
+     * which is either a {@link String} or a {@link List} of {@link String}s.
+     */
+    @Nullable
     public Object getValue(int i) {
-        return values.get(i);
+        if (valueCounts[i] == 1) {
+            return getValueAsString(firstValues[i]);
+        }
+        return getValueList(i);
+    }
+
+    public int getValueCount(int i) {
+        return valueCounts[i];
+    }
+
+    /**
+     * @return the handle of the first value of the key at the given position
+     */
+    public int getFirstValueHandle(int i) {
+        return firstValues[i];
+    }
+
+    /**
+     * @return the handle of the next value of the same key, or {@code -1} if this is the last one
+     */
+    public int getNextValueHandle(int handle) {
+        return nextValues[handle];
+    }
+
+    public boolean isNullValue(int handle) {
+        return valueLengths[handle] == NULL_VALUE_LENGTH;
+    }
+
+    /**
+     * Appends the characters of a value to the given {@link StringBuilder} without allocating.
+     */
+    public StringBuilder appendValue(int handle, StringBuilder sb) {
+        if (valueLengths[handle] > 0) {
+            sb.append(arena, valueOffsets[handle], valueLengths[handle]);
+        }
+        return sb;
+    }
+
+    @Nullable
+    private String getValueAsString(int handle) {
+        if (isNullValue(handle)) {
+            return null;
+        }
+        return new String(arena, valueOffsets[handle], valueLengths[handle]);
+    }
+
+    /**
+     * @return the number of characters in the arena
+     */
+    public int getArenaLength() {
+        return arenaLength;
     }
 
     public int size() {
-        return keys.size();
+        return size;
     }
 
+    /**
+     * Copies all entries of the other map into this one.
+     * <p>
+     * If this map is empty, the arrays are copied in bulk.
+     * </p>
+     */
     public void copyFrom(PotentiallyMultiValuedMap other) {
-        this.keys.addAll(other.keys);
-        this.values.addAll(other.values);
+        if (other.size == 0) {
+            return;
+        }
+        if (size == 0 && valueHandles == 0) {
+            ensureKeyCapacity(other.size);
+            System.arraycopy(other.keys, 0, keys, 0, other.size);
+            System.arraycopy(other.firstValues, 0, firstValues, 0, other.size);
+            System.arraycopy(other.lastValues, 0, lastValues, 0, other.size);
+            System.arraycopy(other.valueCounts, 0, valueCounts, 0, other.size);
+            size = other.size;
+            if (valueOffsets.length < other.valueHandles) {
+                valueOffsets = new int[other.valueOffsets.length];
+                valueLengths = new int[other.valueOffsets.length];
+                nextValues = new int[other.valueOffsets.length];
+            }
+            System.arraycopy(other.valueOffsets, 0, valueOffsets, 0, other.valueHandles);
+            System.arraycopy(other.valueLengths, 0, valueLengths, 0, other.valueHandles);
+            System.arraycopy(other.nextValues, 0, nextValues, 0, other.valueHandles);
+            valueHandles = other.valueHandles;
+            ensureArenaCapacity(other.arenaLength);
+            System.arraycopy(other.arena, 0, arena, 0, other.arenaLength);
+            arenaLength = other.arenaLength;
+            rebuildIndex();
+        } else {
+            for (int i = 0; i < other.size; i++) {
+                final int keyIndex = keyIndexFor(other.keys[i]);
+                for (int handle = other.firstValues[i]; handle != -1; handle = other.nextValues[handle]) {
+                    linkValue(keyIndex, copyValue(other, handle));
+                }
+            }
+        }
+    }
+
+    private int copyValue(PotentiallyMultiValuedMap other, int otherHandle) {
+        final int length = other.valueLengths[otherHandle];
+        if (length == NULL_VALUE_LENGTH) {
+            return newValueHandle(0, NULL_VALUE_LENGTH);
+        }
+        ensureArenaCapacity(arenaLength + length);
+        System.arraycopy(other.arena, other.valueOffsets[otherHandle], arena, arenaLength, length);
+        final int handle = newValueHandle(arenaLength, length);
+        arenaLength += length;
+        return handle;
     }
 
     public void removeIgnoreCase(String key) {
-        final int index = indexOfIgnoreCase(key);
-        if (index != -1) {
-            keys.remove(index);
-            values.remove(index);
+        final int i = indexOfIgnoreCase(key);
+        if (i != -1) {
+            final int moved = size - i - 1;
+            System.arraycopy(keys, i + 1, keys, i, moved);
+            System.arraycopy(firstValues, i + 1, firstValues, i, moved);
+            System.arraycopy(lastValues, i + 1, lastValues, i, moved);
+            System.arraycopy(valueCounts, i + 1, valueCounts, i, moved);
+            keys[--size] = null;
+            rebuildIndex();
         }
     }
 
+    /**
+     * Replaces all values of the key at the given position with a single value.
+     * <p>
+     * If the key has exactly one value which is at least as long as the new one,
+     * the characters are overwritten in place.
+     * </p>
+     */
     public void set(int index, String value) {
-        values.set(index, value);
+        final int length = value.length();
+        final int handle = firstValues[index];
+        if (valueCounts[index] == 1 && valueLengths[handle] >= length) {
+            value.getChars(0, length, arena, valueOffsets[handle]);
+            valueLengths[handle] = length;
+        } else {
+            valueCounts[index] = 0;
+            add(keys[index], value);
+        }
     }
 
     public boolean containsIgnoreCase(String key) {
@@ -91,6 +91,13 @@ public class MockReporter implements Reporter {
         spans.add(span);
     }
 
+    @Override
+    public synchronized void report(Span[] spans, int count) {
+        for (int i = 0; i < count; i++) {
+            report(spans[i]);
+        }
+    }
+
     public void verifyTransactionSchema(JsonNode jsonNode) {
         verifyJsonSchema(transactionSchema, jsonNode);
     }
@@ -30,15 +30,20 @@ import co.elastic.apm.agent.impl.transaction.AbstractSpan;
 import co.elastic.apm.agent.impl.transaction.Span;
 import co.elastic.apm.agent.impl.transaction.TraceContext;
 import co.elastic.apm.agent.impl.transaction.Transaction;
+import co.elastic.apm.agent.report.ReporterConfiguration;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.stagemonitor.configuration.ConfigurationRegistry;
 
 import java.io.IOException;
 import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verifyNoMoreInteractions;
 import static org.mockito.Mockito.when;
 
 class ElasticApmTracerTest {
@@ -168,6 +173,19 @@ class ElasticApmTracerTest {
         assertThat(error.getTransactionInfo().isSampled()).isFalse();
     }
 
+    @Test
+    void testRecordExceptionRateLimited() {
+        when(config.getConfig(CoreConfiguration.class).getMaxErrorsPerFingerprint()).thenReturn(1);
+        final long now = System.currentTimeMillis() * 1000;
+        final long nextWindow = now + TimeUnit.MINUTES.toMicros(1);
+        for (long timestamp : new long[]{now, now, now, nextWindow}) {
+            tracerImpl.captureException(timestamp, new Exception("test"), null);
+        }
+        assertThat(reporter.getErrors()).hasSize(2);
+        assertThat(reporter.getErrors().get(0).getDroppedOccurrences()).isZero();
+        assertThat(reporter.getErrors().get(1).getDroppedOccurrences()).isEqualTo(2);
+    }
+
     @Test
     void testRecordExceptionWithTrace() {
         innerRecordExceptionWithTrace(true);
@@ -228,6 +246,70 @@ class ElasticApmTracerTest {
         assertThat(reporter.getSpans()).hasSize(1);
     }
 
+    @Test
+    void testDroppedSpansShareNoopSpan() {
+        when(tracerImpl.getConfig(CoreConfiguration.class).getTransactionMaxSpans()).thenReturn(1);
+        Transaction transaction = tracerImpl.startTransaction();
+        try (Scope scope = transaction.activateInScope()) {
+            tracerImpl.getActive().createSpan().end();
+            Span dropped = tracerImpl.getActive().createSpan();
+            assertThat(dropped.isNoop()).isTrue();
+            assertThat(tracerImpl.getActive().createSpan()).isSameAs(dropped);
+            try (Scope spanScope = dropped.activateInScope()) {
+                assertThat(tracerImpl.getActive()).isSameAs(dropped);
+                assertThat(dropped.createSpan()).isSameAs(dropped);
+                dropped.end();
+            }
+            assertThat(tracerImpl.getActive()).isSameAs(transaction);
+            // propagates the ID of the transaction as the dropped span does not exist
+            assertThat(dropped.getTraceContext().getOutgoingTraceParentHeader().toString())
+                .startsWith("00-" + transaction.getTraceContext().getTraceId() + "-" + transaction.getTraceContext().getId() + "-")
+                .endsWith("-00");
+            transaction.end();
+        }
+        assertThat(reporter.getFirstTransaction().getSpanCount().getDropped().get()).isEqualTo(3);
+        assertThat(reporter.getFirstTransaction().getSpanCount().getStarted().get()).isEqualTo(1);
+        assertThat(reporter.getSpans()).hasSize(1);
+    }
+
+    @Test
+    void testUnsampledTransactionNoopSpan() {
+        final ActivationListener activationListener = mock(ActivationListener.class);
+        tracerImpl.registerSpanListener(activationListener);
+        Transaction transaction = tracerImpl.startTransaction(TraceContext.asRoot(), null, ConstantSampler.of(false), -1);
+        Span span = transaction.createSpan()
+            .withType("db")
+            .appendToName("SELECT");
+        assertThat(span.isNoop()).isTrue();
+        assertThat(span.isSampled()).isFalse();
+        assertThat(span.getType()).isNull();
+        assertThat(span.getName()).isEmpty();
+        assertThat(span.getTraceContext().getOutgoingTraceParentHeader().toString())
+            .isEqualTo(transaction.getTraceContext().getOutgoingTraceParentHeader().toString());
+        span.getContext().getDb().withType("sql").withStatement("SELECT");
+        assertThat(span.getContext().getDb().withStatementBuffer().hasRemaining()).isFalse();
+        span.getContext().getHttp().withUrl("http://localhost").withStatusCode(200);
+        assertThat(span.getContext().hasContent()).isFalse();
+
+        span.activate();
+        assertThat(tracerImpl.getActive()).isSameAs(span);
+        span.deactivate().end();
+        verifyNoMoreInteractions(activationListener);
+        transaction.end();
+        assertThat(reporter.getSpans()).isEmpty();
+    }
+
+    @Test
+    void testUnsampledSpansAreNotNoopWhenAggregated() {
+        when(config.getConfig(CoreConfiguration.class).isAggregateUnsampledTransactions()).thenReturn(true);
+        Transaction transaction = tracerImpl.startTransaction(TraceContext.asRoot(), null, ConstantSampler.of(false), -1);
+        Span span = transaction.createSpan().withType("db");
+        assertThat(span.isNoop()).isFalse();
+        assertThat(span.getType()).isEqualTo("db");
+        span.end();
+        transaction.end();
+    }
+
     @Test
     void testDisable() {
         when(config.getConfig(CoreConfiguration.class).isActive()).thenReturn(false);
@@ -298,6 +380,94 @@ class ElasticApmTracerTest {
         assertThat(reporter.getFirstTransaction().getType()).isEqualTo("request");
     }
 
+    @Test
+    void testAggregateUnsampledTransactions() {
+        when(config.getConfig(CoreConfiguration.class).isAggregateUnsampledTransactions()).thenReturn(true);
+        final Transaction sampled = tracerImpl.startTransaction(TraceContext.asRoot(), null, ConstantSampler.of(true), -1)
+            .withName("sampled");
+        sampled.end();
+        final Transaction unsampled = tracerImpl.startTransaction(TraceContext.asRoot(), null, ConstantSampler.of(false), -1)
+            .withName("unsampled")
+            .withType("request")
+            .withResult("success");
+        unsampled.end();
+
+        assertThat(reporter.getTransactions()).containsExactly(sampled);
+        assertThat(tracerImpl.getMetricRegistry().getMetricSets()
+            .get(Map.of("transaction_name", "unsampled", "transaction_type", "request", "transaction_result", "success"))
+            .getHistograms().get("transaction.duration").takeSnapshot().getCount()).isEqualTo(1);
+    }
+
+    @Test
+    void testSpanBatching() {
+        final ElasticApmTracer tracer = createTracerWithSpanBatchSize(3);
+        final Transaction transaction = tracer.startTransaction(TraceContext.asRoot(), null, ConstantSampler.of(true), -1);
+        try (Scope scope = transaction.activateInScope()) {
+            transaction.createSpan().end();
+            transaction.createSpan().end();
+            assertThat(reporter.getSpans()).isEmpty();
+            transaction.createSpan().end();
+            assertThat(reporter.getSpans()).hasSize(3);
+
+            transaction.createSpan().end();
+            assertThat(reporter.getSpans()).hasSize(3);
+            transaction.end();
+            assertThat(reporter.getSpans()).hasSize(4);
+            assertThat(reporter.getTransactions()).hasSize(1);
+        }
+    }
+
+    @Test
+    void testSpanBatchIsFlushedOnDeactivation() {
+        final ElasticApmTracer tracer = createTracerWithSpanBatchSize(3);
+        final Transaction transaction = tracer.startTransaction(TraceContext.asRoot(), null, ConstantSampler.of(true), -1);
+        try (Scope scope = transaction.activateInScope()) {
+            transaction.createSpan().end();
+            assertThat(reporter.getSpans()).isEmpty();
+        }
+        assertThat(reporter.getSpans()).hasSize(1);
+        transaction.end();
+    }
+
+    @Test
+    void testSpansOutlivingTheirTransactionAreNotBatched() {
+        final ElasticApmTracer tracer = createTracerWithSpanBatchSize(3);
+        final Transaction transaction = tracer.startTransaction(TraceContext.asRoot(), null, ConstantSampler.of(true), -1);
+        final Span span;
+        try (Scope scope = transaction.activateInScope()) {
+            span = transaction.createSpan();
+            transaction.end();
+        }
+        span.end();
+        assertThat(reporter.getSpans()).containsExactly(span);
+    }
+
+    private ElasticApmTracer createTracerWithSpanBatchSize(int spanBatchSize) {
+        when(config.getConfig(ReporterConfiguration.class).getSpanBatchSize()).thenReturn(spanBatchSize);
+        return new ElasticApmTracerBuilder()
+            .configurationRegistry(config)
+            .reporter(reporter)
+            .build();
+    }
+
+    @Test
+    void testUnsampledTransactionNameAndResultAreOnlyRecordedWhenAggregated() {
+        final Transaction unsampled = tracerImpl.startTransaction(TraceContext.asRoot(), null, ConstantSampler.of(false), -1)
+            .withName("unsampled")
+            .withResult("success");
+        assertThat(unsampled.getName()).isEmpty();
+        assertThat(unsampled.getResult()).isNull();
+        unsampled.end();
+
+        when(config.getConfig(CoreConfiguration.class).isAggregateUnsampledTransactions()).thenReturn(true);
+        final Transaction aggregated = tracerImpl.startTransaction(TraceContext.asRoot(), null, ConstantSampler.of(false), -1)
+            .withName("unsampled")
+            .withResult("success");
+        assertThat(aggregated.getName().toString()).isEqualTo("unsampled");
+        assertThat(aggregated.getResult()).isEqualTo("success");
+        aggregated.end();
+    }
+
     @Test
     void testLifecycleListener() {
         final AtomicBoolean startCalled = new AtomicBoolean();
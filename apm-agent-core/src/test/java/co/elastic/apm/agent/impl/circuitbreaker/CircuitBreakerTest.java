@@ -0,0 +1,129 @@
+/*-
+ * #%L
+ * Elastic APM Java agent
+ * %%
+ * Copyright (C) 2018 - 2019 Elastic and contributors
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package co.elastic.apm.agent.impl.circuitbreaker;
+
+import co.elastic.apm.agent.configuration.SpyConfiguration;
+import co.elastic.apm.agent.metrics.DoubleSupplier;
+import co.elastic.apm.agent.metrics.MetricRegistry;
+import co.elastic.apm.agent.metrics.Temporality;
+import co.elastic.apm.agent.report.ReporterConfiguration;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.stagemonitor.configuration.ConfigurationRegistry;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.when;
+
+class CircuitBreakerTest {
+
+    private CircuitBreaker circuitBreaker;
+    private MetricRegistry metricRegistry;
+    private double heapUsage;
+    private double cpuUsage = Double.NaN;
+
+    @BeforeEach
+    void setUp() {
+        final ConfigurationRegistry configurationRegistry = SpyConfiguration.createSpyConfig();
+        final CircuitBreakerConfiguration config = configurationRegistry.getConfig(CircuitBreakerConfiguration.class);
+        when(config.isCircuitBreakerEnabled()).thenReturn(true);
+        metricRegistry = new MetricRegistry(configurationRegistry.getConfig(ReporterConfiguration.class));
+        circuitBreaker = new CircuitBreaker(config, metricRegistry, Arrays.asList(
+            new StressMonitor("heap", new DoubleSupplier() {
+                @Override
+                public double get() {
+                    return heapUsage;
+                }
+            }, config.getHeapUsageStressThreshold(), config.getHeapUsageReliefThreshold()),
+            new StressMonitor("cpu", new DoubleSupplier() {
+                @Override
+                public double get() {
+                    return cpuUsage;
+                }
+            }, config.getCpuStressThreshold(), config.getCpuReliefThreshold())));
+    }
+
+    @Test
+    void testStressAndRelief() {
+        heapUsage = 0.5;
+        circuitBreaker.evaluate();
+        assertThat(circuitBreaker.isStressed()).isFalse();
+
+        heapUsage = 0.96;
+        circuitBreaker.evaluate();
+        assertThat(circuitBreaker.isStressed()).isTrue();
+        assertThat(getStateChanges()).isEqualTo(1);
+    }
+
+    @Test
+    void testHysteresis() {
+        heapUsage = 0.96;
+        circuitBreaker.evaluate();
+        assertThat(circuitBreaker.isStressed()).isTrue();
+
+        // below the stress threshold but not yet below the relief threshold
+        heapUsage = 0.8;
+        circuitBreaker.evaluate();
+        assertThat(circuitBreaker.isStressed()).isTrue();
+
+        heapUsage = 0.7;
+        circuitBreaker.evaluate();
+        assertThat(circuitBreaker.isStressed()).isFalse();
+        assertThat(getStateChanges()).isEqualTo(2);
+    }
+
+    @Test
+    void testReliefRequiresAllMonitors() {
+        heapUsage = 0.96;
+        cpuUsage = 0.9;
+        circuitBreaker.evaluate();
+        assertThat(circuitBreaker.isStressed()).isTrue();
+
+        heapUsage = 0.5;
+        circuitBreaker.evaluate();
+        assertThat(circuitBreaker.isStressed()).isTrue();
+
+        cpuUsage = 0.5;
+        circuitBreaker.evaluate();
+        assertThat(circuitBreaker.isStressed()).isFalse();
+    }
+
+    @Test
+    void testUnavailableReadingsAreIgnored() {
+        heapUsage = Double.NaN;
+        cpuUsage = Double.NaN;
+        circuitBreaker.evaluate();
+        assertThat(circuitBreaker.isStressed()).isFalse();
+    }
+
+    @Test
+    void testStressedGauge() {
+        heapUsage = 0.96;
+        circuitBreaker.evaluate();
+        assertThat(metricRegistry.get("agent.circuit_breaker.stressed", Collections.<String, String>emptyMap())).isEqualTo(1);
+    }
+
+    private long getStateChanges() {
+        return metricRegistry.counter("agent.circuit_breaker.state_changes", Collections.<String, String>emptyMap(), Temporality.DELTA)
+            .get();
+    }
+}
@@ -0,0 +1,127 @@
+/*-
+ * #%L
+ * Elastic APM Java agent
+ * %%
+ * Copyright (C) 2018 - 2019 Elastic and contributors
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package co.elastic.apm.agent.impl.context;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class TagsTest {
+
+    private Tags tags;
+
+    @BeforeEach
+    void setUp() {
+        tags = new Tags();
+    }
+
+    @Test
+    void testTypedValues() {
+        tags.add("string", "foo");
+        tags.add("long", 42L);
+        tags.add("double", 1.5);
+        tags.add("boolean", true);
+
+        assertThat(tags.size()).isEqualTo(4);
+        assertThat(tags.getKey(0)).isEqualTo("string");
+        assertThat(tags.getType(0)).isEqualTo(Tags.TYPE_STRING);
+        assertThat(tags.getStringValue(0)).isEqualTo("foo");
+        assertThat(tags.getType(1)).isEqualTo(Tags.TYPE_LONG);
+        assertThat(tags.getLongValue(1)).isEqualTo(42L);
+        assertThat(tags.getType(2)).isEqualTo(Tags.TYPE_DOUBLE);
+        assertThat(tags.getDoubleValue(2)).isEqualTo(1.5);
+        assertThat(tags.getType(3)).isEqualTo(Tags.TYPE_BOOLEAN);
+        assertThat(tags.getBooleanValue(3)).isTrue();
+        assertThat(tags.get("string")).isEqualTo("foo");
+        assertThat(tags.get("long")).isEqualTo("42");
+        assertThat(tags.get("double")).isEqualTo("1.5");
+        assertThat(tags.get("boolean")).isEqualTo("true");
+    }
+
+    @Test
+    void testOverwrite() {
+        tags.add("foo", "bar");
+        tags.add("foo", 1L);
+        assertThat(tags.size()).isEqualTo(1);
+        assertThat(tags.getStringValue(0)).isNull();
+        assertThat(tags.get("foo")).isEqualTo("1");
+        tags.add("foo", "baz");
+        assertThat(tags.size()).isEqualTo(1);
+        assertThat(tags.get("foo")).isEqualTo("baz");
+    }
+
+    @Test
+    void testGrowAndLimit() {
+        for (int i = 0; i < Tags.MAX_TAGS + 10; i++) {
+            tags.add("key" + i, i);
+        }
+        assertThat(tags.size()).isEqualTo(Tags.MAX_TAGS);
+        for (int i = 0; i < Tags.MAX_TAGS; i++) {
+            assertThat(tags.get("key" + i)).isEqualTo(Integer.toString(i));
+        }
+        assertThat(tags.get("key" + Tags.MAX_TAGS)).isNull();
+    }
+
+    @Test
+    void testCopyFromIntoEmpty() {
+        for (int i = 0; i < 20; i++) {
+            tags.add("key" + i, i);
+        }
+        tags.add("foo", "bar");
+        final Tags copy = new Tags();
+        copy.copyFrom(tags);
+        assertThat(copy.size()).isEqualTo(tags.size());
+        for (int i = 0; i < tags.size(); i++) {
+            assertThat(copy.getKey(i)).isEqualTo(tags.getKey(i));
+            assertThat(copy.getValueAsString(i)).isEqualTo(tags.getValueAsString(i));
+        }
+        copy.add("foo", "baz");
+        assertThat(copy.size()).isEqualTo(21);
+        assertThat(copy.get("foo")).isEqualTo("baz");
+        assertThat(tags.get("foo")).isEqualTo("bar");
+    }
+
+    @Test
+    void testCopyFromMerges() {
+        tags.add("foo", "bar");
+        tags.add("bar", true);
+        final Tags other = new Tags();
+        other.add("foo", 1.5);
+        other.add("baz", "qux");
+        tags.copyFrom(other);
+        assertThat(tags.size()).isEqualTo(3);
+        assertThat(tags.get("foo")).isEqualTo("1.5");
+        assertThat(tags.get("bar")).isEqualTo("true");
+        assertThat(tags.get("baz")).isEqualTo("qux");
+    }
+
+    @Test
+    void testResetState() {
+        tags.add("foo", "bar");
+        tags.add("baz", 1L);
+        tags.resetState();
+        assertThat(tags.isEmpty()).isTrue();
+        assertThat(tags.get("foo")).isNull();
+        tags.add("baz", "qux");
+        assertThat(tags.size()).isEqualTo(1);
+        assertThat(tags.get("baz")).isEqualTo("qux");
+    }
+}
@@ -37,10 +37,10 @@ class TransactionContextTest {
     @Test
     void testCopyFromDoNotCopyTags() {
         TransactionContext context = new TransactionContext();
-        context.getTags().put("foo", "bar");
+        context.getTags().add("foo", "bar");
         TransactionContext copyOfContext = new TransactionContext();
         copyOfContext.copyFrom(context);
-        assertThat(copyOfContext.getTags()).isEmpty();
+        assertThat(copyOfContext.getTags().isEmpty()).isTrue();
     }
 
     @Test
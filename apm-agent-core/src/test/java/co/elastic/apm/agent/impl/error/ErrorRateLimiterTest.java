@@ -0,0 +1,122 @@
+/*-
+ * #%L
+ * Elastic APM Java agent
+ * %%
+ * Copyright (C) 2018 - 2019 Elastic and contributors
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package co.elastic.apm.agent.impl.error;
+
+import co.elastic.apm.agent.configuration.CoreConfiguration;
+import co.elastic.apm.agent.configuration.SpyConfiguration;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.when;
+
+class ErrorRateLimiterTest {
+
+    private CoreConfiguration config;
+    private ErrorRateLimiter rateLimiter;
+
+    @BeforeEach
+    void setUp() {
+        config = SpyConfiguration.createSpyConfig().getConfig(CoreConfiguration.class);
+        when(config.getMaxErrorsPerFingerprint()).thenReturn(2);
+        when(config.getErrorFingerprintWindowMs()).thenReturn(1000L);
+        rateLimiter = new ErrorRateLimiter(config);
+    }
+
+    @Test
+    void testDisabledByDefault() {
+        when(config.getMaxErrorsPerFingerprint()).thenReturn(0);
+        for (int i = 0; i < 10; i++) {
+            assertThat(rateLimiter.acquire(createException(), 0)).isZero();
+        }
+    }
+
+    @Test
+    void testDropsErrorsAboveLimitWithinWindow() {
+        assertThat(rateLimiter.acquire(createException(), 0)).isZero();
+        assertThat(rateLimiter.acquire(createException(), 1)).isZero();
+        assertThat(rateLimiter.acquire(createException(), 2)).isEqualTo(ErrorRateLimiter.DROP);
+        assertThat(rateLimiter.acquire(createException(), 3)).isEqualTo(ErrorRateLimiter.DROP);
+        assertThat(rateLimiter.acquire(createException(), 4)).isEqualTo(ErrorRateLimiter.DROP);
+    }
+
+    @Test
+    void testReportsDroppedOccurrencesInNextWindow() {
+        for (int i = 0; i < 5; i++) {
+            rateLimiter.acquire(createException(), i);
+        }
+        assertThat(rateLimiter.acquire(createException(), 1000)).isEqualTo(3);
+        assertThat(rateLimiter.acquire(createException(), 1001)).isZero();
+        assertThat(rateLimiter.acquire(createException(), 1002)).isEqualTo(ErrorRateLimiter.DROP);
+    }
+
+    @Test
+    void testDifferentFingerprintsAreLimitedIndependently() {
+        assertThat(rateLimiter.acquire(createException(), 0)).isZero();
+        assertThat(rateLimiter.acquire(createException(), 0)).isZero();
+        assertThat(rateLimiter.acquire(createException(), 0)).isEqualTo(ErrorRateLimiter.DROP);
+        assertThat(rateLimiter.acquire(createException(new IllegalStateException(), 42), 0)).isZero();
+        assertThat(rateLimiter.acquire(createOtherException(), 0)).isZero();
+    }
+
+    @Test
+    void testFingerprint() {
+        assertThat(ErrorRateLimiter.fingerprint(createException())).isEqualTo(ErrorRateLimiter.fingerprint(createException()));
+        assertThat(ErrorRateLimiter.fingerprint(createException())).isNotEqualTo(ErrorRateLimiter.fingerprint(createOtherException()));
+        assertThat(ErrorRateLimiter.fingerprint(createException())).isNotEqualTo(ErrorRateLimiter.fingerprint(createException(new IllegalStateException(), 42)));
+    }
+
+    @Test
+    void testDoesNotLimitWhenTableIsFull() {
+        when(config.getMaxErrorsPerFingerprint()).thenReturn(1);
+        for (int i = 0; i < ErrorRateLimiter.TABLE_SIZE; i++) {
+            final Exception exception = new Exception();
+            exception.setStackTrace(new StackTraceElement[]{new StackTraceElement("Foo", "bar", "Foo.java", i)});
+            rateLimiter.acquire(exception, 0);
+        }
+        int notLimited = 0;
+        for (int i = 0; i < 10; i++) {
+            final Exception exception = new Exception();
+            exception.setStackTrace(new StackTraceElement[]{new StackTraceElement("Foo", "baz", "Foo.java", i)});
+            for (int j = 0; j < 2; j++) {
+                if (rateLimiter.acquire(exception, 0) != ErrorRateLimiter.DROP) {
+                    notLimited++;
+                }
+            }
+        }
+        assertThat(notLimited).isGreaterThanOrEqualTo(10);
+    }
+
+    private Exception createException() {
+        return createException(new IllegalArgumentException("the message is not part of the fingerprint " + System.nanoTime()), 42);
+    }
+
+    private Exception createOtherException() {
+        return createException(new IllegalArgumentException(), 43);
+    }
+
+    private Exception createException(Exception exception, int lineNumber) {
+        exception.setStackTrace(new StackTraceElement[]{
+            new StackTraceElement("Foo", "bar", "Foo.java", lineNumber),
+            new StackTraceElement("Foo", "baz", "Foo.java", 1)
+        });
+        return exception;
+    }
+}
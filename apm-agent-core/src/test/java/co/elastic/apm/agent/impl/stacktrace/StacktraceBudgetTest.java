@@ -0,0 +1,136 @@
+/*-
+ * #%L
+ * Elastic APM Java agent
+ * %%
+ * Copyright (C) 2018 - 2019 Elastic and contributors
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package co.elastic.apm.agent.impl.stacktrace;
+
+import co.elastic.apm.agent.MockTracer;
+import co.elastic.apm.agent.configuration.SpyConfiguration;
+import co.elastic.apm.agent.impl.ElasticApmTracer;
+import co.elastic.apm.agent.impl.sampling.ConstantSampler;
+import co.elastic.apm.agent.impl.transaction.Span;
+import co.elastic.apm.agent.impl.transaction.TraceContext;
+import co.elastic.apm.agent.impl.transaction.Transaction;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.when;
+
+class StacktraceBudgetTest {
+
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    private StacktraceConfiguration config;
+    private StacktraceBudget budget;
+    private ElasticApmTracer tracer;
+
+    @BeforeEach
+    void setUp() {
+        config = SpyConfiguration.createSpyConfig().getConfig(StacktraceConfiguration.class);
+        budget = new StacktraceBudget(config);
+        tracer = MockTracer.create();
+    }
+
+    @Test
+    void testRepeatedCallSitesReuseStacktrace() {
+        final Throwable first = budget.getStacktrace(span("SELECT FROM foo", "db"), 0);
+        assertThat(first).isNotNull();
+        assertThat(budget.getStacktrace(span("SELECT FROM foo", "db"), SECOND)).isSameAs(first);
+        assertThat(budget.getStacktrace(span("SELECT FROM bar", "db"), SECOND)).isNotSameAs(first);
+        assertThat(budget.getStacktrace(span("SELECT FROM foo", "ext"), SECOND)).isNotSameAs(first);
+    }
+
+    @Test
+    void testCachedStacktraceExpires() {
+        final Throwable first = budget.getStacktrace(span("SELECT FROM foo", "db"), 0);
+        assertThat(budget.getStacktrace(span("SELECT FROM foo", "db"), StacktraceBudget.MAX_REUSE_AGE_NANOS)).isNotSameAs(first);
+    }
+
+    @Test
+    void testMaxPerSecond() {
+        when(config.getSpanFramesMaxPerSecond()).thenReturn(2);
+        assertThat(budget.getStacktrace(span("a", "db"), 0)).isNotNull();
+        assertThat(budget.getStacktrace(span("b", "db"), 0)).isNotNull();
+        assertThat(budget.getStacktrace(span("c", "db"), 0)).isNull();
+        // repeated call sites are still served from the cache
+        assertThat(budget.getStacktrace(span("a", "db"), 0)).isNotNull();
+        // the budget is renewed every second
+        assertThat(budget.getStacktrace(span("c", "db"), SECOND)).isNotNull();
+    }
+
+    @Test
+    void testUnlimited() {
+        when(config.getSpanFramesMaxPerSecond()).thenReturn(-1);
+        for (int i = 0; i < 1000; i++) {
+            assertThat(budget.getStacktrace(span("span " + i, "db"), 0)).isNotNull();
+        }
+    }
+
+    @Test
+    void testMaxPerTransaction() {
+        when(config.getSpanFramesMaxPerTransaction()).thenReturn(1);
+        final Transaction transaction = new Transaction(tracer);
+        assertThat(budget.getStacktrace(span("a", "db", transaction), 0)).isNotNull();
+        assertThat(budget.getStacktrace(span("b", "db", transaction), 0)).isNull();
+        assertThat(budget.getStacktrace(span("b", "db", new Transaction(tracer)), 0)).isNotNull();
+    }
+
+    @Test
+    void testRejectedPerSecondDoesNotCountPerTransaction() {
+        when(config.getSpanFramesMaxPerSecond()).thenReturn(1);
+        when(config.getSpanFramesMaxPerTransaction()).thenReturn(1);
+        final Transaction transaction = new Transaction(tracer);
+        assertThat(budget.getStacktrace(span("a", "db"), 0)).isNotNull();
+        assertThat(budget.getStacktrace(span("b", "db", transaction), 0)).isNull();
+        assertThat(transaction.getCapturedSpanStacktraces().get()).isZero();
+        assertThat(budget.getStacktrace(span("b", "db", transaction), SECOND)).isNotNull();
+    }
+
+    @Test
+    void testSpanEndingOnOtherThreadCountsAgainstItsTransaction() throws Exception {
+        when(config.getSpanFramesMaxPerTransaction()).thenReturn(1);
+        final ElasticApmTracer realTracer = MockTracer.createRealTracer();
+        final Transaction transaction = realTracer.startTransaction().activate();
+        final Span first = transaction.createSpan().withName("a").withType("db");
+        final Span second = first.createSpan().withName("b").withType("db");
+        transaction.deactivate();
+        final Throwable[] stacktraces = new Throwable[2];
+        final Thread thread = new Thread(() -> {
+            stacktraces[0] = budget.getStacktrace(first, 0);
+            stacktraces[1] = budget.getStacktrace(second, 0);
+        });
+        thread.start();
+        thread.join();
+        assertThat(stacktraces[0]).isNotNull();
+        assertThat(stacktraces[1]).isNull();
+    }
+
+    private Span span(String name, String type) {
+        final Transaction transaction = new Transaction(tracer).start(TraceContext.asRoot(), null, 0, ConstantSampler.of(true));
+        return new Span(tracer).start(TraceContext.fromParent(), transaction).withName(name).withType(type);
+    }
+
+    private Span span(String name, String type, Transaction transaction) {
+        final Span span = span(name, type);
+        span.setCapturedStacktracesOfTransaction(transaction.getCapturedSpanStacktraces());
+        return span;
+    }
+}
@@ -19,14 +19,25 @@
  */
 package co.elastic.apm.agent.impl.transaction;
 
+import co.elastic.apm.agent.MockTracer;
 import co.elastic.apm.agent.TransactionUtils;
 import co.elastic.apm.agent.impl.ElasticApmTracer;
+import co.elastic.apm.agent.impl.context.Request;
+import co.elastic.apm.agent.impl.context.Response;
+import co.elastic.apm.agent.impl.context.TransactionContext;
+import co.elastic.apm.agent.impl.error.ErrorCapture;
+import co.elastic.apm.agent.objectpool.Allocator;
+import co.elastic.apm.agent.objectpool.ObjectPool;
+import co.elastic.apm.agent.objectpool.impl.QueueBasedObjectPool;
 import co.elastic.apm.agent.impl.stacktrace.StacktraceConfiguration;
 import co.elastic.apm.agent.report.serialize.DslJsonSerializer;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
+import org.jctools.queues.atomic.MpmcAtomicArrayQueue;
+
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
 import static org.mockito.Mockito.mock;
 
 class TransactionTest {
@@ -45,4 +56,99 @@ class TransactionTest {
         transaction.resetState();
         assertThat(jsonSerializer.toJsonString(transaction)).isEqualTo(jsonSerializer.toJsonString(new Transaction(mock(ElasticApmTracer.class))));
     }
+
+    @Test
+    void testContextIsAcquiredLazily() {
+        final Transaction transaction = new Transaction(mock(ElasticApmTracer.class));
+        assertThat(transaction.hasContext()).isFalse();
+        assertThat(transaction.getContextEnsureVisibility()).isNull();
+        assertThat(jsonSerializer.toJsonString(transaction)).contains("\"context\":{\"tags\":{}}");
+
+        transaction.getContext().getRequest().withMethod("GET");
+        assertThat(transaction.hasContext()).isTrue();
+        assertThat(transaction.getContextEnsureVisibility()).isSameAs(transaction.getContext());
+    }
+
+    @Test
+    void testContextIsRecycledToPool() {
+        final ObjectPool<TransactionContext> contextPool = createContextPool();
+        final Transaction transaction = new Transaction(mock(ElasticApmTracer.class), contextPool);
+        final TransactionContext context = transaction.getContext();
+        context.getRequest().withMethod("GET");
+        assertThat(contextPool.getObjectsInPool()).isZero();
+
+        transaction.resetState();
+        assertThat(transaction.hasContext()).isFalse();
+        assertThat(contextPool.getObjectsInPool()).isOne();
+        assertThat(context.getRequest().getMethod()).isNull();
+        assertThat(transaction.getContext()).isSameAs(context);
+    }
+
+    @Test
+    void testCopyOnWriteOfSharedContext() {
+        final Transaction transaction = new Transaction(mock(ElasticApmTracer.class), createContextPool());
+        transaction.getContext().getRequest().withMethod("GET").addHeader("foo", "bar");
+        transaction.getContext().getTags().add("foo", "bar");
+        final TransactionContext sharedContext = transaction.getContext();
+        final ErrorCapture error = new ErrorCapture(MockTracer.create());
+        error.setTransactionContext(transaction.shareContext());
+        assertThat(sharedContext.isShared()).isTrue();
+
+        transaction.getContext().getRequest().withMethod("POST");
+        assertThat(transaction.getContext()).isNotSameAs(sharedContext);
+        assertThat(transaction.getContext().getRequest().getHeaders().get("foo")).isEqualTo("bar");
+        assertThat(transaction.getContext().getTags().get("foo")).isEqualTo("bar");
+        assertThat(sharedContext.isShared()).isFalse();
+
+        assertThat(error.peekContext()).isSameAs(sharedContext);
+        assertThat(error.getContext().getRequest().getMethod()).isEqualTo("GET");
+        assertThat(error.getContext().getRequest().getHeaders().get("foo")).isEqualTo("bar");
+        assertThat(error.peekContext()).isSameAs(error.getContext());
+        // released by the error and returned to the pool
+        assertThat(sharedContext.getRequest().getMethod()).isNull();
+    }
+
+    @Test
+    void testSharedContextIsRecycledByLastReference() {
+        final ObjectPool<TransactionContext> contextPool = createContextPool();
+        final Transaction transaction = new Transaction(mock(ElasticApmTracer.class), contextPool);
+        transaction.getContext().getRequest().withMethod("GET");
+        final TransactionContext sharedContext = transaction.getContext();
+        final ErrorCapture error = new ErrorCapture(MockTracer.create());
+        error.setTransactionContext(transaction.shareContext());
+
+        transaction.resetState();
+        assertThat(contextPool.getObjectsInPool()).isZero();
+        assertThat(sharedContext.getRequest().getMethod()).isEqualTo("GET");
+        assertThat(transaction.shareContext()).isNull();
+
+        error.resetState();
+        assertThat(contextPool.getObjectsInPool()).isOne();
+        assertThat(sharedContext.getRequest().getMethod()).isNull();
+    }
+
+    @Test
+    void testModifyingSharedContextThroughStaleReferenceIsRejected() {
+        final Transaction transaction = new Transaction(mock(ElasticApmTracer.class), createContextPool());
+        final Request staleRequest = transaction.getContext().getRequest();
+        final Response staleResponse = transaction.getContext().getResponse();
+        final ErrorCapture error = new ErrorCapture(MockTracer.create());
+        error.setTransactionContext(transaction.shareContext());
+
+        assertThatThrownBy(() -> staleRequest.withMethod("GET")).isInstanceOf(AssertionError.class);
+        assertThatThrownBy(() -> staleResponse.withStatusCode(200)).isInstanceOf(AssertionError.class);
+        transaction.getContext().getRequest().withMethod("GET");
+        transaction.getContext().getResponse().withStatusCode(200);
+        assertThat(error.getContext().getRequest().getMethod()).isNull();
+    }
+
+    private static ObjectPool<TransactionContext> createContextPool() {
+        return QueueBasedObjectPool.ofRecyclable(new MpmcAtomicArrayQueue<TransactionContext>(4), false,
+            new Allocator<TransactionContext>() {
+                @Override
+                public TransactionContext createInstance() {
+                    return new TransactionContext();
+                }
+            });
+    }
 }
@@ -0,0 +1,75 @@
+/*-
+ * #%L
+ * Elastic APM Java agent
+ * %%
+ * Copyright (C) 2018 - 2019 Elastic and contributors
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package co.elastic.apm.agent.metrics;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class CounterTest {
+
+    @Test
+    void testDeltaCounterIsReset() {
+        final Counter counter = new Counter(Temporality.DELTA, 4);
+        counter.increment();
+        counter.add(2);
+        assertThat(counter.get()).isEqualTo(3);
+        assertThat(counter.takeSnapshot()).isEqualTo(3);
+        assertThat(counter.getSnapshot()).isEqualTo(3);
+        assertThat(counter.get()).isZero();
+        counter.increment();
+        assertThat(counter.takeSnapshot()).isEqualTo(1);
+    }
+
+    @Test
+    void testCumulativeCounterIsNotReset() {
+        final Counter counter = new Counter(Temporality.CUMULATIVE, 4);
+        counter.add(3);
+        assertThat(counter.takeSnapshot()).isEqualTo(3);
+        counter.increment();
+        assertThat(counter.takeSnapshot()).isEqualTo(4);
+    }
+
+    @Test
+    void testConcurrentIncrements() throws Exception {
+        final Counter counter = new Counter(Temporality.DELTA, 4);
+        final ExecutorService executorService = Executors.newFixedThreadPool(8);
+        for (int i = 0; i < 8; i++) {
+            executorService.submit(() -> {
+                for (int j = 0; j < 10_000; j++) {
+                    counter.increment();
+                }
+            });
+        }
+        executorService.shutdown();
+        assertThat(executorService.awaitTermination(10, TimeUnit.SECONDS)).isTrue();
+        assertThat(counter.takeSnapshot()).isEqualTo(80_000);
+    }
+
+    @Test
+    void testNoop() {
+        Counter.NOOP.increment();
+        assertThat(Counter.NOOP.get()).isZero();
+    }
+}
@@ -0,0 +1,94 @@
+/*-
+ * #%L
+ * Elastic APM Java agent
+ * %%
+ * Copyright (C) 2018 - 2019 Elastic and contributors
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package co.elastic.apm.agent.metrics;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+
+class HistogramTest {
+
+    private final Histogram histogram = new Histogram("foo", "us", 4);
+
+    @Test
+    void testBucketBoundaries() {
+        for (int i = 0; i < Histogram.BUCKET_COUNT; i++) {
+            assertThat(Histogram.getBucketIndex(Histogram.getLowestValue(i))).isEqualTo(i);
+            assertThat(Histogram.getBucketIndex(Histogram.getHighestValue(i))).isEqualTo(i);
+        }
+        assertThat(Histogram.getBucketIndex(Long.MAX_VALUE)).isEqualTo(Histogram.BUCKET_COUNT - 1);
+    }
+
+    @Test
+    void testPercentiles() {
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(i);
+        }
+        final Histogram.Snapshot snapshot = histogram.takeSnapshot();
+        assertThat(snapshot.getCount()).isEqualTo(1000);
+        assertThat(snapshot.getSum()).isEqualTo(500500);
+        assertThat(snapshot.getMax()).isEqualTo(1000);
+        final double maxRelativeError = 1.0 / Histogram.SUB_BUCKET_COUNT;
+        assertThat(snapshot.getValueAtPercentile(50.0)).isCloseTo(500L, within((long) (500 * maxRelativeError)));
+        assertThat(snapshot.getValueAtPercentile(99.0)).isCloseTo(990L, within((long) (990 * maxRelativeError)));
+        assertThat(snapshot.getValueAtPercentile(100.0)).isEqualTo(1000);
+    }
+
+    @Test
+    void testSnapshotResetsHistogram() {
+        histogram.record(42);
+        histogram.record(-1);
+        assertThat(histogram.takeSnapshot().getCount()).isEqualTo(2);
+        final Histogram.Snapshot snapshot = histogram.takeSnapshot();
+        assertThat(snapshot.getCount()).isZero();
+        assertThat(snapshot.getSum()).isZero();
+        assertThat(snapshot.getValueAtPercentile(50.0)).isZero();
+    }
+
+    @Test
+    void testConcurrentRecording() throws Exception {
+        final ExecutorService executorService = Executors.newFixedThreadPool(8);
+        for (int i = 0; i < 8; i++) {
+            executorService.submit(() -> {
+                for (int j = 0; j < 10_000; j++) {
+                    histogram.record(j);
+                }
+            });
+        }
+        executorService.shutdown();
+        assertThat(executorService.awaitTermination(10, TimeUnit.SECONDS)).isTrue();
+        final Histogram.Snapshot snapshot = histogram.takeSnapshot();
+        assertThat(snapshot.getCount()).isEqualTo(80_000);
+        assertThat(snapshot.getMax()).isEqualTo(9_999);
+    }
+
+    @Test
+    void testSampleNames() {
+        assertThat(histogram.getCountName()).isEqualTo("foo.count");
+        assertThat(histogram.getSumName()).isEqualTo("foo.sum.us");
+        assertThat(histogram.getMaxName()).isEqualTo("foo.max.us");
+        assertThat(histogram.getPercentileName(0)).isEqualTo("foo.p50.us");
+    }
+}
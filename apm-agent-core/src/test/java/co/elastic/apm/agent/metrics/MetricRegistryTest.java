@@ -19,16 +19,17 @@
  */
 package co.elastic.apm.agent.metrics;
 
+import co.elastic.apm.agent.configuration.SpyConfiguration;
 import co.elastic.apm.agent.matcher.WildcardMatcher;
 import co.elastic.apm.agent.report.ReporterConfiguration;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
 import java.util.List;
+import java.util.Map;
 
 import static java.util.Collections.emptyMap;
 import static org.assertj.core.api.Assertions.assertThat;
-import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
 
 class MetricRegistryTest {
@@ -38,7 +39,7 @@ class MetricRegistryTest {
 
     @BeforeEach
     void setUp() {
-        config = mock(ReporterConfiguration.class);
+        config = SpyConfiguration.createSpyConfig().getConfig(ReporterConfiguration.class);
         metricRegistry = new MetricRegistry(config);
     }
 
@@ -51,6 +52,50 @@ class MetricRegistryTest {
         metricRegistry.addUnlessNegative("jvm.gc.count", emptyMap(), problematicMetric);
         metricRegistry.addUnlessNan("jvm.gc.count", emptyMap(), problematicMetric);
         metricRegistry.add("jvm.gc.count", emptyMap(), problematicMetric);
+        assertThat(metricRegistry.histogram("jvm.gc.pause", "ms", emptyMap())).isSameAs(Histogram.NOOP);
+        assertThat(metricRegistry.doubleGauge("jvm.gc.foo", emptyMap())).isSameAs(DoubleGauge.NOOP);
+        assertThat(metricRegistry.longGauge("jvm.gc.bar", emptyMap())).isSameAs(LongGauge.NOOP);
         assertThat(metricRegistry.getMetricSets()).isEmpty();
     }
+
+    @Test
+    void testPrimitiveMetricHandles() {
+        final LongGauge longGauge = metricRegistry.longGauge("foo", emptyMap());
+        longGauge.increment();
+        metricRegistry.longGauge("foo", emptyMap()).add(2);
+        metricRegistry.doubleGauge("bar", Map.of("foo", "bar")).set(0.5);
+
+        assertThat(longGauge.get()).isEqualTo(3);
+        assertThat(metricRegistry.get("foo", emptyMap())).isEqualTo(3);
+        assertThat(metricRegistry.get("bar", Map.of("foo", "bar"))).isEqualTo(0.5);
+        assertThat(metricRegistry.get("baz", emptyMap())).isNaN();
+    }
+
+    @Test
+    void testPrimitiveMetricTypeMismatch() {
+        metricRegistry.longGauge("foo", emptyMap());
+        assertThat(metricRegistry.doubleGauge("foo", emptyMap())).isSameAs(DoubleGauge.NOOP);
+    }
+
+    @Test
+    void testPrimitiveMetricsPerMetricSetLimit() {
+        for (int i = 0; i < MetricSet.MAX_PRIMITIVE_METRICS; i++) {
+            assertThat(metricRegistry.longGauge("foo" + i, emptyMap())).isNotSameAs(LongGauge.NOOP);
+        }
+        assertThat(metricRegistry.longGauge("bar", emptyMap())).isSameAs(LongGauge.NOOP);
+        assertThat(metricRegistry.getMetricSets().get(emptyMap()).getPrimitiveMetricCount()).isEqualTo(MetricSet.MAX_PRIMITIVE_METRICS);
+    }
+
+    @Test
+    void testMetricSetLimit() {
+        when(config.getMetricSetLimit()).thenReturn(2);
+        metricRegistry.longGauge("foo", Map.of("tag", "1"));
+        metricRegistry.histogram("bar", "us", Map.of("tag", "2"));
+        assertThat(metricRegistry.longGauge("foo", Map.of("tag", "3"))).isSameAs(LongGauge.NOOP);
+        assertThat(metricRegistry.histogram("bar", "us", Map.of("tag", "3"))).isSameAs(Histogram.NOOP);
+        metricRegistry.add("baz", Map.of("tag", "3"), () -> 1);
+        // existing metric sets can still be used
+        assertThat(metricRegistry.longGauge("baz", Map.of("tag", "1"))).isNotSameAs(LongGauge.NOOP);
+        assertThat(metricRegistry.getMetricSets()).hasSize(2);
+    }
 }
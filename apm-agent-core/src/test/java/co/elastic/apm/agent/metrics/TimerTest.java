@@ -0,0 +1,57 @@
+/*-
+ * #%L
+ * Elastic APM Java agent
+ * %%
+ * Copyright (C) 2018 - 2019 Elastic and contributors
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package co.elastic.apm.agent.metrics;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class TimerTest {
+
+    @Test
+    void testDeltaTimer() {
+        final Timer timer = new Timer("foo", "us", Temporality.DELTA, 2);
+        timer.update(10);
+        timer.update(20);
+        timer.takeSnapshot();
+        assertThat(timer.getSnapshotCount()).isEqualTo(2);
+        assertThat(timer.getSnapshotSum()).isEqualTo(30);
+        assertThat(timer.getCount()).isZero();
+        assertThat(timer.getSum()).isZero();
+    }
+
+    @Test
+    void testCumulativeTimer() {
+        final Timer timer = new Timer("foo", "us", Temporality.CUMULATIVE, 2);
+        timer.update(10);
+        timer.takeSnapshot();
+        timer.update(20);
+        timer.takeSnapshot();
+        assertThat(timer.getSnapshotCount()).isEqualTo(2);
+        assertThat(timer.getSnapshotSum()).isEqualTo(30);
+    }
+
+    @Test
+    void testSampleNames() {
+        final Timer timer = new Timer("foo", "us", Temporality.DELTA, 2);
+        assertThat(timer.getCountName()).isEqualTo("foo.count");
+        assertThat(timer.getSumName()).isEqualTo("foo.sum.us");
+    }
+}
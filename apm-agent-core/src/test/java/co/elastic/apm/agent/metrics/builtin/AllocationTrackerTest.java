@@ -0,0 +1,106 @@
+/*-
+ * #%L
+ * Elastic APM Java agent
+ * %%
+ * Copyright (C) 2018 - 2019 Elastic and contributors
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package co.elastic.apm.agent.metrics.builtin;
+
+import co.elastic.apm.agent.configuration.SpyConfiguration;
+import co.elastic.apm.agent.metrics.LongGauge;
+import co.elastic.apm.agent.metrics.MetricRegistry;
+import co.elastic.apm.agent.report.ReporterConfiguration;
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class AllocationTrackerTest {
+
+    private final MetricRegistry metricRegistry = new MetricRegistry(SpyConfiguration.createSpyConfig().getConfig(ReporterConfiguration.class));
+    private final AllocationTracker allocationTracker = new AllocationTracker(metricRegistry);
+    private final CountDownLatch release = new CountDownLatch(1);
+
+    @Test
+    void testAllocationsOfTerminatedThreadsAreCarriedForward() throws Exception {
+        final Thread thread = startAllocatingThread("allocating-thread");
+        allocationTracker.update();
+        final long allocatedWhileAlive = allocationTracker.getTotalAllocatedBytes();
+        release.countDown();
+        thread.join();
+        allocationTracker.update();
+        assertThat(allocationTracker.getTotalAllocatedBytes()).isGreaterThanOrEqualTo(allocatedWhileAlive);
+    }
+
+    @Test
+    void testAgentThreadAllocations() throws Exception {
+        final Thread thread = startAllocatingThread(AllocationTracker.AGENT_THREAD_NAME_PREFIX + "test");
+        allocationTracker.update();
+        release.countDown();
+        thread.join();
+
+        final LongGauge agentThreadAllocation = allocationTracker.getAgentThreadAllocation(AllocationTracker.AGENT_THREAD_NAME_PREFIX + "test");
+        assertThat(agentThreadAllocation).isNotNull();
+        assertThat(agentThreadAllocation.get()).isPositive();
+        assertThat(metricRegistry.get("jvm.thread.alloc", Map.of("thread_name", AllocationTracker.AGENT_THREAD_NAME_PREFIX + "test"))).isPositive();
+        assertThat(allocationTracker.getAgentThreadAllocation(Thread.currentThread().getName())).isNull();
+    }
+
+    @Test
+    void testMetrics() {
+        allocationTracker.registerMetrics();
+        assertThat(metricRegistry.get("jvm.gc.alloc", Map.of())).isPositive();
+        assertThat(metricRegistry.get("jvm.gc.alloc_rate", Map.of())).isNotNegative();
+    }
+
+    @Test
+    void testThreadAllocationTable() {
+        final AllocationTracker.ThreadAllocationTable table = new AllocationTracker.ThreadAllocationTable(2);
+        table.clear(100);
+        for (long threadId = 1; threadId <= 100; threadId++) {
+            table.put(threadId, threadId * 10, -1);
+        }
+        for (long threadId = 1; threadId <= 100; threadId++) {
+            assertThat(table.indexOf(threadId)).isNotNegative();
+        }
+        assertThat(table.indexOf(101)).isEqualTo(-1);
+        table.clear(100);
+        assertThat(table.indexOf(1)).isEqualTo(-1);
+    }
+
+    /**
+     * Starts a thread which allocates some memory and terminates when {@link #release} is counted down.
+     */
+    private Thread startAllocatingThread(String name) throws InterruptedException {
+        final CountDownLatch allocated = new CountDownLatch(1);
+        final Thread thread = new Thread(() -> {
+            byte[][] garbage = new byte[100][];
+            for (int i = 0; i < garbage.length; i++) {
+                garbage[i] = new byte[1024];
+            }
+            allocated.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException ignore) {
+            }
+        }, name);
+        thread.start();
+        allocated.await();
+        return thread;
+    }
+}
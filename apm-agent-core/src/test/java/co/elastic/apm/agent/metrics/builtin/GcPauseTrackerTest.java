@@ -0,0 +1,81 @@
+/*-
+ * #%L
+ * Elastic APM Java agent
+ * %%
+ * Copyright (C) 2018 - 2019 Elastic and contributors
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package co.elastic.apm.agent.metrics.builtin;
+
+import co.elastic.apm.agent.MockTracer;
+import co.elastic.apm.agent.configuration.SpyConfiguration;
+import co.elastic.apm.agent.impl.sampling.ConstantSampler;
+import co.elastic.apm.agent.impl.transaction.TraceContext;
+import co.elastic.apm.agent.impl.transaction.Transaction;
+import co.elastic.apm.agent.metrics.MetricRegistry;
+import co.elastic.apm.agent.report.ReporterConfiguration;
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class GcPauseTrackerTest {
+
+    private static final long JVM_START = 1_000_000_000;
+
+    private final MetricRegistry metricRegistry = new MetricRegistry(SpyConfiguration.createSpyConfig().getConfig(ReporterConfiguration.class));
+    private final GcPauseTracker gcPauseTracker = new GcPauseTracker(metricRegistry, JVM_START);
+
+    @Test
+    void testNoPauses() {
+        assertThat(gcPauseTracker.getOverlapMicros(JVM_START, JVM_START + 1000)).isZero();
+    }
+
+    @Test
+    void testOverlap() {
+        // pause from 10ms to 20ms and from 30ms to 40ms
+        gcPauseTracker.recordPause(10, 10);
+        gcPauseTracker.recordPause(30, 10);
+
+        assertThat(gcPauseTracker.getOverlapMicros(JVM_START, JVM_START + 5_000)).isZero();
+        assertThat(gcPauseTracker.getOverlapMicros(JVM_START + 15_000, JVM_START + 35_000)).isEqualTo(10_000);
+        assertThat(gcPauseTracker.getOverlapMicros(JVM_START, JVM_START + 50_000)).isEqualTo(20_000);
+        assertThat(gcPauseTracker.getOverlapMicros(JVM_START + 32_000, JVM_START + 34_000)).isEqualTo(2_000);
+        assertThat(gcPauseTracker.getOverlapMicros(JVM_START + 40_000, JVM_START + 50_000)).isZero();
+    }
+
+    @Test
+    void testOnlyRecentPausesAreKept() {
+        for (int i = 0; i < GcPauseTracker.CAPACITY * 2; i++) {
+            gcPauseTracker.recordPause(i * 10, 1);
+        }
+        assertThat(gcPauseTracker.getOverlapMicros(JVM_START, JVM_START + GcPauseTracker.CAPACITY * 2 * 10_000))
+            .isEqualTo(GcPauseTracker.CAPACITY * 1000);
+    }
+
+    @Test
+    void testRecordOverlap() {
+        gcPauseTracker.recordPause(10, 10);
+        final Transaction transaction = new Transaction(MockTracer.create());
+        transaction.start(TraceContext.asRoot(), null, JVM_START, ConstantSampler.of(true));
+        transaction.end(JVM_START + 15_000);
+
+        gcPauseTracker.recordOverlap(transaction);
+
+        assertThat(transaction.getGcPauseMicros()).isEqualTo(5_000);
+        assertThat(metricRegistry.getMetricSets().get(Map.of()).getHistograms().get("transaction.gc_pause").takeSnapshot().getCount()).isEqualTo(1);
+    }
+}
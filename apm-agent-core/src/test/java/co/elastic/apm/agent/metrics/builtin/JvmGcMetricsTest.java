@@ -19,11 +19,20 @@
  */
 package co.elastic.apm.agent.metrics.builtin;
 
+import co.elastic.apm.agent.configuration.SpyConfiguration;
+import co.elastic.apm.agent.metrics.Histogram;
 import co.elastic.apm.agent.metrics.MetricRegistry;
+import co.elastic.apm.agent.report.ReporterConfiguration;
+import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.Test;
 
+import java.util.List;
+import java.util.Objects;
+import java.util.stream.Collectors;
+
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.atLeastOnce;
 import static org.mockito.Mockito.mock;
@@ -34,19 +43,57 @@ class JvmGcMetricsTest {
     private final JvmGcMetrics jvmGcMetrics = new JvmGcMetrics();
     private MetricRegistry registry = mock(MetricRegistry.class);
 
+    @AfterEach
+    void tearDown() throws Exception {
+        jvmGcMetrics.stop();
+    }
+
     @Test
     void testGcMetrics() {
         jvmGcMetrics.bindTo(registry);
         verify(registry, atLeastOnce()).addUnlessNegative(eq("jvm.gc.count"), any(), any());
         verify(registry, atLeastOnce()).addUnlessNegative(eq("jvm.gc.time"), any(), any());
         verify(registry, atLeastOnce()).add(eq("jvm.gc.alloc"), any(), any());
+        verify(registry, atLeastOnce()).histogram(eq("jvm.gc.pause"), eq("ms"), any(), anyInt());
+    }
+
+    @Test
+    void testGcPauseHistogram() throws Exception {
+        final MetricRegistry metricRegistry = new MetricRegistry(SpyConfiguration.createSpyConfig().getConfig(ReporterConfiguration.class));
+        jvmGcMetrics.bindTo(metricRegistry);
+        final List<Histogram> pauseHistograms = metricRegistry.getMetricSets().values().stream()
+            .map(metricSet -> metricSet.getHistograms().get("jvm.gc.pause"))
+            .filter(Objects::nonNull)
+            .collect(Collectors.toList());
+        assertThat(pauseHistograms).isNotEmpty();
+
+        System.gc();
+        // notifications are sent asynchronously
+        long collections = 0;
+        for (int i = 0; i < 100 && collections == 0; i++) {
+            Thread.sleep(50);
+            for (Histogram pauseHistogram : pauseHistograms) {
+                collections += pauseHistogram.takeSnapshot().getCount();
+            }
+        }
+        assertThat(collections).isPositive();
+    }
+
+    @Test
+    void testIsOldGeneration() {
+        assertThat(GcNotificationListener.isOldGeneration("G1 Old Gen")).isTrue();
+        assertThat(GcNotificationListener.isOldGeneration("Tenured Gen")).isTrue();
+        assertThat(GcNotificationListener.isOldGeneration("PS Eden Space")).isFalse();
     }
 
     @Test
     void testGetAllocatedBytes() {
-        final double snapshot = JvmGcMetrics.HotspotAllocationSupplier.INSTANCE.get();
+        final AllocationTracker allocationTracker = new AllocationTracker(new MetricRegistry(SpyConfiguration.createSpyConfig().getConfig(ReporterConfiguration.class)));
+        allocationTracker.update();
+        final double snapshot = allocationTracker.getTotalAllocatedBytes();
         assertThat(snapshot).isPositive();
         new Object();
-        assertThat(JvmGcMetrics.HotspotAllocationSupplier.INSTANCE.get()).isGreaterThan(snapshot);
+        allocationTracker.update();
+        assertThat(allocationTracker.getTotalAllocatedBytes()).isGreaterThan((long) snapshot);
     }
 }
@@ -0,0 +1,179 @@
+/*-
+ * #%L
+ * Elastic APM Java agent
+ * %%
+ * Copyright (C) 2018 - 2019 Elastic and contributors
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package co.elastic.apm.agent.metrics.builtin;
+
+import co.elastic.apm.agent.MockReporter;
+import co.elastic.apm.agent.configuration.CoreConfiguration;
+import co.elastic.apm.agent.configuration.SpyConfiguration;
+import co.elastic.apm.agent.impl.ElasticApmTracer;
+import co.elastic.apm.agent.impl.ElasticApmTracerBuilder;
+import co.elastic.apm.agent.impl.transaction.Id;
+import co.elastic.apm.agent.impl.transaction.Transaction;
+import co.elastic.apm.agent.metrics.MetricSet;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.stagemonitor.configuration.ConfigurationRegistry;
+
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.when;
+
+class ResourceUsageTrackerTest {
+
+    private static final int ALLOCATION_SIZE = 1024 * 1024;
+
+    private ElasticApmTracer tracer;
+    private ConfigurationRegistry config;
+    private volatile byte[] allocation;
+
+    @BeforeEach
+    void setUp() {
+        config = SpyConfiguration.createSpyConfig();
+        when(config.getConfig(CoreConfiguration.class).isTransactionResourceUsage()).thenReturn(true);
+        tracer = new ElasticApmTracerBuilder()
+            .configurationRegistry(config)
+            .reporter(new MockReporter())
+            .build();
+    }
+
+    @Test
+    void testActivation() {
+        final Transaction transaction = tracer.startTransaction();
+        transaction.activate();
+        tracer.startSpan(transaction, -1).activate().deactivate().end();
+        allocate();
+        transaction.deactivate();
+
+        assertThat(transaction.getResourceUsage().getCpuTimeNanos()).isPositive();
+        assertThat(transaction.getResourceUsage().getAllocatedBytes()).isGreaterThanOrEqualTo(ALLOCATION_SIZE);
+    }
+
+    @Test
+    void testContinuation() throws Exception {
+        final Transaction transaction = tracer.startTransaction();
+        transaction.activate();
+        final Runnable runnable = transaction.withActiveContext(new Runnable() {
+            @Override
+            public void run() {
+                allocate();
+            }
+        });
+        transaction.deactivate();
+        final long allocatedBytesOfActivation = transaction.getResourceUsage().getAllocatedBytes();
+
+        final Thread thread = new Thread(runnable);
+        thread.start();
+        thread.join();
+
+        assertThat(transaction.getResourceUsage().getAllocatedBytes() - allocatedBytesOfActivation).isGreaterThanOrEqualTo(ALLOCATION_SIZE);
+    }
+
+    @Test
+    void testContinuationOfRecycledTransaction() {
+        final Transaction transaction = tracer.startTransaction();
+        final ResourceUsageTracker resourceUsageTracker = tracer.getResourceUsageTracker();
+
+        resourceUsageTracker.onContinuationStart(transaction);
+        allocate();
+        resourceUsageTracker.onContinuationEnd(transaction, Id.new64BitId());
+
+        assertThat(transaction.getResourceUsage().hasContent()).isFalse();
+    }
+
+    @Test
+    void testDisabled() {
+        when(config.getConfig(CoreConfiguration.class).isTransactionResourceUsage()).thenReturn(false);
+        final Transaction transaction = tracer.startTransaction();
+        transaction.activate();
+        allocate();
+        transaction.deactivate();
+
+        assertThat(transaction.getResourceUsage().hasContent()).isFalse();
+    }
+
+    @Test
+    void testMetrics() {
+        final Transaction transaction = tracer.startTransaction().withType("request");
+        transaction.activate();
+        allocate();
+        transaction.deactivate();
+        transaction.end();
+
+        final MetricSet metricSet = tracer.getMetricRegistry().getMetricSets().get(Map.of("transaction_type", "request"));
+        assertThat(metricSet.getTimers().get("transaction.cpu_time").getCount()).isEqualTo(1);
+        assertThat(metricSet.getCounters().get("transaction.allocated_bytes").get()).isGreaterThanOrEqualTo(ALLOCATION_SIZE);
+    }
+
+    @Test
+    void testContention() throws Exception {
+        when(config.getConfig(CoreConfiguration.class).isTransactionResourceUsage()).thenReturn(false);
+        when(config.getConfig(CoreConfiguration.class).isTransactionThreadContention()).thenReturn(true);
+        final Transaction transaction = tracer.startTransaction().withName("contended");
+        final Object lock = new Object();
+        final CountDownLatch lockAcquired = new CountDownLatch(1);
+        final CountDownLatch transactionBlocked = new CountDownLatch(1);
+        final Thread lockHolder = new Thread(() -> {
+            synchronized (lock) {
+                lockAcquired.countDown();
+                try {
+                    transactionBlocked.await();
+                    Thread.sleep(50);
+                } catch (InterruptedException ignore) {
+                }
+            }
+        });
+        lockHolder.start();
+        lockAcquired.await();
+
+        transaction.activate();
+        transactionBlocked.countDown();
+        synchronized (lock) {
+            Thread.sleep(10);
+        }
+        transaction.deactivate();
+        transaction.end();
+        lockHolder.join();
+
+        assertThat(transaction.getResourceUsage().hasContent()).isFalse();
+        assertThat(transaction.getResourceUsage().getBlockedCount()).isEqualTo(1);
+        assertThat(transaction.getResourceUsage().getBlockedTimeMillis()).isPositive();
+        assertThat(transaction.getResourceUsage().getWaitedCount()).isGreaterThanOrEqualTo(1);
+        final MetricSet metricSet = tracer.getMetricRegistry().getMetricSets().get(Map.of("transaction_name", "contended"));
+        assertThat(metricSet.getTimers().get("transaction.blocked_time").getCount()).isEqualTo(1);
+    }
+
+    @Test
+    void testContendedTransactionNamesAreLimited() {
+        final ResourceUsageTracker resourceUsageTracker = tracer.getResourceUsageTracker();
+        for (int i = 0; i <= ResourceUsageTracker.MAX_CONTENDED_TRANSACTION_NAMES; i++) {
+            final Transaction transaction = tracer.startTransaction().withName("transaction " + i);
+            transaction.getResourceUsage().addContention(1, 1, 0, 0);
+            resourceUsageTracker.recordMetrics(transaction);
+        }
+        assertThat(tracer.getMetricRegistry().getMetricSets().get(Map.of("transaction_name", ResourceUsageTracker.OVERFLOW_TRANSACTION_NAME))
+            .getTimers().get("transaction.blocked_time").getCount()).isEqualTo(1);
+    }
+
+    private void allocate() {
+        allocation = new byte[ALLOCATION_SIZE];
+    }
+}
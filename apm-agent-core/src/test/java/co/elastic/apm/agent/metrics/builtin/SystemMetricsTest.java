@@ -19,19 +19,30 @@
  */
 package co.elastic.apm.agent.metrics.builtin;
 
+import co.elastic.apm.agent.configuration.SpyConfiguration;
 import co.elastic.apm.agent.metrics.MetricRegistry;
 import co.elastic.apm.agent.report.ReporterConfiguration;
+import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.Test;
 
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.Collections;
+import java.util.Comparator;
+import java.util.stream.Stream;
 
 import static org.assertj.core.api.Assertions.assertThat;
-import static org.mockito.Mockito.mock;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
 
 class SystemMetricsTest {
 
-    private MetricRegistry metricRegistry = new MetricRegistry(mock(ReporterConfiguration.class));
+    private MetricRegistry metricRegistry = new MetricRegistry(SpyConfiguration.createSpyConfig().getConfig(ReporterConfiguration.class));
     private SystemMetrics systemMetrics = new SystemMetrics();
+    private Path root;
 
     @Test
     void testSystemMetrics() throws InterruptedException {
@@ -46,6 +57,122 @@ class SystemMetricsTest {
         assertThat(metricRegistry.get("system.process.memory.size", Collections.emptyMap())).isGreaterThan(0.0);
     }
 
+    @Test
+    void testCGroupV1() throws Exception {
+        writeFile("proc/self/stat", "42 (java with spaces) S 1 42 42 0 -1 4194560 1 0 0 0 200 100 0 0 20 0 30 0 1 123456789 1000");
+        writeFile("proc/self/cgroup", "4:memory:/docker/abc\n3:cpu,cpuacct:/docker/abc\n0::/\n");
+        writeFile("sys/fs/cgroup/memory/docker/abc/memory.usage_in_bytes", "268435456\n");
+        writeFile("sys/fs/cgroup/memory/docker/abc/memory.limit_in_bytes", "1073741824\n");
+        writeFile("sys/fs/cgroup/cpu,cpuacct/docker/abc/cpu.stat", "nr_periods 10\nnr_throttled 3\nthrottled_time 5000\n");
+        writeFile("sys/fs/cgroup/cpu,cpuacct/docker/abc/cpuacct.usage", "1000000000\n");
+
+        new SystemMetrics(root.toFile()).bindTo(metricRegistry);
+
+        assertThat(metricRegistry.get("system.memory.total", Collections.emptyMap())).isEqualTo(1073741824);
+        assertThat(metricRegistry.get("system.memory.actual.free", Collections.emptyMap())).isEqualTo(1073741824 - 268435456);
+        assertThat(metricRegistry.get("system.process.memory.size", Collections.emptyMap())).isEqualTo(123456789);
+        assertThat(metricRegistry.get("system.process.cgroup.memory.mem.usage.bytes", Collections.emptyMap())).isEqualTo(268435456);
+        assertThat(metricRegistry.get("system.process.cgroup.memory.mem.limit.bytes", Collections.emptyMap())).isEqualTo(1073741824);
+        assertThat(metricRegistry.get("system.process.cgroup.cpu.stats.periods", Collections.emptyMap())).isEqualTo(10);
+        assertThat(metricRegistry.get("system.process.cgroup.cpu.stats.throttled.periods", Collections.emptyMap())).isEqualTo(3);
+        assertThat(metricRegistry.get("system.process.cgroup.cpu.stats.throttled.ns", Collections.emptyMap())).isEqualTo(5000);
+    }
+
+    @Test
+    void testCGroupV2() throws Exception {
+        writeFile("proc/self/cgroup", "0::/\n");
+        writeFile("sys/fs/cgroup/cgroup.controllers", "cpu memory\n");
+        writeFile("sys/fs/cgroup/memory.current", "268435456\n");
+        writeFile("sys/fs/cgroup/memory.max", "max\n");
+        writeFile("sys/fs/cgroup/cpu.stat", "usage_usec 1000\nuser_usec 600\nsystem_usec 400\nnr_periods 10\nnr_throttled 3\nthrottled_usec 5\n");
+
+        final CGroupMetrics cGroupMetrics = CGroupMetrics.detect(root.toFile());
+        assertThat(cGroupMetrics).isNotNull();
+        assertThat(cGroupMetrics.getMemoryUsage()).isEqualTo(268435456);
+        assertThat(cGroupMetrics.getMemoryLimit()).isEqualTo(-1);
+        assertThat(cGroupMetrics.getCpuUsageNanos()).isEqualTo(1_000_000);
+        assertThat(cGroupMetrics.getThrottledTimeNanos()).isEqualTo(5000);
+
+        new SystemMetrics(root.toFile()).bindTo(metricRegistry);
+        // memory is not limited, so the total memory of the host is reported
+        assertThat(metricRegistry.get("system.memory.total", Collections.emptyMap())).isGreaterThan(0.0);
+        assertThat(metricRegistry.get("system.process.cgroup.memory.mem.limit.bytes", Collections.emptyMap())).isNaN();
+        assertThat(metricRegistry.get("system.process.cgroup.cpu.stats.throttled.periods", Collections.emptyMap())).isEqualTo(3);
+    }
+
+    @Test
+    void testCpuUsageFromCGroup() throws Exception {
+        writeFile("sys/fs/cgroup/cgroup.controllers", "cpu memory\n");
+        writeFile("sys/fs/cgroup/cpu.stat", "usage_usec 0\n");
+        new SystemMetrics(root.toFile()).bindTo(metricRegistry);
+        // all CPUs were fully busy
+        writeFile("sys/fs/cgroup/cpu.stat", "usage_usec " + 60_000_000L * Runtime.getRuntime().availableProcessors() + "\n");
+        assertThat(metricRegistry.get("system.process.cgroup.cpu.total.norm.pct", Collections.emptyMap())).isEqualTo(1.0);
+    }
+
+    @Test
+    void testStopClosesFiles() throws Exception {
+        writeFile("proc/self/stat", "42 (java) S 1 42 42 0 -1 4194560 1 0 0 0 200 100 0 0 20 0 30 0 1 123456789 1000");
+        writeFile("proc/self/cgroup", "0::/\n");
+        writeFile("sys/fs/cgroup/cgroup.controllers", "cpu memory\n");
+        writeFile("sys/fs/cgroup/memory.current", "268435456\n");
+        writeFile("sys/fs/cgroup/cpu.stat", "usage_usec 1000\n");
+        final SystemMetrics systemMetrics = new SystemMetrics(root.toFile());
+        systemMetrics.bindTo(metricRegistry);
+        assertThat(metricRegistry.get("system.process.memory.size", Collections.emptyMap())).isEqualTo(123456789);
+        assertThat(metricRegistry.get("system.process.cgroup.memory.mem.usage.bytes", Collections.emptyMap())).isEqualTo(268435456);
+        assertThat(countOpenFiles(root)).isEqualTo(3);
+
+        systemMetrics.stop();
+        assertThat(countOpenFiles(root)).isZero();
+    }
+
+    /**
+     * Counts the file descriptors of this process which point to files below the provided directory
+     */
+    private static long countOpenFiles(Path dir) throws IOException {
+        final Path fds = Paths.get("/proc/self/fd");
+        assumeTrue(Files.isDirectory(fds));
+        final Path realDir = dir.toRealPath();
+        long count = 0;
+        try (Stream<Path> files = Files.list(fds)) {
+            for (Path fd : (Iterable<Path>) files::iterator) {
+                try {
+                    if (Files.readSymbolicLink(fd).startsWith(realDir)) {
+                        count++;
+                    }
+                } catch (IOException ignore) {
+                    // the descriptor has been closed in the meantime
+                }
+            }
+        }
+        return count;
+    }
+
+    @Test
+    void testNoCGroup() throws Exception {
+        writeFile("proc/self/cgroup", "0::/\n");
+        assertThat(CGroupMetrics.detect(root.toFile())).isNull();
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        if (root != null) {
+            try (Stream<Path> files = Files.walk(root)) {
+                files.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+            }
+        }
+    }
+
+    private void writeFile(String path, String content) throws IOException {
+        if (root == null) {
+            root = Files.createTempDirectory("procfs");
+        }
+        final Path file = root.resolve(path);
+        Files.createDirectories(file.getParent());
+        Files.write(file, content.getBytes(StandardCharsets.US_ASCII));
+    }
+
     private void consumeCpu() {
         int result = 1;
         for (int i = 0; i < 10000; i++) {
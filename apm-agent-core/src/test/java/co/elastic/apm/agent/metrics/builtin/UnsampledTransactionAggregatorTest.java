@@ -0,0 +1,116 @@
+/*-
+ * #%L
+ * Elastic APM Java agent
+ * %%
+ * Copyright (C) 2018 - 2019 Elastic and contributors
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package co.elastic.apm.agent.metrics.builtin;
+
+import co.elastic.apm.agent.MockTracer;
+import co.elastic.apm.agent.configuration.CoreConfiguration;
+import co.elastic.apm.agent.configuration.SpyConfiguration;
+import co.elastic.apm.agent.impl.ElasticApmTracer;
+import co.elastic.apm.agent.impl.sampling.ConstantSampler;
+import co.elastic.apm.agent.impl.transaction.Span;
+import co.elastic.apm.agent.impl.transaction.TraceContext;
+import co.elastic.apm.agent.impl.transaction.Transaction;
+import co.elastic.apm.agent.metrics.Histogram;
+import co.elastic.apm.agent.metrics.MetricRegistry;
+import co.elastic.apm.agent.report.ReporterConfiguration;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.stagemonitor.configuration.ConfigurationRegistry;
+
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.when;
+
+class UnsampledTransactionAggregatorTest {
+
+    private MetricRegistry metricRegistry;
+    private UnsampledTransactionAggregator aggregator;
+    private ElasticApmTracer tracer;
+
+    @BeforeEach
+    void setUp() {
+        final ConfigurationRegistry config = SpyConfiguration.createSpyConfig();
+        when(config.getConfig(CoreConfiguration.class).isAggregateUnsampledTransactions()).thenReturn(true);
+        tracer = MockTracer.create(config);
+        metricRegistry = new MetricRegistry(config.getConfig(ReporterConfiguration.class));
+        aggregator = new UnsampledTransactionAggregator(metricRegistry);
+    }
+
+    @Test
+    void testAggregateByNameTypeAndResult() {
+        aggregator.record(createTransaction("GET /foo", "request", "HTTP 2xx", 1000));
+        aggregator.record(createTransaction("GET /foo", "request", "HTTP 2xx", 3000));
+        aggregator.record(createTransaction("GET /foo", "request", "HTTP 5xx", 2000));
+
+        assertThat(metricRegistry.getMetricSets()).hasSize(2);
+        final Histogram.Snapshot success = getTransactionDurations(Map.of("transaction_name", "GET /foo", "transaction_type", "request", "transaction_result", "HTTP 2xx"));
+        assertThat(success.getCount()).isEqualTo(2);
+        assertThat(success.getSum()).isEqualTo(4000);
+        assertThat(success.getMax()).isEqualTo(3000);
+        final Histogram.Snapshot failure = getTransactionDurations(Map.of("transaction_name", "GET /foo", "transaction_type", "request", "transaction_result", "HTTP 5xx"));
+        assertThat(failure.getCount()).isEqualTo(1);
+        assertThat(failure.getSum()).isEqualTo(2000);
+
+        // histograms are reset after each snapshot
+        assertThat(getTransactionDurations(Map.of("transaction_name", "GET /foo", "transaction_type", "request", "transaction_result", "HTTP 2xx")).getCount()).isZero();
+    }
+
+    @Test
+    void testAggregateSpans() {
+        final Span span = new Span(tracer)
+            .start(TraceContext.fromParent(), createTransaction("GET /foo", "request", "HTTP 2xx", 1000), 0)
+            .withType("db")
+            .withSubtype("h2")
+            .withAction("query");
+        span.end(500);
+        aggregator.record(span);
+
+        final Histogram.Snapshot snapshot = metricRegistry.getMetricSets().get(Map.of("span_type", "db", "span_subtype", "h2", "span_action", "query"))
+            .getHistograms().get("span.duration").takeSnapshot();
+        assertThat(snapshot.getCount()).isEqualTo(1);
+        assertThat(snapshot.getSum()).isEqualTo(500);
+    }
+
+    @Test
+    void testOverflowGroup() {
+        for (int i = 0; i < UnsampledTransactionAggregator.MAX_GROUPS + 10; i++) {
+            aggregator.record(createTransaction("GET /foo/" + i, "request", null, 1000));
+        }
+        assertThat(aggregator.getTransactionGroupCount()).isEqualTo(UnsampledTransactionAggregator.MAX_GROUPS);
+        assertThat(metricRegistry.getMetricSets()).hasSize(UnsampledTransactionAggregator.MAX_GROUPS + 1);
+        assertThat(getTransactionDurations(Map.of("transaction_name", UnsampledTransactionAggregator.OVERFLOW_GROUP_NAME)).getCount()).isEqualTo(10);
+    }
+
+    private Histogram.Snapshot getTransactionDurations(Map<String, String> tags) {
+        return metricRegistry.getMetricSets().get(tags).getHistograms().get("transaction.duration").takeSnapshot();
+    }
+
+    private Transaction createTransaction(String name, String type, String result, long durationMicros) {
+        final Transaction transaction = new Transaction(tracer)
+            .start(TraceContext.asRoot(), null, 0, ConstantSampler.of(false))
+            .withName(name)
+            .withType(type)
+            .withResult(result);
+        // the tracer is a mock so ending the transaction does not report it
+        transaction.end(durationMicros);
+        return transaction;
+    }
+}
@@ -19,12 +19,18 @@
  */
 package co.elastic.apm.agent.objectpool;
 
+import co.elastic.apm.agent.configuration.SpyConfiguration;
+import co.elastic.apm.agent.metrics.MetricRegistry;
+import co.elastic.apm.agent.metrics.Temporality;
 import co.elastic.apm.agent.objectpool.Recyclable;
 import co.elastic.apm.agent.objectpool.impl.QueueBasedObjectPool;
+import co.elastic.apm.agent.report.ReporterConfiguration;
 import org.jctools.queues.atomic.MpmcAtomicArrayQueue;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
+import java.util.Map;
+
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.assertj.core.api.SoftAssertions.assertSoftly;
 
@@ -101,6 +107,42 @@ public class ObjectPoolTest {
         assertThat(objectPool.getObjectsInPool()).isEqualTo(1);
     }
 
+    @Test
+    public void testMetrics() {
+        final QueueBasedObjectPool<TestRecyclable> pool = QueueBasedObjectPool.ofRecyclable(new MpmcAtomicArrayQueue<>(2), false, TestRecyclable::new);
+        final MetricRegistry metricRegistry = new MetricRegistry(SpyConfiguration.createSpyConfig().getConfig(ReporterConfiguration.class));
+        pool.bindTo(metricRegistry, "test");
+        final Map<String, String> tags = Map.of("pool", "test");
+
+        final TestRecyclable first = pool.createInstance();
+        pool.recycle(first);
+        pool.createInstance();
+        pool.recycle(new TestRecyclable());
+        pool.recycle(new TestRecyclable());
+        pool.recycle(new TestRecyclable());
+
+        assertThat(metricRegistry.counter("agent.object_pool.hits", tags, Temporality.DELTA).get()).isEqualTo(1);
+        assertThat(metricRegistry.counter("agent.object_pool.misses", tags, Temporality.DELTA).get()).isEqualTo(1);
+        assertThat(metricRegistry.counter("agent.object_pool.discards", tags, Temporality.DELTA).get()).isEqualTo(1);
+        assertThat(metricRegistry.get("agent.object_pool.objects", tags)).isEqualTo(2);
+        // the high-water mark is only tracked for adaptively sized pools
+        assertThat(metricRegistry.get("agent.object_pool.objects.max", tags)).isNaN();
+    }
+
+    @Test
+    public void testMaxObjectsInPool() {
+        final QueueBasedObjectPool<TestRecyclable> pool = QueueBasedObjectPool.ofRecyclable(new MpmcAtomicArrayQueue<>(MAX_SIZE), false, TestRecyclable::new);
+        for (int i = 0; i < MAX_SIZE; i++) {
+            pool.recycle(new TestRecyclable());
+        }
+        pool.setMaxObjectsInPool(4);
+        assertThat(pool.trimToMaxObjectsInPool()).isEqualTo(MAX_SIZE - 4);
+        assertThat(pool.getObjectsInPool()).isEqualTo(4);
+
+        pool.recycle(new TestRecyclable());
+        assertThat(pool.getObjectsInPool()).isEqualTo(4);
+    }
+
     private static class TestRecyclable implements Recyclable {
 
         private int state;
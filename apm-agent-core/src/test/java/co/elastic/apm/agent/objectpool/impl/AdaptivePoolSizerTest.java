@@ -0,0 +1,132 @@
+/*-
+ * #%L
+ * Elastic APM Java agent
+ * %%
+ * Copyright (C) 2018 - 2019 Elastic and contributors
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package co.elastic.apm.agent.objectpool.impl;
+
+import co.elastic.apm.agent.configuration.SpyConfiguration;
+import co.elastic.apm.agent.metrics.MetricRegistry;
+import co.elastic.apm.agent.objectpool.Recyclable;
+import co.elastic.apm.agent.report.ReporterConfiguration;
+import org.jctools.queues.atomic.MpmcAtomicArrayQueue;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+
+import static co.elastic.apm.agent.objectpool.impl.AdaptivePoolSizer.IDLE_INTERVALS_BEFORE_SHRINKING;
+import static co.elastic.apm.agent.objectpool.impl.AdaptivePoolSizer.MIN_OBJECTS_IN_POOL;
+import static org.assertj.core.api.Assertions.assertThat;
+
+class AdaptivePoolSizerTest {
+
+    private static final int CAPACITY = 256;
+    private MetricRegistry metricRegistry;
+    private AdaptivePoolSizer poolSizer;
+    private QueueBasedObjectPool<Recyclable> pool;
+
+    @BeforeEach
+    void setUp() {
+        metricRegistry = new MetricRegistry(SpyConfiguration.createSpyConfig().getConfig(ReporterConfiguration.class));
+        poolSizer = new AdaptivePoolSizer(metricRegistry);
+        pool = QueueBasedObjectPool.ofRecyclable(new MpmcAtomicArrayQueue<>(CAPACITY), false, () -> () -> {
+        });
+        poolSizer.register("test", pool, CAPACITY);
+    }
+
+    @Test
+    void testShrinkIdlePool() {
+        fill(CAPACITY);
+
+        for (int i = 0; i < IDLE_INTERVALS_BEFORE_SHRINKING - 1; i++) {
+            poolSizer.resize();
+        }
+        assertThat(pool.getMaxObjectsInPool()).isEqualTo(CAPACITY);
+        assertThat(pool.getObjectsInPool()).isEqualTo(CAPACITY);
+
+        poolSizer.resize();
+        assertThat(pool.getMaxObjectsInPool()).isEqualTo(CAPACITY / 2);
+        assertThat(pool.getObjectsInPool()).isEqualTo(CAPACITY / 2);
+        assertThat(metricRegistry.get("agent.object_pool.limit", Map.of("pool", "test"))).isEqualTo(CAPACITY / 2);
+
+        for (int i = 0; i < IDLE_INTERVALS_BEFORE_SHRINKING * 16; i++) {
+            poolSizer.resize();
+        }
+        assertThat(pool.getMaxObjectsInPool()).isEqualTo(MIN_OBJECTS_IN_POOL);
+        assertThat(pool.getObjectsInPool()).isEqualTo(MIN_OBJECTS_IN_POOL);
+    }
+
+    @Test
+    void testDoNotShrinkPoolWhichIsInUse() {
+        fill(CAPACITY);
+        for (int i = 0; i < IDLE_INTERVALS_BEFORE_SHRINKING - 1; i++) {
+            poolSizer.resize();
+        }
+        drainAndAllocate(CAPACITY + 1);
+        poolSizer.resize();
+        assertThat(pool.getMaxObjectsInPool()).isEqualTo(CAPACITY);
+    }
+
+    @Test
+    void testGrowPoolOnMisses() {
+        pool.setMaxObjectsInPool(MIN_OBJECTS_IN_POOL);
+
+        drainAndAllocate(1);
+        poolSizer.resize();
+        assertThat(pool.getMaxObjectsInPool()).isEqualTo(MIN_OBJECTS_IN_POOL * 2);
+
+        drainAndAllocate(100);
+        poolSizer.resize();
+        assertThat(pool.getMaxObjectsInPool()).isEqualTo(MIN_OBJECTS_IN_POOL * 2 + 100);
+
+        drainAndAllocate(1000);
+        poolSizer.resize();
+        assertThat(pool.getMaxObjectsInPool()).isEqualTo(CAPACITY);
+    }
+
+    @Test
+    void testHighWaterMark() {
+        final Map<String, String> tags = Map.of("pool", "test");
+        fill(3);
+        drainAndAllocate(2);
+        assertThat(metricRegistry.get("agent.object_pool.objects.max", tags)).isEqualTo(0);
+
+        poolSizer.resize();
+        assertThat(metricRegistry.get("agent.object_pool.objects.max", tags)).isEqualTo(3);
+        // reading the metric does not reset it
+        assertThat(metricRegistry.get("agent.object_pool.objects.max", tags)).isEqualTo(3);
+
+        // the next interval starts with the current occupancy
+        drainAndAllocate(1);
+        poolSizer.resize();
+        assertThat(metricRegistry.get("agent.object_pool.objects.max", tags)).isEqualTo(1);
+    }
+
+    private void fill(int objects) {
+        for (int i = 0; i < objects; i++) {
+            pool.recycle(() -> {
+            });
+        }
+    }
+
+    private void drainAndAllocate(int objects) {
+        for (int i = 0; i < objects; i++) {
+            pool.createInstance();
+        }
+    }
+}
@@ -0,0 +1,103 @@
+/*-
+ * #%L
+ * Elastic APM Java agent
+ * %%
+ * Copyright (C) 2018 - 2019 Elastic and contributors
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package co.elastic.apm.agent.objectpool.impl;
+
+import co.elastic.apm.agent.configuration.SpyConfiguration;
+import co.elastic.apm.agent.impl.transaction.Db;
+import co.elastic.apm.agent.metrics.MetricRegistry;
+import co.elastic.apm.agent.report.ReporterConfiguration;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.nio.CharBuffer;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class CharBufferAllocatorTest {
+
+    private CharBufferAllocator allocator;
+
+    @BeforeEach
+    void setUp() {
+        allocator = new CharBufferAllocator(new int[]{4, 8, 16}, new int[]{2, 2, 2});
+    }
+
+    @Test
+    void testAcquireFromSmallestFittingSizeClass() {
+        assertThat(allocator.acquire(1).capacity()).isEqualTo(4);
+        assertThat(allocator.acquire(4).capacity()).isEqualTo(4);
+        assertThat(allocator.acquire(5).capacity()).isEqualTo(8);
+        assertThat(allocator.acquire(100).capacity()).isEqualTo(16);
+        assertThat(allocator.acquire(-1).capacity()).isEqualTo(16);
+        assertThat(allocator.getInUse(4)).isEqualTo(2);
+    }
+
+    @Test
+    void testBuffersAreSharedAfterRelease() {
+        final CharBuffer buffer = allocator.acquire(4);
+        buffer.append("foo");
+        allocator.release(buffer);
+        assertThat(allocator.getInUse(4)).isZero();
+        assertThat(allocator.getPooled(4)).isEqualTo(1);
+
+        final CharBuffer reused = allocator.acquire(3);
+        assertThat((Object) reused).isSameAs(buffer);
+        assertThat(reused.position()).isZero();
+        assertThat(reused.limit()).isEqualTo(4);
+    }
+
+    @Test
+    void testReleaseToFullPool() {
+        final CharBuffer[] buffers = {allocator.acquire(4), allocator.acquire(4), allocator.acquire(4)};
+        for (CharBuffer buffer : buffers) {
+            allocator.release(buffer);
+        }
+        assertThat(allocator.getPooled(4)).isEqualTo(2);
+        assertThat(allocator.getInUse(4)).isZero();
+    }
+
+    @Test
+    void testOffHeap() {
+        allocator.setOffHeap(true);
+        final CharBuffer buffer = allocator.acquire(4);
+        assertThat(buffer.isDirect()).isTrue();
+        assertThat(buffer.capacity()).isEqualTo(4);
+        buffer.append("abcd");
+        assertThat(buffer.flip().toString()).isEqualTo("abcd");
+    }
+
+    @Test
+    void testInitOnlyOnce() {
+        final MetricRegistry metricRegistry = new MetricRegistry(SpyConfiguration.createSpyConfig().getConfig(ReporterConfiguration.class));
+        assertThat(allocator.init(true, metricRegistry)).isTrue();
+        assertThat(allocator.init(false, metricRegistry)).isFalse();
+        assertThat(allocator.acquire(4).isDirect()).isTrue();
+    }
+
+    @Test
+    void testDbStatementBuffer() {
+        final Db db = new Db();
+        assertThat(db.withStatementBuffer(10).capacity()).isEqualTo(256);
+        db.getStatementBuffer().append("SELECT");
+        assertThat(db.getStatementBuffer().flip().toString()).isEqualTo("SELECT");
+        db.resetState();
+        assertThat((Object) db.getStatementBuffer()).isNull();
+    }
+}
@@ -0,0 +1,122 @@
+/*-
+ * #%L
+ * Elastic APM Java agent
+ * %%
+ * Copyright (C) 2018 - 2019 Elastic and contributors
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package co.elastic.apm.agent.objectpool.impl;
+
+import co.elastic.apm.agent.objectpool.ThreadAffineRecyclable;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import javax.annotation.Nullable;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ThreadAffineObjectPoolTest {
+
+    private ThreadAffineObjectPool<TestRecyclable> objectPool;
+
+    @BeforeEach
+    void setUp() {
+        objectPool = new ThreadAffineObjectPool<>(4, 4, TestRecyclable::new);
+    }
+
+    @Test
+    void testRecycleOnSameThread() {
+        final TestRecyclable obj = objectPool.createInstance();
+        obj.state = 42;
+        objectPool.recycle(obj);
+        assertThat(obj.state).isZero();
+        assertThat(objectPool.getObjectsInPool()).isEqualTo(1);
+
+        assertThat(objectPool.createInstance()).isSameAs(obj);
+        assertThat(objectPool.getGarbageCreated()).isEqualTo(1);
+    }
+
+    @Test
+    void testRecycleOnOtherThreadReturnsToOriginThread() throws Exception {
+        final TestRecyclable obj = objectPool.createInstance();
+        runInOtherThread(() -> objectPool.recycle(obj));
+
+        // the object has been returned to the return queue of this thread, not to the shared pool
+        assertThat(objectPool.getObjectsInPool()).isZero();
+        assertThat(objectPool.createInstance()).isSameAs(obj);
+
+        // other threads can't get hold of objects which are owned by this thread
+        objectPool.recycle(obj);
+        final AtomicReference<TestRecyclable> fromOtherThread = new AtomicReference<>();
+        runInOtherThread(() -> fromOtherThread.set(objectPool.createInstance()));
+        assertThat(fromOtherThread.get()).isNotSameAs(obj);
+    }
+
+    @Test
+    void testObjectsOfTerminatedThreadsAreShared() throws Exception {
+        final AtomicReference<TestRecyclable> fromOtherThread = new AtomicReference<>();
+        runInOtherThread(() -> fromOtherThread.set(objectPool.createInstance()));
+
+        objectPool.recycle(fromOtherThread.get());
+        assertThat(objectPool.getObjectsInPool()).isEqualTo(1);
+        assertThat(objectPool.createInstance()).isSameAs(fromOtherThread.get());
+    }
+
+    @Test
+    void testFullStackOverflowsToSharedPool() {
+        final TestRecyclable[] objects = new TestRecyclable[6];
+        for (int i = 0; i < objects.length; i++) {
+            objects[i] = objectPool.createInstance();
+        }
+        for (TestRecyclable obj : objects) {
+            objectPool.recycle(obj);
+        }
+        assertThat(objectPool.getObjectsInPool()).isEqualTo(6);
+        for (int i = 0; i < objects.length; i++) {
+            objectPool.createInstance();
+        }
+        assertThat(objectPool.getGarbageCreated()).isEqualTo(6);
+    }
+
+    private static void runInOtherThread(Runnable runnable) throws InterruptedException {
+        final Thread thread = new Thread(runnable);
+        thread.start();
+        thread.join();
+    }
+
+    private static class TestRecyclable implements ThreadAffineRecyclable {
+
+        private int state;
+        @Nullable
+        private Object poolOwner;
+
+        @Override
+        public void resetState() {
+            state = 0;
+        }
+
+        @Nullable
+        @Override
+        public Object getPoolOwner() {
+            return poolOwner;
+        }
+
+        @Override
+        public void setPoolOwner(@Nullable Object poolOwner) {
+            this.poolOwner = poolOwner;
+        }
+    }
+}
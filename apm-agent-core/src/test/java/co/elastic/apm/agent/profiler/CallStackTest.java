@@ -0,0 +1,142 @@
+/*-
+ * #%L
+ * Elastic APM Java agent
+ * %%
+ * Copyright (C) 2018 - 2019 Elastic and contributors
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package co.elastic.apm.agent.profiler;
+
+import co.elastic.apm.agent.MockReporter;
+import co.elastic.apm.agent.configuration.SpyConfiguration;
+import co.elastic.apm.agent.impl.ElasticApmTracer;
+import co.elastic.apm.agent.impl.ElasticApmTracerBuilder;
+import co.elastic.apm.agent.impl.transaction.Span;
+import co.elastic.apm.agent.impl.transaction.TraceContext;
+import co.elastic.apm.agent.impl.transaction.Transaction;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.Collections;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class CallStackTest {
+
+    private MockReporter reporter;
+    private ElasticApmTracer tracer;
+    private CallStack callStack;
+    private TraceContext context;
+
+    @BeforeEach
+    void setUp() {
+        reporter = new MockReporter();
+        tracer = new ElasticApmTracerBuilder()
+            .configurationRegistry(SpyConfiguration.createSpyConfig())
+            .reporter(reporter)
+            .lifecycleListeners(Collections.emptyList())
+            .build();
+        callStack = new CallStack(tracer);
+        final Transaction transaction = tracer.startTransaction();
+        context = transaction.getTraceContext();
+    }
+
+    @Test
+    void testInferredSpan() {
+        sample(1000, "main", "a");
+        sample(2000, "main", "a", "b");
+        sample(3000, "main", "a", "b");
+        sample(4000, "main", "a", "c");
+
+        assertThat(reporter.getSpans()).hasSize(1);
+        final Span span = reporter.getFirstSpan();
+        assertThat(span.getName().toString()).isEqualTo("Foo#b");
+        assertThat(span.getType()).isEqualTo("app");
+        assertThat(span.getSubtype()).isEqualTo("inferred");
+        assertThat(span.getTimestamp()).isEqualTo(2000);
+        assertThat(span.getDuration()).isEqualTo(1.0);
+        assertThat(span.getTraceContext().getParentId()).isEqualTo(context.getId());
+        assertThat(span.getStacktrace().getStackTrace()).hasSize(3);
+    }
+
+    @Test
+    void testFramesSeenOnceAreNotReported() {
+        sample(1000, "main", "a");
+        sample(2000, "main", "b");
+        sample(3000, "main", "c");
+
+        assertThat(reporter.getSpans()).isEmpty();
+    }
+
+    @Test
+    void testOnlyOutermostFrameOfChainIsReported() {
+        sample(1000, "main");
+        sample(2000, "main", "a", "b", "c");
+        sample(3000, "main", "a", "b", "c");
+        sample(4000, "main");
+
+        assertThat(reporter.getSpans()).hasSize(1);
+        assertThat(reporter.getFirstSpan().getName().toString()).isEqualTo("Foo#a");
+        // the stack trace of the innermost frame
+        assertThat(reporter.getFirstSpan().getStacktrace().getStackTrace()).hasSize(4);
+    }
+
+    @Test
+    void testFramesOfEndedActivationAreReported() {
+        sample(1000, "main", "a");
+        sample(2000, "main", "a", "b");
+        sample(3000, "main", "a", "b");
+
+        final TraceContext otherContext = tracer.startTransaction().getTraceContext();
+        callStack.onSample(otherContext, stackTrace("main", "a"), 4000, 0);
+
+        // main and a enclose the activation, b has still been running in its last sample
+        assertThat(reporter.getSpans()).hasSize(1);
+        assertThat(reporter.getFirstSpan().getName().toString()).isEqualTo("Foo#b");
+        assertThat(reporter.getFirstSpan().getTraceContext().getParentId()).isEqualTo(context.getId());
+        assertThat(reporter.getFirstSpan().getDuration()).isEqualTo(1.0);
+    }
+
+    @Test
+    void testEnclosingFramesAreNotReported() {
+        sample(1000, "main", "a");
+        sample(2000, "main", "a");
+        callStack.endActivation();
+
+        assertThat(reporter.getSpans()).isEmpty();
+    }
+
+    @Test
+    void testMinDuration() {
+        sample(1000, "main", "a");
+        sample(2000, "main", "a");
+        callStack.onSample(context, stackTrace("main"), 3000, 2000);
+
+        assertThat(reporter.getSpans()).isEmpty();
+    }
+
+    private void sample(long timestamp, String... methods) {
+        callStack.onSample(context, stackTrace(methods), timestamp, 0);
+    }
+
+    private static StackTraceElement[] stackTrace(String... methods) {
+        final StackTraceElement[] stackTrace = new StackTraceElement[methods.length];
+        for (int i = 0; i < methods.length; i++) {
+            // the first element is the top of the stack
+            stackTrace[methods.length - 1 - i] = new StackTraceElement("com.example.Foo", methods[i], "Foo.java", i);
+        }
+        return stackTrace;
+    }
+}
@@ -0,0 +1,151 @@
+/*-
+ * #%L
+ * Elastic APM Java agent
+ * %%
+ * Copyright (C) 2018 - 2019 Elastic and contributors
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package co.elastic.apm.agent.profiler;
+
+import co.elastic.apm.agent.MockReporter;
+import co.elastic.apm.agent.configuration.SpyConfiguration;
+import co.elastic.apm.agent.impl.ElasticApmTracer;
+import co.elastic.apm.agent.impl.ElasticApmTracerBuilder;
+import co.elastic.apm.agent.impl.transaction.Span;
+import co.elastic.apm.agent.impl.transaction.Transaction;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.Collections;
+import java.util.concurrent.CountDownLatch;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class SamplingProfilerTest {
+
+    private MockReporter reporter;
+    private ElasticApmTracer tracer;
+    private SamplingProfiler profiler;
+
+    @BeforeEach
+    void setUp() {
+        reporter = new MockReporter();
+        tracer = new ElasticApmTracerBuilder()
+            .configurationRegistry(SpyConfiguration.createSpyConfig())
+            .reporter(reporter)
+            .lifecycleListeners(Collections.emptyList())
+            .build();
+        profiler = new SamplingProfiler();
+        profiler.init(tracer);
+    }
+
+    @Test
+    void testInferredSpanOfSlowMethod() throws Exception {
+        final CountDownLatch inSlowMethod = new CountDownLatch(1);
+        final CountDownLatch slowMethodMayReturn = new CountDownLatch(1);
+        final CountDownLatch inOtherMethod = new CountDownLatch(1);
+        final CountDownLatch transactionMayEnd = new CountDownLatch(1);
+        final Transaction transaction = tracer.startTransaction();
+        final Thread thread = new Thread(() -> {
+            transaction.activate();
+            slowMethod(inSlowMethod, slowMethodMayReturn);
+            otherMethod(inOtherMethod, transactionMayEnd);
+            transaction.deactivate();
+        });
+        thread.start();
+
+        inSlowMethod.await();
+        profiler.sample();
+        Thread.sleep(5);
+        profiler.sample();
+        slowMethodMayReturn.countDown();
+        inOtherMethod.await();
+        profiler.sample();
+        Thread.sleep(5);
+        profiler.sample();
+        transactionMayEnd.countDown();
+        thread.join();
+        profiler.sample();
+
+        assertThat(reporter.getSpans()).hasSize(2);
+        final Span span = reporter.getFirstSpan();
+        assertThat(span.getName().toString()).isEqualTo("SamplingProfilerTest#slowMethod");
+        assertThat(span.getTraceContext().getParentId()).isEqualTo(transaction.getTraceContext().getId());
+        assertThat(span.getDuration()).isPositive();
+        // still running in the last sample before the transaction has been deactivated
+        final Span lastSpan = reporter.getSpans().get(1);
+        assertThat(lastSpan.getName().toString()).isEqualTo("SamplingProfilerTest#otherMethod");
+        assertThat(lastSpan.getTraceContext().getParentId()).isEqualTo(transaction.getTraceContext().getId());
+        assertThat(lastSpan.getDuration()).isPositive();
+    }
+
+    @Test
+    void testFramesEnclosingTheActivationAreNotReported() throws Exception {
+        final CountDownLatch inSlowMethod = new CountDownLatch(1);
+        final CountDownLatch slowMethodMayReturn = new CountDownLatch(1);
+        final Transaction transaction = tracer.startTransaction();
+        final Thread thread = new Thread(() -> {
+            transaction.activate();
+            slowMethod(inSlowMethod, slowMethodMayReturn);
+            transaction.deactivate();
+        });
+        thread.start();
+
+        inSlowMethod.await();
+        profiler.sample();
+        Thread.sleep(5);
+        profiler.sample();
+        slowMethodMayReturn.countDown();
+        thread.join();
+        profiler.sample();
+
+        assertThat(reporter.getSpans()).isEmpty();
+    }
+
+    @Test
+    void testThreadsWithoutActiveContextAreNotSampled() throws Exception {
+        final CountDownLatch inSlowMethod = new CountDownLatch(1);
+        final CountDownLatch slowMethodMayReturn = new CountDownLatch(1);
+        final Thread thread = new Thread(() -> slowMethod(inSlowMethod, slowMethodMayReturn));
+        thread.start();
+
+        inSlowMethod.await();
+        profiler.sample();
+        profiler.sample();
+        slowMethodMayReturn.countDown();
+        thread.join();
+        profiler.sample();
+
+        assertThat(reporter.getSpans()).isEmpty();
+    }
+
+    private static void slowMethod(CountDownLatch entered, CountDownLatch mayReturn) {
+        entered.countDown();
+        await(mayReturn);
+    }
+
+    private static void otherMethod(CountDownLatch entered, CountDownLatch mayReturn) {
+        entered.countDown();
+        await(mayReturn);
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -24,6 +24,7 @@ import co.elastic.apm.agent.configuration.SpyConfiguration;
 import co.elastic.apm.agent.configuration.converter.TimeDuration;
 import co.elastic.apm.agent.impl.ElasticApmTracer;
 import co.elastic.apm.agent.impl.error.ErrorCapture;
+import co.elastic.apm.agent.impl.transaction.Span;
 import co.elastic.apm.agent.impl.transaction.Transaction;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
@@ -37,6 +38,7 @@ import static org.mockito.ArgumentMatchers.anyBoolean;
 import static org.mockito.ArgumentMatchers.anyLong;
 import static org.mockito.ArgumentMatchers.argThat;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
@@ -44,11 +46,12 @@ class ApmServerReporterTest {
 
     private ApmServerReporter reporter;
     private ReportingEventHandler reportingEventHandler;
+    private ReporterConfiguration reporterConfiguration;
 
     @BeforeEach
     void setUp() {
         final ConfigurationRegistry configurationRegistry = SpyConfiguration.createSpyConfig();
-        ReporterConfiguration reporterConfiguration = configurationRegistry.getConfig(ReporterConfiguration.class);
+        reporterConfiguration = configurationRegistry.getConfig(ReporterConfiguration.class);
         when(reporterConfiguration.getFlushInterval()).thenReturn(TimeDuration.of("-1ms"));
         when(reporterConfiguration.getMaxQueueSize()).thenReturn(0);
         reportingEventHandler = mock(ReportingEventHandler.class);
@@ -73,6 +76,31 @@ class ApmServerReporterTest {
         verify(reportingEventHandler).onEvent(notNull(ReportingEvent::getError), anyLong(), anyBoolean());
     }
 
+    @Test
+    void testSpanBatch() throws Exception {
+        when(reporterConfiguration.getMaxQueueSize()).thenReturn(8);
+        final ApmServerReporter batchingReporter = new ApmServerReporter(true, reporterConfiguration, reportingEventHandler);
+        final ElasticApmTracer tracer = mock(ElasticApmTracer.class);
+        batchingReporter.report(new Span[]{new Span(tracer), new Span(tracer), new Span(tracer), null}, 3);
+        batchingReporter.flush().get();
+
+        assertThat(batchingReporter.getDropped()).isEqualTo(0);
+        verify(reportingEventHandler, times(3)).onEvent(notNull(ReportingEvent::getSpan), anyLong(), anyBoolean());
+        batchingReporter.close();
+    }
+
+    @Test
+    void testRejectEventsExceedingMemoryBudget() throws Exception {
+        // leaves less memory for queued events than a single transaction needs
+        when(reporterConfiguration.getAgentMemoryBudget()).thenReturn((long) MemoryBudget.FIXED_OVERHEAD_BYTES + MemoryBudget.TRANSACTION_BYTES);
+        final ApmServerReporter budgetedReporter = new ApmServerReporter(true, reporterConfiguration, reportingEventHandler);
+        budgetedReporter.report(new Transaction(mock(ElasticApmTracer.class)));
+        budgetedReporter.flush().get();
+
+        assertThat(budgetedReporter.getDropped()).isEqualTo(1);
+        budgetedReporter.close();
+    }
+
     private <T> T notNull(Function<T, ?> function) {
         return argThat(arg -> Objects.nonNull(function.apply(arg)));
     }
@@ -0,0 +1,118 @@
+/*-
+ * #%L
+ * Elastic APM Java agent
+ * %%
+ * Copyright (C) 2018 - 2019 Elastic and contributors
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package co.elastic.apm.agent.report;
+
+import co.elastic.apm.agent.configuration.SpyConfiguration;
+import co.elastic.apm.agent.impl.ElasticApmTracer;
+import co.elastic.apm.agent.impl.transaction.Span;
+import co.elastic.apm.agent.impl.transaction.Transaction;
+import co.elastic.apm.agent.util.MathUtils;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class MemoryBudgetTest {
+
+    private ReporterConfiguration reporterConfiguration;
+    private ElasticApmTracer tracer;
+
+    @BeforeEach
+    void setUp() {
+        reporterConfiguration = SpyConfiguration.createSpyConfig().getConfig(ReporterConfiguration.class);
+        tracer = mock(ElasticApmTracer.class);
+    }
+
+    @Test
+    void testDisabledByDefault() {
+        assertThat(MemoryBudget.of(reporterConfiguration)).isSameAs(MemoryBudget.UNLIMITED);
+        assertThat(MemoryBudget.getQueueSize(reporterConfiguration))
+            .isEqualTo(MathUtils.getNextPowerOf2(reporterConfiguration.getMaxQueueSize()));
+        assertThat(MemoryBudget.getMaxPooledElements(reporterConfiguration)).isEqualTo(reporterConfiguration.getMaxQueueSize() * 2);
+        assertThat(MemoryBudget.UNLIMITED.weigh(new Transaction(tracer))).isZero();
+    }
+
+    @Test
+    void testSizesDerivedFromBudget() {
+        when(reporterConfiguration.getAgentMemoryBudget()).thenReturn(10L * 1024 * 1024);
+        final MemoryBudget memoryBudget = MemoryBudget.of(reporterConfiguration);
+        assertThat(memoryBudget.isLimited()).isTrue();
+
+        final int queueSize = MemoryBudget.getQueueSize(reporterConfiguration);
+        // the queue must be large enough so that the byte budget is exhausted before the queue is full
+        assertThat((long) queueSize * MemoryBudget.SPAN_BYTES).isGreaterThanOrEqualTo(5L * 1024 * 1024 - MemoryBudget.FIXED_OVERHEAD_BYTES);
+
+        final int maxPooledElements = MemoryBudget.getMaxPooledElements(reporterConfiguration);
+        final long pooledBytes = (long) maxPooledElements * (MemoryBudget.TRANSACTION_BYTES + MemoryBudget.SPAN_BYTES + MemoryBudget.ERROR_BYTES / 2);
+        assertThat(pooledBytes).isLessThanOrEqualTo(5L * 1024 * 1024);
+    }
+
+    @Test
+    void testTinyBudget() {
+        when(reporterConfiguration.getAgentMemoryBudget()).thenReturn(1L);
+        assertThat(MemoryBudget.of(reporterConfiguration).isLimited()).isTrue();
+        assertThat(MemoryBudget.getQueueSize(reporterConfiguration)).isEqualTo(2);
+        assertThat(MemoryBudget.getMaxPooledElements(reporterConfiguration)).isEqualTo(2);
+    }
+
+    @Test
+    void testLargeEventsWeighMore() {
+        final MemoryBudget memoryBudget = new MemoryBudget(1024 * 1024);
+        final Transaction smallTransaction = new Transaction(tracer);
+        final Transaction largeTransaction = new Transaction(tracer);
+        for (int i = 0; i < 50; i++) {
+            largeTransaction.getContext().getRequest().addHeader("header-" + i, "some header value " + i);
+        }
+        largeTransaction.getContext().getRequest().withBodyBuffer();
+
+        assertThat(memoryBudget.weigh(new Span(tracer))).isLessThan(memoryBudget.weigh(smallTransaction));
+        assertThat(memoryBudget.weigh(largeTransaction))
+            .isGreaterThan(memoryBudget.weigh(smallTransaction) + 2L * largeTransaction.getContext().getRequest().getBodyBuffer().capacity());
+    }
+
+    @Test
+    void testRejectByWeight() {
+        final MemoryBudget memoryBudget = new MemoryBudget(10_000);
+        assertThat(memoryBudget.tryReserve(8_000)).isTrue();
+        assertThat(memoryBudget.tryReserve(4_000)).isFalse();
+        assertThat(memoryBudget.tryReserve(2_000)).isTrue();
+        assertThat(memoryBudget.getQueuedBytes()).isEqualTo(10_000);
+
+        memoryBudget.release(8_000);
+        assertThat(memoryBudget.tryReserve(4_000)).isTrue();
+        assertThat(memoryBudget.getQueuedBytes()).isEqualTo(6_000);
+    }
+
+    @Test
+    void testReportingEventReleasesReservation() {
+        final MemoryBudget memoryBudget = new MemoryBudget(10_000);
+        final ReportingEvent reportingEvent = new ReportingEvent(memoryBudget);
+        assertThat(memoryBudget.tryReserve(8_000)).isTrue();
+        reportingEvent.setReservedBytes(8_000);
+
+        reportingEvent.resetState();
+        assertThat(memoryBudget.getQueuedBytes()).isZero();
+        // resetting twice must not release the reservation twice
+        reportingEvent.resetState();
+        assertThat(memoryBudget.getQueuedBytes()).isZero();
+    }
+}
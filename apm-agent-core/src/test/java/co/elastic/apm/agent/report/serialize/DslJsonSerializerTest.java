@@ -21,6 +21,7 @@ package co.elastic.apm.agent.report.serialize;
 
 import co.elastic.apm.agent.MockTracer;
 import co.elastic.apm.agent.impl.ElasticApmTracer;
+import co.elastic.apm.agent.impl.context.Tags;
 import co.elastic.apm.agent.impl.error.ErrorCapture;
 import co.elastic.apm.agent.impl.sampling.ConstantSampler;
 import co.elastic.apm.agent.impl.stacktrace.StacktraceConfiguration;
@@ -68,6 +69,26 @@ class DslJsonSerializerTest {
         });
     }
 
+    @Test
+    void serializeTypedTags() throws IOException {
+        final Tags tags = new Tags();
+        tags.add("string", "foo");
+        tags.add("long", 42L);
+        tags.add("double", 1.5);
+        tags.add("nan", Double.NaN);
+        tags.add("boolean", true);
+        tags.add("foo.bar", false);
+
+        serializer.serializeTags(tags);
+        final JsonNode json = objectMapper.readTree(serializer.jw.toString());
+        assertThat(json.get("string").textValue()).isEqualTo("foo");
+        assertThat(json.get("long").textValue()).isEqualTo("42");
+        assertThat(Double.parseDouble(json.get("double").textValue())).isEqualTo(1.5);
+        assertThat(json.get("nan").textValue()).isEqualTo("NaN");
+        assertThat(json.get("boolean").textValue()).isEqualTo("true");
+        assertThat(json.get("foo_bar").textValue()).isEqualTo("false");
+    }
+
     @Test
     void testErrorSerialization() throws IOException {
         ElasticApmTracer tracer = MockTracer.create();
@@ -76,7 +97,7 @@ class DslJsonSerializerTest {
         error.setTransactionSampled(true);
         error.setTransactionType("test-type");
         error.setException(new Exception("test"));
-        error.getContext().getTags().put("foo", "bar");
+        error.getContext().getTags().add("foo", "bar");
         String errorJson = serializer.toJsonString(error);
         System.out.println("errorJson = " + errorJson);
         JsonNode errorTree = objectMapper.readTree(errorJson);
@@ -92,6 +113,22 @@ class DslJsonSerializerTest {
         assertThat(errorTree.get("transaction").get("type").textValue()).isEqualTo("test-type");
     }
 
+    @Test
+    void testErrorDroppedOccurrencesSerialization() throws IOException {
+        ErrorCapture error = new ErrorCapture(MockTracer.create());
+        error.setException(new Exception("test"));
+        error.getContext().getTags().add("foo", "bar");
+        error.setDroppedOccurrences(42);
+        JsonNode tags = objectMapper.readTree(serializer.toJsonString(error)).get("context").get("tags");
+        assertThat(tags.get("foo").textValue()).isEqualTo("bar");
+        assertThat(tags.get("dropped_occurrences").textValue()).isEqualTo("42");
+
+        error.resetState();
+        error.setException(new Exception("test"));
+        tags = objectMapper.readTree(serializer.toJsonString(error)).get("context").get("tags");
+        assertThat(tags.size()).isZero();
+    }
+
     @Test
     void testLimitStringValueLength() throws IOException {
         StringBuilder longValue = new StringBuilder(DslJsonSerializer.MAX_VALUE_LENGTH + 1);
@@ -131,6 +168,57 @@ class DslJsonSerializerTest {
         assertThat(jsonNode.get("context").get("request").get("headers").get("bar").isNull()).isTrue();
     }
 
+    @Test
+    void testGcPauseMarkSerialization() throws IOException {
+        Transaction transaction = new Transaction(mock(ElasticApmTracer.class));
+        transaction.getTraceContext().asRootSpan(ConstantSampler.of(true));
+        assertThat(objectMapper.readTree(serializer.toJsonString(transaction)).get("marks")).isNull();
+        transaction.setGcPauseMicros(1500);
+        JsonNode jsonNode = objectMapper.readTree(serializer.toJsonString(transaction));
+        assertThat(jsonNode.get("marks").get("jvm").get("gc_pause").doubleValue()).isEqualTo(1.5);
+    }
+
+    @Test
+    void testGcPauseMarkNotSerializedForUnsampledTransaction() throws IOException {
+        Transaction transaction = new Transaction(mock(ElasticApmTracer.class));
+        transaction.getTraceContext().asRootSpan(ConstantSampler.of(false));
+        transaction.setGcPauseMicros(1500);
+        assertThat(objectMapper.readTree(serializer.toJsonString(transaction)).get("marks")).isNull();
+    }
+
+    @Test
+    void testResourceUsageMarkSerialization() throws IOException {
+        Transaction transaction = new Transaction(mock(ElasticApmTracer.class));
+        transaction.getTraceContext().asRootSpan(ConstantSampler.of(true));
+        transaction.getResourceUsage().add(2_500_000, 4096);
+        JsonNode jvmMarks = objectMapper.readTree(serializer.toJsonString(transaction)).get("marks").get("jvm");
+        assertThat(jvmMarks.get("cpu_time").doubleValue()).isEqualTo(2.5);
+        assertThat(jvmMarks.get("allocated_bytes").longValue()).isEqualTo(4096);
+        assertThat(jvmMarks.get("gc_pause")).isNull();
+
+        transaction.setGcPauseMicros(1500);
+        jvmMarks = objectMapper.readTree(serializer.toJsonString(transaction)).get("marks").get("jvm");
+        assertThat(jvmMarks.get("gc_pause").doubleValue()).isEqualTo(1.5);
+        assertThat(jvmMarks.get("cpu_time").doubleValue()).isEqualTo(2.5);
+    }
+
+    @Test
+    void testContentionMarkSerialization() throws IOException {
+        Transaction transaction = new Transaction(mock(ElasticApmTracer.class));
+        transaction.getResourceUsage().addContention(1, 2, 3, 4);
+        JsonNode jvmMarks = objectMapper.readTree(serializer.toJsonString(transaction)).get("marks").get("jvm");
+        assertThat(jvmMarks.get("cpu_time")).isNull();
+        assertThat(jvmMarks.get("blocked_count").longValue()).isEqualTo(1);
+        assertThat(jvmMarks.get("blocked_time").longValue()).isEqualTo(2);
+        assertThat(jvmMarks.get("waited_count").longValue()).isEqualTo(3);
+        assertThat(jvmMarks.get("waited_time").longValue()).isEqualTo(4);
+
+        transaction.getResourceUsage().add(1_000_000, 1);
+        jvmMarks = objectMapper.readTree(serializer.toJsonString(transaction)).get("marks").get("jvm");
+        assertThat(jvmMarks.get("cpu_time").doubleValue()).isEqualTo(1.0);
+        assertThat(jvmMarks.get("waited_time").longValue()).isEqualTo(4);
+    }
+
     @Test
     void testSpanTypeSerialization() throws IOException {
         Span span = new Span(mock(ElasticApmTracer.class));
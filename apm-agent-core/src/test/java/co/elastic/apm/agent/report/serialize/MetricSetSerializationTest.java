@@ -19,7 +19,12 @@
  */
 package co.elastic.apm.agent.report.serialize;
 
+import co.elastic.apm.agent.configuration.SpyConfiguration;
+import co.elastic.apm.agent.metrics.Histogram;
+import co.elastic.apm.agent.metrics.MetricRegistry;
 import co.elastic.apm.agent.metrics.MetricSet;
+import co.elastic.apm.agent.metrics.Temporality;
+import co.elastic.apm.agent.report.ReporterConfiguration;
 import com.dslplatform.json.DslJson;
 import com.dslplatform.json.JsonWriter;
 import com.fasterxml.jackson.databind.JsonNode;
@@ -48,6 +53,68 @@ class MetricSetSerializationTest {
         assertThat(jsonNode.get("metricset").get("samples").get("foo.bar").get("value").doubleValue()).isEqualTo(42);
     }
 
+    @Test
+    void testHistogramSerialization() throws IOException {
+        final MetricRegistry metricRegistry = new MetricRegistry(SpyConfiguration.createSpyConfig().getConfig(ReporterConfiguration.class));
+        metricRegistry.add("gauge", Collections.emptyMap(), () -> 1);
+        final Histogram histogram = metricRegistry.histogram("foo.duration", "us", Collections.emptyMap());
+        histogram.record(10);
+        histogram.record(20);
+        final MetricSet metricSet = metricRegistry.getMetricSets().get(Collections.emptyMap());
+        assertThat(MetricRegistrySerializer.takeSnapshots(metricSet)).isTrue();
+        MetricRegistrySerializer.serializeMetricSet(metricSet, System.currentTimeMillis() * 1000, new StringBuilder(), jw);
+        final JsonNode samples = objectMapper.readTree(jw.toString()).get("metricset").get("samples");
+        assertThat(samples.get("gauge").get("value").doubleValue()).isEqualTo(1);
+        assertThat(samples.get("foo.duration.count").get("value").doubleValue()).isEqualTo(2);
+        assertThat(samples.get("foo.duration.sum.us").get("value").doubleValue()).isEqualTo(30);
+        assertThat(samples.get("foo.duration.max.us").get("value").doubleValue()).isEqualTo(20);
+        assertThat(samples.get("foo.duration.p50.us").get("value").doubleValue()).isEqualTo(10);
+        assertThat(samples.get("foo.duration.p99.us").get("value").doubleValue()).isEqualTo(20);
+    }
+
+    @Test
+    void testPrimitiveMetricSerialization() throws IOException {
+        final MetricRegistry metricRegistry = new MetricRegistry(SpyConfiguration.createSpyConfig().getConfig(ReporterConfiguration.class));
+        metricRegistry.add("gauge", Collections.emptyMap(), () -> 1);
+        metricRegistry.doubleGauge("double", Collections.emptyMap()).set(0.5);
+        metricRegistry.longGauge("long", Collections.emptyMap()).add(42);
+        metricRegistry.histogram("foo.duration", "us", Collections.emptyMap()).record(10);
+        final MetricSet metricSet = metricRegistry.getMetricSets().get(Collections.emptyMap());
+        assertThat(MetricRegistrySerializer.takeSnapshots(metricSet)).isTrue();
+        MetricRegistrySerializer.serializeMetricSet(metricSet, System.currentTimeMillis() * 1000, new StringBuilder(), jw);
+        final JsonNode samples = objectMapper.readTree(jw.toString()).get("metricset").get("samples");
+        assertThat(samples.get("gauge").get("value").doubleValue()).isEqualTo(1);
+        assertThat(samples.get("double").get("value").doubleValue()).isEqualTo(0.5);
+        assertThat(samples.get("long").get("value").doubleValue()).isEqualTo(42);
+        assertThat(samples.get("foo.duration.count").get("value").doubleValue()).isEqualTo(1);
+    }
+
+    @Test
+    void testCounterAndTimerSerialization() throws IOException {
+        final MetricRegistry metricRegistry = new MetricRegistry(SpyConfiguration.createSpyConfig().getConfig(ReporterConfiguration.class));
+        metricRegistry.counter("foo.errors", Collections.emptyMap(), Temporality.DELTA).add(2);
+        metricRegistry.counter("foo.total", Collections.emptyMap(), Temporality.CUMULATIVE).add(3);
+        metricRegistry.timer("foo.time", "us", Collections.emptyMap(), Temporality.DELTA).update(42);
+        metricRegistry.timer("bar.time", "us", Collections.emptyMap(), Temporality.DELTA);
+        final MetricSet metricSet = metricRegistry.getMetricSets().get(Collections.emptyMap());
+        assertThat(MetricRegistrySerializer.takeSnapshots(metricSet)).isTrue();
+        MetricRegistrySerializer.serializeMetricSet(metricSet, System.currentTimeMillis() * 1000, new StringBuilder(), jw);
+        final JsonNode samples = objectMapper.readTree(jw.toString()).get("metricset").get("samples");
+        assertThat(samples.get("foo.errors").get("value").doubleValue()).isEqualTo(2);
+        assertThat(samples.get("foo.total").get("value").doubleValue()).isEqualTo(3);
+        assertThat(samples.get("foo.time.count").get("value").doubleValue()).isEqualTo(1);
+        assertThat(samples.get("foo.time.sum.us").get("value").doubleValue()).isEqualTo(42);
+        assertThat(samples.get("bar.time.count")).isNull();
+    }
+
+    @Test
+    void testEmptyHistogramsAreNotSerialized() {
+        final MetricRegistry metricRegistry = new MetricRegistry(SpyConfiguration.createSpyConfig().getConfig(ReporterConfiguration.class));
+        metricRegistry.histogram("foo.duration", "us", Collections.emptyMap());
+        MetricRegistrySerializer.serialize(metricRegistry, new StringBuilder(), jw);
+        assertThat(jw.toString()).isEmpty();
+    }
+
     @Test
     void testNonFiniteSerialization() throws IOException {
         final MetricSet metricSet = new MetricSet(Collections.emptyMap());
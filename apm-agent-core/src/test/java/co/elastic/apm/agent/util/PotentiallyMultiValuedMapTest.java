@@ -93,4 +93,134 @@ class PotentiallyMultiValuedMapTest {
         assertThat(map.get("foo")).isEqualTo(Arrays.asList("bar", "baz"));
     }
 
+    @Test
+    void testCaseInsensitive() {
+        map.add("Content-Type", "text/plain");
+        map.add("content-type", "text/html");
+        assertThat(map.size()).isOne();
+        assertThat(map.getKey(0)).isEqualTo("Content-Type");
+        assertThat(map.getAll("CONTENT-TYPE")).containsExactly("text/plain", "text/html");
+    }
+
+    @Test
+    void testNullValue() {
+        map.add("foo", null);
+        assertThat(map.containsIgnoreCase("foo")).isTrue();
+        assertThat(map.get("foo")).isNull();
+        assertThat(map.isNullValue(map.getFirstValueHandle(0))).isTrue();
+    }
+
+    @Test
+    void testManyKeys() {
+        for (int i = 0; i < 100; i++) {
+            map.add("key" + i, "value" + i);
+        }
+        assertThat(map.size()).isEqualTo(100);
+        for (int i = 0; i < 100; i++) {
+            assertThat(map.getKey(i)).isEqualTo("key" + i);
+            assertThat(map.getFirst("KEY" + i)).isEqualTo("value" + i);
+        }
+    }
+
+    @Test
+    void testValueHandles() {
+        map.add("foo", "bar");
+        map.add("baz", "qux");
+        map.add("foo", "quux");
+        assertThat(map.getValueCount(0)).isEqualTo(2);
+        final StringBuilder sb = new StringBuilder();
+        for (int handle = map.getFirstValueHandle(0); handle != -1; handle = map.getNextValueHandle(handle)) {
+            map.appendValue(handle, sb).append(';');
+        }
+        assertThat(sb.toString()).isEqualTo("bar;quux;");
+        assertThat(map.getArenaLength()).isEqualTo("barquxquux".length());
+    }
+
+    @Test
+    void testSetInPlace() {
+        map.add("foo", "a-long-value");
+        final int arenaLength = map.getArenaLength();
+        map.set(0, "short");
+        assertThat(map.get("foo")).isEqualTo("short");
+        assertThat(map.getArenaLength()).isEqualTo(arenaLength);
+
+        map.set(0, "a-longer-value-than-before");
+        assertThat(map.get("foo")).isEqualTo("a-longer-value-than-before");
+    }
+
+    @Test
+    void testSetReplacesMultiValue() {
+        map.add("foo", "bar");
+        map.add("foo", "baz");
+        map.set(0, "qux");
+        assertThat(map.get("foo")).isEqualTo("qux");
+    }
+
+    @Test
+    void testRemoveKeepsOtherKeys() {
+        map.add("foo", "bar");
+        map.add("Cookie", "c1=v1");
+        map.add("baz", "qux");
+        map.removeIgnoreCase("cookie");
+        assertThat(map.size()).isEqualTo(2);
+        assertThat(map.get("foo")).isEqualTo("bar");
+        assertThat(map.get("baz")).isEqualTo("qux");
+        assertThat(map.containsIgnoreCase("cookie")).isFalse();
+    }
+
+    @Test
+    void testResetState() {
+        map.add("foo", "bar");
+        map.resetState();
+        assertThat(map.isEmpty()).isTrue();
+        assertThat(map.get("foo")).isNull();
+        assertThat(map.getArenaLength()).isZero();
+        map.add("baz", "qux");
+        assertThat(map.get("baz")).isEqualTo("qux");
+    }
+
+    @Test
+    void testCopyFrom() {
+        map.add("foo", "bar");
+        map.add("foo", "baz");
+        map.add("qux", null);
+        final PotentiallyMultiValuedMap copy = new PotentiallyMultiValuedMap();
+        copy.copyFrom(map);
+        assertThat(copy.get("foo")).isEqualTo(Arrays.asList("bar", "baz"));
+        assertThat(copy.containsIgnoreCase("qux")).isTrue();
+
+        copy.copyFrom(map);
+        assertThat(copy.size()).isEqualTo(2);
+        assertThat(copy.getAll("foo")).containsExactly("bar", "baz", "bar", "baz");
+        assertThat(map.getAll("foo")).containsExactly("bar", "baz");
+    }
+
+    @Test
+    void testCopyFromMoreThanInitialCapacity() {
+        assertCopiesAllKeys(12);
+    }
+
+    @Test
+    void testCopyFromMoreThanTwiceTheInitialCapacity() {
+        assertCopiesAllKeys(20);
+    }
+
+    private void assertCopiesAllKeys(int keys) {
+        for (int i = 0; i < keys; i++) {
+            map.add("key" + i, "value" + i);
+            map.add("key" + i, "other" + i);
+        }
+        final PotentiallyMultiValuedMap copy = new PotentiallyMultiValuedMap();
+        copy.copyFrom(map);
+        assertThat(copy.size()).isEqualTo(keys);
+        for (int i = 0; i < keys; i++) {
+            assertThat(copy.getAll("KEY" + i)).containsExactly("value" + i, "other" + i);
+        }
+
+        final PotentiallyMultiValuedMap merged = new PotentiallyMultiValuedMap();
+        merged.add("foo", "bar");
+        merged.copyFrom(map);
+        assertThat(merged.size()).isEqualTo(keys + 1);
+        assertThat(merged.getAll("key" + (keys - 1))).containsExactly("value" + (keys - 1), "other" + (keys - 1));
+    }
 }
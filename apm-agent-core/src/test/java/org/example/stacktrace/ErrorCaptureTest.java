@@ -20,6 +20,7 @@
 package org.example.stacktrace;
 
 import co.elastic.apm.agent.MockTracer;
+import co.elastic.apm.agent.configuration.CoreConfiguration;
 import co.elastic.apm.agent.configuration.SpyConfiguration;
 import co.elastic.apm.agent.impl.ElasticApmTracer;
 import co.elastic.apm.agent.impl.error.ErrorCapture;
@@ -31,6 +32,8 @@ import org.stagemonitor.configuration.ConfigurationRegistry;
 import java.util.List;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 class ErrorCaptureTest {
@@ -71,6 +74,21 @@ class ErrorCaptureTest {
         assertThat(errorCapture.getException()).isNotInstanceOf(NestedException.class);
     }
 
+    @Test
+    void testUnnestingIsDeferredUntilResolved() {
+        final CoreConfiguration coreConfiguration = tracer.getConfig(CoreConfiguration.class);
+        final ErrorCapture errorCapture = new ErrorCapture(tracer);
+        final Exception cause = new Exception();
+        final NestedException nestedException = new NestedException(cause);
+        errorCapture.setException(nestedException);
+        verify(coreConfiguration, never()).getUnnestExceptions();
+        assertThat(errorCapture.peekException()).isSameAs(nestedException);
+
+        errorCapture.resolve();
+        assertThat(errorCapture.peekException()).isSameAs(cause);
+        assertThat(errorCapture.getException()).isSameAs(cause);
+    }
+
     private static class NestedException extends Exception {
         public NestedException(Throwable cause) {
             super(cause);
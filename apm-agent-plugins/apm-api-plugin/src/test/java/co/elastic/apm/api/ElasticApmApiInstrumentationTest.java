@@ -167,8 +167,8 @@ class ElasticApmApiInstrumentationTest extends AbstractInstrumentationTest {
         transaction.end();
         assertThat(reporter.getTransactions()).hasSize(1);
         assertThat(reporter.getSpans()).hasSize(1);
-        assertThat(reporter.getFirstTransaction().getContext().getTags()).containsEntry("foo", "bar");
-        assertThat(reporter.getFirstSpan().getContext().getTags()).containsEntry("bar", "baz");
+        assertThat(reporter.getFirstTransaction().getContext().getTags().get("foo")).isEqualTo("bar");
+        assertThat(reporter.getFirstSpan().getContext().getTags().get("bar")).isEqualTo("baz");
     }
 
     @Test
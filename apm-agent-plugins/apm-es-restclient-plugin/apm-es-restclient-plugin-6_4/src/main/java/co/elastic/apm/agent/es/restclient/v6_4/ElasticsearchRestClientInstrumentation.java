@@ -80,7 +80,9 @@ public class ElasticsearchRestClientInstrumentation extends ElasticApmInstrument
                 HttpEntity entity = request.getEntity();
                 if (entity != null && entity.isRepeatable()) {
                     try {
-                        IOUtils.readUtf8Stream(entity.getContent(), span.getContext().getDb().withStatementBuffer());
+                        // the content length in bytes is an upper bound for the number of UTF-8 decoded chars
+                        final int expectedLength = (int) Math.min(entity.getContentLength(), Integer.MAX_VALUE);
+                        IOUtils.readUtf8Stream(entity.getContent(), span.getContext().getDb().withStatementBuffer(expectedLength));
                     } catch (IOException e) {
                         // We can't log from here
                     }
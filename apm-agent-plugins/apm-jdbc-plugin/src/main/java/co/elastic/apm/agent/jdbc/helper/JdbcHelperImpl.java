@@ -19,6 +19,8 @@
  */
 package co.elastic.apm.agent.jdbc.helper;
 
+import co.elastic.apm.agent.configuration.CoreConfiguration;
+import co.elastic.apm.agent.impl.ElasticApmTracer;
 import co.elastic.apm.agent.impl.transaction.Span;
 import co.elastic.apm.agent.impl.transaction.TraceContextHolder;
 import com.blogspot.mydailyjava.weaklockfree.WeakConcurrentMap;
@@ -37,14 +39,27 @@ public class JdbcHelperImpl implements JdbcHelper {
     private static final Logger logger = LoggerFactory.getLogger(JdbcHelperImpl.class);
     private static final WeakConcurrentMap<Connection, ConnectionMetaData> metaDataMap = new WeakConcurrentMap<Connection, ConnectionMetaData>(true);
 
+    private final CoreConfiguration coreConfiguration;
+
+    public JdbcHelperImpl(ElasticApmTracer tracer) {
+        this.coreConfiguration = tracer.getConfig(CoreConfiguration.class);
+    }
+
     @Override
     @Nullable
     public Span createJdbcSpan(@Nullable String sql, Connection connection, @Nullable TraceContextHolder<?> parent) {
-        if (sql == null || isAlreadyMonitored(parent) || parent == null || !parent.isSampled()) {
+        if (sql == null || isAlreadyMonitored(parent) || parent == null) {
+            return null;
+        }
+        if (!parent.isSampled() && !coreConfiguration.isAggregateUnsampledTransactions()) {
+            // the span would neither be reported nor aggregated, so don't bother looking up the connection meta data
             return null;
         }
+        // spans of non-sampled parents are not reported but their durations are aggregated by span type and subtype
         Span span = parent.createSpan().activate();
-        span.setName(getMethod(sql));
+        if (span.isSampled()) {
+            span.setName(getMethod(sql));
+        }
         // setting the type here is important
         // getting the meta data can result in another jdbc call
         // if that is traced as well -> StackOverflowError
@@ -54,10 +69,12 @@ public class JdbcHelperImpl implements JdbcHelper {
             final ConnectionMetaData connectionMetaData = getConnectionMetaData(connection);
             span.withSubtype(connectionMetaData.dbVendor)
                 .withAction(DB_SPAN_ACTION);
-            span.getContext().getDb()
-                .withUser(connectionMetaData.user)
-                .withStatement(sql)
-                .withType("sql");
+            if (span.isSampled()) {
+                span.getContext().getDb()
+                    .withUser(connectionMetaData.user)
+                    .withStatement(sql)
+                    .withType("sql");
+            }
         } catch (SQLException e) {
             logger.warn("Ignored exception", e);
         }
@@ -92,6 +109,10 @@ public class JdbcHelperImpl implements JdbcHelper {
             return false;
         }
         Span parentSpan = (Span) parent;
+        if (parentSpan.isNoop()) {
+            // the type of noop spans is not recorded, but their children would be noop spans as well
+            return true;
+        }
         // a db span can't be the child of another db span
         // this means the span has already been created for this db call
         return parentSpan.getType() != null && parentSpan.getType().equals(DB_SPAN_TYPE);
@@ -80,7 +80,7 @@ public class ApmSpanInstrumentation extends OpenTracingBridgeInstrumentation {
             if (abstractSpan instanceof Transaction) {
                 Transaction transaction = (Transaction) abstractSpan;
                 if (transaction.getType() == null) {
-                    if (transaction.getContext().getRequest().hasContent()) {
+                    if (transaction.hasContext() && transaction.getContext().getRequest().hasContent()) {
                         transaction.withType(Transaction.TYPE_REQUEST);
                     } else {
                         transaction.withType("unknown");
@@ -177,12 +177,25 @@ public class ApmSpanInstrumentation extends OpenTracingBridgeInstrumentation {
 
         private static void handleTransactionTag(Transaction transaction, String key, Object value) {
             if (!handleSpecialTransactionTag(transaction, key, value)) {
-                transaction.addTag(key, value.toString());
+                addTag(transaction, key, value);
             }
         }
 
         private static void handleSpanTag(Span span, String key, Object value) {
             if (!handleSpecialSpanTag(span, key, value)) {
+                addTag(span, key, value);
+            }
+        }
+
+        // numbers and booleans are stored as-is and only converted to a string when serializing
+        private static void addTag(AbstractSpan<?> span, String key, Object value) {
+            if (value instanceof Boolean) {
+                span.addTag(key, ((Boolean) value).booleanValue());
+            } else if (value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte) {
+                span.addTag(key, ((Number) value).longValue());
+            } else if (value instanceof Double) {
+                span.addTag(key, ((Double) value).doubleValue());
+            } else {
                 span.addTag(key, value.toString());
             }
         }
@@ -98,8 +98,8 @@ public class ServletApiAdvice {
                 excluded.set(Boolean.TRUE);
                 return;
             }
-            final Request req = transaction.getContext().getRequest();
             if (transaction.isSampled() && tracer.getConfig(WebConfiguration.class).isCaptureHeaders()) {
+                final Request req = transaction.getContext().getRequest();
                 if (request.getCookies() != null) {
                     for (Cookie cookie : request.getCookies()) {
                         req.addCookie(cookie.getName(), cookie.getValue());
@@ -114,9 +114,11 @@ public class ServletApiAdvice {
                 }
             }
 
-            servletTransactionHelper.fillRequestContext(transaction, request.getProtocol(), request.getMethod(), request.isSecure(),
-                request.getScheme(), request.getServerName(), request.getServerPort(), request.getRequestURI(), request.getQueryString(),
-                request.getRemoteAddr());
+            if (transaction.isSampled()) {
+                servletTransactionHelper.fillRequestContext(transaction, request.getProtocol(), request.getMethod(), request.isSecure(),
+                    request.getScheme(), request.getServerName(), request.getServerPort(), request.getRequestURI(), request.getQueryString(),
+                    request.getRemoteAddr());
+            }
         }
     }
 
@@ -136,7 +138,7 @@ public class ServletApiAdvice {
         }
         if (thiz instanceof HttpServlet && servletRequest instanceof HttpServletRequest) {
             Transaction currentTransaction = tracer.currentTransaction();
-            if (currentTransaction != null) {
+            if (currentTransaction != null && (currentTransaction.isSampled() || t != null)) {
                 final HttpServletRequest httpServletRequest = (HttpServletRequest) servletRequest;
                 ServletTransactionHelper.setTransactionNameByServletClass(httpServletRequest.getMethod(), thiz.getClass(), currentTransaction.getName());
                 final Principal userPrincipal = httpServletRequest.getUserPrincipal();
@@ -171,6 +173,12 @@ public class ServletApiAdvice {
                 } else {
                     parameterMap = null;
                 }
+                if (!transaction.isSampled() && t != null) {
+                    // unsampled transactions only record the request line for the error they are about to report
+                    servletTransactionHelper.fillRequestContext(transaction, request.getProtocol(), request.getMethod(), request.isSecure(),
+                        request.getScheme(), request.getServerName(), request.getServerPort(), request.getRequestURI(), request.getQueryString(),
+                        request.getRemoteAddr());
+                }
                 servletTransactionHelper.onAfter(transaction, t, response.isCommitted(), response.getStatus(), request.getMethod(),
                     parameterMap, request.getServletPath(), request.getPathInfo(), contentTypeHeader);
             }
@@ -112,7 +112,6 @@ public class ServletTransactionHelper {
     public void fillRequestContext(Transaction transaction, String protocol, String method, boolean secure,
                                    String scheme, String serverName, int serverPort, String requestURI, String queryString,
                                    String remoteAddr) {
-
         final Request request = transaction.getContext().getRequest();
         fillRequest(request, protocol, method, secure, scheme, serverName, serverPort, requestURI, queryString, remoteAddr);
     }
@@ -125,16 +124,27 @@ public class ServletTransactionHelper {
         }
     }
 
+    /**
+     * The response of unsampled transactions is only recorded if the request ended with an exception,
+     * so that they don't have to {@linkplain Transaction#getContext() acquire} a context.
+     * Errors which are captured via the API within an unsampled transaction therefore don't contain the request line
+     * and the response status.
+     */
     @VisibleForAdvice
     public void onAfter(Transaction transaction, @Nullable Throwable exception, boolean committed, int status, String method,
                         @Nullable Map<String, String[]> parameterMap, String servletPath, @Nullable String pathInfo, @Nullable String contentTypeHeader) {
         try {
-            fillRequestParameters(transaction, method, parameterMap, contentTypeHeader);
             if(exception != null && status == 200) {
                 // Probably shouldn't be 200 but 5XX, but we are going to miss this...
                 status = 500;
             }
-            fillResponse(transaction.getContext().getResponse(), committed, status);
+            if (transaction.isSampled()) {
+                fillRequestParameters(transaction, method, parameterMap, contentTypeHeader);
+            }
+            if (transaction.isSampled() || exception != null) {
+                // the error of an unsampled transaction still needs the response status
+                fillResponse(transaction.getContext().getResponse(), committed, status);
+            }
             transaction.withResult(ResultUtil.getResultByHttpStatus(status));
             transaction.withType("request");
             if (transaction.getName().length() == 0) {
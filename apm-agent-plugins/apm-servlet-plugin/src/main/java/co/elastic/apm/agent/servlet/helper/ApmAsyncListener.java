@@ -146,8 +146,8 @@ public class ApmAsyncListener implements AsyncListener, Recyclable {
             request.removeAttribute(TRANSACTION_ATTRIBUTE);
 
             HttpServletResponse response = (HttpServletResponse) event.getSuppliedResponse();
-            final Response resp = transaction.getContext().getResponse();
             if (transaction.isSampled() && servletTransactionHelper.isCaptureHeaders()) {
+                final Response resp = transaction.getContext().getResponse();
                 for (String headerName : response.getHeaderNames()) {
                     resp.addHeader(headerName, response.getHeaders(headerName));
                 }
@@ -165,6 +165,12 @@ public class ApmAsyncListener implements AsyncListener, Recyclable {
             if (throwableToSend == null) {
                 throwableToSend = throwable;
             }
+            if (!transaction.isSampled() && throwableToSend != null) {
+                // unsampled transactions only record the request line for the error they are about to report
+                servletTransactionHelper.fillRequestContext(transaction, request.getProtocol(), request.getMethod(), request.isSecure(),
+                    request.getScheme(), request.getServerName(), request.getServerPort(), request.getRequestURI(), request.getQueryString(),
+                    request.getRemoteAddr());
+            }
             servletTransactionHelper.onAfter(transaction, throwableToSend,
                 response.isCommitted(), response.getStatus(), request.getMethod(), parameterMap,
                 request.getServletPath(), request.getPathInfo(), contentTypeHeader);
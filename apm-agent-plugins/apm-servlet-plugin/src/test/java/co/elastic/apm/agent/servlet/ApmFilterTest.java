@@ -24,6 +24,7 @@ import co.elastic.apm.agent.configuration.CoreConfiguration;
 import co.elastic.apm.agent.impl.context.Request;
 import co.elastic.apm.agent.impl.context.Response;
 import co.elastic.apm.agent.impl.context.Url;
+import co.elastic.apm.agent.impl.transaction.TraceContext;
 import co.elastic.apm.agent.matcher.WildcardMatcher;
 import co.elastic.apm.agent.util.PotentiallyMultiValuedMap;
 import co.elastic.apm.agent.web.WebConfiguration;
@@ -211,6 +212,44 @@ class ApmFilterTest extends AbstractInstrumentationTest {
         assertThat(reporter.getFirstError().getTraceContext().isChildOf(reporter.getFirstTransaction().getTraceContext())).isTrue();
     }
 
+    @Test
+    void testExceptionCapturingOfUnsampledTransactionShouldContainRequestLine() throws IOException, ServletException {
+        filterChain = new MockFilterChain(new HttpServlet() {
+            @Override
+            protected void doGet(HttpServletRequest req, HttpServletResponse resp) throws ServletException {
+                throw new ServletException("Bazinga");
+            }
+        });
+
+        final MockHttpServletRequest request = new MockHttpServletRequest("GET", "/foo");
+        request.setQueryString("foo=bar");
+        request.addHeader("foo", "bar");
+        request.setCookies(new Cookie("foo", "bar"));
+        request.addHeader(TraceContext.TRACE_PARENT_HEADER, "00-0af7651916cd43dd8448eb211c80319c-b9c7c989f97918e1-00");
+        assertThatThrownBy(() -> filterChain.doFilter(request, new MockHttpServletResponse()))
+            .isInstanceOf(ServletException.class);
+        assertThat(reporter.getTransactions()).hasSize(1);
+        assertThat(reporter.getFirstTransaction().isSampled()).isFalse();
+        assertThat(reporter.getErrors()).hasSize(1);
+        final Request errorRequest = reporter.getFirstError().getContext().getRequest();
+        assertThat(errorRequest.getMethod()).isEqualTo("GET");
+        assertThat(errorRequest.getUrl().getFull().toString()).isEqualTo("http://localhost/foo?foo=bar");
+        assertThat(errorRequest.getSocket().getRemoteAddress()).isEqualTo("127.0.0.1");
+        assertThat(errorRequest.getHeaders().isEmpty()).isTrue();
+        assertThat(errorRequest.getCookies().isEmpty()).isTrue();
+        assertThat(reporter.getFirstError().getContext().getResponse().getStatusCode()).isEqualTo(500);
+    }
+
+    @Test
+    void testUnsampledTransactionWithoutExceptionDoesNotAcquireContext() throws IOException, ServletException {
+        final MockHttpServletRequest request = new MockHttpServletRequest("GET", "/foo");
+        request.addHeader(TraceContext.TRACE_PARENT_HEADER, "00-0af7651916cd43dd8448eb211c80319c-b9c7c989f97918e1-00");
+        filterChain.doFilter(request, new MockHttpServletResponse());
+        assertThat(reporter.getTransactions()).hasSize(1);
+        assertThat(reporter.getFirstTransaction().isSampled()).isFalse();
+        assertThat(reporter.getFirstTransaction().hasContext()).isFalse();
+    }
+
     @Test
     void testExceptionCapturingShouldContainUserInformationRecordedOnTheTransaction() throws IOException, ServletException {
         filterChain = new MockFilterChain(new HttpServlet() {
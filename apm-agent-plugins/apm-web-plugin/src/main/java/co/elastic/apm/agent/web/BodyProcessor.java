@@ -47,7 +47,9 @@ public class BodyProcessor implements Processor {
 
     @Override
     public void processBeforeReport(Transaction transaction) {
-        redactBodyIfNecessary(transaction.getContext(), TRANSACTIONS);
+        if (transaction.hasContext()) {
+            redactBodyIfNecessary(transaction.getContext(), TRANSACTIONS);
+        }
     }
 
     @Override
@@ -47,7 +47,9 @@ public class SanitizingWebProcessor implements Processor {
 
     @Override
     public void processBeforeReport(Transaction transaction) {
-        sanitizeContext(transaction.getContext());
+        if (transaction.hasContext()) {
+            sanitizeContext(transaction.getContext());
+        }
     }
 
     @Override
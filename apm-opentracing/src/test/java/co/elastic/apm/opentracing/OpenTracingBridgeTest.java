@@ -313,9 +313,8 @@ class OpenTracingBridgeTest extends AbstractInstrumentationTest {
             .startActive(true)) {
         }
         assertThat(reporter.getTransactions()).hasSize(1);
-        assertThat(reporter.getFirstTransaction().getContext().getTags())
-            .containsEntry("number", "1")
-            .containsEntry("boolean", "true");
+        assertThat(reporter.getFirstTransaction().getContext().getTags().get("number")).isEqualTo("1");
+        assertThat(reporter.getFirstTransaction().getContext().getTags().get("boolean")).isEqualTo("true");
     }
 
     @Test
@@ -328,7 +327,7 @@ class OpenTracingBridgeTest extends AbstractInstrumentationTest {
             }
         }
         assertThat(reporter.getTransactions()).hasSize(1);
-        assertThat(reporter.getFirstTransaction().getContext().getTags()).isEmpty();
+        assertThat(reporter.getFirstTransaction().getContext().getTags().isEmpty()).isTrue();
         assertThat(reporter.getSpans()).isEmpty();
     }
 
@@ -400,8 +399,8 @@ class OpenTracingBridgeTest extends AbstractInstrumentationTest {
         }
         assertThat(reporter.getTransactions()).hasSize(1);
         assertThat(reporter.getSpans()).hasSize(1);
-        assertThat(reporter.getFirstTransaction().getContext().getTags()).containsEntry("foo", "bar");
-        assertThat(reporter.getFirstSpan().getContext().getTags()).containsEntry("bar", "baz");
+        assertThat(reporter.getFirstTransaction().getContext().getTags().get("foo")).isEqualTo("bar");
+        assertThat(reporter.getFirstSpan().getContext().getTags().get("bar")).isEqualTo("baz");
     }
 
     private Transaction createTransactionFromOtTags(Map<String, String> tags) {